@@ -0,0 +1,255 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The flight recorder events of {@link PipelineEvents}. Compiled for Java 11 apart from the other
+ * sources, and loaded by name only if the JVM has a flight recorder.
+ */
+final class JfrPipelineEvents implements PipelineEvents.Recorder {
+
+  /**
+   * Prefix of the event names.
+   */
+  private static final String PREFIX = "com.andrewensley.sonarteamsnotifier.";
+
+  /**
+   * Constructor, called by name.
+   */
+  JfrPipelineEvents() {
+  }
+
+  /**
+   * Registers the events, if the flight recorder is available.
+   *
+   * @return True if the events are registered.
+   */
+  @Override
+  public boolean register() {
+    if (!FlightRecorder.isAvailable()) {
+      return false;
+    }
+
+    FlightRecorder.register(EnqueueEvent.class);
+    FlightRecorder.register(RenderEvent.class);
+    FlightRecorder.register(SerializeEvent.class);
+    FlightRecorder.register(ConnectionLeaseEvent.class);
+    FlightRecorder.register(HttpExchangeEvent.class);
+    FlightRecorder.register(CompletionEvent.class);
+    return true;
+  }
+
+  /**
+   * Opens a span of a pipeline stage.
+   *
+   * @param stage The stage.
+   *
+   * @return The span. A no-op if the stage's event is not enabled in any recording.
+   */
+  @Override
+  public PipelineEvents.Span begin(PipelineEvents.Stage stage) {
+    PipelineEvent event = event(stage);
+    if (!event.isEnabled()) {
+      return PipelineEvents.Span.NONE;
+    }
+
+    event.begin();
+    return event;
+  }
+
+  /**
+   * Creates the event of a pipeline stage.
+   *
+   * @param stage The stage.
+   *
+   * @return The event.
+   */
+  private static PipelineEvent event(PipelineEvents.Stage stage) {
+    switch (stage) {
+      case ENQUEUE:
+        return new EnqueueEvent();
+      case RENDER:
+        return new RenderEvent();
+      case SERIALIZE:
+        return new SerializeEvent();
+      case CONNECTION_LEASE:
+        return new ConnectionLeaseEvent();
+      case HTTP_EXCHANGE:
+        return new HttpExchangeEvent();
+      default:
+        return new CompletionEvent();
+    }
+  }
+
+  /**
+   * The fields common to the events of the pipeline stages.
+   */
+  @Category({"SonarQube", "Teams Notifier"})
+  @StackTrace(false)
+  abstract static class PipelineEvent extends Event implements PipelineEvents.Span {
+
+    /**
+     * The key of the analyzed project.
+     */
+    @Label("Project Key")
+    String projectKey;
+
+    /**
+     * The host of the hook.
+     */
+    @Label("Hook Host")
+    String host;
+
+    /**
+     * The size of the payload.
+     */
+    @Label("Payload Bytes")
+    @DataAmount
+    long payloadBytes;
+
+    /**
+     * The HTTP status code. 0 if no response was received.
+     */
+    @Label("Status Code")
+    int statusCode;
+
+    /**
+     * Attributes the event to a notification.
+     *
+     * @param notification The notification.
+     *
+     * @return This event.
+     */
+    @Override
+    public PipelineEvents.Span notification(Notification notification) {
+      projectKey = notification.projectKey;
+      host = HostBulkheads.host(notification.hook);
+      payloadBytes = notification.bytes;
+      return this;
+    }
+
+    /**
+     * Sets the key of the analyzed project.
+     *
+     * @param projectKey The project key.
+     *
+     * @return This event.
+     */
+    @Override
+    public PipelineEvents.Span project(String projectKey) {
+      this.projectKey = projectKey;
+      return this;
+    }
+
+    /**
+     * Sets the host posted to.
+     *
+     * @param host The host.
+     *
+     * @return This event.
+     */
+    @Override
+    public PipelineEvents.Span host(String host) {
+      this.host = host;
+      return this;
+    }
+
+    /**
+     * Sets the payload size.
+     *
+     * @param bytes The size, in bytes.
+     *
+     * @return This event.
+     */
+    @Override
+    public PipelineEvents.Span bytes(long bytes) {
+      payloadBytes = bytes;
+      return this;
+    }
+
+    /**
+     * Sets the HTTP status code.
+     *
+     * @param statusCode The status code. 0 if no response was received.
+     *
+     * @return This event.
+     */
+    @Override
+    public PipelineEvents.Span statusCode(int statusCode) {
+      this.statusCode = statusCode;
+      return this;
+    }
+
+    /**
+     * Ends the event, committing it if it passes the recording's thresholds.
+     */
+    @Override
+    public void finish() {
+      end();
+      if (shouldCommit()) {
+        commit();
+      }
+    }
+  }
+
+  /**
+   * Queueing a notification for delivery.
+   */
+  @Name(PREFIX + "Enqueue")
+  @Label("Notification Enqueue")
+  @Description("Queueing a notification for delivery, including the wait for room in the queue")
+  static class EnqueueEvent extends PipelineEvent {
+  }
+
+  /**
+   * Rendering a message or a payload.
+   */
+  @Name(PREFIX + "Render")
+  @Label("Notification Render")
+  @Description("Rendering the message of an analysis, or its payload in one format")
+  static class RenderEvent extends PipelineEvent {
+  }
+
+  /**
+   * Serializing a payload.
+   */
+  @Name(PREFIX + "Serialize")
+  @Label("Payload Serialize")
+  @Description("Serializing a payload to the bytes posted")
+  static class SerializeEvent extends PipelineEvent {
+  }
+
+  /**
+   * Leasing a pooled connection.
+   */
+  @Name(PREFIX + "ConnectionLease")
+  @Label("Connection Lease")
+  @Description("Waiting for a pooled connection to the hook's host")
+  static class ConnectionLeaseEvent extends PipelineEvent {
+  }
+
+  /**
+   * Posting to a hook.
+   */
+  @Name(PREFIX + "HttpExchange")
+  @Label("HTTP Exchange")
+  @Description("Posting to a hook and reading its response")
+  static class HttpExchangeEvent extends PipelineEvent {
+  }
+
+  /**
+   * Delivering a notification.
+   */
+  @Name(PREFIX + "Completion")
+  @Label("Notification Completion")
+  @Description("Delivering a notification, from leaving the queue to the recorded outcome")
+  static class CompletionEvent extends PipelineEvent {
+  }
+}
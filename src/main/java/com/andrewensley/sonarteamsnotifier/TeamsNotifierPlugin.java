@@ -1,6 +1,16 @@
 package com.andrewensley.sonarteamsnotifier;
 
 import com.andrewensley.sonarteamsnotifier.domain.Constants;
+import com.andrewensley.sonarteamsnotifier.extension.ClusterCoordinator;
+import com.andrewensley.sonarteamsnotifier.extension.DeliveryAudit;
+import com.andrewensley.sonarteamsnotifier.extension.IssueEnricher;
+import com.andrewensley.sonarteamsnotifier.extension.MeasureHistory;
+import com.andrewensley.sonarteamsnotifier.extension.MetricCatalog;
+import com.andrewensley.sonarteamsnotifier.extension.NotificationDispatcher;
+import com.andrewensley.sonarteamsnotifier.extension.NotificationSender;
+import com.andrewensley.sonarteamsnotifier.extension.PullRequestDebouncer;
+import com.andrewensley.sonarteamsnotifier.extension.SummaryReports;
+import com.andrewensley.sonarteamsnotifier.extension.TeamsNotifierWebService;
 import com.andrewensley.sonarteamsnotifier.extension.TeamsPostProjectAnalysisTask;
 import com.andrewensley.sonarteamsnotifier.extension.TeamsSensor;
 
@@ -32,7 +42,17 @@ public class TeamsNotifierPlugin implements Plugin {
     List<Object> extensions = pluginPropertyDefinitions();
 
     extensions.add(TeamsSensor.class);
+    extensions.add(NotificationSender.class);
+    extensions.add(DeliveryAudit.class);
+    extensions.add(NotificationDispatcher.class);
+    extensions.add(ClusterCoordinator.class);
+    extensions.add(MeasureHistory.class);
+    extensions.add(SummaryReports.class);
+    extensions.add(MetricCatalog.class);
+    extensions.add(IssueEnricher.class);
+    extensions.add(PullRequestDebouncer.class);
     extensions.add(TeamsPostProjectAnalysisTask.class);
+    extensions.add(TeamsNotifierWebService.class);
 
     context.addExtensions(extensions);
   }
@@ -62,6 +82,151 @@ public class TeamsNotifierPlugin implements Plugin {
     extensions.add(getProperty(Constants.PROXY_PASS, "Proxy Password",
         "Password for proxy authentication",
         "", PropertyType.PASSWORD));
+    extensions.add(getProperty(Constants.BOT_TOKEN, "Webex Bot Token",
+        "Access token of the Webex bot posting to hooks on the Webex Messages API, e.g."
+        + " https://webexapis.com/v1/messages?room=My%20Room",
+        "", PropertyType.PASSWORD));
+    extensions.add(getProperty(Constants.BOT_API_URL, "Webex API URL",
+        "Base URL of the Webex API the bot posts through",
+        "https://webexapis.com/v1", PropertyType.STRING));
+    extensions.add(getProperty(Constants.BOT_ROOM_TTL, "Webex Room Cache TTL",
+        "Seconds the IDs of the bot's rooms are cached for. They are listed again in the"
+        + " background after half this time",
+        "3600", PropertyType.INTEGER));
+    extensions.add(getProperty(Constants.CLUSTER_DIR, "Cluster Directory",
+        "Directory shared by all Compute Engine nodes. When set, each hook is owned and delivered"
+        + " by a single node, with ownership failing over when that node stops",
+        "", PropertyType.STRING));
+    extensions.add(getProperty(Constants.CLUSTER_POLL_INTERVAL, "Cluster Poll Interval",
+        "Milliseconds between polls of the cluster directory for spooled notifications and"
+        + " orphaned hooks",
+        "2000", PropertyType.INTEGER));
+    extensions.add(getProperty(Constants.HISTORY_SIZE, "Trend History Size",
+        "Number of past values kept per quality gate condition to render trends. 0 disables trends",
+        "5", PropertyType.INTEGER));
+    extensions.add(getProperty(Constants.HISTORY_MAX_PROJECTS, "Trend History Memory Limit",
+        "Number of project branches whose trend history is kept in memory. Colder ones are moved"
+        + " to the trend history directory",
+        "1000", PropertyType.INTEGER));
+    extensions.add(getProperty(Constants.HISTORY_DIR, "Trend History Directory",
+        "Directory trend history is moved to when evicted from memory. Defaults to"
+        + " teams-notifier/history in the SonarQube data directory",
+        "", PropertyType.STRING));
+    extensions.add(getProperty(Constants.TRANSPORT, "Transport",
+        "How notifications are delivered: 'http' posts to the webhook, 'file' appends them to the"
+        + " transport file and 'memory' only keeps them in memory. Use 'file' or 'memory' for"
+        + " dry runs",
+        "http", PropertyType.STRING));
+    extensions.add(getProperty(Constants.TRANSPORT_FILE, "Transport File",
+        "NDJSON file written by the 'file' transport. Defaults to"
+        + " teams-notifier/notifications.ndjson in the SonarQube data directory",
+        "", PropertyType.STRING));
+    extensions.add(getProperty(Constants.WARMUP, "Warm Up Connections",
+        "Open connections to the warm-up hosts and recently used hook hosts when the Compute"
+        + " Engine starts, so the first notifications are as fast as the next ones",
+        "false", PropertyType.BOOLEAN));
+    extensions.add(getProperty(Constants.WARMUP_HOSTS, "Warm Up Hosts",
+        "Comma-separated hook hosts or URLs to warm up in addition to recently used ones,"
+        + " e.g. webexapis.com",
+        "", PropertyType.STRING));
+    extensions.add(getProperty(Constants.DNS_TTL, "DNS Cache TTL",
+        "Seconds hook and proxy host addresses are cached for. They are refreshed in the"
+        + " background before expiring, and kept if the refresh fails. 0 disables the cache",
+        "300", PropertyType.INTEGER));
+    extensions.add(getProperty(Constants.DNS_NEGATIVE_TTL, "DNS Cache Negative TTL",
+        "Seconds a failed host lookup is cached for",
+        "10", PropertyType.INTEGER));
+    extensions.add(getProperty(Constants.KEEP_ALIVE_MAX, "Keep-Alive Maximum",
+        "Maximum seconds an idle connection is kept for reuse, even if the server allows longer."
+        + " Connections are kept as long as the server's Keep-Alive header allows, up to this"
+        + " maximum. 0 closes connections after each post",
+        "30", PropertyType.INTEGER));
+    extensions.add(getProperty(Constants.IDLE_TIMEOUT, "Idle Connection Timeout",
+        "Seconds after which idle connections are closed in the background. 0 keeps them until"
+        + " their keep-alive expires",
+        "30", PropertyType.INTEGER));
+    extensions.add(getProperty(Constants.QUEUE_CAPACITY, "Queue Capacity",
+        "Maximum number of notifications waiting for delivery. 0 delivers notifications"
+        + " synchronously, without a queue",
+        "1000", PropertyType.INTEGER));
+    extensions.add(getProperty(Constants.QUEUE_MAX_BYTES, "Queue Maximum Bytes",
+        "Maximum total size of the messages waiting for delivery, in bytes",
+        "16777216", PropertyType.INTEGER));
+    extensions.add(getProperty(Constants.QUEUE_POLICY, "Queue Overflow Policy",
+        "What to do with a new notification when the queue is full: 'block' waits for room up to"
+        + " the block timeout, 'drop_oldest' drops the oldest notification, 'drop_passing' drops"
+        + " passing quality gate notifications first and 'spill' writes notifications to disk",
+        "block", PropertyType.STRING));
+    extensions.add(getProperty(Constants.QUEUE_BLOCK_TIMEOUT, "Queue Block Timeout",
+        "Milliseconds to wait for room under the 'block' policy before rejecting the notification",
+        "30000", PropertyType.INTEGER));
+    extensions.add(getProperty(Constants.QUEUE_SUPERSEDE, "Supersede Queued Notifications",
+        "Whether a notification replaces the undelivered one of the same hook, project and branch"
+        + " in the queue, so only the latest result of each branch is posted",
+        "false", PropertyType.BOOLEAN));
+    extensions.add(getProperty(Constants.QUEUE_SUPERSEDE_NOTE, "Superseded Results Note",
+        "Whether a notification that replaced queued ones notes how many earlier results it"
+        + " superseded",
+        "true", PropertyType.BOOLEAN));
+    extensions.add(getProperty(Constants.DELIVERY_THREADS, "Delivery Threads",
+        "Number of threads delivering queued notifications",
+        "4", PropertyType.INTEGER));
+    extensions.add(getProperty(Constants.HOST_CONCURRENCY, "Host Concurrency",
+        "Initial number of concurrent posts to a single host, so a slow host cannot take every"
+        + " delivery thread. 0 for no limit",
+        "2", PropertyType.INTEGER));
+    extensions.add(getProperty(Constants.HOST_CONCURRENCY_MAX, "Host Concurrency Maximum",
+        "Maximum the concurrency limit of a healthy host grows to. It is halved on throttling,"
+        + " gateway errors, timeouts or rising latency. Lowered to one less than the delivery"
+        + " threads if above. Not above the initial concurrency for a fixed limit",
+        "8", PropertyType.INTEGER));
+    extensions.add(getProperty(Constants.PR_DEBOUNCE, "Pull Request Debounce",
+        "Seconds the notification of a pull request analysis is held for, and replaced by the"
+        + " next analysis of the same pull request, so only settled results are posted. Held"
+        + " at most five times as long if the pull request keeps being analyzed. 0 disables it",
+        "0", PropertyType.INTEGER));
+    extensions.add(getProperty(Constants.ISSUES_TOP, "New Issues Listed",
+        "Number of new blocker and critical issues listed in notifications of failing quality"
+        + " gates. 0 disables the listing",
+        "0", PropertyType.INTEGER));
+    extensions.add(getProperty(Constants.ISSUES_BUDGET, "New Issues Time Budget",
+        "Milliseconds the new issues are searched for. Past it, the notification is sent without"
+        + " them",
+        "2000", PropertyType.INTEGER));
+    extensions.add(getProperty(Constants.ISSUES_API_URL, "New Issues Web API URL",
+        "Base URL of the SonarQube web API the new issues are searched through. Defaults to"
+        + " this server, on sonar.web.host or localhost",
+        "", PropertyType.STRING));
+    extensions.add(getProperty(Constants.ISSUES_TOKEN, "New Issues Web API Token",
+        "Token of a user allowed to browse the analyzed projects, used to search their new"
+        + " issues. Required to list new issues",
+        "", PropertyType.PASSWORD));
+    extensions.add(getProperty(Constants.SUMMARY_TIME, "Summary Time",
+        "Time of day (HH:mm, server time zone) a quality gate summary is posted to every hook"
+        + " notified since the previous summary. Leave empty to disable summaries",
+        "", PropertyType.STRING));
+    extensions.add(getProperty(Constants.SUMMARY_DAY, "Summary Day",
+        "Day of the week (e.g. MONDAY) summaries are posted on. Leave empty for daily summaries",
+        "", PropertyType.STRING));
+    extensions.add(getProperty(Constants.SUMMARY_TOP, "Summary Top Projects",
+        "Number of most failing projects listed in summaries",
+        "5", PropertyType.INTEGER));
+    extensions.add(getProperty(Constants.AUDIT_ENABLED, "Delivery Audit Log",
+        "Whether to record every delivery attempt in an NDJSON audit log",
+        "true", PropertyType.BOOLEAN));
+    extensions.add(getProperty(Constants.AUDIT_DIR, "Delivery Audit Log Directory",
+        "Directory of the audit log. Defaults to teams-notifier/audit in the SonarQube data"
+        + " directory",
+        "", PropertyType.STRING));
+    extensions.add(getProperty(Constants.AUDIT_MAX_SIZE, "Delivery Audit Log Maximum Size",
+        "Size in bytes after which the audit log is compressed and a new one is started",
+        "10485760", PropertyType.INTEGER));
+    extensions.add(getProperty(Constants.AUDIT_MAX_AGE, "Delivery Audit Log Maximum Age",
+        "Hours after which the audit log is compressed and a new one is started",
+        "24", PropertyType.INTEGER));
+    extensions.add(getProperty(Constants.AUDIT_MAX_FILES, "Delivery Audit Log Files",
+        "Number of compressed audit logs kept",
+        "10", PropertyType.INTEGER));
     return extensions;
   }
 
@@ -45,6 +45,41 @@ public class Constants {
    */
   public static final String COMMIT_URL = "sonar.teams.commit_url";
 
+  /**
+   * The name of the notification filter property, supplied to sonar-scanner.
+   */
+  public static final String FILTER = "sonar.teams.filter";
+
+  /**
+   * The name of the resolved hook property, precomputed by the scanner.
+   */
+  public static final String RESOLVED_HOOK = "sonar.teams.precomputed.hook";
+
+  /**
+   * The name of the resolved fail-only property, precomputed by the scanner.
+   */
+  public static final String RESOLVED_FAIL_ONLY = "sonar.teams.precomputed.fail_only";
+
+  /**
+   * The name of the escaped commit link property, precomputed by the scanner.
+   */
+  public static final String COMMIT_LINK = "sonar.teams.precomputed.commit_link";
+
+  /**
+   * The name of the author mention property, precomputed by the scanner.
+   */
+  public static final String AUTHOR_MENTION = "sonar.teams.precomputed.author_mention";
+
+  /**
+   * The name of the encoded branch parameter property, precomputed by the scanner.
+   */
+  public static final String BRANCH_PARAM = "sonar.teams.precomputed.branch_param";
+
+  /**
+   * The name of the branch name scanner property.
+   */
+  public static final String SONAR_BRANCH_NAME = "sonar.branch.name";
+
   /**
    * The name of the bypass HTTPS validation property.
    */
@@ -70,6 +105,196 @@ public class Constants {
    */
   public static final String PROXY_PASS = "sonar.teams.proxy_pass";
 
+  /**
+   * The name of the cluster shared directory property.
+   */
+  public static final String CLUSTER_DIR = "sonar.teams.cluster_dir";
+
+  /**
+   * The name of the cluster poll interval property.
+   */
+  public static final String CLUSTER_POLL_INTERVAL = "sonar.teams.cluster_poll_interval";
+
+  /**
+   * The name of the trend history size property.
+   */
+  public static final String HISTORY_SIZE = "sonar.teams.history_size";
+
+  /**
+   * The name of the trend history in-memory project limit property.
+   */
+  public static final String HISTORY_MAX_PROJECTS = "sonar.teams.history_max_projects";
+
+  /**
+   * The name of the trend history directory property.
+   */
+  public static final String HISTORY_DIR = "sonar.teams.history_dir";
+
+  /**
+   * The name of the transport property.
+   */
+  public static final String TRANSPORT = "sonar.teams.transport";
+
+  /**
+   * The name of the file transport sink file property.
+   */
+  public static final String TRANSPORT_FILE = "sonar.teams.transport_file";
+
+  /**
+   * The name of the connection warm-up property.
+   */
+  public static final String WARMUP = "sonar.teams.warmup";
+
+  /**
+   * The name of the connection warm-up hosts property.
+   */
+  public static final String WARMUP_HOSTS = "sonar.teams.warmup_hosts";
+
+  /**
+   * The name of the DNS cache TTL property.
+   */
+  public static final String DNS_TTL = "sonar.teams.dns_ttl";
+
+  /**
+   * The name of the DNS cache negative TTL property.
+   */
+  public static final String DNS_NEGATIVE_TTL = "sonar.teams.dns_negative_ttl";
+
+  /**
+   * The name of the connection keep-alive maximum property.
+   */
+  public static final String KEEP_ALIVE_MAX = "sonar.teams.keep_alive_max";
+
+  /**
+   * The name of the idle connection timeout property.
+   */
+  public static final String IDLE_TIMEOUT = "sonar.teams.idle_timeout";
+
+  /**
+   * The name of the notification queue capacity property.
+   */
+  public static final String QUEUE_CAPACITY = "sonar.teams.queue_capacity";
+
+  /**
+   * The name of the notification queue maximum bytes property.
+   */
+  public static final String QUEUE_MAX_BYTES = "sonar.teams.queue_max_bytes";
+
+  /**
+   * The name of the notification queue overflow policy property.
+   */
+  public static final String QUEUE_POLICY = "sonar.teams.queue_policy";
+
+  /**
+   * The name of the notification queue block timeout property.
+   */
+  public static final String QUEUE_BLOCK_TIMEOUT = "sonar.teams.queue_block_timeout";
+
+  /**
+   * The name of the notification queue supersession property.
+   */
+  public static final String QUEUE_SUPERSEDE = "sonar.teams.queue_supersede";
+
+  /**
+   * The name of the notification queue supersession note property.
+   */
+  public static final String QUEUE_SUPERSEDE_NOTE = "sonar.teams.queue_supersede_note";
+
+  /**
+   * The name of the delivery threads property.
+   */
+  public static final String DELIVERY_THREADS = "sonar.teams.delivery_threads";
+
+  /**
+   * The name of the summary time property.
+   */
+  public static final String SUMMARY_TIME = "sonar.teams.summary_time";
+
+  /**
+   * The name of the summary day property.
+   */
+  public static final String SUMMARY_DAY = "sonar.teams.summary_day";
+
+  /**
+   * The name of the summary top projects property.
+   */
+  public static final String SUMMARY_TOP = "sonar.teams.summary_top";
+
+  /**
+   * The name of the audit log enabled property.
+   */
+  public static final String AUDIT_ENABLED = "sonar.teams.audit";
+
+  /**
+   * The name of the audit log directory property.
+   */
+  public static final String AUDIT_DIR = "sonar.teams.audit_dir";
+
+  /**
+   * The name of the audit log maximum file size property.
+   */
+  public static final String AUDIT_MAX_SIZE = "sonar.teams.audit_max_size";
+
+  /**
+   * The name of the audit log maximum file age property.
+   */
+  public static final String AUDIT_MAX_AGE = "sonar.teams.audit_max_age";
+
+  /**
+   * The name of the audit log maximum rolled files property.
+   */
+  public static final String AUDIT_MAX_FILES = "sonar.teams.audit_max_files";
+
+  /**
+   * The name of the per-host delivery concurrency property.
+   */
+  public static final String HOST_CONCURRENCY = "sonar.teams.host_concurrency";
+
+  /**
+   * The name of the maximum adaptive per-host delivery concurrency property.
+   */
+  public static final String HOST_CONCURRENCY_MAX = "sonar.teams.host_concurrency_max";
+
+  /**
+   * The name of the Webex bot token property.
+   */
+  public static final String BOT_TOKEN = "sonar.teams.bot_token";
+
+  /**
+   * The name of the Webex API URL property.
+   */
+  public static final String BOT_API_URL = "sonar.teams.bot_api_url";
+
+  /**
+   * The name of the Webex room ID cache TTL property.
+   */
+  public static final String BOT_ROOM_TTL = "sonar.teams.bot_room_ttl";
+
+  /**
+   * The name of the number of listed new issues property.
+   */
+  public static final String ISSUES_TOP = "sonar.teams.issues_top";
+
+  /**
+   * The name of the new issue search time budget property.
+   */
+  public static final String ISSUES_BUDGET = "sonar.teams.issues_budget";
+
+  /**
+   * The name of the web API URL property of the new issue search.
+   */
+  public static final String ISSUES_API_URL = "sonar.teams.issues_api_url";
+
+  /**
+   * The name of the web API token property of the new issue search.
+   */
+  public static final String ISSUES_TOKEN = "sonar.teams.issues_token";
+
+  /**
+   * The name of the pull request debounce window property.
+   */
+  public static final String PR_DEBOUNCE = "sonar.teams.pr_debounce";
+
   private Constants() {
   }
 }
@@ -0,0 +1,189 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrency limit of one host, adjusted by additive increase and multiplicative decrease.
+ *
+ * <p>Each post the host answers in time raises the limit by one over the current limit, so the
+ * limit grows by about one per round of posts, as long as the host is busy enough to use it.
+ * Throttling (HTTP 429), gateway errors, timeouts and latency rising well above the host's usual
+ * latency halve it. Only posts started after the last decrease can lower it again, so a burst of
+ * failures from posts that were already in flight counts once.
+ *
+ * <p>Not thread safe: callers synchronize.
+ */
+class AdaptiveLimit {
+
+  /**
+   * Factor the limit is multiplied by on congestion.
+   */
+  private static final double DECREASE_FACTOR = 0.5;
+
+  /**
+   * Weight of each latency sample in the recent latency average.
+   */
+  private static final double RECENT_WEIGHT = 0.25;
+
+  /**
+   * Weight of each slower sample in the baseline latency, which follows increases slowly.
+   */
+  private static final double BASELINE_WEIGHT = 0.01;
+
+  /**
+   * Ratio of the recent to the baseline latency above which the host is considered congested.
+   */
+  private static final double LATENCY_TOLERANCE = 2.0;
+
+  /**
+   * Latency increase that is never considered congestion, however low the baseline.
+   */
+  private static final long MIN_LATENCY_INCREASE = TimeUnit.MILLISECONDS.toNanos(250);
+
+  /**
+   * The lowest limit.
+   */
+  private final int min;
+
+  /**
+   * The highest limit.
+   */
+  private final int max;
+
+  /**
+   * The current limit, with its fractional part.
+   */
+  private double limit;
+
+  /**
+   * The host's usual latency, in nanoseconds. 0 until the first sample.
+   */
+  private double baselineLatency;
+
+  /**
+   * The host's recent latency, in nanoseconds. 0 until the first sample.
+   */
+  private double recentLatency;
+
+  /**
+   * Time of the last decrease, in nanoseconds. Posts started before it cannot decrease the limit.
+   */
+  private long lastDecrease = System.nanoTime();
+
+  /**
+   * Constructor.
+   *
+   * @param initial The initial limit.
+   * @param max     The highest limit. The limit is fixed if it is not above the initial one.
+   */
+  AdaptiveLimit(int initial, int max) {
+    this.limit = Math.max(1, initial);
+    this.max = Math.max((int) limit, max);
+    this.min = this.max == (int) limit ? (int) limit : 1;
+  }
+
+  /**
+   * Gets the current limit.
+   *
+   * @return The number of concurrent posts allowed.
+   */
+  int get() {
+    return (int) limit;
+  }
+
+  /**
+   * Checks if the limit adapts to the host.
+   *
+   * @return True if it does. False if it is fixed.
+   */
+  boolean isAdaptive() {
+    return min < max;
+  }
+
+  /**
+   * Adjusts the limit after a post.
+   *
+   * @param start      Time the post started at, in nanoseconds.
+   * @param latency    Duration of the post, in nanoseconds.
+   * @param success    Whether the post succeeded.
+   * @param statusCode The HTTP status code. 0 if no response was received.
+   * @param limited    Whether the host was using its whole limit, so it may need more.
+   *
+   * @return True if the limit was decreased.
+   */
+  boolean record(long start, long latency, boolean success, int statusCode, boolean limited) {
+    if (!isAdaptive()) {
+      return false;
+    }
+
+    if (isCongestion(success, statusCode)) {
+      return decrease(start);
+    }
+
+    if (!success) {
+      // Rejected by the hook itself, which says nothing about the host's capacity.
+      return false;
+    }
+
+    recentLatency = recentLatency == 0
+        ? latency
+        : recentLatency + (latency - recentLatency) * RECENT_WEIGHT;
+    if (baselineLatency == 0 || latency < baselineLatency) {
+      baselineLatency = latency;
+    } else {
+      baselineLatency += (latency - baselineLatency) * BASELINE_WEIGHT;
+    }
+
+    if (recentLatency > baselineLatency * LATENCY_TOLERANCE
+        && recentLatency - baselineLatency > MIN_LATENCY_INCREASE) {
+      return decrease(start);
+    }
+
+    if (limited) {
+      limit = Math.min(max, limit + 1 / limit);
+    }
+
+    return false;
+  }
+
+  /**
+   * Gets the host's recent latency.
+   *
+   * @return The recent latency, in milliseconds.
+   */
+  long recentLatencyMillis() {
+    return TimeUnit.NANOSECONDS.toMillis((long) recentLatency);
+  }
+
+  /**
+   * Checks if a post's outcome shows that the host is overloaded or throttling.
+   *
+   * @param success    Whether the post succeeded.
+   * @param statusCode The HTTP status code. 0 if no response was received.
+   *
+   * @return True on throttling, gateway errors and timeouts.
+   */
+  private static boolean isCongestion(boolean success, int statusCode) {
+    return !success && statusCode == 0
+        || statusCode == 429 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+  }
+
+  /**
+   * Halves the limit, unless the post started before the last decrease.
+   *
+   * @param start Time the post started at, in nanoseconds.
+   *
+   * @return True if the limit was decreased.
+   */
+  private boolean decrease(long start) {
+    if (start - lastDecrease < 0) {
+      return false;
+    }
+
+    lastDecrease = System.nanoTime();
+    limit = Math.max(min, limit * DECREASE_FACTOR);
+    // Start measuring the host's latency afresh at the new limit.
+    recentLatency = baselineLatency;
+    return true;
+  }
+}
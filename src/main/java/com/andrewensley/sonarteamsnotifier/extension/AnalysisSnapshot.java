@@ -0,0 +1,668 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import org.sonar.api.ce.posttask.Branch;
+import org.sonar.api.ce.posttask.PostProjectAnalysisTask.ProjectAnalysis;
+import org.sonar.api.ce.posttask.QualityGate;
+import org.sonar.api.ce.posttask.QualityGate.Condition;
+import org.sonar.api.ce.posttask.QualityGate.EvaluationStatus;
+import org.sonar.api.ce.posttask.QualityGate.Operator;
+
+/**
+ * Compact, immutable copy of the parts of a project analysis that notifications are built from.
+ *
+ * <p>It is captured once when the analysis finishes, so no framework object is kept alive while
+ * a notification is filtered, rendered, queued or persisted. Conditions are stored as parallel
+ * arrays, with enums as ordinals, and exposed as lightweight {@link Condition} views.
+ */
+final class AnalysisSnapshot {
+
+  /**
+   * Version of the binary form.
+   */
+  private static final byte VERSION = 1;
+
+  /**
+   * Ordinal stored for a missing enum value.
+   */
+  private static final byte NONE = -1;
+
+  /**
+   * Estimated size of an object header, in bytes, with compressed class pointers.
+   */
+  private static final int HEADER = 12;
+
+  /**
+   * Estimated size of a reference, in bytes, with compressed oops.
+   */
+  private static final int REFERENCE = 4;
+
+  /**
+   * The project key.
+   */
+  private final String projectKey;
+
+  /**
+   * The project display name.
+   */
+  private final String projectName;
+
+  /**
+   * The branch name. Empty if the analysis has no branch information.
+   */
+  private final String branchName;
+
+  /**
+   * Whether the analysis is of the main branch, or has no branch information.
+   */
+  private final boolean mainBranch;
+
+  /**
+   * Ordinal of the branch type. {@link #NONE} if unknown.
+   */
+  private final byte branchType;
+
+  /**
+   * The SCM revision. Empty if unknown.
+   */
+  private final String revision;
+
+  /**
+   * The analysis date, in milliseconds since the epoch.
+   */
+  private final long date;
+
+  /**
+   * The quality gate name. Null if there is no quality gate.
+   */
+  private final String gateName;
+
+  /**
+   * Ordinal of the quality gate status. {@link #NONE} if there is no quality gate.
+   */
+  private final byte gateStatus;
+
+  /**
+   * Metric key of each condition.
+   */
+  private final String[] metricKeys;
+
+  /**
+   * Ordinal of each condition's evaluation status.
+   */
+  private final byte[] statuses;
+
+  /**
+   * Ordinal of each condition's operator.
+   */
+  private final byte[] operators;
+
+  /**
+   * Value of each condition. Null entries for conditions without value.
+   */
+  private final String[] values;
+
+  /**
+   * Error threshold of each condition. Null entries for conditions without one.
+   */
+  private final String[] errorThresholds;
+
+  /**
+   * Warning threshold of each condition. Null entries for conditions without one.
+   */
+  private final String[] warningThresholds;
+
+  /**
+   * Constructor.
+   *
+   * @param projectKey        The project key.
+   * @param projectName       The project display name.
+   * @param branchName        The branch name.
+   * @param mainBranch        Whether the analysis is of the main branch.
+   * @param branchType        Ordinal of the branch type.
+   * @param revision          The SCM revision.
+   * @param date              The analysis date.
+   * @param gateName          The quality gate name.
+   * @param gateStatus        Ordinal of the quality gate status.
+   * @param metricKeys        Metric key of each condition.
+   * @param statuses          Ordinal of each condition's evaluation status.
+   * @param operators         Ordinal of each condition's operator.
+   * @param values            Value of each condition.
+   * @param errorThresholds   Error threshold of each condition.
+   * @param warningThresholds Warning threshold of each condition.
+   */
+  private AnalysisSnapshot(
+      String projectKey,
+      String projectName,
+      String branchName,
+      boolean mainBranch,
+      byte branchType,
+      String revision,
+      long date,
+      String gateName,
+      byte gateStatus,
+      String[] metricKeys,
+      byte[] statuses,
+      byte[] operators,
+      String[] values,
+      String[] errorThresholds,
+      String[] warningThresholds
+  ) {
+    this.projectKey = projectKey;
+    this.projectName = projectName;
+    this.branchName = branchName;
+    this.mainBranch = mainBranch;
+    this.branchType = branchType;
+    this.revision = revision;
+    this.date = date;
+    this.gateName = gateName;
+    this.gateStatus = gateStatus;
+    this.metricKeys = metricKeys;
+    this.statuses = statuses;
+    this.operators = operators;
+    this.values = values;
+    this.errorThresholds = errorThresholds;
+    this.warningThresholds = warningThresholds;
+  }
+
+  /**
+   * Captures a snapshot of a project analysis.
+   *
+   * @param analysis Project Analysis object.
+   *
+   * @return The snapshot.
+   */
+  @SuppressWarnings("deprecation")
+  static AnalysisSnapshot of(ProjectAnalysis analysis) {
+    Optional<Branch> branch = analysis.getBranch();
+    QualityGate qualityGate = analysis.getQualityGate();
+    Date date = analysis.getDate();
+    return capture(
+        analysis.getProject().getKey(),
+        analysis.getProject().getName(),
+        branch.flatMap(Branch::getName).orElse(""),
+        branch.map(Branch::isMain).orElse(true),
+        ordinal(branch.map(Branch::getType).orElse(null)),
+        analysis.getScmRevisionId() == null ? "" : analysis.getScmRevisionId(),
+        date == null ? 0 : date.getTime(),
+        qualityGate == null ? null : qualityGate.getName(),
+        ordinal(qualityGate == null ? null : qualityGate.getStatus()),
+        qualityGate == null ? Collections.<Condition>emptyList() : qualityGate.getConditions()
+    );
+  }
+
+  /**
+   * Captures a snapshot of the latest quality gate status of a project's main branch, as read
+   * from the web API instead of a finished analysis.
+   *
+   * @param projectKey  The project key.
+   * @param projectName The project display name.
+   * @param revision    The SCM revision. Empty if unknown.
+   * @param date        The analysis date.
+   * @param gateName    The quality gate name.
+   * @param gateStatus  The quality gate status.
+   * @param conditions  The quality gate conditions.
+   *
+   * @return The snapshot.
+   */
+  static AnalysisSnapshot ofLatest(
+      String projectKey,
+      String projectName,
+      String revision,
+      Date date,
+      String gateName,
+      QualityGate.Status gateStatus,
+      Collection<Condition> conditions
+  ) {
+    return capture(projectKey, projectName, "", true, NONE, revision, date.getTime(), gateName,
+        ordinal(gateStatus), conditions);
+  }
+
+  /**
+   * Captures a snapshot, copying the conditions into parallel arrays.
+   *
+   * @param projectKey  The project key.
+   * @param projectName The project display name.
+   * @param branchName  The branch name.
+   * @param mainBranch  Whether the analysis is of the main branch.
+   * @param branchType  Ordinal of the branch type.
+   * @param revision    The SCM revision.
+   * @param date        The analysis date.
+   * @param gateName    The quality gate name.
+   * @param gateStatus  Ordinal of the quality gate status.
+   * @param conditions  The quality gate conditions.
+   *
+   * @return The snapshot.
+   */
+  @SuppressWarnings("deprecation")
+  private static AnalysisSnapshot capture(
+      String projectKey,
+      String projectName,
+      String branchName,
+      boolean mainBranch,
+      byte branchType,
+      String revision,
+      long date,
+      String gateName,
+      byte gateStatus,
+      Collection<Condition> conditions
+  ) {
+    int count = conditions.size();
+    String[] metricKeys = new String[count];
+    byte[] statuses = new byte[count];
+    byte[] operators = new byte[count];
+    String[] values = new String[count];
+    String[] errorThresholds = new String[count];
+    String[] warningThresholds = new String[count];
+    int i = 0;
+    for (Condition condition : conditions) {
+      metricKeys[i] = condition.getMetricKey();
+      statuses[i] = ordinal(condition.getStatus());
+      operators[i] = ordinal(condition.getOperator());
+      // The value is only available for conditions that have one.
+      values[i] = EvaluationStatus.NO_VALUE.equals(condition.getStatus())
+          ? null
+          : condition.getValue();
+      errorThresholds[i] = condition.getErrorThreshold();
+      warningThresholds[i] = condition.getWarningThreshold();
+      i++;
+    }
+
+    return new AnalysisSnapshot(
+        projectKey,
+        projectName,
+        branchName,
+        mainBranch,
+        branchType,
+        revision,
+        date,
+        gateName,
+        gateStatus,
+        metricKeys,
+        statuses,
+        operators,
+        values,
+        errorThresholds,
+        warningThresholds
+    );
+  }
+
+  /**
+   * Reads a snapshot from its binary form.
+   *
+   * @param bytes The binary form.
+   *
+   * @return The snapshot.
+   *
+   * @throws IOException If the binary form is invalid.
+   */
+  static AnalysisSnapshot fromBytes(byte[] bytes) throws IOException {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+      if (in.readByte() != VERSION) {
+        throw new IOException("Unsupported analysis snapshot version");
+      }
+
+      String projectKey = in.readUTF();
+      String projectName = in.readUTF();
+      String branchName = in.readUTF();
+      boolean mainBranch = in.readBoolean();
+      byte branchType = in.readByte();
+      String revision = in.readUTF();
+      long date = in.readLong();
+      String gateName = readNullable(in);
+      byte gateStatus = in.readByte();
+      int count = in.readUnsignedShort();
+      String[] metricKeys = new String[count];
+      byte[] statuses = new byte[count];
+      byte[] operators = new byte[count];
+      String[] values = new String[count];
+      String[] errorThresholds = new String[count];
+      String[] warningThresholds = new String[count];
+      for (int i = 0; i < count; i++) {
+        metricKeys[i] = in.readUTF();
+        statuses[i] = in.readByte();
+        operators[i] = in.readByte();
+        values[i] = readNullable(in);
+        errorThresholds[i] = readNullable(in);
+        warningThresholds[i] = readNullable(in);
+      }
+
+      return new AnalysisSnapshot(projectKey, projectName, branchName, mainBranch, branchType,
+          revision, date, gateName, gateStatus, metricKeys, statuses, operators, values,
+          errorThresholds, warningThresholds);
+    }
+  }
+
+  /**
+   * Writes this snapshot in its binary form.
+   *
+   * @return The binary form.
+   */
+  byte[] toBytes() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(128 + 64 * metricKeys.length);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(VERSION);
+      out.writeUTF(projectKey);
+      out.writeUTF(projectName);
+      out.writeUTF(branchName);
+      out.writeBoolean(mainBranch);
+      out.writeByte(branchType);
+      out.writeUTF(revision);
+      out.writeLong(date);
+      writeNullable(out, gateName);
+      out.writeByte(gateStatus);
+      out.writeShort(metricKeys.length);
+      for (int i = 0; i < metricKeys.length; i++) {
+        out.writeUTF(metricKeys[i]);
+        out.writeByte(statuses[i]);
+        out.writeByte(operators[i]);
+        writeNullable(out, values[i]);
+        writeNullable(out, errorThresholds[i]);
+        writeNullable(out, warningThresholds[i]);
+      }
+    } catch (IOException e) {
+      // Writing to memory does not fail.
+      throw new IllegalStateException(e);
+    }
+
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Estimates the memory retained by this snapshot, assuming compressed oops and compact strings.
+   *
+   * @return The estimated size, in bytes.
+   */
+  int footprint() {
+    int size = align(HEADER + 9 * REFERENCE + 8 + 3);
+    size += stringSize(projectKey) + stringSize(projectName) + stringSize(branchName);
+    size += stringSize(revision) + stringSize(gateName);
+    size += 2 * align(HEADER + 4 + metricKeys.length);
+    size += 4 * align(HEADER + 4 + REFERENCE * metricKeys.length);
+    for (int i = 0; i < metricKeys.length; i++) {
+      size += stringSize(metricKeys[i]) + stringSize(values[i]);
+      size += stringSize(errorThresholds[i]) + stringSize(warningThresholds[i]);
+    }
+
+    return size;
+  }
+
+  /**
+   * Gets the project key.
+   *
+   * @return The project key.
+   */
+  String projectKey() {
+    return projectKey;
+  }
+
+  /**
+   * Gets the project display name.
+   *
+   * @return The project name.
+   */
+  String projectName() {
+    return projectName;
+  }
+
+  /**
+   * Gets the name of the analyzed branch, if it is not the main one.
+   *
+   * @return The branch name. Empty for the main branch.
+   */
+  String nonMainBranchName() {
+    return mainBranch ? "" : branchName;
+  }
+
+  /**
+   * Gets the name of the analyzed branch.
+   *
+   * @return The branch name. Empty if the analysis has no branch information.
+   */
+  String branchName() {
+    return branchName;
+  }
+
+  /**
+   * Checks if the analysis is of the main branch.
+   *
+   * @return True if it is, or if the analysis has no branch information.
+   */
+  boolean isMainBranch() {
+    return mainBranch;
+  }
+
+  /**
+   * Gets the type of the analyzed branch.
+   *
+   * @return The branch type, if known.
+   */
+  Optional<Branch.Type> branchType() {
+    return branchType == NONE
+        ? Optional.empty()
+        : Optional.of(Branch.Type.values()[branchType]);
+  }
+
+  /**
+   * Gets the SCM revision.
+   *
+   * @return The revision. Empty if unknown.
+   */
+  String revision() {
+    return revision;
+  }
+
+  /**
+   * Gets the analysis date.
+   *
+   * @return The date.
+   */
+  Date date() {
+    return new Date(date);
+  }
+
+  /**
+   * Checks if the analysis has a quality gate.
+   *
+   * @return True if it has one.
+   */
+  boolean hasQualityGate() {
+    return gateStatus != NONE;
+  }
+
+  /**
+   * Gets the quality gate name.
+   *
+   * @return The name. Null if there is no quality gate.
+   */
+  String gateName() {
+    return gateName;
+  }
+
+  /**
+   * Gets the quality gate status.
+   *
+   * @return The status. Null if there is no quality gate.
+   */
+  QualityGate.Status gateStatus() {
+    return gateStatus == NONE ? null : QualityGate.Status.values()[gateStatus];
+  }
+
+  /**
+   * Checks if the quality gate is set and is OK.
+   *
+   * @return True if the quality gate is OK.
+   */
+  boolean isPassing() {
+    return QualityGate.Status.OK.equals(gateStatus());
+  }
+
+  /**
+   * Gets the quality gate conditions.
+   *
+   * @return Views of the conditions. Empty if there is no quality gate.
+   */
+  List<Condition> conditions() {
+    return new AbstractList<Condition>() {
+      @Override
+      public Condition get(int index) {
+        if (index < 0 || index >= metricKeys.length) {
+          throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+
+        return new ConditionView(index);
+      }
+
+      @Override
+      public int size() {
+        return metricKeys.length;
+      }
+    };
+  }
+
+  /**
+   * Gets the ordinal of an enum value.
+   *
+   * @param value The value. Null if missing.
+   *
+   * @return The ordinal. {@link #NONE} if missing.
+   */
+  private static byte ordinal(Enum<?> value) {
+    return value == null ? NONE : (byte) value.ordinal();
+  }
+
+  /**
+   * Writes a string that may be null.
+   *
+   * @param out   The output.
+   * @param value The string.
+   *
+   * @throws IOException If it could not be written.
+   */
+  private static void writeNullable(DataOutputStream out, String value) throws IOException {
+    out.writeBoolean(value != null);
+    if (value != null) {
+      out.writeUTF(value);
+    }
+  }
+
+  /**
+   * Reads a string that may be null.
+   *
+   * @param in The input.
+   *
+   * @return The string.
+   *
+   * @throws IOException If it could not be read.
+   */
+  private static String readNullable(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  /**
+   * Estimates the memory retained by a string.
+   *
+   * @param value The string. Null counts for nothing.
+   *
+   * @return The estimated size, in bytes.
+   */
+  private static int stringSize(String value) {
+    if (value == null) {
+      return 0;
+    }
+
+    boolean latin1 = value.chars().allMatch(c -> c < 0x100);
+    return align(HEADER + REFERENCE + 4 + 1 + 1)
+        + align(HEADER + 4 + value.length() * (latin1 ? 1 : 2));
+  }
+
+  /**
+   * Aligns a size on 8 bytes, as objects are.
+   *
+   * @param size The size.
+   *
+   * @return The aligned size.
+   */
+  private static int align(int size) {
+    return (size + 7) & ~7;
+  }
+
+  /**
+   * A view of one condition of the snapshot.
+   */
+  private final class ConditionView implements Condition {
+
+    /**
+     * Index of the condition in the snapshot's arrays.
+     */
+    private final int index;
+
+    /**
+     * Constructor.
+     *
+     * @param index Index of the condition in the snapshot's arrays.
+     */
+    ConditionView(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public EvaluationStatus getStatus() {
+      return statuses[index] == NONE ? null : EvaluationStatus.values()[statuses[index]];
+    }
+
+    @Override
+    public String getMetricKey() {
+      return metricKeys[index];
+    }
+
+    @Override
+    public Operator getOperator() {
+      return operators[index] == NONE ? null : Operator.values()[operators[index]];
+    }
+
+    @Override
+    public String getErrorThreshold() {
+      return errorThresholds[index];
+    }
+
+    @Override
+    @Deprecated
+    public String getWarningThreshold() {
+      return warningThresholds[index];
+    }
+
+    @Override
+    @Deprecated
+    public boolean isOnLeakPeriod() {
+      return metricKeys[index].startsWith("new_");
+    }
+
+    /**
+     * Gets the condition's value.
+     *
+     * @return The value.
+     *
+     * @throws IllegalStateException If the condition has no value, like the API's conditions.
+     */
+    @Override
+    public String getValue() {
+      if (values[index] == null) {
+        throw new IllegalStateException("There is no value when status is NO_VALUE");
+      }
+
+      return values[index];
+    }
+  }
+}
@@ -0,0 +1,235 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * DNS resolver caching answers for webhook and proxy hosts.
+ *
+ * <p>Answers are cached for the positive TTL, and failures for the negative TTL. Once an answer is
+ * past 80% of its TTL, it is refreshed in the background while still being served. When a refresh
+ * fails, the stale answer keeps being served and the refresh is retried after the negative TTL.
+ */
+class CachingDnsResolver implements DnsResolver {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Loggers.get(CachingDnsResolver.class);
+
+  /**
+   * Maximum number of cached hosts. The cache is cleared when exceeded.
+   */
+  private static final int MAX_HOSTS = 1000;
+
+  /**
+   * The resolver actually resolving hosts.
+   */
+  private final DnsResolver delegate;
+
+  /**
+   * Time answers are cached for, in milliseconds.
+   */
+  private final long positiveTtl;
+
+  /**
+   * Time failures are cached for, in milliseconds.
+   */
+  private final long negativeTtl;
+
+  /**
+   * Cached answers by host.
+   */
+  private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+  /**
+   * Hosts being refreshed in the background.
+   */
+  private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Executor refreshing answers in the background.
+   */
+  private final ExecutorService refresher = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "teams-notifier-dns");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * Constructor.
+   *
+   * @param positiveTtl Time answers are cached for, in seconds.
+   * @param negativeTtl Time failures are cached for, in seconds.
+   */
+  CachingDnsResolver(int positiveTtl, int negativeTtl) {
+    this(SystemDefaultDnsResolver.INSTANCE, positiveTtl, negativeTtl);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param delegate    The resolver actually resolving hosts.
+   * @param positiveTtl Time answers are cached for, in seconds.
+   * @param negativeTtl Time failures are cached for, in seconds.
+   */
+  CachingDnsResolver(DnsResolver delegate, int positiveTtl, int negativeTtl) {
+    this.delegate = delegate;
+    this.positiveTtl = TimeUnit.SECONDS.toMillis(Math.max(1, positiveTtl));
+    this.negativeTtl = TimeUnit.SECONDS.toMillis(Math.max(1, negativeTtl));
+  }
+
+  /**
+   * Resolves a host.
+   *
+   * @param host The host.
+   *
+   * @return The host's addresses.
+   *
+   * @throws UnknownHostException If the host is unknown and no previous answer is cached.
+   */
+  @Override
+  public InetAddress[] resolve(String host) throws UnknownHostException {
+    long now = System.currentTimeMillis();
+    Entry entry = cache.get(host);
+    if (entry != null && now < entry.expiresAt) {
+      if (entry.addresses == null) {
+        throw new UnknownHostException(host + " (cached)");
+      }
+
+      if (now >= entry.refreshAt) {
+        refreshInBackground(host);
+      }
+
+      return entry.addresses.clone();
+    }
+
+    try {
+      return resolveAndCache(host).clone();
+    } catch (UnknownHostException e) {
+      if (entry != null && entry.addresses != null) {
+        LOG.warn("Unable to resolve [{}]. Using the previous answer.", host);
+        cache.put(host, stale(entry, now));
+        return entry.addresses.clone();
+      }
+
+      cache.put(host, new Entry(null, now + negativeTtl, now + negativeTtl));
+      throw e;
+    }
+  }
+
+  /**
+   * Stops refreshing answers.
+   */
+  void close() {
+    refresher.shutdownNow();
+  }
+
+  /**
+   * Resolves a host and caches the answer.
+   *
+   * @param host The host.
+   *
+   * @return The host's addresses.
+   *
+   * @throws UnknownHostException If the host is unknown.
+   */
+  private InetAddress[] resolveAndCache(String host) throws UnknownHostException {
+    InetAddress[] addresses = delegate.resolve(host);
+    long now = System.currentTimeMillis();
+    if (cache.size() >= MAX_HOSTS) {
+      cache.clear();
+    }
+
+    cache.put(host, new Entry(addresses, now + positiveTtl * 4 / 5, now + positiveTtl));
+    return addresses;
+  }
+
+  /**
+   * Refreshes the answer of a host in the background, unless it is already being refreshed.
+   *
+   * @param host The host.
+   */
+  private void refreshInBackground(String host) {
+    if (!refreshing.add(host)) {
+      return;
+    }
+
+    try {
+      refresher.execute(() -> {
+        try {
+          resolveAndCache(host);
+        } catch (UnknownHostException e) {
+          Entry entry = cache.get(host);
+          if (entry != null && entry.addresses != null) {
+            LOG.warn("Unable to refresh [{}]. Using the previous answer.", host);
+            cache.put(host, stale(entry, System.currentTimeMillis()));
+          }
+        } finally {
+          refreshing.remove(host);
+        }
+      });
+    } catch (RuntimeException e) {
+      refreshing.remove(host);
+      LOG.debug("Unable to schedule DNS refresh of [{}]: {}", host, e.getMessage());
+    }
+  }
+
+  /**
+   * Gets an entry serving a stale answer until it can be refreshed again.
+   *
+   * @param entry The stale entry.
+   * @param now   The current time, in milliseconds.
+   *
+   * @return The entry.
+   */
+  private Entry stale(Entry entry, long now) {
+    long expiresAt = Math.max(entry.expiresAt, now + positiveTtl);
+    return new Entry(entry.addresses, now + negativeTtl, expiresAt);
+  }
+
+  /**
+   * A cached answer.
+   */
+  private static class Entry {
+
+    /**
+     * The addresses. Null if the host is unknown.
+     */
+    final InetAddress[] addresses;
+
+    /**
+     * Time after which the answer is refreshed in the background, in milliseconds.
+     */
+    final long refreshAt;
+
+    /**
+     * Time after which the answer is no longer served, in milliseconds.
+     */
+    final long expiresAt;
+
+    /**
+     * Constructor.
+     *
+     * @param addresses The addresses. Null if the host is unknown.
+     * @param refreshAt Time after which the answer is refreshed in the background.
+     * @param expiresAt Time after which the answer is no longer served.
+     */
+    Entry(InetAddress[] addresses, long refreshAt, long expiresAt) {
+      this.addresses = addresses;
+      this.refreshAt = refreshAt;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
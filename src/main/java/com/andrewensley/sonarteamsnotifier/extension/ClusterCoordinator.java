@@ -0,0 +1,451 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.andrewensley.sonarteamsnotifier.domain.Constants;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.sonar.api.Startable;
+import org.sonar.api.ce.ComputeEngineSide;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Coordinates delivery across multiple Compute Engine nodes sharing a directory.
+ *
+ * <p>Each hook gets its own sub-directory named after a hash of its URL. Any node may spool a
+ * notification there, but only the node holding the file lock on the hook's {@code owner.lock}
+ * delivers it, so everything tracked per hook lives on a single node. The operating system
+ * releases the lock when the owning JVM dies, and the next poll on a surviving node takes over.
+ *
+ * <p>Hook URLs hold a secret token, so they are never written to the shared directory. Spooled
+ * notifications only name their hook by ID, and the owner resolves the URL from the hooks it has
+ * spooled notifications for itself. A node only competes for the hooks it knows, so a hook fails
+ * over to a node that has been notifying it.
+ *
+ * <p>The known hooks are only kept in memory, so a notification spooled for a hook no running node
+ * has notified since it started stays in the shared directory until one does. Such notifications
+ * are logged once per hook by each node that finds them.
+ */
+@ComputeEngineSide
+public class ClusterCoordinator implements Startable {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Loggers.get(ClusterCoordinator.class);
+
+  /**
+   * Name of the lock file held by the owner of a hook.
+   */
+  private static final String OWNER_LOCK = "owner.lock";
+
+  /**
+   * Name of the directory holding spooled notifications for a hook.
+   */
+  private static final String SPOOL = "spool";
+
+  /**
+   * Extension of spooled notification files.
+   */
+  private static final String SPOOL_EXTENSION = ".json";
+
+  /**
+   * Default delay between polls of the shared directory, in milliseconds.
+   */
+  private static final int DEFAULT_POLL_INTERVAL = 2000;
+
+  /**
+   * SonarQube settings.
+   */
+  private final Configuration settings;
+
+  /**
+   * Dispatcher delivering notifications of owned hooks.
+   */
+  private final NotificationDispatcher dispatcher;
+
+  /**
+   * Leases on the hooks owned by this node, by hook ID.
+   */
+  private final Map<String, FileLock> ownedHooks = new ConcurrentHashMap<>();
+
+  /**
+   * URLs of the hooks this node has spooled notifications for, by hook ID.
+   */
+  private final Map<String, String> knownHooks = new ConcurrentHashMap<>();
+
+  /**
+   * IDs of the hooks with spooled notifications this node cannot deliver, already logged.
+   */
+  private final Set<String> orphanedHooks = ConcurrentHashMap.newKeySet();
+
+  /**
+   * JSON serializer for spooled notifications.
+   */
+  private final Gson gson = new Gson();
+
+  /**
+   * Identifier of this node written into owned lock files.
+   */
+  private final String nodeId = ManagementFactory.getRuntimeMXBean().getName();
+
+  /**
+   * The shared directory. Null when cluster mode is disabled.
+   */
+  private Path sharedDir;
+
+  /**
+   * Scheduler polling the shared directory and delivering owned hooks.
+   */
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * Constructor.
+   *
+   * @param settings   The SonarQube Configuration settings.
+   * @param dispatcher The notification dispatcher.
+   */
+  public ClusterCoordinator(Configuration settings, NotificationDispatcher dispatcher) {
+    this.settings = settings;
+    this.dispatcher = dispatcher;
+  }
+
+  /**
+   * Starts polling the shared directory if cluster mode is configured.
+   */
+  @Override
+  public void start() {
+    Optional<String> dir = settings.get(Constants.CLUSTER_DIR).map(String::trim);
+    if (!dir.isPresent() || dir.get().isEmpty()) {
+      return;
+    }
+
+    try {
+      sharedDir = Files.createDirectories(Paths.get(dir.get()));
+    } catch (IOException e) {
+      LOG.error("Unable to use cluster directory [{}]. Cluster mode disabled.", dir.get(), e);
+      return;
+    }
+
+    int interval = settings.getInt(Constants.CLUSTER_POLL_INTERVAL).orElse(DEFAULT_POLL_INTERVAL);
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "teams-notifier-cluster");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(this::poll, interval, interval, TimeUnit.MILLISECONDS);
+    LOG.info("Teams Notifier cluster mode enabled on [{}] as node [{}]", sharedDir, nodeId);
+  }
+
+  /**
+   * Stops polling and releases all owned hooks so other nodes can take over.
+   */
+  @Override
+  public void stop() {
+    if (scheduler == null) {
+      return;
+    }
+
+    scheduler.shutdownNow();
+    try {
+      scheduler.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    for (String hookId : new ArrayList<>(ownedHooks.keySet())) {
+      release(hookId);
+    }
+  }
+
+  /**
+   * Checks if cluster mode is enabled.
+   *
+   * @return True if enabled. False if not.
+   */
+  boolean isEnabled() {
+    return scheduler != null;
+  }
+
+  /**
+   * Spools a notification for delivery by the owner of its hook.
+   *
+   * @param notification The notification to deliver.
+   *
+   * @throws IOException If the notification could not be written to the shared directory.
+   */
+  void submit(Notification notification) throws IOException {
+    String hookId = hookId(notification.hook);
+    knownHooks.put(hookId, notification.hook);
+    Path hookDir = Files.createDirectories(sharedDir.resolve(hookId).resolve(SPOOL));
+    String name = String.format("%015d-%s", System.currentTimeMillis(), UUID.randomUUID());
+    Path temp = hookDir.getParent().resolve(name + ".tmp");
+    Files.write(temp, gson.toJson(new SpoolEntry(hookId, notification)).getBytes(UTF_8));
+    Files.move(temp, hookDir.resolve(name + SPOOL_EXTENSION), StandardCopyOption.ATOMIC_MOVE);
+    LOG.debug("Spooled Teams notification for hook [{}]", hookId);
+    try {
+      scheduler.execute(() -> pollHook(hookId));
+    } catch (RejectedExecutionException e) {
+      // Stopping: the notification stays spooled for the next owner of the hook.
+      LOG.debug("Left Teams notification for hook [{}] spooled while stopping", hookId);
+    }
+  }
+
+  /**
+   * Polls every hook in the shared directory.
+   */
+  private void poll() {
+    try (DirectoryStream<Path> hooks = Files.newDirectoryStream(sharedDir, Files::isDirectory)) {
+      for (Path hookDir : hooks) {
+        pollHook(hookDir.getFileName().toString());
+      }
+    } catch (Exception e) {
+      LOG.error("Failed to poll cluster directory", e);
+    }
+  }
+
+  /**
+   * Delivers the spooled notifications of a hook if this node owns, or can take ownership of, it.
+   * Hooks whose URL this node does not know are left to the nodes that do.
+   *
+   * @param hookId The hook ID.
+   */
+  private void pollHook(String hookId) {
+    String hook = knownHooks.get(hookId);
+    try {
+      List<Path> spooled = spooled(hookId);
+      if (hook == null) {
+        if (!spooled.isEmpty() && orphanedHooks.add(hookId)) {
+          LOG.warn("{} Teams notification(s) are spooled for hook [{}], which this node has not"
+              + " notified since it started. They wait for a node that has.", spooled.size(),
+              hookId);
+        }
+
+        return;
+      }
+
+      orphanedHooks.remove(hookId);
+      if (!spooled.isEmpty() && acquire(hookId)) {
+        drain(hook, spooled);
+      }
+    } catch (Exception e) {
+      LOG.error("Failed to deliver spooled notifications for hook [{}]", hookId, e);
+    }
+  }
+
+  /**
+   * Lists the spooled notifications of a hook, oldest first.
+   *
+   * @param hookId The hook ID.
+   *
+   * @return The spooled notification files.
+   *
+   * @throws IOException If the spool directory could not be read.
+   */
+  private List<Path> spooled(String hookId) throws IOException {
+    Path spoolDir = sharedDir.resolve(hookId).resolve(SPOOL);
+    List<Path> files = new ArrayList<>();
+    if (!Files.isDirectory(spoolDir)) {
+      return files;
+    }
+
+    String glob = "*" + SPOOL_EXTENSION;
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(spoolDir, glob)) {
+      stream.forEach(files::add);
+    }
+
+    Collections.sort(files);
+    return files;
+  }
+
+  /**
+   * Hands spooled notifications to the dispatcher in order. Each one is attempted once, as in
+   * single-node mode.
+   *
+   * @param hook    The hook URL.
+   * @param spooled The spooled notification files.
+   *
+   * @throws IOException If a spooled file could not be read or removed.
+   */
+  private void drain(String hook, List<Path> spooled) throws IOException {
+    for (Path file : spooled) {
+      if (!Files.exists(file)) {
+        continue;
+      }
+
+      try {
+        String json = new String(Files.readAllBytes(file), UTF_8);
+        SpoolEntry entry = gson.fromJson(json, SpoolEntry.class);
+        dispatcher.submit(entry.toNotification(hook));
+      } catch (JsonParseException e) {
+        LOG.error("Discarding unreadable spooled notification [{}]", file, e);
+      }
+
+      Files.deleteIfExists(file);
+    }
+  }
+
+  /**
+   * Takes ownership of a hook unless another node already holds it.
+   *
+   * @param hookId The hook ID.
+   *
+   * @return True if this node owns the hook. False if not.
+   */
+  private boolean acquire(String hookId) {
+    if (ownedHooks.containsKey(hookId)) {
+      return true;
+    }
+
+    FileChannel channel = null;
+    try {
+      channel = FileChannel.open(
+          sharedDir.resolve(hookId).resolve(OWNER_LOCK),
+          StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE
+      );
+      FileLock lock = channel.tryLock();
+      if (lock == null) {
+        channel.close();
+        return false;
+      }
+
+      channel.truncate(0);
+      channel.write(ByteBuffer.wrap(nodeId.getBytes(UTF_8)));
+      ownedHooks.put(hookId, lock);
+      LOG.info("Node [{}] took ownership of Teams hook [{}]", nodeId, hookId);
+      return true;
+    } catch (IOException | OverlappingFileLockException e) {
+      LOG.debug("Unable to take ownership of hook [{}]: {}", hookId, e.getMessage());
+      closeQuietly(channel);
+      return false;
+    }
+  }
+
+  /**
+   * Releases ownership of a hook.
+   *
+   * @param hookId The hook ID.
+   */
+  private void release(String hookId) {
+    FileLock lock = ownedHooks.remove(hookId);
+    if (lock != null) {
+      try {
+        lock.release();
+      } catch (IOException e) {
+        LOG.error("Unable to release hook [{}]", hookId, e);
+      }
+
+      closeQuietly(lock.channel());
+    }
+  }
+
+  /**
+   * Closes a channel, ignoring errors.
+   *
+   * @param channel The channel to close. May be null.
+   */
+  private void closeQuietly(FileChannel channel) {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        LOG.debug("Unable to close lock file", e);
+      }
+    }
+  }
+
+  /**
+   * Gets the ID of a hook, used as its directory name. The URL itself holds a secret token, so it
+   * is hashed rather than used directly.
+   *
+   * @param hook The hook URL.
+   *
+   * @return The hook ID.
+   */
+  static String hookId(String hook) {
+    return Digests.sha256(hook);
+  }
+
+  /**
+   * POJO for spooled notifications.
+   */
+  private static class SpoolEntry {
+
+    /**
+     * The hook ID. The URL itself is resolved by the owner of the hook.
+     */
+    String hookId;
+
+    /**
+     * The name of the payload's format. Null for entries written before formats existed.
+     */
+    String format;
+
+    /**
+     * The message, in the payload's format.
+     */
+    @SerializedName(value = "content", alternate = "markdown")
+    String content;
+
+    /**
+     * The analysis the notification was rendered from, in binary form encoded in Base64.
+     */
+    String snapshot;
+
+    /**
+     * Constructor.
+     *
+     * @param hookId       The hook ID.
+     * @param notification The notification to spool.
+     */
+    SpoolEntry(String hookId, Notification notification) {
+      this.hookId = hookId;
+      this.format = notification.payload.format.name();
+      this.content = notification.payload.content;
+      this.snapshot = notification.encodedSnapshot();
+    }
+
+    /**
+     * Converts back to a notification.
+     *
+     * @param hook The URL of the hook.
+     *
+     * @return The notification.
+     *
+     * @throws JsonParseException If the entry is invalid.
+     */
+    Notification toNotification(String hook) {
+      return Notification.restore(hook, format, content, snapshot);
+    }
+  }
+}
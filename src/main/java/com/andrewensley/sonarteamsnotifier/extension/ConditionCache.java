@@ -0,0 +1,224 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least recently used cache of {@link ConditionSection}s, shared by the analyses of the Compute
+ * Engine, so gates evaluated with the same conditions, values and trend skip translating and
+ * rendering them. Hits and misses are counted to tell whether it pays off.
+ *
+ * <p>Sections are looked up by a cheap hash of their conditions, and a hit is only taken once the
+ * full content of the conditions is confirmed to be the same. A section whose hash collides with
+ * another replaces it.
+ */
+final class ConditionCache {
+
+  /**
+   * Maximum number of cached sections.
+   */
+  private static final int CAPACITY = 256;
+
+  /**
+   * The cache shared by the analyses.
+   */
+  private static final ConditionCache SHARED = new ConditionCache(CAPACITY);
+
+  /**
+   * The cached sections, least recently used first. Guarded by itself.
+   */
+  private final Map<Key, Cached> sections;
+
+  /**
+   * Number of sections found in the cache.
+   */
+  private final AtomicLong hits = new AtomicLong();
+
+  /**
+   * Number of sections translated because they were not in the cache.
+   */
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param capacity Maximum number of cached sections.
+   */
+  private ConditionCache(int capacity) {
+    this.sections = new LinkedHashMap<Key, Cached>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, Cached> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * Gets the cache shared by the analyses.
+   *
+   * @return The cache.
+   */
+  static ConditionCache shared() {
+    return SHARED;
+  }
+
+  /**
+   * Gets a cached section, or translates and caches it.
+   *
+   * @param metrics The catalog the conditions' metrics are described by.
+   * @param source  The conditions the section is translated from.
+   *
+   * @return The section.
+   */
+  ConditionSection get(MetricCatalog metrics, Source source) {
+    Key key = new Key(metrics, source.hash());
+    Cached cached;
+    synchronized (sections) {
+      cached = sections.get(key);
+    }
+
+    if (cached != null && source.matches(cached.content)) {
+      hits.incrementAndGet();
+      return cached.section;
+    }
+
+    misses.incrementAndGet();
+    cached = new Cached(source.content(), source.translate());
+    synchronized (sections) {
+      sections.put(key, cached);
+    }
+
+    return cached.section;
+  }
+
+  /**
+   * Gets the counters of the cache.
+   *
+   * @return The hits, misses and number of cached sections, by name.
+   */
+  Map<String, Long> counters() {
+    Map<String, Long> counters = new LinkedHashMap<>();
+    counters.put("hits", hits.get());
+    counters.put("misses", misses.get());
+    synchronized (sections) {
+      counters.put("size", (long) sections.size());
+    }
+
+    return counters;
+  }
+
+  /**
+   * The conditions a section is translated from.
+   */
+  interface Source {
+
+    /**
+     * Gets a cheap hash of the conditions, from the fields that usually tell them apart.
+     *
+     * @return The hash.
+     */
+    int hash();
+
+    /**
+     * Gets everything the section is translated from, other than the catalog.
+     *
+     * @return The content.
+     */
+    Object[] content();
+
+    /**
+     * Checks if the conditions have the given content, stopping at the first difference.
+     *
+     * @param content The content of a cached section.
+     *
+     * @return True if it is the same.
+     */
+    boolean matches(Object[] content);
+
+    /**
+     * Translates the section.
+     *
+     * @return The section.
+     */
+    ConditionSection translate();
+  }
+
+  /**
+   * A cached section, with the content it was translated from.
+   */
+  private static final class Cached {
+
+    /**
+     * Everything the section was translated from, other than the catalog.
+     */
+    private final Object[] content;
+
+    /**
+     * The section.
+     */
+    private final ConditionSection section;
+
+    /**
+     * Constructor.
+     *
+     * @param content Everything the section was translated from, other than the catalog.
+     * @param section The section.
+     */
+    Cached(Object[] content, ConditionSection section) {
+      this.content = content;
+      this.section = section;
+    }
+  }
+
+  /**
+   * Key of a cached section.
+   */
+  private static final class Key {
+
+    /**
+     * The catalog the conditions' metrics are described by, compared by identity.
+     */
+    private final MetricCatalog metrics;
+
+    /**
+     * The hash of the conditions.
+     */
+    private final int hash;
+
+    /**
+     * Constructor.
+     *
+     * @param metrics The catalog the conditions' metrics are described by.
+     * @param hash    The hash of the conditions.
+     */
+    Key(MetricCatalog metrics, int hash) {
+      this.metrics = metrics;
+      this.hash = hash;
+    }
+
+    /**
+     * Checks if another key is for the same section.
+     *
+     * @param other The other key.
+     *
+     * @return True if it has the same catalog and the same hash.
+     */
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Key
+          && metrics == ((Key) other).metrics
+          && hash == ((Key) other).hash;
+    }
+
+    /**
+     * Gets the hash code of the key.
+     *
+     * @return The hash code.
+     */
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(metrics) + hash;
+    }
+  }
+}
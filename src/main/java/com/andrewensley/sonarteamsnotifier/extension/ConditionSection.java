@@ -0,0 +1,73 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * The translated conditions of a quality gate, and their rendering in each format.
+ *
+ * <p>Sections are shared through the {@link ConditionCache} by every message with the same
+ * conditions, so each format renders a given set of conditions once.
+ */
+final class ConditionSection {
+
+  /**
+   * The section of a message without conditions.
+   */
+  static final ConditionSection EMPTY = new ConditionSection(Collections.emptyList(), 0, 0);
+
+  /**
+   * The conditions to list.
+   */
+  final List<Message.Line> lines;
+
+  /**
+   * Number of conditions failing now that passed in the previous analysis.
+   */
+  final int newlyFailing;
+
+  /**
+   * Number of conditions passing now that failed in the previous analysis.
+   */
+  final int fixed;
+
+  /**
+   * The rendering of the conditions, by format ordinal. Null until rendered in the format.
+   */
+  private final AtomicReferenceArray<String> rendered =
+      new AtomicReferenceArray<>(MessageFormat.values().length);
+
+  /**
+   * Constructor.
+   *
+   * @param lines        The conditions to list.
+   * @param newlyFailing Number of newly failing conditions.
+   * @param fixed        Number of fixed conditions.
+   */
+  ConditionSection(List<Message.Line> lines, int newlyFailing, int fixed) {
+    this.lines = Collections.unmodifiableList(lines);
+    this.newlyFailing = newlyFailing;
+    this.fixed = fixed;
+  }
+
+  /**
+   * Gets the rendering of the conditions in a format, rendering them on first use.
+   *
+   * @param format   The format.
+   * @param renderer Renders the conditions in the format.
+   *
+   * @return The rendered conditions.
+   */
+  String rendered(MessageFormat format, Function<List<Message.Line>, String> renderer) {
+    String cached = rendered.get(format.ordinal());
+    if (cached == null) {
+      // Concurrent first renderings produce the same text, so either one can be kept.
+      cached = renderer.apply(lines);
+      rendered.set(format.ordinal(), cached);
+    }
+
+    return cached;
+  }
+}
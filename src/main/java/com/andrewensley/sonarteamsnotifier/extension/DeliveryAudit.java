@@ -0,0 +1,560 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.andrewensley.sonarteamsnotifier.domain.Constants;
+import com.google.gson.Gson;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.sonar.api.Startable;
+import org.sonar.api.ce.ComputeEngineSide;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Writes an NDJSON audit trail of every delivery attempt.
+ *
+ * <p>Delivery threads only put records in a bounded ring buffer, which never waits: when the
+ * buffer is full, records are dropped and counted. A background thread writes the records in
+ * batches, rolls the file over when it gets too large or too old, and compresses rolled files.
+ * Hooks are recorded by host only, as their URL holds a secret token.
+ */
+@ComputeEngineSide
+public class DeliveryAudit implements Startable {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Loggers.get(DeliveryAudit.class);
+
+  /**
+   * Capacity of the ring buffer.
+   */
+  private static final int BUFFER_CAPACITY = 4096;
+
+  /**
+   * Maximum number of records written per batch.
+   */
+  private static final int BATCH_SIZE = 256;
+
+  /**
+   * Default size after which the audit file is rolled over, in bytes.
+   */
+  private static final long DEFAULT_MAX_SIZE = 10L * 1024 * 1024;
+
+  /**
+   * Default age after which the audit file is rolled over, in hours.
+   */
+  private static final int DEFAULT_MAX_AGE = 24;
+
+  /**
+   * Default number of rolled files kept.
+   */
+  private static final int DEFAULT_MAX_FILES = 10;
+
+  /**
+   * Name of the current audit file.
+   */
+  private static final String CURRENT_FILE = "audit.ndjson";
+
+  /**
+   * Prefix of rolled audit files.
+   */
+  private static final String ROLLED_PREFIX = "audit-";
+
+  /**
+   * Suffix of rolled audit files.
+   */
+  private static final String ROLLED_SUFFIX = ".ndjson.gz";
+
+  /**
+   * SonarQube settings.
+   */
+  private final Configuration settings;
+
+  /**
+   * JSON serializer for records. Only used by the writer thread.
+   */
+  private final Gson gson = new Gson();
+
+  /**
+   * Records waiting to be written.
+   */
+  private final BlockingQueue<Record> buffer = new ArrayBlockingQueue<>(BUFFER_CAPACITY);
+
+  /**
+   * Number of records dropped because the buffer was full.
+   */
+  private final AtomicLong dropped = new AtomicLong();
+
+  /**
+   * Directory of the audit files. Null when the audit log is disabled.
+   */
+  private Path dir;
+
+  /**
+   * Size after which the audit file is rolled over, in bytes.
+   */
+  private long maxSize;
+
+  /**
+   * Age after which the audit file is rolled over, in milliseconds.
+   */
+  private long maxAge;
+
+  /**
+   * Number of rolled files kept.
+   */
+  private int maxFiles;
+
+  /**
+   * The writer thread.
+   */
+  private Thread writerThread;
+
+  /**
+   * Whether the writer thread should keep waiting for records.
+   */
+  private volatile boolean running;
+
+  /**
+   * The writer of the current audit file. Only used by the writer thread.
+   */
+  private BufferedWriter writer;
+
+  /**
+   * Size of the current audit file, in bytes. Only used by the writer thread.
+   */
+  private long size;
+
+  /**
+   * Time the current audit file was opened at, in milliseconds. Only used by the writer thread.
+   */
+  private long openedAt;
+
+  /**
+   * Number of dropped records already reported. Only used by the writer thread.
+   */
+  private long reportedDropped;
+
+  /**
+   * Constructor.
+   *
+   * @param settings The SonarQube Configuration settings.
+   */
+  public DeliveryAudit(Configuration settings) {
+    this.settings = settings;
+  }
+
+  /**
+   * Starts the writer thread, unless the audit log is disabled.
+   */
+  @Override
+  public void start() {
+    if (!settings.getBoolean(Constants.AUDIT_ENABLED).orElse(true)) {
+      return;
+    }
+
+    dir = settings.get(Constants.AUDIT_DIR)
+        .map(String::trim)
+        .filter(value -> !value.isEmpty())
+        .map(Paths::get)
+        .orElseGet(() -> Paths.get(
+            settings.get("sonar.path.data").orElse(System.getProperty("java.io.tmpdir")),
+            "teams-notifier",
+            "audit"
+        ));
+    maxSize = Math.max(1, settings.getLong(Constants.AUDIT_MAX_SIZE).orElse(DEFAULT_MAX_SIZE));
+    maxAge = TimeUnit.HOURS.toMillis(
+        Math.max(1, settings.getInt(Constants.AUDIT_MAX_AGE).orElse(DEFAULT_MAX_AGE))
+    );
+    maxFiles = Math.max(0, settings.getInt(Constants.AUDIT_MAX_FILES).orElse(DEFAULT_MAX_FILES));
+    running = true;
+    writerThread = new Thread(this::writeLoop, "teams-notifier-audit");
+    writerThread.setDaemon(true);
+    writerThread.start();
+    LOG.info("Teams delivery audit log: [{}]", dir.resolve(CURRENT_FILE));
+  }
+
+  /**
+   * Writes the buffered records and stops the writer thread.
+   */
+  @Override
+  public void stop() {
+    if (writerThread == null) {
+      return;
+    }
+
+    running = false;
+    try {
+      writerThread.join(TimeUnit.SECONDS.toMillis(5));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Records a delivery attempt. Never waits: the record is dropped if the buffer is full.
+   *
+   * @param notification The delivered notification.
+   * @param success      Whether the delivery succeeded.
+   * @param statusCode   The response status code. 0 if none.
+   * @param latencyNanos The delivery time, in nanoseconds.
+   * @param retries      The number of previous attempts of this delivery.
+   */
+  void record(
+      Notification notification,
+      boolean success,
+      int statusCode,
+      long latencyNanos,
+      int retries
+  ) {
+    if (!running) {
+      return;
+    }
+
+    Record record = new Record(
+        System.currentTimeMillis(),
+        notification,
+        success,
+        statusCode,
+        TimeUnit.NANOSECONDS.toMillis(latencyNanos),
+        retries
+    );
+    if (!buffer.offer(record)) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  /**
+   * Writes records in batches until stopped, then writes the remaining ones.
+   */
+  private void writeLoop() {
+    List<Record> batch = new ArrayList<>(BATCH_SIZE);
+    while (running || !buffer.isEmpty()) {
+      try {
+        Record first = buffer.poll(1, TimeUnit.SECONDS);
+        if (first != null) {
+          batch.add(first);
+          buffer.drainTo(batch, BATCH_SIZE - 1);
+          write(batch);
+          batch.clear();
+        }
+
+        rollOverIfNeeded();
+        reportDropped();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch (IOException | RuntimeException e) {
+        LOG.error("Unable to write Teams delivery audit log in [{}]", dir, e);
+        batch.clear();
+        closeWriter();
+      }
+    }
+
+    closeWriter();
+  }
+
+  /**
+   * Writes a batch of records to the current audit file.
+   *
+   * @param batch The records.
+   *
+   * @throws IOException If the file could not be written.
+   */
+  private void write(List<Record> batch) throws IOException {
+    if (writer == null) {
+      openWriter();
+    }
+
+    for (Record record : batch) {
+      String line = gson.toJson(new Line(record));
+      writer.write(line);
+      writer.newLine();
+      size += Notification.utf8Length(line) + 1;
+    }
+
+    writer.flush();
+  }
+
+  /**
+   * Opens the current audit file for appending.
+   *
+   * @throws IOException If the file could not be opened.
+   */
+  private void openWriter() throws IOException {
+    Files.createDirectories(dir);
+    Path file = dir.resolve(CURRENT_FILE);
+    writer = Files.newBufferedWriter(
+        file,
+        UTF_8,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.APPEND
+    );
+    size = Files.size(file);
+    openedAt = System.currentTimeMillis();
+  }
+
+  /**
+   * Closes the current audit file, if open.
+   */
+  private void closeWriter() {
+    if (writer != null) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        LOG.warn("Unable to close Teams delivery audit log: {}", e.getMessage());
+      }
+
+      writer = null;
+    }
+  }
+
+  /**
+   * Rolls the current audit file over if it is too large or too old: it is compressed under a
+   * timestamped name, and the oldest rolled files are deleted.
+   *
+   * @throws IOException If the file could not be rolled over.
+   */
+  private void rollOverIfNeeded() throws IOException {
+    if (writer == null || (size < maxSize && System.currentTimeMillis() - openedAt < maxAge)) {
+      return;
+    }
+
+    closeWriter();
+    Path current = dir.resolve(CURRENT_FILE);
+    if (Files.size(current) == 0) {
+      return;
+    }
+
+    String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+    Path rolled = dir.resolve(ROLLED_PREFIX + stamp + ROLLED_SUFFIX);
+    try (InputStream in = Files.newInputStream(current);
+         OutputStream out = new GZIPOutputStream(Files.newOutputStream(rolled))) {
+      byte[] chunk = new byte[64 * 1024];
+      for (int read = in.read(chunk); read != -1; read = in.read(chunk)) {
+        out.write(chunk, 0, read);
+      }
+    }
+
+    Files.delete(current);
+    deleteOldRolledFiles();
+  }
+
+  /**
+   * Deletes the oldest rolled files beyond the number kept.
+   *
+   * @throws IOException If the directory could not be listed.
+   */
+  private void deleteOldRolledFiles() throws IOException {
+    List<Path> rolled = new ArrayList<>();
+    String glob = ROLLED_PREFIX + "*" + ROLLED_SUFFIX;
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob)) {
+      stream.forEach(rolled::add);
+    }
+
+    Collections.sort(rolled);
+    for (int i = 0; i < rolled.size() - maxFiles; i++) {
+      Files.deleteIfExists(rolled.get(i));
+    }
+  }
+
+  /**
+   * Logs the number of records dropped since the last report, if any.
+   */
+  private void reportDropped() {
+    long total = dropped.get();
+    if (total > reportedDropped) {
+      LOG.warn("{} Teams delivery audit record(s) dropped: audit buffer full",
+          total - reportedDropped);
+      reportedDropped = total;
+    }
+  }
+
+  /**
+   * A delivery attempt, as recorded by the delivery threads. Only the fields written are copied
+   * from the notification, so buffered records do not hold on to its payload and analysis.
+   */
+  private static class Record {
+
+    /**
+     * Time of the attempt, in milliseconds.
+     */
+    final long timestamp;
+
+    /**
+     * The project key.
+     */
+    final String project;
+
+    /**
+     * The branch name. Empty for the main branch.
+     */
+    final String branch;
+
+    /**
+     * The host of the hook.
+     */
+    final String host;
+
+    /**
+     * The payload size, in bytes.
+     */
+    final int bytes;
+
+    /**
+     * Whether the delivery succeeded.
+     */
+    final boolean success;
+
+    /**
+     * The response status code. 0 if none.
+     */
+    final int statusCode;
+
+    /**
+     * The delivery time, in milliseconds.
+     */
+    final long latency;
+
+    /**
+     * The number of previous attempts of this delivery.
+     */
+    final int retries;
+
+    /**
+     * Constructor.
+     *
+     * @param timestamp    Time of the attempt, in milliseconds.
+     * @param notification The delivered notification.
+     * @param success      Whether the delivery succeeded.
+     * @param statusCode   The response status code. 0 if none.
+     * @param latency      The delivery time, in milliseconds.
+     * @param retries      The number of previous attempts of this delivery.
+     */
+    Record(
+        long timestamp,
+        Notification notification,
+        boolean success,
+        int statusCode,
+        long latency,
+        int retries
+    ) {
+      this.timestamp = timestamp;
+      this.project = notification.projectKey;
+      this.branch = notification.branch;
+      this.host = host(notification.hook);
+      this.bytes = notification.bytes;
+      this.success = success;
+      this.statusCode = statusCode;
+      this.latency = latency;
+      this.retries = retries;
+    }
+
+    /**
+     * Gets the host of a hook.
+     *
+     * @param hook The hook URL.
+     *
+     * @return The host. Empty if the URL is invalid.
+     */
+    private static String host(String hook) {
+      try {
+        return new URL(hook).getHost();
+      } catch (MalformedURLException e) {
+        return "";
+      }
+    }
+  }
+
+  /**
+   * POJO for audit file lines.
+   */
+  private static class Line {
+
+    /**
+     * Time of the attempt, in milliseconds since the epoch.
+     */
+    private final long timestamp;
+
+    /**
+     * The project key.
+     */
+    private final String project;
+
+    /**
+     * The branch name. Empty for the main branch.
+     */
+    private final String branch;
+
+    /**
+     * The host of the hook.
+     */
+    private final String host;
+
+    /**
+     * Whether the delivery succeeded.
+     */
+    private final boolean success;
+
+    /**
+     * The response status code. 0 if none.
+     */
+    private final int status;
+
+    /**
+     * The delivery time, in milliseconds.
+     */
+    private final long latencyMs;
+
+    /**
+     * The number of previous attempts of this delivery.
+     */
+    private final int retries;
+
+    /**
+     * The payload size, in bytes.
+     */
+    private final int bytes;
+
+    /**
+     * Constructor.
+     *
+     * @param record The delivery attempt.
+     */
+    Line(Record record) {
+      this.timestamp = record.timestamp;
+      this.project = record.project;
+      this.branch = record.branch;
+      this.host = record.host;
+      this.success = record.success;
+      this.status = record.statusCode;
+      this.latencyMs = record.latency;
+      this.retries = record.retries;
+      this.bytes = record.bytes;
+    }
+  }
+}
@@ -0,0 +1,214 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.sonar.api.config.Configuration;
+
+/**
+ * The delivery state of the Compute Engine, published to a file so the web server can report it.
+ *
+ * <p>The Compute Engine and the web server are separate processes. The notification dispatcher
+ * rewrites this file periodically, and the probe web service reads it.
+ */
+final class DeliveryState {
+
+  /**
+   * Serializer.
+   */
+  private static final Gson GSON = new Gson();
+
+  /**
+   * Time the state was captured at, in milliseconds since the epoch.
+   */
+  long updatedAt;
+
+  /**
+   * Number of queued notifications.
+   */
+  int queued;
+
+  /**
+   * Queue counters by name.
+   */
+  Map<String, Long> counters;
+
+  /**
+   * State of the HTTP connection pool. Null if no HTTP pool is open.
+   */
+  Pool pool;
+
+  /**
+   * State of the hosts with posts in flight or notifications waiting.
+   */
+  List<Host> hosts;
+
+  /**
+   * Hits, misses and size of the cache of rendered quality gate conditions.
+   */
+  Map<String, Long> conditionCache;
+
+  /**
+   * Payloads captured by the in-memory transport. Null unless that transport is selected.
+   */
+  Captured captured;
+
+  /**
+   * Gets the file the state is published to.
+   *
+   * @param settings The SonarQube Configuration settings.
+   *
+   * @return The state file.
+   */
+  static Path file(Configuration settings) {
+    return Paths.get(
+        settings.get("sonar.path.data").orElse(System.getProperty("java.io.tmpdir")),
+        "teams-notifier",
+        "delivery-state.json"
+    );
+  }
+
+  /**
+   * Reads the published state.
+   *
+   * @param file The state file.
+   *
+   * @return The state, if it was published and is readable.
+   */
+  static Optional<DeliveryState> read(Path file) {
+    if (!Files.exists(file)) {
+      return Optional.empty();
+    }
+
+    try {
+      return Optional.ofNullable(
+          GSON.fromJson(new String(Files.readAllBytes(file), UTF_8), DeliveryState.class));
+    } catch (IOException | JsonParseException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Publishes the state, replacing the previous one atomically.
+   *
+   * @param file The state file.
+   *
+   * @throws IOException If the file cannot be written.
+   */
+  void write(Path file) throws IOException {
+    Files.createDirectories(file.getParent());
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    Files.write(temp, GSON.toJson(this).getBytes(UTF_8));
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * State of the HTTP connection pool.
+   */
+  static final class Pool {
+
+    /**
+     * Number of connections in use.
+     */
+    int leased;
+
+    /**
+     * Number of idle connections.
+     */
+    int available;
+
+    /**
+     * Number of requests waiting for a connection.
+     */
+    int pending;
+
+    /**
+     * Maximum number of connections.
+     */
+    int max;
+  }
+
+  /**
+   * Payloads captured by the in-memory transport.
+   */
+  static final class Captured {
+
+    /**
+     * Number of payloads sent through the transport, including the ones no longer kept.
+     */
+    long sent;
+
+    /**
+     * Number of payloads kept by the transport.
+     */
+    int kept;
+
+    /**
+     * The last payloads kept, oldest first.
+     */
+    List<CapturedPayload> last;
+  }
+
+  /**
+   * A payload captured by the in-memory transport.
+   */
+  static final class CapturedPayload {
+
+    /**
+     * The ID of the hook. The URL holds a secret token, so it is not published.
+     */
+    String hookId;
+
+    /**
+     * The name of the payload's format.
+     */
+    String format;
+
+    /**
+     * The message, in the payload's format.
+     */
+    String content;
+  }
+
+  /**
+   * State of one destination host.
+   */
+  static final class Host {
+
+    /**
+     * The host and port.
+     */
+    String host;
+
+    /**
+     * Number of posts in flight.
+     */
+    int inFlight;
+
+    /**
+     * Maximum number of concurrent posts.
+     */
+    int limit;
+
+    /**
+     * Number of notifications waiting for a permit.
+     */
+    int waiting;
+
+    /**
+     * Time the host has been saturated for, in milliseconds. 0 if it is not saturated.
+     */
+    long saturatedMillis;
+  }
+}
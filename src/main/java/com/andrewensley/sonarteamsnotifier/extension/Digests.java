@@ -0,0 +1,39 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Short, file name safe digests of keys and URLs.
+ */
+final class Digests {
+
+  /**
+   * Constructor.
+   */
+  private Digests() {
+  }
+
+  /**
+   * Gets the first 128 bits of the SHA-256 digest of a value, in hexadecimal.
+   *
+   * @param value The value.
+   *
+   * @return The digest.
+   */
+  static String sha256(String value) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(UTF_8));
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 16; i++) {
+        sb.append(String.format("%02x", digest[i]));
+      }
+
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+}
@@ -0,0 +1,212 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.Gson;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Transport appending payloads to a local NDJSON file instead of sending them, for dry runs and
+ * capacity tests.
+ *
+ * <p>Lines are buffered and written in batches: the buffer is flushed every {@code batchSize}
+ * payloads, and at least once per second. The hook is recorded by host and ID, never by its full
+ * URL, as the URL holds a secret token.
+ */
+class FileSinkTransport implements Transport {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Loggers.get(FileSinkTransport.class);
+
+  /**
+   * Size of the write buffer, in characters.
+   */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * JSON serializer for lines.
+   */
+  private final Gson gson = new Gson();
+
+  /**
+   * Number of payloads written between flushes.
+   */
+  private final int batchSize;
+
+  /**
+   * The writer of the sink file.
+   */
+  private final BufferedWriter writer;
+
+  /**
+   * Scheduler flushing partial batches.
+   */
+  private final ScheduledExecutorService flusher;
+
+  /**
+   * Number of payloads written since the last flush.
+   */
+  private int pending;
+
+  /**
+   * Constructor.
+   *
+   * @param file      The sink file. Payloads are appended to it.
+   * @param batchSize Number of payloads written between flushes.
+   *
+   * @throws IOException If the file could not be opened.
+   */
+  FileSinkTransport(Path file, int batchSize) throws IOException {
+    if (file.getParent() != null) {
+      Files.createDirectories(file.getParent());
+    }
+
+    this.batchSize = Math.max(1, batchSize);
+    this.writer = new BufferedWriter(
+        Files.newBufferedWriter(file, UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND),
+        BUFFER_SIZE
+    );
+    this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "teams-notifier-file-sink");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.flusher.scheduleWithFixedDelay(this::flush, 1, 1, TimeUnit.SECONDS);
+    LOG.info("Teams notifications are written to [{}] instead of being sent", file);
+  }
+
+  /**
+   * Appends a payload to the sink file.
+   *
+   * @param hook    The hook URL.
+   * @param payload The payload to send.
+   *
+   * @return True on success. False on failure.
+   */
+  @Override
+  public boolean send(String hook, Payload payload) {
+    String line = gson.toJson(new Line(hook, payload));
+    synchronized (writer) {
+      try {
+        writer.write(line);
+        writer.newLine();
+        if (++pending >= batchSize) {
+          writer.flush();
+          pending = 0;
+        }
+
+        return true;
+      } catch (IOException e) {
+        LOG.error("Failed to write teams message to file sink", e);
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Flushes the current batch to the sink file.
+   */
+  private void flush() {
+    synchronized (writer) {
+      if (pending == 0) {
+        return;
+      }
+
+      try {
+        writer.flush();
+        pending = 0;
+      } catch (IOException e) {
+        LOG.error("Failed to flush teams file sink", e);
+      }
+    }
+  }
+
+  /**
+   * Flushes and closes the sink file.
+   */
+  @Override
+  public void close() {
+    flusher.shutdownNow();
+    synchronized (writer) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        LOG.error("Failed to close teams file sink", e);
+      }
+    }
+  }
+
+  /**
+   * POJO for NDJSON lines.
+   */
+  private static class Line {
+
+    /**
+     * Time the payload was written, in milliseconds since the epoch.
+     */
+    final long timestamp = System.currentTimeMillis();
+
+    /**
+     * The hook host.
+     */
+    final String host;
+
+    /**
+     * The hook ID.
+     */
+    final String hookId;
+
+    /**
+     * The name of the payload's format.
+     */
+    final String format;
+
+    /**
+     * The message, in the payload's format.
+     */
+    final String content;
+
+    /**
+     * Constructor.
+     *
+     * @param hook    The hook URL.
+     * @param payload The payload.
+     */
+    Line(String hook, Payload payload) {
+      this.host = host(hook);
+      this.hookId = ClusterCoordinator.hookId(hook);
+      this.format = payload.format.prefix();
+      this.content = payload.content;
+    }
+
+    /**
+     * Gets the host of a hook.
+     *
+     * @param hook The hook URL.
+     *
+     * @return The host. Empty if the URL is malformed.
+     */
+    private static String host(String hook) {
+      try {
+        return new URL(hook).getHost();
+      } catch (MalformedURLException e) {
+        return "";
+      }
+    }
+  }
+}
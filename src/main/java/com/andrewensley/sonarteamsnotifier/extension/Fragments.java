@@ -0,0 +1,93 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Message fragments that only depend on scanner properties.
+ *
+ * <p>They are computed by {@link TeamsSensor} on the scanner and passed to the Compute Engine as
+ * context properties. The Compute Engine only computes them itself for analyses that were run
+ * without them.
+ */
+final class Fragments {
+
+  /**
+   * Constructor.
+   */
+  private Fragments() {
+  }
+
+  /**
+   * Gets the mention of the change author.
+   *
+   * @param email The change author's email.
+   * @param name  The change author's name.
+   *
+   * @return The mention, or an empty string if there is no email.
+   */
+  static String authorMention(String email, String name) {
+    if (email == null || email.isEmpty()) {
+      return "";
+    }
+
+    StringBuilder mention = new StringBuilder("<@personEmail:").append(email);
+    if (name != null && !name.isEmpty()) {
+      mention.append('|').append(name);
+    }
+
+    return mention.append('>').toString();
+  }
+
+  /**
+   * Gets the display name of a change author from their mention.
+   *
+   * @param mention The mention, as built by {@link #authorMention}.
+   *
+   * @return The author's name, or their email if there is no name. The mention itself if it is
+   *         not in the expected form.
+   */
+  static String authorName(String mention) {
+    String prefix = "<@personEmail:";
+    if (!mention.startsWith(prefix) || !mention.endsWith(">")) {
+      return mention;
+    }
+
+    String author = mention.substring(prefix.length(), mention.length() - 1);
+    int separator = author.indexOf('|');
+    return separator < 0 ? author : author.substring(separator + 1);
+  }
+
+  /**
+   * Escapes a URL so it can be used as the target of a markdown link.
+   *
+   * @param url The URL.
+   *
+   * @return The escaped URL, or an empty string if there is no URL.
+   */
+  static String linkUrl(String url) {
+    if (url == null) {
+      return "";
+    }
+
+    return url.trim()
+        .replace(" ", "%20")
+        .replace("(", "%28")
+        .replace(")", "%29");
+  }
+
+  /**
+   * Encodes a branch name for the branch query parameter of the project URL.
+   *
+   * @param branch The branch name.
+   *
+   * @return The encoded branch name.
+   */
+  static String branchParam(String branch) {
+    try {
+      return URLEncoder.encode(branch, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException("UTF-8 is not available", e);
+    }
+  }
+}
@@ -0,0 +1,233 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A hook, the format it is notified in and the filter of the analyses it is notified of.
+ *
+ * <p>Several hooks are separated by commas. A hook is posted WebEx Teams markdown, unless its
+ * scheme is prefixed with another format, e.g. {@code teams+https://...} for a Microsoft Teams
+ * card or {@code text+https://...} for plain text. A hook can be prefixed with a filter
+ * expression in brackets, e.g. {@code [status=ERROR and main]https://...}, which may contain
+ * commas.
+ */
+final class HookTarget {
+
+  /**
+   * Separator of hooks.
+   */
+  private static final String SEPARATOR = ",";
+
+  /**
+   * Start of a hook's filter.
+   */
+  private static final String FILTER_START = "[";
+
+  /**
+   * End of a hook's filter.
+   */
+  private static final String FILTER_END = "]";
+
+  /**
+   * The hook URL.
+   */
+  final String url;
+
+  /**
+   * The format the hook is notified in.
+   */
+  final MessageFormat format;
+
+  /**
+   * The filter expression of the analyses the hook is notified of. Null if it has none.
+   */
+  final String filter;
+
+  /**
+   * Constructor.
+   *
+   * @param url    The hook URL.
+   * @param format The format the hook is notified in.
+   * @param filter The filter expression of the hook. Null if it has none.
+   */
+  private HookTarget(String url, MessageFormat format, String filter) {
+    this.url = url;
+    this.format = format;
+    this.filter = filter;
+  }
+
+  /**
+   * Parses hooks.
+   *
+   * @param hooks The hooks, separated by commas.
+   *
+   * @return The hooks, in order, without duplicates.
+   *
+   * @throws MalformedURLException If a hook is not a valid URL or has an unknown format.
+   */
+  static List<HookTarget> parseAll(String hooks) throws MalformedURLException {
+    List<HookTarget> targets = new ArrayList<>();
+    for (String hook : split(hooks)) {
+      if (!hook.trim().isEmpty()) {
+        HookTarget target = parse(hook);
+        if (targets.stream().noneMatch(other -> other.toString().equals(target.toString()))) {
+          targets.add(target);
+        }
+      }
+    }
+
+    if (targets.isEmpty()) {
+      throw new MalformedURLException("No hook URL");
+    }
+
+    return targets;
+  }
+
+  /**
+   * Parses hooks in the resolved form precomputed by the scanner. Their URLs were validated and
+   * duplicates removed there, so neither is done again.
+   *
+   * @param hooks The resolved hooks, as joined by {@link #join}.
+   *
+   * @return The hooks, in order.
+   *
+   * @throws MalformedURLException If a hook has an unknown format or an unclosed filter.
+   */
+  static List<HookTarget> parseResolved(String hooks) throws MalformedURLException {
+    List<HookTarget> targets = new ArrayList<>();
+    for (String hook : split(hooks)) {
+      targets.add(parse(hook, false));
+    }
+
+    return targets;
+  }
+
+  /**
+   * Parses a hook.
+   *
+   * @param hook The hook, optionally prefixed with its filter, then its format.
+   *
+   * @return The hook.
+   *
+   * @throws MalformedURLException If the hook is not a valid URL, has an unknown format or an
+   *                               unclosed filter.
+   */
+  static HookTarget parse(String hook) throws MalformedURLException {
+    return parse(hook, true);
+  }
+
+  /**
+   * Parses a hook.
+   *
+   * @param hook     The hook, optionally prefixed with its filter, then its format.
+   * @param validate Whether to validate and normalize its URL.
+   *
+   * @return The hook.
+   *
+   * @throws MalformedURLException If the hook is not a valid URL, has an unknown format or an
+   *                               unclosed filter.
+   */
+  private static HookTarget parse(String hook, boolean validate) throws MalformedURLException {
+    String trimmed = hook.trim();
+    String filter = null;
+    if (trimmed.startsWith(FILTER_START)) {
+      int filterEnd = trimmed.indexOf(FILTER_END);
+      if (filterEnd < 0) {
+        throw new MalformedURLException("Unclosed hook filter: " + trimmed);
+      }
+
+      filter = trimmed.substring(FILTER_START.length(), filterEnd).trim();
+      filter = filter.isEmpty() ? null : filter;
+      trimmed = trimmed.substring(filterEnd + FILTER_END.length()).trim();
+    }
+
+    int schemeEnd = trimmed.indexOf("://");
+    int plus = schemeEnd < 0 ? -1 : trimmed.lastIndexOf('+', schemeEnd);
+    if (plus < 0) {
+      return new HookTarget(url(trimmed, validate), MessageFormat.WEBEX, filter);
+    }
+
+    String formatName = trimmed.substring(0, plus);
+    MessageFormat format = MessageFormat.parse(formatName)
+        .orElseThrow(() -> new MalformedURLException("Unknown message format: " + formatName));
+    return new HookTarget(url(trimmed.substring(plus + 1), validate), format, filter);
+  }
+
+  /**
+   * Gets the URL of a hook.
+   *
+   * @param url      The URL.
+   * @param validate Whether to validate and normalize it.
+   *
+   * @return The URL.
+   *
+   * @throws MalformedURLException If it is validated and not a valid URL.
+   */
+  private static String url(String url, boolean validate) throws MalformedURLException {
+    return validate ? new URL(url).toString() : url;
+  }
+
+  /**
+   * Splits hooks on the commas outside their filters.
+   *
+   * @param hooks The hooks, separated by commas.
+   *
+   * @return The hooks.
+   */
+  private static List<String> split(String hooks) {
+    List<String> split = new ArrayList<>();
+    int start = 0;
+    boolean inFilter = false;
+    for (int i = 0; i < hooks.length(); i++) {
+      if (hooks.startsWith(FILTER_START, i)) {
+        inFilter = true;
+      } else if (hooks.startsWith(FILTER_END, i)) {
+        inFilter = false;
+      } else if (!inFilter && hooks.startsWith(SEPARATOR, i)) {
+        split.add(hooks.substring(start, i));
+        start = i + SEPARATOR.length();
+      }
+    }
+
+    split.add(hooks.substring(start));
+    return split;
+  }
+
+  /**
+   * Gets the filter expression of the analyses the hook is notified of.
+   *
+   * @param defaultFilter The filter expression of hooks without their own. Null for none.
+   *
+   * @return The hook's own filter expression, or the default one.
+   */
+  String filter(String defaultFilter) {
+    return filter == null ? defaultFilter : filter;
+  }
+
+  /**
+   * Joins hooks into their resolved form.
+   *
+   * @param targets The hooks.
+   *
+   * @return The hooks, separated by commas.
+   */
+  static String join(List<HookTarget> targets) {
+    return targets.stream().map(HookTarget::toString).collect(Collectors.joining(SEPARATOR));
+  }
+
+  /**
+   * Gets the hook with its filter and format prefixes. The format prefix is omitted for WebEx
+   * Teams markdown.
+   *
+   * @return The hook.
+   */
+  @Override
+  public String toString() {
+    return (filter == null ? "" : FILTER_START + filter + FILTER_END)
+        + (format == MessageFormat.WEBEX ? url : format.prefix() + "+" + url);
+  }
+}
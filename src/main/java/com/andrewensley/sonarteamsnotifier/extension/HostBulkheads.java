@@ -0,0 +1,249 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Limits the number of concurrent posts to each destination host, so a slow host cannot take
+ * every delivery thread.
+ *
+ * <p>Workers only take a notification off the {@link NotificationQueue} once they hold a permit
+ * of its host. Notifications for a host at its limit stay queued, behind the bounded queue's
+ * overflow policy, supersession and shutdown spill, while the workers deliver newer
+ * notifications for other hosts.
+ *
+ * <p>Each host's limit adapts to how it copes with the load: see {@link AdaptiveLimit}.
+ */
+class HostBulkheads {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Loggers.get(HostBulkheads.class);
+
+  /**
+   * Maximum number of hosts whose limit is remembered while they have nothing in flight.
+   */
+  private static final int MAX_REMEMBERED_HOSTS = 256;
+
+  /**
+   * Initial number of concurrent posts per host.
+   */
+  private final int initialLimit;
+
+  /**
+   * Maximum number of concurrent posts per host.
+   */
+  private final int maxLimit;
+
+  /**
+   * Bulkheads of the hosts with posts in flight, or saturated.
+   */
+  private final Map<String, Bulkhead> bulkheads = new HashMap<>();
+
+  /**
+   * Concurrency limits of the hosts, kept while the hosts are idle, least recently used first.
+   */
+  private final Map<String, AdaptiveLimit> limits =
+      new LinkedHashMap<String, AdaptiveLimit>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AdaptiveLimit> eldest) {
+          return size() > MAX_REMEMBERED_HOSTS;
+        }
+      };
+
+  /**
+   * Constructor.
+   *
+   * @param initialLimit Initial number of concurrent posts per host.
+   * @param maxLimit     Maximum number of concurrent posts per host. The limit is fixed if it is
+   *                     not above the initial one.
+   */
+  HostBulkheads(int initialLimit, int maxLimit) {
+    this.initialLimit = Math.max(1, initialLimit);
+    this.maxLimit = maxLimit;
+  }
+
+  /**
+   * Takes a permit to post a notification to its host, unless the host is at its limit.
+   *
+   * @param notification The notification.
+   *
+   * @return True if the caller holds a permit and must deliver the notification, then call
+   *         {@link #release}. False if the notification must wait for the host.
+   */
+  synchronized boolean tryAcquire(Notification notification) {
+    String host = host(notification.hook);
+    Bulkhead bulkhead = bulkheads.computeIfAbsent(host, key -> new Bulkhead(limit(key)));
+    if (bulkhead.inFlight < bulkhead.limit.get()) {
+      bulkhead.inFlight++;
+      return true;
+    }
+
+    bulkhead.refused = true;
+    if (bulkhead.saturatedSince == 0) {
+      bulkhead.saturatedSince = System.nanoTime();
+      LOG.warn("Teams host [{}] saturated: {} post(s) in flight. Notifications are waiting.",
+          host, bulkhead.inFlight);
+    }
+
+    return false;
+  }
+
+  /**
+   * Adjusts the host's limit to the outcome of the caller's post, then releases its permit.
+   *
+   * <p>The host has recovered once no notification had to wait for it since its previous post
+   * finished. Until then, its bulkhead is kept even with no post in flight.
+   *
+   * @param hook       The hook URL of the notification the caller just delivered.
+   * @param start      Time the post started at, in nanoseconds.
+   * @param latency    Duration of the post, in nanoseconds.
+   * @param success    Whether the post succeeded.
+   * @param statusCode The HTTP status code of the post. 0 if no response was received.
+   */
+  synchronized void release(
+      String hook, long start, long latency, boolean success, int statusCode) {
+    String host = host(hook);
+    Bulkhead bulkhead = bulkheads.get(host);
+    if (bulkhead == null) {
+      return;
+    }
+
+    int before = bulkhead.limit.get();
+    if (bulkhead.limit.record(start, latency, success, statusCode, bulkhead.inFlight >= before)) {
+      LOG.info("Teams host [{}] concurrency limit lowered to {} (HTTP {}, latency {} ms)", host,
+          bulkhead.limit.get(), statusCode, bulkhead.limit.recentLatencyMillis());
+    } else if (bulkhead.limit.get() > before) {
+      LOG.debug("Teams host [{}] concurrency limit raised to {}", host, bulkhead.limit.get());
+    }
+
+    bulkhead.inFlight--;
+    if (!bulkhead.refused) {
+      recovered(host, bulkhead);
+    }
+
+    bulkhead.refused = false;
+  }
+
+  /**
+   * Gets the state of the hosts with posts in flight or notifications waiting, forgetting the
+   * saturated hosts left with neither.
+   *
+   * @param waiting The number of queued notifications, by host.
+   *
+   * @return The host states.
+   */
+  synchronized List<DeliveryState.Host> states(Map<String, Integer> waiting) {
+    long now = System.nanoTime();
+    List<DeliveryState.Host> states = new ArrayList<>();
+    for (Map.Entry<String, Bulkhead> entry : new ArrayList<>(bulkheads.entrySet())) {
+      Bulkhead bulkhead = entry.getValue();
+      if (bulkhead.inFlight == 0 && !waiting.containsKey(entry.getKey())) {
+        // Its waiting notifications were shed or superseded away before it was posted to again.
+        recovered(entry.getKey(), bulkhead);
+        continue;
+      }
+
+      DeliveryState.Host state = new DeliveryState.Host();
+      state.host = entry.getKey();
+      state.inFlight = bulkhead.inFlight;
+      state.limit = bulkhead.limit.get();
+      state.waiting = waiting.getOrDefault(state.host, 0);
+      state.saturatedMillis = bulkhead.saturatedSince == 0
+          ? 0
+          : TimeUnit.NANOSECONDS.toMillis(now - bulkhead.saturatedSince);
+      states.add(state);
+    }
+
+    return states;
+  }
+
+  /**
+   * Clears the saturation of a host, and forgets its bulkhead if it has no post in flight.
+   *
+   * @param host     The host.
+   * @param bulkhead Its bulkhead.
+   */
+  private void recovered(String host, Bulkhead bulkhead) {
+    if (bulkhead.saturatedSince != 0) {
+      LOG.info("Teams host [{}] recovered after {} ms of saturation", host,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - bulkhead.saturatedSince));
+      bulkhead.saturatedSince = 0;
+    }
+
+    if (bulkhead.inFlight == 0) {
+      bulkheads.remove(host);
+    }
+  }
+
+  /**
+   * Gets the concurrency limit of a host, remembered from its previous posts if any.
+   *
+   * @param host The host.
+   *
+   * @return The limit.
+   */
+  private AdaptiveLimit limit(String host) {
+    return limits.computeIfAbsent(host, key -> new AdaptiveLimit(initialLimit, maxLimit));
+  }
+
+  /**
+   * Gets the host a hook posts to.
+   *
+   * @param hook The hook URL.
+   *
+   * @return The host and port. The hook itself if it is not a valid URL.
+   */
+  static String host(String hook) {
+    try {
+      return new URL(hook).getAuthority();
+    } catch (MalformedURLException e) {
+      return hook;
+    }
+  }
+
+  /**
+   * The concurrency state of one host.
+   */
+  private static class Bulkhead {
+
+    /**
+     * The host's concurrency limit.
+     */
+    final AdaptiveLimit limit;
+
+    /**
+     * Number of posts in flight.
+     */
+    int inFlight;
+
+    /**
+     * Whether a notification had to wait for the host since its last post finished.
+     */
+    boolean refused;
+
+    /**
+     * Time the host became saturated at, in nanoseconds. 0 if it is not saturated.
+     */
+    long saturatedSince;
+
+    /**
+     * Constructor.
+     *
+     * @param limit The host's concurrency limit.
+     */
+    Bulkhead(AdaptiveLimit limit) {
+      this.limit = limit;
+    }
+  }
+}
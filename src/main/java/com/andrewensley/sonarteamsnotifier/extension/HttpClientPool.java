@@ -0,0 +1,648 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import com.andrewensley.sonarteamsnotifier.domain.Constants;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.security.KeyManagementException;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.auth.AUTH;
+import org.apache.http.auth.AuthScheme;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.AuthState;
+import org.apache.http.auth.MalformedChallengeException;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.AuthCache;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.TrustAllStrategy;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.BasicAuthCache;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.ssl.SSLContextBuilder;
+import org.apache.http.util.EntityUtils;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * A pooled Apache HTTP Client, configured once from the global plugin settings and shared by every
+ * {@link TeamsHttpClient} request so connections are reused across notifications.
+ */
+class HttpClientPool implements Closeable {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Loggers.get(HttpClientPool.class);
+
+  /**
+   * Maximum number of pooled connections.
+   */
+  private static final int MAX_TOTAL = 50;
+
+  /**
+   * Maximum number of pooled connections per route.
+   */
+  private static final int MAX_PER_ROUTE = 10;
+
+  /**
+   * Name of the Basic authentication scheme.
+   */
+  private static final String BASIC = "Basic";
+
+  /**
+   * Default maximum time an idle connection is kept alive, in seconds.
+   */
+  static final int DEFAULT_KEEP_ALIVE_MAX = 30;
+
+  /**
+   * Default time after which idle connections are closed by the evictor, in seconds.
+   */
+  static final int DEFAULT_IDLE_TIMEOUT = 30;
+
+  /**
+   * Time after which a pooled connection is checked before being reused, in milliseconds.
+   */
+  private static final int VALIDATE_AFTER_INACTIVITY = 2000;
+
+  /**
+   * Time between sweeps of the idle connection evictor, in seconds.
+   */
+  private static final int EVICTION_INTERVAL = 5;
+
+  /**
+   * Connect timeout of warm-up requests, in milliseconds.
+   */
+  private static final int WARM_UP_TIMEOUT = 5000;
+
+  /**
+   * The settings this pool was configured from, used to detect changes.
+   */
+  private final List<Object> configuration;
+
+  /**
+   * Whether or not to bypass HTTPS validation.
+   */
+  private final boolean bypassHttpsValidation;
+
+  /**
+   * Maximum time an idle connection is kept alive, in seconds, whatever the server allows.
+   */
+  private final int keepAliveMax;
+
+  /**
+   * The proxy, if enabled.
+   */
+  private final Optional<HttpHost> proxy;
+
+  /**
+   * The proxy credentials, if proxy authentication is enabled.
+   */
+  private final Optional<UsernamePasswordCredentials> proxyCredentials;
+
+  /**
+   * Credentials provider shared by all requests.
+   */
+  private final BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+
+  /**
+   * Authentication schemes that succeeded, shared by all requests, so steady-state requests
+   * authenticate to the proxy preemptively instead of waiting for its challenge.
+   */
+  private final AuthCache authCache = new BasicAuthCache();
+
+  /**
+   * The resolver of target and proxy hosts.
+   */
+  private final DnsResolver dnsResolver;
+
+  /**
+   * The connection manager.
+   */
+  private final PoolingHttpClientConnectionManager connectionManager;
+
+  /**
+   * Internal Apache HTTP Client.
+   */
+  private final CloseableHttpClient httpClient;
+
+  /**
+   * Background closer of expired and idle connections. Null for probe pools, which are not kept.
+   */
+  private final IdleConnectionEvictor evictor;
+
+  /**
+   * The recorder of connection phase timings. Null unless the pool is used by a probe.
+   */
+  private final ProbeTimings timings;
+
+  /**
+   * Constructor.
+   *
+   * @param bypassHttpsValidation Whether or not to bypass HTTPS validation.
+   * @param proxyIp               The proxy host name or IP.
+   * @param proxyPort             The proxy port.
+   * @param proxyUser             The username for proxy authentication.
+   * @param proxyPass             The password for proxy authentication.
+   */
+  HttpClientPool(
+      boolean bypassHttpsValidation,
+      Optional<String> proxyIp,
+      Optional<Integer> proxyPort,
+      Optional<String> proxyUser,
+      Optional<String> proxyPass
+  ) {
+    this(bypassHttpsValidation, proxyIp, proxyPort, proxyUser, proxyPass,
+        SystemDefaultDnsResolver.INSTANCE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param bypassHttpsValidation Whether or not to bypass HTTPS validation.
+   * @param proxyIp               The proxy host name or IP.
+   * @param proxyPort             The proxy port.
+   * @param proxyUser             The username for proxy authentication.
+   * @param proxyPass             The password for proxy authentication.
+   * @param dnsResolver           The resolver of target and proxy hosts.
+   */
+  HttpClientPool(
+      boolean bypassHttpsValidation,
+      Optional<String> proxyIp,
+      Optional<Integer> proxyPort,
+      Optional<String> proxyUser,
+      Optional<String> proxyPass,
+      DnsResolver dnsResolver
+  ) {
+    this(bypassHttpsValidation, proxyIp, proxyPort, proxyUser, proxyPass, dnsResolver,
+        DEFAULT_KEEP_ALIVE_MAX, DEFAULT_IDLE_TIMEOUT, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param bypassHttpsValidation Whether or not to bypass HTTPS validation.
+   * @param proxyIp               The proxy host name or IP.
+   * @param proxyPort             The proxy port.
+   * @param proxyUser             The username for proxy authentication.
+   * @param proxyPass             The password for proxy authentication.
+   * @param dnsResolver           The resolver of target and proxy hosts.
+   * @param keepAliveMax          Maximum time an idle connection is kept alive, in seconds.
+   * @param idleTimeout           Time after which idle connections are closed, in seconds.
+   * @param timings               The recorder of connection phase timings. Null for none.
+   */
+  private HttpClientPool(
+      boolean bypassHttpsValidation,
+      Optional<String> proxyIp,
+      Optional<Integer> proxyPort,
+      Optional<String> proxyUser,
+      Optional<String> proxyPass,
+      DnsResolver dnsResolver,
+      int keepAliveMax,
+      int idleTimeout,
+      ProbeTimings timings
+  ) {
+    this.timings = timings;
+    this.dnsResolver = timings == null ? dnsResolver : timings.resolver(dnsResolver);
+    this.configuration = Arrays.asList(
+        bypassHttpsValidation, proxyIp, proxyPort, proxyUser, proxyPass, keepAliveMax, idleTimeout
+    );
+    this.keepAliveMax = Math.max(0, keepAliveMax);
+    this.bypassHttpsValidation = bypassHttpsValidation;
+    this.proxy = proxyIp.isPresent() && proxyPort.isPresent()
+        ? Optional.of(new HttpHost(proxyIp.get(), proxyPort.get()))
+        : Optional.empty();
+    this.proxyCredentials = proxy.isPresent() && proxyUser.isPresent() && proxyPass.isPresent()
+        ? Optional.of(new UsernamePasswordCredentials(proxyUser.get(), proxyPass.get()))
+        : Optional.empty();
+    proxyCredentials.ifPresent(credentials -> authCache.put(proxy.get(), proxyBasicScheme()));
+    this.connectionManager = new TracedConnectionManager(socketFactoryRegistry(), this.dnsResolver);
+    this.connectionManager.setMaxTotal(MAX_TOTAL);
+    this.connectionManager.setDefaultMaxPerRoute(MAX_PER_ROUTE);
+    this.connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+    this.httpClient = buildHttpClient();
+    if (timings == null) {
+      // Close connections the server or proxy may have dropped before a post finds them stale.
+      this.evictor = new IdleConnectionEvictor(
+          connectionManager,
+          EVICTION_INTERVAL,
+          TimeUnit.SECONDS,
+          Math.max(0, idleTimeout),
+          TimeUnit.SECONDS
+      );
+      this.evictor.start();
+    } else {
+      this.evictor = null;
+    }
+  }
+
+  /**
+   * Static pattern constructor, reading the global plugin settings.
+   *
+   * @param settings    The SonarQube Configuration settings.
+   * @param dnsResolver The resolver of target and proxy hosts.
+   *
+   * @return The HttpClientPool
+   */
+  static HttpClientPool of(Configuration settings, DnsResolver dnsResolver) {
+    return new HttpClientPool(
+        settings.getBoolean(Constants.BYPASS_HTTPS_VALIDATION).orElse(false),
+        settings.get(Constants.PROXY_IP),
+        settings.getInt(Constants.PROXY_PORT),
+        settings.get(Constants.PROXY_USER),
+        settings.get(Constants.PROXY_PASS),
+        dnsResolver,
+        settings.getInt(Constants.KEEP_ALIVE_MAX).orElse(DEFAULT_KEEP_ALIVE_MAX),
+        settings.getInt(Constants.IDLE_TIMEOUT).orElse(DEFAULT_IDLE_TIMEOUT),
+        null
+    );
+  }
+
+  /**
+   * Static pattern constructor of a pool used by a single probe, reading the global plugin
+   * settings. Its connections are never shared with notifications, so every phase is measured.
+   *
+   * @param settings    The SonarQube Configuration settings.
+   * @param dnsResolver The resolver of target and proxy hosts.
+   * @param timings     The recorder of connection phase timings.
+   *
+   * @return The HttpClientPool
+   */
+  static HttpClientPool probe(
+      Configuration settings, DnsResolver dnsResolver, ProbeTimings timings) {
+    return new HttpClientPool(
+        settings.getBoolean(Constants.BYPASS_HTTPS_VALIDATION).orElse(false),
+        settings.get(Constants.PROXY_IP),
+        settings.getInt(Constants.PROXY_PORT),
+        settings.get(Constants.PROXY_USER),
+        settings.get(Constants.PROXY_PASS),
+        dnsResolver,
+        DEFAULT_KEEP_ALIVE_MAX,
+        DEFAULT_IDLE_TIMEOUT,
+        timings
+    );
+  }
+
+  /**
+   * Checks if this pool was configured from the current settings.
+   *
+   * @param settings The SonarQube Configuration settings.
+   *
+   * @return True if the settings did not change. False if they did.
+   */
+  boolean matches(Configuration settings) {
+    return configuration.equals(Arrays.asList(
+        settings.getBoolean(Constants.BYPASS_HTTPS_VALIDATION).orElse(false),
+        settings.get(Constants.PROXY_IP),
+        settings.getInt(Constants.PROXY_PORT),
+        settings.get(Constants.PROXY_USER),
+        settings.get(Constants.PROXY_PASS),
+        settings.getInt(Constants.KEEP_ALIVE_MAX).orElse(DEFAULT_KEEP_ALIVE_MAX),
+        settings.getInt(Constants.IDLE_TIMEOUT).orElse(DEFAULT_IDLE_TIMEOUT)
+    ));
+  }
+
+  /**
+   * Gets the pooled HTTP client.
+   *
+   * @return The HTTP client. It must not be closed by callers.
+   */
+  CloseableHttpClient client() {
+    return httpClient;
+  }
+
+  /**
+   * Creates the context of a request, carrying the cached authentication state of the proxy.
+   *
+   * <p>The proxy is first authenticated with Basic preemptively, including on the CONNECT request
+   * of HTTPS tunnels. If it challenges with another scheme instead, the scheme it asks for is
+   * used, and {@link #remember(HttpClientContext)} stops the Basic attempts.
+   *
+   * @return The request context.
+   */
+  HttpClientContext context() {
+    HttpClientContext context = HttpClientContext.create();
+    context.setAuthCache(authCache);
+    if (proxyCredentials.isPresent()) {
+      //noinspection OptionalGetWithoutIsPresent
+      AuthScheme scheme = authCache.get(proxy.get());
+      if (scheme != null) {
+        AuthState proxyAuthState = new AuthState();
+        proxyAuthState.update(scheme, proxyCredentials.get());
+        context.setAttribute(HttpClientContext.PROXY_AUTH_STATE, proxyAuthState);
+      }
+    }
+
+    return context;
+  }
+
+  /**
+   * Updates the cached authentication state of the proxy after a request. Basic is cached by the
+   * client itself when it succeeds. Other schemes cannot be sent preemptively: Digest needs a
+   * fresh nonce, and connection-based schemes, such as NTLM and Kerberos, are reused with the
+   * pooled connections they authenticated instead. Basic credentials are then no longer sent.
+   *
+   * @param context The context of the request.
+   */
+  void remember(HttpClientContext context) {
+    AuthState proxyAuthState = context.getProxyAuthState();
+    if (!proxy.isPresent() || proxyAuthState == null) {
+      return;
+    }
+
+    AuthScheme scheme = proxyAuthState.getAuthScheme();
+    if (scheme != null && !BASIC.equalsIgnoreCase(scheme.getSchemeName())
+        && authCache.get(proxy.get()) != null) {
+      LOG.debug("Proxy authenticates with {}. No longer sending Basic credentials preemptively.",
+          scheme.getSchemeName());
+      authCache.remove(proxy.get());
+    }
+  }
+
+  /**
+   * Gets the proxy requests are sent through.
+   *
+   * @return The proxy, if enabled.
+   */
+  Optional<HttpHost> proxy() {
+    return proxy;
+  }
+
+  /**
+   * Gets the current state of the pooled connections.
+   *
+   * @return The number of leased, available and pending connections, and the maximum.
+   */
+  PoolStats stats() {
+    return connectionManager.getTotalStats();
+  }
+
+  /**
+   * Adds the proxy credentials for a target host, as some proxies challenge on its behalf.
+   *
+   * @param host The target host.
+   * @param port The target port.
+   */
+  void addTargetCredentials(String host, int port) {
+    if (proxyCredentials.isPresent()) {
+      AuthScope scope = new AuthScope(host, port);
+      if (credentialsProvider.getCredentials(scope) == null) {
+        credentialsProvider.setCredentials(scope, proxyCredentials.get());
+      }
+    }
+  }
+
+  /**
+   * Sends a request through the proxy if one is set, and handles its response.
+   *
+   * @param url     The URL of the request.
+   * @param request The request, with the path and query of the URL.
+   * @param handler The handler of the response. The response is released after it.
+   * @param <T>     The type of the handled response.
+   *
+   * @return The handled response.
+   *
+   * @throws IOException If the request fails.
+   */
+  <T> T execute(URL url, HttpRequestBase request, ResponseHandler<? extends T> handler)
+      throws IOException {
+    int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+    HttpHost target = new HttpHost(url.getHost(), port, url.getProtocol());
+    addTargetCredentials(url.getHost(), port);
+    proxy.ifPresent(host -> request.setConfig(RequestConfig.custom().setProxy(host).build()));
+    HttpClientContext context = context();
+    try {
+      return httpClient.execute(target, request, handler, context);
+    } finally {
+      remember(context);
+    }
+  }
+
+  /**
+   * Resolves a hook's host and opens a pooled connection to it, through the proxy if one is set.
+   *
+   * @param hook The hook URL, or any URL on the same host.
+   */
+  void warmUp(URL hook) {
+    try {
+      int port = hook.getPort() == -1 ? hook.getDefaultPort() : hook.getPort();
+      dnsResolver.resolve(proxy.map(HttpHost::getHostName).orElse(hook.getHost()));
+
+      HttpHost target = new HttpHost(hook.getHost(), port, hook.getProtocol());
+      addTargetCredentials(hook.getHost(), port);
+      HttpHead head = new HttpHead("/");
+      RequestConfig.Builder config = RequestConfig.custom()
+          .setConnectTimeout(WARM_UP_TIMEOUT)
+          .setSocketTimeout(WARM_UP_TIMEOUT);
+      proxy.ifPresent(config::setProxy);
+      head.setConfig(config.build());
+      HttpClientContext context = context();
+      try (CloseableHttpResponse response = httpClient.execute(target, head, context)) {
+        EntityUtils.consume(response.getEntity());
+        LOG.debug("Warmed up connection to [{}]: HTTP {}", target, response.getStatusLine());
+      }
+
+      remember(context);
+    } catch (IOException e) {
+      LOG.warn("Unable to warm up connection to [{}]: {}", hook.getHost(), e.getMessage());
+    }
+  }
+
+  /**
+   * Creates the Basic scheme sent preemptively to the proxy. It takes a bare proxy challenge
+   * first, so that it answers in the Proxy-Authorization header rather than the Authorization one.
+   *
+   * @return The scheme.
+   */
+  private static AuthScheme proxyBasicScheme() {
+    BasicScheme scheme = new BasicScheme();
+    try {
+      scheme.processChallenge(new BasicHeader(AUTH.PROXY_AUTH, BASIC));
+    } catch (MalformedChallengeException e) {
+      throw new IllegalStateException("Invalid Basic proxy challenge", e);
+    }
+
+    return scheme;
+  }
+
+  /**
+   * Closes the HTTP client and every pooled connection.
+   */
+  @Override
+  public void close() {
+    if (evictor != null) {
+      evictor.shutdown();
+    }
+
+    try {
+      httpClient.close();
+    } catch (IOException e) {
+      LOG.error("Unable to close HTTP Client", e);
+    }
+  }
+
+  /**
+   * Builds the HTTP client.
+   *
+   * @return The HTTP client.
+   */
+  private CloseableHttpClient buildHttpClient() {
+    HttpClientBuilder builder = HttpClients.custom()
+        .setConnectionManager(connectionManager)
+        .setKeepAliveStrategy(this::keepAliveDuration);
+    if (proxyCredentials.isPresent()) {
+      //noinspection OptionalGetWithoutIsPresent
+      HttpHost proxyHost = proxy.get();
+      credentialsProvider.setCredentials(
+          new AuthScope(proxyHost.getHostName(), proxyHost.getPort()),
+          proxyCredentials.get()
+      );
+      builder.setDefaultCredentialsProvider(credentialsProvider);
+      // Every request uses the same credentials, so connections authenticated with NTLM or
+      // Kerberos can be reused by any of them.
+      builder.disableConnectionState();
+    }
+
+    return builder.build();
+  }
+
+  /**
+   * Gets how long a connection may be kept alive after a response: as long as the server's
+   * {@code Keep-Alive} header allows, capped by the configured maximum.
+   *
+   * @param response The response.
+   * @param context  The request context.
+   *
+   * @return The keep-alive duration, in milliseconds.
+   */
+  private long keepAliveDuration(HttpResponse response, HttpContext context) {
+    long max = TimeUnit.SECONDS.toMillis(keepAliveMax);
+    long server = DefaultConnectionKeepAliveStrategy.INSTANCE
+        .getKeepAliveDuration(response, context);
+    return server < 0 ? max : Math.min(server, max);
+  }
+
+  /**
+   * Gets the socket factories of the connection manager. The SSL context is initialized here, so
+   * the first notification does not pay for it.
+   *
+   * @return The socket factory registry.
+   */
+  private Registry<ConnectionSocketFactory> socketFactoryRegistry() {
+    SSLConnectionSocketFactory sslSocketFactory = SSLConnectionSocketFactory.getSocketFactory();
+    if (bypassHttpsValidation) {
+      try {
+        SSLContext sslContext = new SSLContextBuilder()
+            .loadTrustMaterial(null, TrustAllStrategy.INSTANCE)
+            .build();
+        sslSocketFactory = new SSLConnectionSocketFactory(
+            sslContext,
+            NoopHostnameVerifier.INSTANCE
+        );
+      } catch (NoSuchAlgorithmException | KeyStoreException | KeyManagementException e) {
+        LOG.error("Error bypassing HTTPS Validation", e);
+      }
+    }
+
+    if (timings != null) {
+      return RegistryBuilder.<ConnectionSocketFactory>create()
+          .register("http", timings.plain(PlainConnectionSocketFactory.getSocketFactory()))
+          .register("https", timings.tls(sslSocketFactory))
+          .build();
+    }
+
+    return RegistryBuilder.<ConnectionSocketFactory>create()
+        .register("http", PlainConnectionSocketFactory.getSocketFactory())
+        .register("https", sslSocketFactory)
+        .build();
+  }
+
+  /**
+   * Connection manager recording the time posts wait for a pooled connection as flight recorder
+   * events.
+   */
+  private static class TracedConnectionManager extends PoolingHttpClientConnectionManager {
+
+    /**
+     * Constructor.
+     *
+     * @param registry    The socket factories.
+     * @param dnsResolver The DNS resolver.
+     */
+    TracedConnectionManager(
+        Registry<ConnectionSocketFactory> registry,
+        DnsResolver dnsResolver
+    ) {
+      super(registry, dnsResolver);
+    }
+
+    /**
+     * Requests a connection, recording the time until it is leased.
+     *
+     * @param route The route of the connection.
+     * @param state The expected state of the connection.
+     *
+     * @return The connection request.
+     */
+    @Override
+    public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+      ConnectionRequest request = super.requestConnection(route, state);
+      return new ConnectionRequest() {
+        @Override
+        public HttpClientConnection get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+          PipelineEvents.Span span = PipelineEvents.begin(PipelineEvents.Stage.CONNECTION_LEASE)
+              .host(route.getTargetHost().toHostString());
+          try {
+            return request.get(timeout, unit);
+          } finally {
+            span.finish();
+          }
+        }
+
+        @Override
+        public boolean cancel() {
+          return request.cancel();
+        }
+      };
+    }
+  }
+}
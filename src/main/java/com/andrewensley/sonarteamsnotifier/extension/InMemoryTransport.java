@@ -0,0 +1,131 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transport capturing payloads in memory instead of sending them, for dry runs and capacity tests.
+ */
+class InMemoryTransport implements Transport {
+
+  /**
+   * Maximum number of payloads kept. The oldest ones are dropped first.
+   */
+  private final int capacity;
+
+  /**
+   * The last captured payloads, oldest first.
+   */
+  private final Deque<Captured> captured;
+
+  /**
+   * Total number of payloads sent through this transport.
+   */
+  private final AtomicLong sent = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param capacity Maximum number of payloads kept.
+   */
+  InMemoryTransport(int capacity) {
+    this.capacity = Math.max(1, capacity);
+    this.captured = new ArrayDeque<>(Math.min(this.capacity, 1024));
+  }
+
+  /**
+   * Captures a payload.
+   *
+   * @param hook    The hook URL.
+   * @param payload The payload to send.
+   *
+   * @return Always true.
+   */
+  @Override
+  public boolean send(String hook, Payload payload) {
+    sent.incrementAndGet();
+    synchronized (captured) {
+      if (captured.size() == capacity) {
+        captured.removeFirst();
+      }
+
+      captured.addLast(new Captured(hook, payload));
+    }
+
+    return true;
+  }
+
+  /**
+   * Gets the captured payloads.
+   *
+   * @return The last captured payloads, oldest first.
+   */
+  List<Captured> captured() {
+    synchronized (captured) {
+      return new ArrayList<>(captured);
+    }
+  }
+
+  /**
+   * Gets the number of payloads sent through this transport, including dropped ones.
+   *
+   * @return The number of payloads.
+   */
+  long sent() {
+    return sent.get();
+  }
+
+  /**
+   * Gets the state of this transport to publish.
+   *
+   * @param limit Maximum number of captured payloads to include.
+   *
+   * @return The number of payloads sent and the last ones captured.
+   */
+  DeliveryState.Captured state(int limit) {
+    List<Captured> kept = captured();
+    DeliveryState.Captured state = new DeliveryState.Captured();
+    state.sent = sent();
+    state.kept = kept.size();
+    state.last = new ArrayList<>();
+    for (Captured payload : kept.subList(Math.max(0, kept.size() - limit), kept.size())) {
+      DeliveryState.CapturedPayload published = new DeliveryState.CapturedPayload();
+      published.hookId = ClusterCoordinator.hookId(payload.hook);
+      published.format = payload.payload.format.name();
+      published.content = payload.payload.content;
+      state.last.add(published);
+    }
+
+    return state;
+  }
+
+  /**
+   * A captured payload.
+   */
+  static class Captured {
+
+    /**
+     * The hook URL.
+     */
+    final String hook;
+
+    /**
+     * The payload.
+     */
+    final Payload payload;
+
+    /**
+     * Constructor.
+     *
+     * @param hook    The hook URL.
+     * @param payload The payload.
+     */
+    Captured(String hook, Payload payload) {
+      this.hook = hook;
+      this.payload = payload;
+    }
+  }
+}
@@ -0,0 +1,601 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.andrewensley.sonarteamsnotifier.domain.Constants;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.sonar.api.Startable;
+import org.sonar.api.ce.ComputeEngineSide;
+import org.sonar.api.ce.posttask.Branch;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Lists the top new blocker and critical issues of failing quality gates in their messages.
+ *
+ * <p>Issues are searched through the server's web API, most severe first, one page at a time.
+ * Each page is read as a stream and the search stops as soon as enough issues are found, so only
+ * the listed issues are ever held in memory. The search has a strict time budget: past it, the
+ * notification is sent without issues.
+ *
+ * <p>Searches run on a pool of their own threads, which then send the notification, so the
+ * Compute Engine worker finishing the analysis never waits for them. When every search thread is
+ * busy, the notification is sent right away, without issues.
+ */
+@ComputeEngineSide
+public class IssueEnricher implements Startable {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Loggers.get(IssueEnricher.class);
+
+  /**
+   * Default time budget of a search, in milliseconds.
+   */
+  private static final long DEFAULT_BUDGET = 2000;
+
+  /**
+   * Number of issues per page of the search.
+   */
+  private static final int PAGE_SIZE = 100;
+
+  /**
+   * Maximum number of issues the web API pages through.
+   */
+  private static final int MAX_RESULTS = 10000;
+
+  /**
+   * The listed severities, most severe first.
+   */
+  private static final List<String> SEVERITIES = Arrays.asList("BLOCKER", "CRITICAL");
+
+  /**
+   * Maximum number of concurrent searches.
+   */
+  private static final int MAX_SEARCHES = 8;
+
+  /**
+   * Time an idle search thread is kept for, in seconds.
+   */
+  private static final long KEEP_ALIVE = 60;
+
+  /**
+   * SonarQube settings.
+   */
+  private final Configuration settings;
+
+  /**
+   * Number of issues listed. 0 when disabled.
+   */
+  private int top;
+
+  /**
+   * Time budget of a search, in milliseconds.
+   */
+  private long budget;
+
+  /**
+   * The base URL of the web API, without trailing slash.
+   */
+  private String apiUrl;
+
+  /**
+   * The authorization header value.
+   */
+  private String authorization;
+
+  /**
+   * Runs the searches and sends their notifications. Null unless started.
+   */
+  private ThreadPoolExecutor executor;
+
+  /**
+   * Abandons the searches out of time. Null unless started.
+   */
+  private ScheduledExecutorService timer;
+
+  /**
+   * The HTTP client of the web API. Null unless started.
+   */
+  private CloseableHttpClient client;
+
+  /**
+   * Constructor.
+   *
+   * @param settings The SonarQube Configuration settings.
+   */
+  public IssueEnricher(Configuration settings) {
+    this.settings = settings;
+  }
+
+  /**
+   * Starts the search threads, if issues are listed and a token is set.
+   */
+  @Override
+  public void start() {
+    top = Math.max(0, settings.getInt(Constants.ISSUES_TOP).orElse(0));
+    if (top == 0) {
+      return;
+    }
+
+    Optional<String> token = settings.get(Constants.ISSUES_TOKEN)
+        .map(String::trim)
+        .filter(value -> !value.isEmpty());
+    if (!token.isPresent()) {
+      LOG.warn("New issues are not listed in Teams notifications: {} is not set",
+          Constants.ISSUES_TOKEN);
+      top = 0;
+      return;
+    }
+
+    authorization = "Basic "
+        + Base64.getEncoder().encodeToString((token.get() + ":").getBytes(UTF_8));
+    budget = Math.max(1, settings.getLong(Constants.ISSUES_BUDGET).orElse(DEFAULT_BUDGET));
+    apiUrl = settings.get(Constants.ISSUES_API_URL)
+        .map(String::trim)
+        .filter(url -> !url.isEmpty())
+        .orElseGet(this::localApiUrl)
+        .replaceAll("/+$", "");
+    client = HttpClients.custom().disableCookieManagement().build();
+    AtomicInteger threads = new AtomicInteger();
+    ThreadFactory threadFactory = runnable -> {
+      Thread thread = new Thread(runnable, "teams-notifier-issues-" + threads.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    };
+    executor = new ThreadPoolExecutor(0, MAX_SEARCHES, KEEP_ALIVE, TimeUnit.SECONDS,
+        new SynchronousQueue<>(), threadFactory);
+    timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "teams-notifier-issues-timer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    LOG.info("Listing up to {} new issue(s) of failing quality gates from {}", top, apiUrl);
+  }
+
+  /**
+   * Stops the search threads, abandoning the searches in progress, whose notifications are then
+   * sent without issues.
+   */
+  @Override
+  public void stop() {
+    if (executor == null) {
+      return;
+    }
+
+    timer.shutdownNow();
+    executor.shutdown();
+    try {
+      client.close();
+      executor.awaitTermination(budget, TimeUnit.MILLISECONDS);
+    } catch (IOException e) {
+      LOG.debug("Unable to close the issue search client: {}", e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Lists the top new issues of a failing quality gate in its message, then sends it.
+   *
+   * @param message  The message.
+   * @param snapshot The snapshot of the project analysis.
+   * @param send     Sends the message. Called on a search thread once the issues are found, or
+   *                 right away with the message itself if the gate passed, issues are not listed
+   *                 or every search thread is busy. Past the time budget, or if the search fails,
+   *                 it is called with the message itself.
+   */
+  void enrich(Message message, AnalysisSnapshot snapshot, Consumer<Message> send) {
+    if (executor == null || message.isEmpty() || message.passing) {
+      send.accept(message);
+      return;
+    }
+
+    Search search = new Search(snapshot, message, send);
+    try {
+      executor.execute(search);
+    } catch (RejectedExecutionException e) {
+      LOG.warn("{} issue searches already in progress. Notifying [{}] without new issues.",
+          MAX_SEARCHES, snapshot.projectKey());
+      send.accept(message);
+      return;
+    }
+
+    try {
+      timer.schedule(search::abort, budget, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      search.abort();
+    }
+  }
+
+  /**
+   * Gets the base URL of this server's web API, on the address it listens on.
+   *
+   * @return The URL.
+   */
+  private String localApiUrl() {
+    String host = settings.get("sonar.web.host")
+        .map(String::trim)
+        .filter(value -> !value.isEmpty() && !"0.0.0.0".equals(value) && !"::".equals(value))
+        .orElse("localhost");
+    return "http://" + (host.contains(":") ? "[" + host + "]" : host) + ":"
+        + settings.getInt("sonar.web.port").orElse(9000)
+        + settings.get("sonar.web.context").orElse("");
+  }
+
+  /**
+   * Search of the top new issues of an analysis, sending its notification once done.
+   */
+  private final class Search implements Runnable {
+
+    /**
+     * The snapshot of the project analysis.
+     */
+    private final AnalysisSnapshot snapshot;
+
+    /**
+     * The message to list the issues in.
+     */
+    private final Message message;
+
+    /**
+     * Sends the message.
+     */
+    private final Consumer<Message> send;
+
+    /**
+     * Time the search was submitted at, in nanoseconds.
+     */
+    private final long start = System.nanoTime();
+
+    /**
+     * The parameter selecting the analyzed branch or pull request, e.g. {@code branch}. Null for
+     * the main branch.
+     */
+    private final String branchParam;
+
+    /**
+     * Whether the search was abandoned.
+     */
+    private volatile boolean aborted;
+
+    /**
+     * The request in progress. Null between requests.
+     */
+    private volatile HttpGet request;
+
+    /**
+     * Constructor.
+     *
+     * @param snapshot The snapshot of the project analysis.
+     * @param message  The message to list the issues in.
+     * @param send     Sends the message.
+     */
+    Search(AnalysisSnapshot snapshot, Message message, Consumer<Message> send) {
+      this.snapshot = snapshot;
+      this.message = message;
+      this.send = send;
+      if (snapshot.isMainBranch()) {
+        this.branchParam = null;
+      } else if (snapshot.branchType().filter(Branch.Type.PULL_REQUEST::equals).isPresent()) {
+        this.branchParam = "pullRequest";
+      } else {
+        this.branchParam = "branch";
+      }
+    }
+
+    /**
+     * Searches the issues, then sends the message with them, or without if the search failed.
+     */
+    @Override
+    public void run() {
+      Message enriched = message;
+      try {
+        List<Message.Issue> issues = search();
+        LOG.debug("Listed {} new issue(s) of [{}] in {} ms", issues.size(), snapshot.projectKey(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (!issues.isEmpty()) {
+          enriched = message.withIssues(issues);
+        }
+      } catch (IOException | RuntimeException e) {
+        if (aborted) {
+          LOG.warn("New issues of [{}] not found within {} ms. Notifying without them.",
+              snapshot.projectKey(), budget);
+        } else {
+          LOG.warn("Unable to list new issues of [{}]: {}. Notifying without them.",
+              snapshot.projectKey(), e.getMessage());
+        }
+      }
+
+      send.accept(enriched);
+    }
+
+    /**
+     * Searches the issues, page by page, until enough are found.
+     *
+     * @return The issues, most severe first.
+     *
+     * @throws IOException If a page cannot be read, or the search was abandoned.
+     */
+    private List<Message.Issue> search() throws IOException {
+      List<Message.Issue> issues = new ArrayList<>(top);
+      for (int page = 1; issues.size() < top && page * PAGE_SIZE <= MAX_RESULTS; page++) {
+        if (read(page, issues) < PAGE_SIZE) {
+          break;
+        }
+      }
+
+      return issues;
+    }
+
+    /**
+     * Abandons the search, closing the connection of the request in progress.
+     */
+    void abort() {
+      aborted = true;
+      HttpGet current = request;
+      if (current != null) {
+        current.abort();
+      }
+    }
+
+    /**
+     * Reads a page of issues, stopping as soon as enough are found.
+     *
+     * @param page   The page number, starting at 1.
+     * @param issues The issues found so far, to add the page's to.
+     *
+     * @return Number of issues read from the page.
+     *
+     * @throws IOException If the page cannot be read.
+     */
+    private int read(int page, List<Message.Issue> issues) throws IOException {
+      HttpGet get = new HttpGet(uri(page));
+      int timeout = (int) Math.min(Integer.MAX_VALUE, budget);
+      get.setConfig(RequestConfig.custom()
+          .setConnectTimeout(timeout)
+          .setConnectionRequestTimeout(timeout)
+          .setSocketTimeout(timeout)
+          .build());
+      get.setHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.getMimeType());
+      if (authorization != null) {
+        get.setHeader(HttpHeaders.AUTHORIZATION, authorization);
+      }
+
+      request = get;
+      if (aborted) {
+        throw new InterruptedIOException("Issue search abandoned");
+      }
+
+      try (CloseableHttpResponse response = client.execute(get)) {
+        HttpEntity entity = response.getEntity();
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode != 200 || entity == null) {
+          EntityUtils.consume(entity);
+          throw new IOException("Web API answered HTTP " + statusCode + " searching issues"
+              + (statusCode == 401 || statusCode == 403
+                  ? ". Check that " + Constants.ISSUES_TOKEN + " may browse the project"
+                  : ""));
+        }
+
+        int read = read(new JsonReader(new InputStreamReader(entity.getContent(), UTF_8)), issues);
+        if (issues.size() >= top) {
+          // Drop the rest of the page instead of downloading it.
+          get.abort();
+        } else {
+          EntityUtils.consume(entity);
+        }
+
+        return read;
+      } catch (JsonParseException | IllegalStateException e) {
+        throw new IOException("Invalid issue search response", e);
+      } finally {
+        request = null;
+      }
+    }
+
+    /**
+     * Reads the issues of a page of the search.
+     *
+     * @param reader The page.
+     * @param issues The issues found so far, to add the page's to.
+     *
+     * @return Number of issues read.
+     *
+     * @throws IOException If the page cannot be read.
+     */
+    private int read(JsonReader reader, List<Message.Issue> issues) throws IOException {
+      int read = 0;
+      reader.beginObject();
+      while (reader.hasNext()) {
+        if (!"issues".equals(reader.nextName())) {
+          reader.skipValue();
+          continue;
+        }
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+          read++;
+          issue(reader).ifPresent(issues::add);
+          if (issues.size() >= top) {
+            return read;
+          }
+        }
+
+        reader.endArray();
+      }
+
+      return read;
+    }
+
+    /**
+     * Reads an issue.
+     *
+     * @param reader The page, positioned on the issue.
+     *
+     * @return The issue, if it is of a listed severity.
+     *
+     * @throws IOException If the issue cannot be read.
+     */
+    private Optional<Message.Issue> issue(JsonReader reader) throws IOException {
+      String key = "";
+      String rule = "";
+      String severity = "";
+      String component = "";
+      String text = "";
+      int line = 0;
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (reader.peek() == JsonToken.NULL) {
+          reader.skipValue();
+          continue;
+        }
+
+        switch (name) {
+          case "key":
+            key = reader.nextString();
+            break;
+          case "rule":
+            rule = reader.nextString();
+            break;
+          case "severity":
+            severity = reader.nextString();
+            break;
+          case "component":
+            component = reader.nextString();
+            break;
+          case "message":
+            text = reader.nextString();
+            break;
+          case "line":
+            line = reader.nextInt();
+            break;
+          default:
+            reader.skipValue();
+        }
+      }
+
+      reader.endObject();
+      if (!SEVERITIES.contains(severity)) {
+        return Optional.empty();
+      }
+
+      String prefix = snapshot.projectKey() + ":";
+      return Optional.of(new Message.Issue(
+          severity,
+          rule,
+          component.startsWith(prefix) ? component.substring(prefix.length()) : component,
+          line,
+          text,
+          url(key)
+      ));
+    }
+
+    /**
+     * Builds the URI of a page of the search.
+     *
+     * @param page The page number, starting at 1.
+     *
+     * @return The URI.
+     *
+     * @throws IOException If the web API URL is invalid.
+     */
+    private URI uri(int page) throws IOException {
+      try {
+        URIBuilder uri = new URIBuilder(apiUrl + "/api/issues/search")
+            .addParameter("componentKeys", snapshot.projectKey());
+        if (branchParam != null) {
+          uri.addParameter(branchParam, snapshot.branchName());
+        }
+
+        if (!"pullRequest".equals(branchParam)) {
+          // Every issue of a pull request is new.
+          uri.addParameter("sinceLeakPeriod", "true");
+        }
+
+        return uri
+            .addParameter("severities", String.join(",", SEVERITIES))
+            .addParameter("resolved", "false")
+            .addParameter("s", "SEVERITY")
+            .addParameter("asc", "false")
+            .addParameter("ps", String.valueOf(PAGE_SIZE))
+            .addParameter("p", String.valueOf(page))
+            .build();
+      } catch (URISyntaxException e) {
+        throw new IOException("Invalid issue search URL: " + e.getMessage(), e);
+      }
+    }
+
+    /**
+     * Builds the URL of an issue in SonarQube.
+     *
+     * @param key The issue key.
+     *
+     * @return The URL.
+     */
+    private String url(String key) {
+      StringBuilder url = new StringBuilder(
+          TeamsPostProjectAnalysisTask.getSonarServerUrl(settings))
+          .append("project/issues?id=").append(encode(snapshot.projectKey()))
+          .append("&open=").append(encode(key));
+      if (branchParam != null) {
+        url.append('&').append(branchParam).append('=').append(encode(snapshot.branchName()));
+      }
+
+      return url.toString();
+    }
+  }
+
+  /**
+   * Encodes a URL query parameter value.
+   *
+   * @param value The value.
+   *
+   * @return The encoded value.
+   */
+  private static String encode(String value) {
+    try {
+      return URLEncoder.encode(value, UTF_8.name());
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.sonar.api.server.ws.LocalConnector;
+
+/**
+ * GET request to the server's own web API, made on behalf of the current user.
+ */
+final class LocalApiRequest implements LocalConnector.LocalRequest {
+
+  /**
+   * The path of the web service, e.g. {@code api/users/current}.
+   */
+  private final String path;
+
+  /**
+   * The parameters.
+   */
+  private final Map<String, String> params = new LinkedHashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param path The path of the web service.
+   */
+  LocalApiRequest(String path) {
+    this.path = path;
+  }
+
+  /**
+   * Sets a parameter.
+   *
+   * @param key   The parameter name.
+   * @param value The parameter value.
+   *
+   * @return This request.
+   */
+  LocalApiRequest param(String key, Object value) {
+    params.put(key, String.valueOf(value));
+    return this;
+  }
+
+  /**
+   * Calls the web service.
+   *
+   * @param localConnector The connector to the server's web API.
+   *
+   * @return The response body, if the call succeeded and returned a JSON object.
+   */
+  Optional<JsonObject> call(LocalConnector localConnector) {
+    LocalConnector.LocalResponse response = localConnector.call(this);
+    if (response.getStatus() != 200) {
+      return Optional.empty();
+    }
+
+    try {
+      return Optional.of(new JsonParser()
+          .parse(new String(response.getBytes(), UTF_8))
+          .getAsJsonObject());
+    } catch (JsonParseException | IllegalStateException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Gets the path of the web service.
+   *
+   * @return The path.
+   */
+  @Override
+  public String getPath() {
+    return path;
+  }
+
+  /**
+   * Gets the media type of the response.
+   *
+   * @return The media type.
+   */
+  @Override
+  public String getMediaType() {
+    return "application/json";
+  }
+
+  /**
+   * Gets the HTTP method.
+   *
+   * @return The method.
+   */
+  @Override
+  public String getMethod() {
+    return "GET";
+  }
+
+  /**
+   * Checks if a parameter is set.
+   *
+   * @param key The parameter name.
+   *
+   * @return True if it is set.
+   */
+  @Override
+  public boolean hasParam(String key) {
+    return params.containsKey(key);
+  }
+
+  /**
+   * Gets a parameter.
+   *
+   * @param key The parameter name.
+   *
+   * @return The value. Null if it is not set.
+   */
+  @Override
+  public String getParam(String key) {
+    return params.get(key);
+  }
+
+  /**
+   * Gets a multi-valued parameter.
+   *
+   * @param key The parameter name.
+   *
+   * @return The value, as a single-element list. Empty if it is not set.
+   */
+  @Override
+  public List<String> getMultiParam(String key) {
+    return params.containsKey(key)
+        ? Collections.singletonList(params.get(key))
+        : Collections.emptyList();
+  }
+
+  /**
+   * Gets a header. The request has none.
+   *
+   * @param name The header name.
+   *
+   * @return Empty.
+   */
+  @Override
+  public Optional<String> getHeader(String name) {
+    return Optional.empty();
+  }
+
+  /**
+   * Gets the parameters.
+   *
+   * @return The parameters.
+   */
+  @Override
+  public Map<String, String[]> getParameterMap() {
+    Map<String, String[]> map = new LinkedHashMap<>();
+    params.forEach((key, value) -> map.put(key, new String[] {value}));
+    return map;
+  }
+}
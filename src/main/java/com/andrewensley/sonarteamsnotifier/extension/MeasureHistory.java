@@ -0,0 +1,414 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import com.andrewensley.sonarteamsnotifier.domain.Constants;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.sonar.api.Startable;
+import org.sonar.api.ce.ComputeEngineSide;
+import org.sonar.api.ce.posttask.QualityGate.Condition;
+import org.sonar.api.ce.posttask.QualityGate.EvaluationStatus;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Keeps the last quality gate condition values of each project branch, to render trends.
+ *
+ * <p>The most recently used project branches are kept in memory. Colder ones are written to the
+ * history directory when evicted and read back on their next analysis. Nothing is read from
+ * SonarQube itself.
+ */
+@ComputeEngineSide
+public class MeasureHistory implements Startable {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Loggers.get(MeasureHistory.class);
+
+  /**
+   * Version of the history file format.
+   */
+  private static final int FILE_VERSION = 1;
+
+  /**
+   * Default number of values kept per condition.
+   */
+  private static final int DEFAULT_SIZE = 5;
+
+  /**
+   * Default number of project branches kept in memory.
+   */
+  private static final int DEFAULT_MAX_PROJECTS = 1000;
+
+  /**
+   * SonarQube settings.
+   */
+  private final Configuration settings;
+
+  /**
+   * Number of values kept per condition. 0 when trends are disabled.
+   */
+  private int size;
+
+  /**
+   * Number of project branches kept in memory.
+   */
+  private int maxProjects;
+
+  /**
+   * Directory cold project branches are evicted to. Null to discard them.
+   */
+  private Path dir;
+
+  /**
+   * In memory project branch histories, least recently used first.
+   */
+  private Map<String, ProjectHistory> projects;
+
+  /**
+   * Constructor.
+   *
+   * @param settings The SonarQube Configuration settings.
+   */
+  public MeasureHistory(Configuration settings) {
+    this.settings = settings;
+  }
+
+  /**
+   * Reads the settings.
+   */
+  @Override
+  public void start() {
+    size = Math.max(0, settings.getInt(Constants.HISTORY_SIZE).orElse(DEFAULT_SIZE));
+    maxProjects = Math.max(1,
+        settings.getInt(Constants.HISTORY_MAX_PROJECTS).orElse(DEFAULT_MAX_PROJECTS));
+    dir = historyDir().orElse(null);
+    projects = new LinkedHashMap<String, ProjectHistory>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, ProjectHistory> eldest) {
+        if (size() <= maxProjects) {
+          return false;
+        }
+
+        save(eldest.getKey(), eldest.getValue());
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Writes every in memory history to disk.
+   */
+  @Override
+  public synchronized void stop() {
+    if (projects != null) {
+      projects.forEach(this::save);
+      projects.clear();
+    }
+  }
+
+  /**
+   * Checks if trends are enabled.
+   *
+   * @return True if enabled. False if not.
+   */
+  boolean isEnabled() {
+    return size > 0;
+  }
+
+  /**
+   * Records the condition values of an analysis.
+   *
+   * @param projectKey The project key.
+   * @param branch     The branch name. Empty for the main branch.
+   * @param conditions The quality gate conditions.
+   *
+   * @return The trend as of the previous analysis of the project branch.
+   */
+  synchronized Trend record(String projectKey, String branch, Collection<Condition> conditions) {
+    if (!isEnabled()) {
+      return Trend.NONE;
+    }
+
+    String key = projectKey + '@' + branch;
+    ProjectHistory history = projects.get(key);
+    if (history == null) {
+      history = load(key);
+      projects.put(key, history);
+    }
+
+    Trend trend = history.trend();
+    history.record(conditions, size);
+    return trend;
+  }
+
+  /**
+   * Gets the directory histories are evicted to.
+   *
+   * @return The directory, if any.
+   */
+  private Optional<Path> historyDir() {
+    Optional<String> configured = settings.get(Constants.HISTORY_DIR)
+        .map(String::trim)
+        .filter(value -> !value.isEmpty());
+    if (configured.isPresent()) {
+      return configured.map(Paths::get);
+    }
+
+    return settings.get("sonar.path.data")
+        .map(data -> Paths.get(data, "teams-notifier", "history"));
+  }
+
+  /**
+   * Gets the file of a project branch history.
+   *
+   * @param key The project branch key.
+   *
+   * @return The file.
+   */
+  private Path file(String key) {
+    return dir.resolve(Digests.sha256(key) + ".bin");
+  }
+
+  /**
+   * Loads a project branch history from disk.
+   *
+   * @param key The project branch key.
+   *
+   * @return The history. Empty if there is none.
+   */
+  private ProjectHistory load(String key) {
+    ProjectHistory history = new ProjectHistory();
+    if (dir == null || !Files.exists(file(key))) {
+      return history;
+    }
+
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file(key))))) {
+      if (in.readInt() != FILE_VERSION) {
+        return history;
+      }
+
+      int metrics = in.readInt();
+      for (int i = 0; i < metrics; i++) {
+        String metricKey = in.readUTF();
+        MetricHistory metric = new MetricHistory(in.readByte());
+        int count = in.readInt();
+        for (int j = 0; j < count; j++) {
+          metric.add(in.readDouble(), size);
+        }
+
+        history.metrics.put(metricKey, metric);
+      }
+    } catch (IOException e) {
+      LOG.warn("Unable to read Teams trend history [{}]: {}", key, e.getMessage());
+    }
+
+    return history;
+  }
+
+  /**
+   * Saves a project branch history to disk.
+   *
+   * @param key     The project branch key.
+   * @param history The history.
+   */
+  private void save(String key, ProjectHistory history) {
+    if (dir == null) {
+      return;
+    }
+
+    Path file = file(key);
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try {
+      Files.createDirectories(dir);
+      try (DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        out.writeInt(FILE_VERSION);
+        out.writeInt(history.metrics.size());
+        for (Map.Entry<String, MetricHistory> entry : history.metrics.entrySet()) {
+          out.writeUTF(entry.getKey());
+          out.writeByte(entry.getValue().status);
+          double[] values = entry.getValue().values();
+          out.writeInt(values.length);
+          for (double value : values) {
+            out.writeDouble(value);
+          }
+        }
+      }
+
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      LOG.warn("Unable to write Teams trend history [{}]: {}", key, e.getMessage());
+    }
+  }
+
+  /**
+   * The condition histories of a project branch.
+   */
+  private static class ProjectHistory {
+
+    /**
+     * Condition histories by metric key.
+     */
+    final Map<String, MetricHistory> metrics = new LinkedHashMap<>();
+
+    /**
+     * Gets the trend as of the last recorded analysis.
+     *
+     * @return The trend.
+     */
+    Trend trend() {
+      Trend trend = new Trend();
+      metrics.forEach((metricKey, metric) -> trend.put(metricKey, metric.last(), metric.status()));
+      return trend;
+    }
+
+    /**
+     * Records the condition values of an analysis. Conditions no longer in the quality gate are
+     * dropped.
+     *
+     * @param conditions The quality gate conditions.
+     * @param size       The number of values to keep per condition.
+     */
+    void record(Collection<Condition> conditions, int size) {
+      Set<String> metricKeys = conditions.stream()
+          .map(Condition::getMetricKey)
+          .collect(Collectors.toSet());
+      metrics.keySet().retainAll(metricKeys);
+      for (Condition condition : conditions) {
+        MetricHistory metric = metrics.computeIfAbsent(
+            condition.getMetricKey(),
+            metricKey -> new MetricHistory((byte) condition.getStatus().ordinal())
+        );
+        metric.status = (byte) condition.getStatus().ordinal();
+        metric.add(numericValue(condition), size);
+      }
+    }
+
+    /**
+     * Gets the numeric value of a condition.
+     *
+     * @param condition The condition.
+     *
+     * @return The value. NaN if it has none.
+     */
+    @SuppressWarnings("deprecation")
+    private static double numericValue(Condition condition) {
+      if (EvaluationStatus.NO_VALUE.equals(condition.getStatus())) {
+        return Double.NaN;
+      }
+
+      try {
+        return Double.parseDouble(condition.getValue());
+      } catch (NumberFormatException | NullPointerException e) {
+        return Double.NaN;
+      }
+    }
+  }
+
+  /**
+   * The last values of a single condition, in a fixed size ring.
+   */
+  private static class MetricHistory {
+
+    /**
+     * Ordinal of the last status.
+     */
+    byte status;
+
+    /**
+     * The ring of values.
+     */
+    private double[] ring = new double[0];
+
+    /**
+     * Number of values in the ring.
+     */
+    private int count;
+
+    /**
+     * Index of the next value to write.
+     */
+    private int next;
+
+    /**
+     * Constructor.
+     *
+     * @param status Ordinal of the last status.
+     */
+    MetricHistory(byte status) {
+      this.status = status;
+    }
+
+    /**
+     * Adds a value, dropping the oldest one if the ring is full.
+     *
+     * @param value The value.
+     * @param size  The number of values to keep.
+     */
+    void add(double value, int size) {
+      if (ring.length != size) {
+        final double[] values = values();
+        ring = new double[size];
+        count = 0;
+        next = 0;
+        for (int i = Math.max(0, values.length - size); i < values.length; i++) {
+          add(values[i], size);
+        }
+      }
+
+      ring[next] = value;
+      next = (next + 1) % size;
+      count = Math.min(count + 1, size);
+    }
+
+    /**
+     * Gets the last value.
+     *
+     * @return The last value. NaN if there is none.
+     */
+    double last() {
+      return count == 0 ? Double.NaN : ring[(next - 1 + ring.length) % ring.length];
+    }
+
+    /**
+     * Gets the last status.
+     *
+     * @return The last status.
+     */
+    EvaluationStatus status() {
+      return EvaluationStatus.values()[status];
+    }
+
+    /**
+     * Gets the values, oldest first.
+     *
+     * @return The values.
+     */
+    double[] values() {
+      double[] values = new double[count];
+      for (int i = 0; i < count; i++) {
+        values[i] = ring[(next - count + i + ring.length) % ring.length];
+      }
+
+      return values;
+    }
+  }
+}
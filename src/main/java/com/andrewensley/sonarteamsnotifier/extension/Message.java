@@ -0,0 +1,358 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Format-neutral content of a quality gate notification.
+ *
+ * <p>It is built once per analysis by {@link PayloadBuilder}, with every value already formatted,
+ * and then serialized by each {@link MessageFormat} the analysis is notified in.
+ */
+final class Message {
+
+  /**
+   * The message of an analysis without quality gate.
+   */
+  private static final Message EMPTY = new Message(null, null, true, null, null, null, "", "",
+      null, null, ConditionSection.EMPTY);
+
+  /**
+   * The quality gate name.
+   */
+  final String gateName;
+
+  /**
+   * The quality gate status.
+   */
+  final String status;
+
+  /**
+   * Whether the quality gate passed.
+   */
+  final boolean passing;
+
+  /**
+   * The project name.
+   */
+  final String projectName;
+
+  /**
+   * The URL of the project, including the branch.
+   */
+  final String projectUrl;
+
+  /**
+   * The analyzed revision.
+   */
+  final String revision;
+
+  /**
+   * The URL of the commit, escaped for markdown links. Empty if unknown.
+   */
+  final String commitUrl;
+
+  /**
+   * The mention of the change author. Empty if the author is not mentioned.
+   */
+  final String author;
+
+  /**
+   * The branch name. Null for the main branch.
+   */
+  final String branch;
+
+  /**
+   * The formatted analysis date.
+   */
+  final String date;
+
+  /**
+   * Number of conditions failing now that passed in the previous analysis.
+   */
+  final int newlyFailing;
+
+  /**
+   * Number of conditions passing now that failed in the previous analysis.
+   */
+  final int fixed;
+
+  /**
+   * The conditions to list.
+   */
+  final List<Line> conditions;
+
+  /**
+   * The conditions, with their rendering in each format.
+   */
+  final ConditionSection section;
+
+  /**
+   * The top new issues of a failing quality gate. Empty unless listed.
+   */
+  final List<Issue> issues;
+
+  /**
+   * Constructor.
+   *
+   * @param gateName     The quality gate name.
+   * @param status       The quality gate status.
+   * @param passing      Whether the quality gate passed.
+   * @param projectName  The project name.
+   * @param projectUrl   The URL of the project, including the branch.
+   * @param revision     The analyzed revision.
+   * @param commitUrl    The URL of the commit. Empty if unknown.
+   * @param author       The mention of the change author. Empty if not mentioned.
+   * @param branch       The branch name. Null for the main branch.
+   * @param date         The formatted analysis date.
+   * @param section      The conditions to list.
+   */
+  Message(
+      String gateName,
+      String status,
+      boolean passing,
+      String projectName,
+      String projectUrl,
+      String revision,
+      String commitUrl,
+      String author,
+      String branch,
+      String date,
+      ConditionSection section
+  ) {
+    this(gateName, status, passing, projectName, projectUrl, revision, commitUrl, author, branch,
+        date, section, Collections.emptyList());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param gateName     The quality gate name.
+   * @param status       The quality gate status.
+   * @param passing      Whether the quality gate passed.
+   * @param projectName  The project name.
+   * @param projectUrl   The URL of the project, including the branch.
+   * @param revision     The analyzed revision.
+   * @param commitUrl    The URL of the commit. Empty if unknown.
+   * @param author       The mention of the change author. Empty if not mentioned.
+   * @param branch       The branch name. Null for the main branch.
+   * @param date         The formatted analysis date.
+   * @param section      The conditions to list.
+   * @param issues       The new issues to list.
+   */
+  private Message(
+      String gateName,
+      String status,
+      boolean passing,
+      String projectName,
+      String projectUrl,
+      String revision,
+      String commitUrl,
+      String author,
+      String branch,
+      String date,
+      ConditionSection section,
+      List<Issue> issues
+  ) {
+    this.gateName = gateName;
+    this.status = status;
+    this.passing = passing;
+    this.projectName = projectName;
+    this.projectUrl = projectUrl;
+    this.revision = revision;
+    this.commitUrl = commitUrl;
+    this.author = author;
+    this.branch = branch;
+    this.date = date;
+    this.section = section;
+    this.newlyFailing = section.newlyFailing;
+    this.fixed = section.fixed;
+    this.conditions = section.lines;
+    this.issues = Collections.unmodifiableList(issues);
+  }
+
+  /**
+   * Gets the message of an analysis without quality gate, which has no content.
+   *
+   * @return The empty message.
+   */
+  static Message empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Checks if this is the message of an analysis without quality gate.
+   *
+   * @return True if it has no content.
+   */
+  boolean isEmpty() {
+    return this == EMPTY;
+  }
+
+  /**
+   * Gets a copy of this message listing new issues.
+   *
+   * @param issues The new issues to list.
+   *
+   * @return The message with the issues.
+   */
+  Message withIssues(List<Issue> issues) {
+    return new Message(gateName, status, passing, projectName, projectUrl, revision, commitUrl,
+        author, branch, date, section, issues);
+  }
+
+  /**
+   * The change of a condition's status since the previous analysis.
+   */
+  enum Change {
+
+    /**
+     * The status did not change, or is unknown.
+     */
+    NONE,
+
+    /**
+     * The condition fails now but passed before.
+     */
+    NEWLY_FAILING,
+
+    /**
+     * The condition passes now but failed before.
+     */
+    FIXED
+  }
+
+  /**
+   * One quality gate condition.
+   */
+  static final class Line {
+
+    /**
+     * The metric name.
+     */
+    final String metric;
+
+    /**
+     * The evaluation status.
+     */
+    final String status;
+
+    /**
+     * The formatted value. Null if the condition has no value.
+     */
+    final String value;
+
+    /**
+     * The formatted change since the previous analysis, e.g. {@code +2%, worse}. Empty if unknown.
+     */
+    final String delta;
+
+    /**
+     * The warning threshold with its operator, e.g. {@code <80%}. Null if there is none.
+     */
+    final String warning;
+
+    /**
+     * The error threshold with its operator. Null if there is none.
+     */
+    final String error;
+
+    /**
+     * The change of status since the previous analysis.
+     */
+    final Change change;
+
+    /**
+     * Constructor.
+     *
+     * @param metric  The metric name.
+     * @param status  The evaluation status.
+     * @param value   The formatted value. Null if the condition has no value.
+     * @param delta   The formatted change since the previous analysis. Empty if unknown.
+     * @param warning The warning threshold with its operator. Null if there is none.
+     * @param error   The error threshold with its operator. Null if there is none.
+     * @param change  The change of status since the previous analysis.
+     */
+    Line(
+        String metric,
+        String status,
+        String value,
+        String delta,
+        String warning,
+        String error,
+        Change change
+    ) {
+      this.metric = metric;
+      this.status = status;
+      this.value = value;
+      this.delta = delta;
+      this.warning = warning;
+      this.error = error;
+      this.change = change;
+    }
+  }
+
+  /**
+   * One new issue of the analysis.
+   */
+  static final class Issue {
+
+    /**
+     * The severity, e.g. {@code BLOCKER}.
+     */
+    final String severity;
+
+    /**
+     * The rule key, e.g. {@code java:S2095}.
+     */
+    final String rule;
+
+    /**
+     * The path of the file, relative to the project. Empty if unknown.
+     */
+    final String file;
+
+    /**
+     * The line. 0 if the issue is on the whole file.
+     */
+    final int line;
+
+    /**
+     * The issue message.
+     */
+    final String text;
+
+    /**
+     * The URL of the issue in SonarQube.
+     */
+    final String url;
+
+    /**
+     * Constructor.
+     *
+     * @param severity The severity.
+     * @param rule     The rule key.
+     * @param file     The path of the file. Empty if unknown.
+     * @param line     The line. 0 if the issue is on the whole file.
+     * @param text     The issue message.
+     * @param url      The URL of the issue in SonarQube.
+     */
+    Issue(String severity, String rule, String file, int line, String text, String url) {
+      this.severity = severity;
+      this.rule = rule;
+      this.file = file;
+      this.line = line;
+      this.text = text;
+      this.url = url;
+    }
+
+    /**
+     * Gets the location of the issue.
+     *
+     * @return The file and line, e.g. {@code src/Foo.java:12}.
+     */
+    String location() {
+      return line > 0 ? file + ":" + line : file;
+    }
+  }
+}
@@ -0,0 +1,454 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static java.lang.String.format;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * The formats notifications can be posted in. Each one serializes a {@link Message} straight to
+ * the content of a {@link Payload}, without walking the analysis again.
+ */
+enum MessageFormat {
+
+  /**
+   * WebEx Teams markdown.
+   */
+  WEBEX {
+    @Override
+    String render(Message message) {
+      if (message.isEmpty()) {
+        return "";
+      }
+
+      StringBuilder sb = new StringBuilder();
+      sb.append(format("### %s **%S** [[%s](%s)]\n\n",
+          message.gateName, message.status, message.projectName, message.projectUrl));
+      sb.append("**Commit**: ");
+      if (message.commitUrl.isEmpty()) {
+        sb.append(message.revision);
+      } else {
+        sb.append(format("[%s](%s)", message.revision, message.commitUrl));
+      }
+
+      if (!message.author.isEmpty()) {
+        sb.append(" by ").append(message.author);
+      }
+
+      sb.append("  \n");
+      if (message.branch != null) {
+        sb.append(format("**Branch**: %s  \n", message.branch));
+      }
+
+      sb.append(format("**Date**: %s  \n", message.date));
+      if (message.newlyFailing > 0 || message.fixed > 0) {
+        sb.append(format("**Trend**: %s  \n", trend(message)));
+      }
+
+      sb.append(message.section.rendered(this, lines -> {
+        StringBuilder conditions = new StringBuilder();
+        for (Message.Line line : lines) {
+          conditions.append(format("  * **%s**: %s\n", line.metric, detail(line, true)));
+        }
+
+        return conditions.toString();
+      }));
+      if (!message.issues.isEmpty()) {
+        sb.append("\n**New Issues**:\n");
+        for (Message.Issue issue : message.issues) {
+          sb.append(format("  * **%s** [%s](%s): %s (%s)\n",
+              issue.severity, issue.location(), issue.url, issue.text, issue.rule));
+        }
+      }
+
+      return sb.toString();
+    }
+
+    @Override
+    String fromMarkdown(String markdown) {
+      return markdown;
+    }
+
+    @Override
+    String withNote(String content, String note) {
+      return content + format("_%s_\n", note);
+    }
+
+    @Override
+    String toJson(String content) {
+      JsonObject json = new JsonObject();
+      json.addProperty("markdown", content);
+      return GSON.toJson(json);
+    }
+  },
+
+  /**
+   * Microsoft Teams connector MessageCard.
+   */
+  TEAMS {
+    @Override
+    String render(Message message) {
+      StringWriter out = new StringWriter();
+      try (JsonWriter json = new JsonWriter(out)) {
+        json.beginObject();
+        json.name("@type").value("MessageCard");
+        json.name("@context").value("https://schema.org/extensions");
+        if (message.isEmpty()) {
+          json.name("text").value("");
+          json.endObject();
+          return out.toString();
+        }
+
+        String title = format("%s %S: %s",
+            message.gateName, message.status, message.projectName);
+        json.name("summary").value(title);
+        json.name("title").value(title);
+        json.name("themeColor").value(message.passing ? PASSING_COLOR : FAILING_COLOR);
+        json.name("sections").beginArray();
+        json.beginObject().name("markdown").value(true).name("facts").beginArray();
+        fact(json, "Commit", message.commitUrl.isEmpty()
+            ? message.revision
+            : format("[%s](%s)", message.revision, message.commitUrl));
+        if (!message.author.isEmpty()) {
+          fact(json, "Author", Fragments.authorName(message.author));
+        }
+
+        if (message.branch != null) {
+          fact(json, "Branch", message.branch);
+        }
+
+        fact(json, "Date", message.date);
+        if (message.newlyFailing > 0 || message.fixed > 0) {
+          fact(json, "Trend", trend(message));
+        }
+
+        json.endArray().endObject();
+        if (!message.conditions.isEmpty()) {
+          json.jsonValue(message.section.rendered(this, MessageFormat::conditionsSection));
+        }
+
+        if (!message.issues.isEmpty()) {
+          json.beginObject().name("title").value("New Issues").name("markdown").value(true);
+          json.name("facts").beginArray();
+          for (Message.Issue issue : message.issues) {
+            fact(json, issue.severity, format("[%s](%s): %s (%s)",
+                issue.location(), issue.url, issue.text, issue.rule));
+          }
+
+          json.endArray().endObject();
+        }
+
+        json.endArray();
+        json.name("potentialAction").beginArray().beginObject()
+            .name("@type").value("OpenUri")
+            .name("name").value("Open in SonarQube")
+            .name("targets").beginArray().beginObject()
+            .name("os").value("default")
+            .name("uri").value(message.projectUrl)
+            .endObject().endArray()
+            .endObject().endArray();
+        json.endObject();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+
+      return out.toString();
+    }
+
+    @Override
+    String fromMarkdown(String markdown) {
+      JsonObject json = new JsonObject();
+      json.addProperty("@type", "MessageCard");
+      json.addProperty("@context", "https://schema.org/extensions");
+      json.addProperty("summary", TEXT.fromMarkdown(markdown.split("\n", 2)[0]));
+      json.addProperty("text", markdown);
+      return GSON.toJson(json);
+    }
+
+    @Override
+    String withNote(String content, String note) {
+      JsonObject json = new JsonParser().parse(content).getAsJsonObject();
+      JsonElement text = json.get("text");
+      json.addProperty("text", text == null || text.getAsString().isEmpty()
+          ? note
+          : text.getAsString() + "\n\n" + note);
+      // Unlike Gson, keeps the characters the card was rendered with unescaped.
+      return json.toString();
+    }
+
+    @Override
+    String toJson(String content) {
+      return content;
+    }
+  },
+
+  /**
+   * Plain text.
+   */
+  TEXT {
+    @Override
+    String render(Message message) {
+      if (message.isEmpty()) {
+        return "";
+      }
+
+      StringBuilder sb = new StringBuilder();
+      sb.append(format("%s %S: %s\n%s\n\n",
+          message.gateName, message.status, message.projectName, message.projectUrl));
+      sb.append("Commit: ").append(message.revision);
+      if (!message.commitUrl.isEmpty()) {
+        sb.append(" (").append(message.commitUrl).append(')');
+      }
+
+      if (!message.author.isEmpty()) {
+        sb.append(" by ").append(Fragments.authorName(message.author));
+      }
+
+      sb.append('\n');
+      if (message.branch != null) {
+        sb.append("Branch: ").append(message.branch).append('\n');
+      }
+
+      sb.append("Date: ").append(message.date).append('\n');
+      if (message.newlyFailing > 0 || message.fixed > 0) {
+        sb.append("Trend: ").append(trend(message)).append('\n');
+      }
+
+      if (!message.conditions.isEmpty()) {
+        sb.append('\n');
+      }
+
+      sb.append(message.section.rendered(this, lines -> {
+        StringBuilder conditions = new StringBuilder();
+        for (Message.Line line : lines) {
+          conditions.append("- ").append(line.metric).append(": ")
+              .append(detail(line, false)).append('\n');
+        }
+
+        return conditions.toString();
+      }));
+      if (!message.issues.isEmpty()) {
+        sb.append("\nNew Issues:\n");
+        for (Message.Issue issue : message.issues) {
+          sb.append(format("- %s %s: %s (%s)\n  %s\n",
+              issue.severity, issue.location(), issue.text, issue.rule, issue.url));
+        }
+      }
+
+      return sb.toString();
+    }
+
+    @Override
+    String fromMarkdown(String markdown) {
+      return markdown
+          .replaceAll("(?m)^#+ ", "")
+          .replace("**", "")
+          .replace("  \n", "\n");
+    }
+
+    @Override
+    String withNote(String content, String note) {
+      return content + "\n" + note + "\n";
+    }
+
+    @Override
+    String toJson(String content) {
+      JsonObject json = new JsonObject();
+      json.addProperty("text", content);
+      return GSON.toJson(json);
+    }
+  };
+
+  /**
+   * JSON serializer of the webhook bodies.
+   */
+  private static final Gson GSON = new Gson();
+
+  /**
+   * Theme color of cards of passing quality gates.
+   */
+  private static final String PASSING_COLOR = "2EB886";
+
+  /**
+   * Theme color of cards of failing quality gates.
+   */
+  private static final String FAILING_COLOR = "D63333";
+
+  /**
+   * Serializes a message.
+   *
+   * @param message The message.
+   *
+   * @return The payload content in this format.
+   */
+  abstract String render(Message message);
+
+  /**
+   * Converts a markdown message, such as a summary, that has no format-neutral form.
+   *
+   * @param markdown The message with markdown formatting.
+   *
+   * @return The payload content in this format.
+   */
+  abstract String fromMarkdown(String markdown);
+
+  /**
+   * Appends a note to a message.
+   *
+   * @param content The payload content in this format. Not empty.
+   * @param note    The note, in plain text.
+   *
+   * @return The payload content with the note.
+   */
+  abstract String withNote(String content, String note);
+
+  /**
+   * Builds the JSON body posted to a hook.
+   *
+   * @param content The payload content in this format.
+   *
+   * @return The JSON body.
+   */
+  abstract String toJson(String content);
+
+  /**
+   * Builds the payload of a message.
+   *
+   * @param message The message.
+   *
+   * @return The payload.
+   */
+  Payload payload(Message message) {
+    return new Payload(this, render(message));
+  }
+
+  /**
+   * Builds the payload of a markdown message.
+   *
+   * @param markdown The message with markdown formatting.
+   *
+   * @return The payload.
+   */
+  Payload payload(String markdown) {
+    return new Payload(this, fromMarkdown(markdown));
+  }
+
+  /**
+   * Gets the prefix selecting this format in a hook, e.g. {@code teams}.
+   *
+   * @return The prefix.
+   */
+  String prefix() {
+    return name().toLowerCase(Locale.ENGLISH);
+  }
+
+  /**
+   * Parses a format name.
+   *
+   * @param value The format name, e.g. {@code teams}.
+   *
+   * @return The format, if the name is valid.
+   */
+  static Optional<MessageFormat> parse(String value) {
+    try {
+      return Optional.of(valueOf(value.trim().toUpperCase(Locale.ENGLISH)));
+    } catch (IllegalArgumentException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Describes the newly failing and fixed conditions of a message.
+   *
+   * @param message The message.
+   *
+   * @return The description.
+   */
+  private static String trend(Message message) {
+    return format("%d condition%s newly failing, %d fixed",
+        message.newlyFailing, message.newlyFailing == 1 ? "" : "s", message.fixed);
+  }
+
+  /**
+   * Describes a condition's status, value, change and thresholds.
+   *
+   * @param line     The condition.
+   * @param markdown Whether to use markdown formatting.
+   *
+   * @return The description.
+   */
+  private static String detail(Message.Line line, boolean markdown) {
+    StringBuilder sb = new StringBuilder(line.status);
+    if (line.value == null) {
+      return sb.toString();
+    }
+
+    sb.append(" | ").append(markdown ? "**" + line.value + "**" : line.value);
+    if (!line.delta.isEmpty()) {
+      sb.append(" (").append(line.delta).append(')');
+    }
+
+    if (line.warning != null) {
+      sb.append(", warning if ").append(line.warning);
+    }
+
+    if (line.error != null) {
+      sb.append(", error if ").append(line.error);
+    }
+
+    if (line.change == Message.Change.NEWLY_FAILING) {
+      sb.append(markdown ? " _(newly failing)_" : " (newly failing)");
+    } else if (line.change == Message.Change.FIXED) {
+      sb.append(markdown ? " _(fixed)_" : " (fixed)");
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Renders the card section listing conditions.
+   *
+   * @param lines The conditions.
+   *
+   * @return The section, in JSON.
+   */
+  private static String conditionsSection(List<Message.Line> lines) {
+    StringWriter out = new StringWriter();
+    try (JsonWriter json = new JsonWriter(out)) {
+      json.beginObject().name("title").value("Conditions").name("markdown").value(true);
+      json.name("facts").beginArray();
+      for (Message.Line line : lines) {
+        fact(json, line.metric, detail(line, true));
+      }
+
+      json.endArray().endObject();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    return out.toString();
+  }
+
+  /**
+   * Writes a card fact.
+   *
+   * @param json  The card writer.
+   * @param name  The fact name.
+   * @param value The fact value.
+   *
+   * @throws IOException If the card cannot be written.
+   */
+  private static void fact(JsonWriter json, String name, String value) throws IOException {
+    json.beginObject().name("name").value(name).name("value").value(value).endObject();
+  }
+}
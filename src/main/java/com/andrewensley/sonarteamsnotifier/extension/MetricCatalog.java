@@ -0,0 +1,330 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleFunction;
+
+import org.sonar.api.ce.ComputeEngineSide;
+import org.sonar.api.measures.CoreMetrics;
+import org.sonar.api.measures.Metric;
+import org.sonar.api.measures.Metrics;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Metadata of the core and plugin-provided metrics, used to format quality gate conditions.
+ *
+ * <p>The lookup table is built on first use and never changes afterwards. Formatters are shared
+ * per value type.
+ */
+@ComputeEngineSide
+@ServerSide
+public class MetricCatalog {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Loggers.get(MetricCatalog.class);
+
+  /**
+   * Minutes in a work day, as counted by SonarQube for technical debt.
+   */
+  private static final int MINUTES_PER_DAY = 8 * 60;
+
+  /**
+   * Rating letters, from rating 1 to 5.
+   */
+  private static final String RATINGS = "ABCDE";
+
+  /**
+   * Number format shared by decimal values. DecimalFormat is not thread safe.
+   */
+  private static final ThreadLocal<DecimalFormat> DECIMAL = ThreadLocal.withInitial(() -> {
+    DecimalFormat decimalFormat = new DecimalFormat();
+    decimalFormat.setMaximumFractionDigits(2);
+    return decimalFormat;
+  });
+
+  /**
+   * Formatters by value type.
+   */
+  private static final Map<Metric.ValueType, DoubleFunction<String>> FORMATTERS = formatters();
+
+  /**
+   * Catalog of the core metrics only.
+   */
+  private static final MetricCatalog CORE = new MetricCatalog();
+
+  /**
+   * Metrics provided by plugins.
+   */
+  private final Metrics[] pluginMetrics;
+
+  /**
+   * Metric metadata by key. Built on first use.
+   */
+  private volatile Map<String, Info> metrics;
+
+  /**
+   * Constructor used when no plugin provides metrics.
+   */
+  public MetricCatalog() {
+    this(new Metrics[0]);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param pluginMetrics The metrics provided by plugins.
+   */
+  public MetricCatalog(Metrics[] pluginMetrics) {
+    this.pluginMetrics = pluginMetrics.clone();
+  }
+
+  /**
+   * Gets the catalog of the core metrics.
+   *
+   * @return The catalog.
+   */
+  static MetricCatalog core() {
+    return CORE;
+  }
+
+  /**
+   * Gets the metadata of a metric.
+   *
+   * @param metricKey The metric key.
+   *
+   * @return The metadata. Metadata formatting values as-is if the metric is unknown.
+   */
+  Info get(String metricKey) {
+    Info info = metrics().get(metricKey);
+    return info == null ? new Info(metricKey, metricKey, null, Metric.DIRECTION_NONE) : info;
+  }
+
+  /**
+   * Gets the lookup table, building it on first use.
+   *
+   * @return The metric metadata by key.
+   */
+  private Map<String, Info> metrics() {
+    Map<String, Info> table = metrics;
+    if (table == null) {
+      synchronized (this) {
+        table = metrics;
+        if (table == null) {
+          table = buildTable();
+          metrics = table;
+        }
+      }
+    }
+
+    return table;
+  }
+
+  /**
+   * Builds the lookup table from the core metrics, then the plugin-provided ones.
+   *
+   * @return The metric metadata by key.
+   */
+  private Map<String, Info> buildTable() {
+    List<Metric<?>> all = new ArrayList<>();
+    for (Metric<?> metric : CoreMetrics.getMetrics()) {
+      all.add(metric);
+    }
+
+    for (Metrics provider : pluginMetrics) {
+      try {
+        for (Metric<?> metric : provider.getMetrics()) {
+          all.add(metric);
+        }
+      } catch (RuntimeException e) {
+        String providerName = provider.getClass().getName();
+        LOG.warn("Unable to read metrics of [{}]: {}", providerName, e.getMessage());
+      }
+    }
+
+    Map<String, Info> table = new HashMap<>();
+    for (Metric<?> metric : all) {
+      Integer direction = metric.getDirection();
+      table.putIfAbsent(metric.getKey(), new Info(
+          metric.getKey(),
+          metric.getName() == null ? metric.getKey() : metric.getName(),
+          metric.getType(),
+          direction == null ? Metric.DIRECTION_NONE : direction
+      ));
+    }
+
+    return Collections.unmodifiableMap(table);
+  }
+
+  /**
+   * Builds the formatters of the numeric value types.
+   *
+   * @return The formatters by value type.
+   */
+  private static Map<Metric.ValueType, DoubleFunction<String>> formatters() {
+    Map<Metric.ValueType, DoubleFunction<String>> formatters =
+        new EnumMap<>(Metric.ValueType.class);
+    formatters.put(Metric.ValueType.INT, value -> String.valueOf(Math.round(value)));
+    formatters.put(Metric.ValueType.FLOAT, value -> DECIMAL.get().format(value));
+    formatters.put(Metric.ValueType.PERCENT, value -> DECIMAL.get().format(value) + "%");
+    formatters.put(Metric.ValueType.MILLISEC, MetricCatalog::formatMillis);
+    formatters.put(Metric.ValueType.WORK_DUR, MetricCatalog::formatWorkDuration);
+    formatters.put(Metric.ValueType.RATING, MetricCatalog::formatRating);
+    return Collections.unmodifiableMap(formatters);
+  }
+
+  /**
+   * Formats a duration in milliseconds.
+   *
+   * @param value The duration.
+   *
+   * @return The formatted duration.
+   */
+  private static String formatMillis(double value) {
+    if (Math.abs(value) < 1000) {
+      return Math.round(value) + "ms";
+    }
+
+    return DECIMAL.get().format(value / 1000) + "s";
+  }
+
+  /**
+   * Formats an amount of work in minutes, using 8 hour days.
+   *
+   * @param value The amount of work.
+   *
+   * @return The formatted amount of work.
+   */
+  private static String formatWorkDuration(double value) {
+    long minutes = Math.round(Math.abs(value));
+    StringBuilder sb = new StringBuilder(value < 0 ? "-" : "");
+    if (minutes >= MINUTES_PER_DAY) {
+      sb.append(minutes / MINUTES_PER_DAY).append("d ");
+    }
+
+    if (minutes % MINUTES_PER_DAY >= 60) {
+      sb.append(minutes % MINUTES_PER_DAY / 60).append("h ");
+    }
+
+    if (minutes % 60 > 0 || minutes == 0) {
+      sb.append(minutes % 60).append("min");
+    }
+
+    return sb.toString().trim();
+  }
+
+  /**
+   * Formats a rating as its letter.
+   *
+   * @param value The rating, from 1 to 5.
+   *
+   * @return The letter. The number if out of range.
+   */
+  private static String formatRating(double value) {
+    long rating = Math.round(value);
+    if (rating < 1 || rating > RATINGS.length() || rating != value) {
+      return DECIMAL.get().format(value);
+    }
+
+    return String.valueOf(RATINGS.charAt((int) rating - 1));
+  }
+
+  /**
+   * Metadata of one metric.
+   */
+  static final class Info {
+
+    /**
+     * The metric key.
+     */
+    final String key;
+
+    /**
+     * The metric display name.
+     */
+    final String name;
+
+    /**
+     * Whether higher values are better (1), worse (-1) or neither (0).
+     */
+    final int direction;
+
+    /**
+     * The formatter of the metric's values. Null to format them as-is.
+     */
+    private final DoubleFunction<String> formatter;
+
+    /**
+     * The formatter of changes in the metric's values.
+     */
+    private final DoubleFunction<String> deltaFormatter;
+
+    /**
+     * Constructor.
+     *
+     * @param key       The metric key.
+     * @param name      The metric display name.
+     * @param type      The metric value type. Null if unknown.
+     * @param direction Whether higher values are better (1), worse (-1) or neither (0).
+     */
+    Info(String key, String name, Metric.ValueType type, int direction) {
+      this.key = key;
+      this.name = name;
+      this.direction = direction;
+      this.formatter = type == null ? null : FORMATTERS.get(type);
+      // A change of rating is a number of grades, not a grade.
+      this.deltaFormatter = formatter == null || type == Metric.ValueType.RATING
+          ? FORMATTERS.get(Metric.ValueType.FLOAT)
+          : formatter;
+    }
+
+    /**
+     * Formats a value of this metric.
+     *
+     * @param value The raw value.
+     *
+     * @return The formatted value. The raw value if it cannot be formatted.
+     */
+    String format(String value) {
+      if (formatter == null) {
+        return value;
+      }
+
+      try {
+        return formatter.apply(Double.parseDouble(value));
+      } catch (NumberFormatException e) {
+        return value;
+      }
+    }
+
+    /**
+     * Formats the absolute value of a change of this metric's value.
+     *
+     * @param delta The change.
+     *
+     * @return The formatted change, without sign.
+     */
+    String formatDelta(double delta) {
+      return deltaFormatter.apply(Math.abs(delta));
+    }
+
+    /**
+     * Checks if a change of this metric's value is an improvement.
+     *
+     * @param delta The change.
+     *
+     * @return 1 if it is better, -1 if it is worse, 0 if unknown.
+     */
+    int judge(double delta) {
+      return (int) Math.signum(delta) * direction;
+    }
+  }
+}
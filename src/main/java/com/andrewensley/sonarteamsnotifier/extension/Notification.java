@@ -0,0 +1,178 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.util.Base64;
+
+/**
+ * A rendered notification waiting to be delivered to a hook.
+ */
+class Notification {
+
+  /**
+   * The hook URL.
+   */
+  final String hook;
+
+  /**
+   * The payload to send.
+   */
+  final Payload payload;
+
+  /**
+   * The key of the analyzed project.
+   */
+  final String projectKey;
+
+  /**
+   * The analyzed branch. Empty for the main branch.
+   */
+  final String branch;
+
+  /**
+   * Whether the quality gate passed.
+   */
+  final boolean passing;
+
+  /**
+   * Size of the payload's message, in UTF-8 bytes.
+   */
+  final int bytes;
+
+  /**
+   * The analysis the notification was rendered from.
+   */
+  final AnalysisSnapshot snapshot;
+
+  /**
+   * Number of earlier notifications of the same hook and branch this one replaced in the queue.
+   */
+  final int superseded;
+
+  /**
+   * Constructor.
+   *
+   * @param hook     The hook URL.
+   * @param payload  The payload to send.
+   * @param snapshot The analysis the notification was rendered from.
+   */
+  Notification(String hook, Payload payload, AnalysisSnapshot snapshot) {
+    this(hook, payload, snapshot, 0);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param hook       The hook URL.
+   * @param payload    The payload to send.
+   * @param snapshot   The analysis the notification was rendered from.
+   * @param superseded Number of earlier notifications this one replaced in the queue.
+   */
+  private Notification(String hook, Payload payload, AnalysisSnapshot snapshot, int superseded) {
+    this.hook = hook;
+    this.superseded = superseded;
+    this.payload = payload;
+    this.snapshot = snapshot;
+    this.projectKey = snapshot.projectKey();
+    this.branch = snapshot.nonMainBranchName();
+    this.passing = snapshot.isPassing();
+    this.bytes = utf8Length(payload.content);
+  }
+
+  /**
+   * Gets the key of the notifications a newer one of the same hook, project and branch
+   * supersedes.
+   *
+   * @return The key.
+   */
+  String supersessionKey() {
+    return hook + '\n' + projectKey + '\n' + branch;
+  }
+
+  /**
+   * Replaces an undelivered notification of the same hook, project and branch.
+   *
+   * @param previous The notification replaced.
+   * @param note     Whether to note the number of results replaced in the message.
+   *
+   * @return This notification, counting the results it replaced.
+   */
+  Notification supersede(Notification previous, boolean note) {
+    int count = previous.superseded + 1;
+    Payload replacement = note && !payload.content.isEmpty()
+        ? new Payload(payload.format, payload.format.withNote(payload.content, String.format(
+            "Superseded %d earlier result%s", count, count == 1 ? "" : "s")))
+        : payload;
+    return new Notification(hook, replacement, snapshot, count);
+  }
+
+  /**
+   * Encodes the snapshot for JSON persistence.
+   *
+   * @return The snapshot's binary form, in Base64.
+   */
+  String encodedSnapshot() {
+    return Base64.getEncoder().encodeToString(snapshot.toBytes());
+  }
+
+  /**
+   * Rebuilds a persisted notification.
+   *
+   * @param hook            The hook URL.
+   * @param format          The name of the payload's format. Null for WebEx Teams markdown.
+   * @param content         The message, in that format.
+   * @param encodedSnapshot The snapshot's binary form, in Base64.
+   *
+   * @return The notification.
+   *
+   * @throws JsonParseException If the format is unknown or the snapshot is missing or invalid.
+   */
+  static Notification restore(
+      String hook,
+      String format,
+      String content,
+      String encodedSnapshot
+  ) {
+    MessageFormat messageFormat = format == null
+        ? MessageFormat.WEBEX
+        : MessageFormat.parse(format)
+            .orElseThrow(() -> new JsonParseException("Unknown message format " + format));
+    if (encodedSnapshot == null) {
+      throw new JsonParseException("Missing analysis snapshot");
+    }
+
+    try {
+      AnalysisSnapshot snapshot = AnalysisSnapshot.fromBytes(
+          Base64.getDecoder().decode(encodedSnapshot)
+      );
+      return new Notification(hook, new Payload(messageFormat, content), snapshot);
+    } catch (IOException | IllegalArgumentException e) {
+      throw new JsonParseException("Invalid analysis snapshot", e);
+    }
+  }
+
+  /**
+   * Counts the UTF-8 bytes of a string without encoding it.
+   *
+   * @param value The string.
+   *
+   * @return The number of bytes.
+   */
+  static int utf8Length(String value) {
+    int length = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800 || Character.isSurrogate(c)) {
+        // Surrogate pairs take 4 bytes, 2 for each half.
+        length += 2;
+      } else {
+        length += 3;
+      }
+    }
+
+    return length;
+  }
+}
@@ -0,0 +1,380 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import com.andrewensley.sonarteamsnotifier.domain.Constants;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.sonar.api.Startable;
+import org.sonar.api.ce.ComputeEngineSide;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Delivers notifications from a bounded in-memory queue on background threads, so a slow hook
+ * never holds up the analysis that produced the notification.
+ */
+@ComputeEngineSide
+public class NotificationDispatcher implements Startable {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Loggers.get(NotificationDispatcher.class);
+
+  /**
+   * Default maximum number of queued notifications.
+   */
+  private static final int DEFAULT_CAPACITY = 1000;
+
+  /**
+   * Default maximum total payload bytes of queued notifications.
+   */
+  private static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+  /**
+   * Default time to wait for room under the BLOCK policy, in milliseconds.
+   */
+  private static final long DEFAULT_BLOCK_TIMEOUT = 30000;
+
+  /**
+   * Default number of delivery threads.
+   */
+  private static final int DEFAULT_THREADS = 4;
+
+  /**
+   * Default maximum number of concurrent posts per host.
+   */
+  private static final int DEFAULT_HOST_CONCURRENCY = 2;
+
+  /**
+   * Default maximum the per-host concurrency limit adapts up to.
+   */
+  private static final int DEFAULT_HOST_CONCURRENCY_MAX = 8;
+
+  /**
+   * Time workers wait for a notification before checking if they should stop, in milliseconds.
+   */
+  private static final long POLL_TIMEOUT = 1000;
+
+  /**
+   * Time given to workers to deliver queued notifications on shutdown, in milliseconds.
+   */
+  private static final long SHUTDOWN_GRACE = 5000;
+
+  /**
+   * Interval the delivery state is published at, in milliseconds.
+   */
+  private static final long STATE_INTERVAL = 5000;
+
+  /**
+   * Number of payloads captured by the in-memory transport included in the delivery state.
+   */
+  private static final int STATE_CAPTURED = 20;
+
+  /**
+   * SonarQube settings.
+   */
+  private final Configuration settings;
+
+  /**
+   * Sender delivering notifications.
+   */
+  private final NotificationSender sender;
+
+  /**
+   * Audit trail of delivery attempts.
+   */
+  private final DeliveryAudit audit;
+
+  /**
+   * The delivery threads.
+   */
+  private final List<Thread> workers = new ArrayList<>();
+
+  /**
+   * The queue. Null when notifications are delivered synchronously.
+   */
+  private NotificationQueue queue;
+
+  /**
+   * The per-host concurrency limits. Null when hosts are not limited.
+   */
+  private HostBulkheads bulkheads;
+
+  /**
+   * Executor publishing the delivery state. Null until started.
+   */
+  private ScheduledExecutorService statePublisher;
+
+  /**
+   * Whether the workers should keep taking notifications.
+   */
+  private volatile boolean running;
+
+  /**
+   * Constructor.
+   *
+   * @param settings The SonarQube Configuration settings.
+   * @param sender   The notification sender.
+   * @param audit    The audit trail of delivery attempts.
+   */
+  public NotificationDispatcher(
+      Configuration settings,
+      NotificationSender sender,
+      DeliveryAudit audit
+  ) {
+    this.settings = settings;
+    this.sender = sender;
+    this.audit = audit;
+  }
+
+  /**
+   * Creates the queue and starts the delivery threads, unless the queue is disabled.
+   */
+  @Override
+  public void start() {
+    startStatePublisher();
+    int capacity = settings.getInt(Constants.QUEUE_CAPACITY).orElse(DEFAULT_CAPACITY);
+    if (capacity <= 0) {
+      LOG.info("Teams notification queue disabled. Notifications are delivered synchronously.");
+      return;
+    }
+
+    OverflowPolicy policy = settings.get(Constants.QUEUE_POLICY)
+        .map(value -> OverflowPolicy.parse(value).orElseGet(() -> {
+          LOG.warn("Unknown Teams queue policy [{}]. Using [block].", value);
+          return OverflowPolicy.BLOCK;
+        }))
+        .orElse(OverflowPolicy.BLOCK);
+    queue = new NotificationQueue(
+        capacity,
+        settings.getLong(Constants.QUEUE_MAX_BYTES).orElse(DEFAULT_MAX_BYTES),
+        policy,
+        Math.max(0, settings.getLong(Constants.QUEUE_BLOCK_TIMEOUT).orElse(DEFAULT_BLOCK_TIMEOUT)),
+        spillDir(),
+        settings.getBoolean(Constants.QUEUE_SUPERSEDE).orElse(false),
+        settings.getBoolean(Constants.QUEUE_SUPERSEDE_NOTE).orElse(true)
+    );
+    int threads = Math.max(1, settings.getInt(Constants.DELIVERY_THREADS).orElse(DEFAULT_THREADS));
+    int hostConcurrency = settings.getInt(Constants.HOST_CONCURRENCY)
+        .orElse(DEFAULT_HOST_CONCURRENCY);
+    if (hostConcurrency > 0) {
+      int hostConcurrencyMax = settings.getInt(Constants.HOST_CONCURRENCY_MAX)
+          .orElse(DEFAULT_HOST_CONCURRENCY_MAX);
+      // A single host must never take every delivery thread.
+      int maxAllowed = Math.max(1, threads - 1);
+      if (hostConcurrencyMax > maxAllowed) {
+        LOG.info("Teams host concurrency maximum lowered from {} to {}, below the {} delivery"
+            + " thread(s)", hostConcurrencyMax, maxAllowed, threads);
+        hostConcurrencyMax = maxAllowed;
+      }
+
+      bulkheads = new HostBulkheads(hostConcurrency, hostConcurrencyMax);
+    }
+
+    running = true;
+    for (int i = 0; i < threads; i++) {
+      Thread worker = new Thread(this::work, "teams-notifier-delivery-" + i);
+      worker.setDaemon(true);
+      worker.start();
+      workers.add(worker);
+    }
+
+    LOG.info("Teams notification queue started: capacity {}, policy {}, {} thread(s)",
+        capacity, policy, threads);
+  }
+
+  /**
+   * Gives the workers a grace period to deliver queued notifications, then stops them.
+   */
+  @Override
+  public void stop() {
+    if (statePublisher != null) {
+      statePublisher.shutdownNow();
+    }
+
+    if (queue == null) {
+      return;
+    }
+
+    long deadline = System.currentTimeMillis() + SHUTDOWN_GRACE;
+    while (queue.size() > 0 && System.currentTimeMillis() < deadline) {
+      try {
+        TimeUnit.MILLISECONDS.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+
+    running = false;
+    workers.forEach(Thread::interrupt);
+    int lost = queue.drainOnShutdown();
+    if (lost > 0) {
+      LOG.warn("{} queued Teams notification(s) were not delivered before shutdown", lost);
+    }
+
+    LOG.info("Teams notification queue stopped. Counters: {}, condition cache: {}",
+        queue.counters(), ConditionCache.shared().counters());
+  }
+
+  /**
+   * Submits a notification for delivery.
+   *
+   * @param notification The notification.
+   */
+  void submit(Notification notification) {
+    if (queue == null) {
+      deliver(notification);
+      return;
+    }
+
+    PipelineEvents.Span span = PipelineEvents.begin(PipelineEvents.Stage.ENQUEUE)
+        .notification(notification);
+    try {
+      queue.offer(notification);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.warn("Interrupted while queueing Teams notification for [{}]", notification.projectKey);
+    } finally {
+      span.finish();
+    }
+  }
+
+  /**
+   * Takes and delivers notifications until stopped. With per-host limits, only notifications
+   * whose host is under its limit are taken.
+   */
+  private void work() {
+    while (running) {
+      try {
+        Notification notification = bulkheads == null
+            ? queue.take(POLL_TIMEOUT)
+            : queue.take(POLL_TIMEOUT, bulkheads::tryAcquire);
+        if (notification != null) {
+          deliverWithinBulkhead(notification);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (RuntimeException e) {
+        LOG.error("Unexpected error delivering Teams notification", e);
+      }
+    }
+  }
+
+  /**
+   * Delivers a taken notification, then releases the permit of its host, if hosts are limited.
+   *
+   * @param notification The notification.
+   */
+  private void deliverWithinBulkhead(Notification notification) {
+    if (bulkheads == null) {
+      queue.delivered(deliver(notification));
+      return;
+    }
+
+    final long start = System.nanoTime();
+    boolean success = false;
+    int statusCode = 0;
+    try {
+      success = deliver(notification);
+      statusCode = sender.lastStatusCode();
+      queue.delivered(success);
+    } finally {
+      bulkheads.release(
+          notification.hook, start, System.nanoTime() - start, success, statusCode);
+      queue.signalEligible();
+    }
+  }
+
+  /**
+   * Sends a notification and records the attempt in the audit trail.
+   *
+   * @param notification The notification.
+   *
+   * @return True on success. False on failure.
+   */
+  private boolean deliver(Notification notification) {
+    PipelineEvents.Span span = PipelineEvents.begin(PipelineEvents.Stage.COMPLETION)
+        .notification(notification);
+    final PipelineEvents.Scope scope = PipelineEvents.deliver(notification);
+    try {
+      long start = System.nanoTime();
+      boolean success = sender.send(notification.hook, notification.payload);
+      // Delivery is attempted once, so there are no retries to report yet.
+      audit.record(notification, success, sender.lastStatusCode(), System.nanoTime() - start, 0);
+      span.statusCode(sender.lastStatusCode());
+      return success;
+    } finally {
+      scope.close();
+      span.finish();
+    }
+  }
+
+  /**
+   * Starts publishing the delivery state for the probe web service.
+   */
+  private void startStatePublisher() {
+    Path file = DeliveryState.file(settings);
+    statePublisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "teams-notifier-state");
+      thread.setDaemon(true);
+      return thread;
+    });
+    statePublisher.scheduleWithFixedDelay(() -> {
+      try {
+        state().write(file);
+      } catch (IOException | RuntimeException e) {
+        LOG.debug("Unable to publish Teams delivery state [{}]: {}", file, e.getMessage());
+      }
+    }, 0, STATE_INTERVAL, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Captures the delivery state.
+   *
+   * @return The state.
+   */
+  private DeliveryState state() {
+    DeliveryState state = new DeliveryState();
+    state.updatedAt = System.currentTimeMillis();
+    state.queued = queue == null ? 0 : queue.size();
+    state.counters = queue == null ? Collections.emptyMap() : queue.counters();
+    state.hosts = bulkheads == null
+        ? Collections.emptyList()
+        : bulkheads.states(queue.sizeByHost());
+    state.conditionCache = ConditionCache.shared().counters();
+    Transport transport = sender.transport();
+    if (transport instanceof WebexHttpTransport) {
+      ((WebexHttpTransport) transport).poolStats()
+          .ifPresent(stats -> state.pool = WebhookProbe.pool(stats));
+    } else if (transport instanceof InMemoryTransport) {
+      state.captured = ((InMemoryTransport) transport).state(STATE_CAPTURED);
+    }
+
+    return state;
+  }
+
+  /**
+   * Gets the directory notifications are spilled to.
+   *
+   * @return The spill directory.
+   */
+  private Path spillDir() {
+    return Paths.get(
+        settings.get("sonar.path.data").orElse(System.getProperty("java.io.tmpdir")),
+        "teams-notifier",
+        "spill"
+    );
+  }
+}
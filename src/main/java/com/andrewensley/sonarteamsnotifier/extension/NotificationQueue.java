@@ -0,0 +1,798 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Queue of notifications waiting for delivery, bounded both by count and by total payload bytes.
+ *
+ * <p>When full, new notifications are handled by the {@link OverflowPolicy}. Every outcome is
+ * counted, so what was shed can be told from the logs.
+ *
+ * <p>With supersession, a notification replaces the queued one of the same hook, project and
+ * branch in place, so only the latest result of each branch waits for delivery.
+ */
+class NotificationQueue {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Loggers.get(NotificationQueue.class);
+
+  /**
+   * Extension of spilled notification files.
+   */
+  private static final String SPILL_EXTENSION = ".json";
+
+  /**
+   * Directory, under the spill directory, of spilled notifications whose hook is not known yet.
+   */
+  private static final String ORPHANED = "orphaned";
+
+  /**
+   * Maximum number of queued notifications.
+   */
+  private final int capacity;
+
+  /**
+   * Maximum total payload bytes of queued notifications.
+   */
+  private final long maxBytes;
+
+  /**
+   * The overflow policy.
+   */
+  private final OverflowPolicy policy;
+
+  /**
+   * Time to wait for room under the {@link OverflowPolicy#BLOCK} policy, in milliseconds.
+   */
+  private final long blockTimeout;
+
+  /**
+   * Directory notifications are spilled to under the {@link OverflowPolicy#SPILL} policy.
+   */
+  private final Path spillDir;
+
+  /**
+   * Whether a notification replaces the queued one of the same hook, project and branch.
+   */
+  private final boolean supersede;
+
+  /**
+   * Whether a notification that replaced queued ones notes how many in its message.
+   */
+  private final boolean supersededNote;
+
+  /**
+   * JSON serializer for spilled notifications.
+   */
+  private final Gson gson = new Gson();
+
+  /**
+   * The queued notifications, oldest first, by supersession key. Notifications that cannot be
+   * superseded have a key of their own.
+   */
+  private final Map<Object, Notification> queue = new LinkedHashMap<>();
+
+  /**
+   * Lock guarding the queue.
+   */
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /**
+   * Signaled when a notification is queued.
+   */
+  private final Condition notEmpty = lock.newCondition();
+
+  /**
+   * Signaled when a notification is taken.
+   */
+  private final Condition notFull = lock.newCondition();
+
+  /**
+   * Outcome counters, by name.
+   */
+  private final Map<String, AtomicLong> counters = new LinkedHashMap<>();
+
+  /**
+   * URLs of the hooks notifications were offered for under the SPILL policy, by hook ID. Spilled
+   * notifications only hold the ID, as the URL holds a secret token.
+   */
+  private final Map<String, String> knownHooks = new HashMap<>();
+
+  /**
+   * Total payload bytes of queued notifications.
+   */
+  private long bytes;
+
+  /**
+   * Number of notifications spilled to disk and not yet reloaded.
+   */
+  private int spilled;
+
+  /**
+   * Sequence number of the last spilled notification, ordering spills within a millisecond.
+   */
+  private long spillSequence;
+
+  /**
+   * Constructor.
+   *
+   * @param capacity     Maximum number of queued notifications.
+   * @param maxBytes     Maximum total payload bytes of queued notifications.
+   * @param policy       The overflow policy.
+   * @param blockTimeout Time to wait for room under the BLOCK policy, in milliseconds.
+   * @param spillDir     Directory notifications are spilled to under the SPILL policy.
+   */
+  NotificationQueue(
+      int capacity,
+      long maxBytes,
+      OverflowPolicy policy,
+      long blockTimeout,
+      Path spillDir
+  ) {
+    this(capacity, maxBytes, policy, blockTimeout, spillDir, false, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param capacity       Maximum number of queued notifications.
+   * @param maxBytes       Maximum total payload bytes of queued notifications.
+   * @param policy         The overflow policy.
+   * @param blockTimeout   Time to wait for room under the BLOCK policy, in milliseconds.
+   * @param spillDir       Directory notifications are spilled to under the SPILL policy.
+   * @param supersede      Whether a notification replaces the queued one of the same hook,
+   *                       project and branch.
+   * @param supersededNote Whether a notification that replaced queued ones notes how many.
+   */
+  NotificationQueue(
+      int capacity,
+      long maxBytes,
+      OverflowPolicy policy,
+      long blockTimeout,
+      Path spillDir,
+      boolean supersede,
+      boolean supersededNote
+  ) {
+    this.capacity = Math.max(1, capacity);
+    this.maxBytes = Math.max(1, maxBytes);
+    this.policy = policy;
+    this.blockTimeout = blockTimeout;
+    this.spillDir = spillDir;
+    this.supersede = supersede;
+    this.supersededNote = supersededNote;
+    for (String counter : new String[] {
+        "enqueued", "superseded", "delivered", "failed", "rejected", "dropped_oldest",
+        "dropped_passing", "dropped_new_passing", "spilled", "unspilled", "spill_failed",
+        "orphaned"}) {
+      counters.put(counter, new AtomicLong());
+    }
+
+    if (policy == OverflowPolicy.SPILL) {
+      spilled = spillFiles().size();
+      if (spilled > 0) {
+        LOG.info("Found {} Teams notification(s) spilled by a previous run", spilled);
+      }
+    }
+  }
+
+  /**
+   * Queues a notification, applying the overflow policy if the queue is full.
+   *
+   * @param notification The notification.
+   *
+   * @return True if the notification was queued or spilled. False if it was shed.
+   *
+   * @throws InterruptedException If interrupted while waiting for room.
+   */
+  boolean offer(Notification notification) throws InterruptedException {
+    lock.lock();
+    try {
+      if (policy == OverflowPolicy.SPILL) {
+        know(notification.hook);
+      }
+
+      Notification queued = supersede ? replace(notification) : notification;
+      if (queued == null) {
+        return true;
+      }
+
+      if (policy == OverflowPolicy.SPILL && spilled > 0) {
+        // Keep delivery order: once spilling, everything goes through the disk.
+        return spill(queued);
+      }
+
+      if (!hasRoomFor(queued)) {
+        if (policy == OverflowPolicy.SPILL) {
+          return spill(queued);
+        }
+
+        if (!makeRoomFor(queued)) {
+          return false;
+        }
+      }
+
+      queue.put(key(queued), queued);
+      bytes += queued.bytes;
+      if (queued == notification) {
+        increment("enqueued");
+      }
+
+      notEmpty.signal();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Takes the oldest notification, waiting for one if the queue is empty.
+   *
+   * @param timeout Maximum time to wait, in milliseconds.
+   *
+   * @return The notification. Null if none arrived in time.
+   *
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  Notification take(long timeout) throws InterruptedException {
+    return take(timeout, notification -> true);
+  }
+
+  /**
+   * Takes the oldest notification that can be delivered now, waiting for one if there is none.
+   *
+   * <p>The others stay queued in place, so they are still superseded, shed by the overflow policy
+   * and spilled on shutdown like any queued notification.
+   *
+   * @param timeout  Maximum time to wait, in milliseconds.
+   * @param eligible Checks if a notification can be delivered now. Called under the queue's lock,
+   *                 oldest first, until it accepts one.
+   *
+   * @return The notification. Null if none could be taken in time.
+   *
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  Notification take(long timeout, Predicate<Notification> eligible)
+      throws InterruptedException {
+    long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+    lock.lock();
+    try {
+      while (true) {
+        Notification notification = removeFirst(eligible);
+        if (notification != null) {
+          bytes -= notification.bytes;
+          notFull.signalAll();
+          return notification;
+        }
+
+        if (spilled > 0 && queue.size() < capacity) {
+          unspill();
+          continue;
+        }
+
+        if (nanos <= 0) {
+          return null;
+        }
+
+        nanos = notEmpty.awaitNanos(nanos);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Wakes a worker waiting for a notification it can deliver, after one became deliverable.
+   */
+  void signalEligible() {
+    lock.lock();
+    try {
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Records the outcome of the delivery of a taken notification.
+   *
+   * @param success Whether it was delivered.
+   */
+  void delivered(boolean success) {
+    increment(success ? "delivered" : "failed");
+  }
+
+  /**
+   * Removes every queued notification, spilling them under the SPILL policy.
+   *
+   * @return The number of notifications that were neither delivered nor spilled.
+   */
+  int drainOnShutdown() {
+    lock.lock();
+    try {
+      int lost = 0;
+      while (!queue.isEmpty()) {
+        Notification notification = removeFirst();
+        if (policy != OverflowPolicy.SPILL || !spill(notification)) {
+          lost++;
+        }
+      }
+
+      bytes = 0;
+      return lost;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Gets the number of queued notifications, excluding spilled ones.
+   *
+   * @return The number of queued notifications.
+   */
+  int size() {
+    lock.lock();
+    try {
+      return queue.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Counts the queued notifications of each host.
+   *
+   * @return The number of queued notifications, by host.
+   */
+  Map<String, Integer> sizeByHost() {
+    Map<String, Integer> sizes = new HashMap<>();
+    lock.lock();
+    try {
+      for (Notification notification : queue.values()) {
+        sizes.merge(HostBulkheads.host(notification.hook), 1, Integer::sum);
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    return sizes;
+  }
+
+  /**
+   * Gets a snapshot of the outcome counters.
+   *
+   * @return The counters, by name.
+   */
+  Map<String, Long> counters() {
+    Map<String, Long> snapshot = new LinkedHashMap<>();
+    counters.forEach((name, value) -> snapshot.put(name, value.get()));
+    return snapshot;
+  }
+
+  /**
+   * Remembers the URL of a hook, moving its orphaned spilled notifications back into the spill
+   * directory the first time it is seen.
+   *
+   * @param hook The hook URL.
+   */
+  private void know(String hook) {
+    String hookId = ClusterCoordinator.hookId(hook);
+    if (knownHooks.putIfAbsent(hookId, hook) != null) {
+      return;
+    }
+
+    Path orphanDir = spillDir.resolve(ORPHANED).resolve(hookId);
+    if (!Files.isDirectory(orphanDir)) {
+      return;
+    }
+
+    int recovered = 0;
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(orphanDir)) {
+      for (Path file : stream) {
+        Files.move(file, spillDir.resolve(file.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+        recovered++;
+      }
+
+      Files.delete(orphanDir);
+    } catch (IOException e) {
+      LOG.error("Unable to recover orphaned spilled notifications from [{}]", orphanDir, e);
+    }
+
+    spilled += recovered;
+    LOG.info("Recovered {} spilled Teams notification(s) for hook [{}]", recovered, hookId);
+  }
+
+  /**
+   * Moves a spilled notification whose hook is not known yet aside, until a notification for the
+   * same hook is offered again.
+   *
+   * @param file   The spilled notification.
+   * @param hookId The hook ID.
+   */
+  private void orphan(Path file, String hookId) {
+    Path orphanDir = spillDir.resolve(ORPHANED).resolve(hookId);
+    try {
+      Files.createDirectories(orphanDir);
+      Files.move(file, orphanDir.resolve(file.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+      increment("orphaned");
+      LOG.warn("Keeping spilled Teams notification for unknown hook [{}] in [{}] until the hook"
+          + " is notified again", hookId, orphanDir);
+    } catch (IOException e) {
+      LOG.error("Unable to move aside spilled notification [{}]", file, e);
+    }
+  }
+
+  /**
+   * Replaces the queued notification of the same hook, project and branch in place, keeping its
+   * position in the queue.
+   *
+   * <p>If the replacement would take the queue over its bytes limit, the queued notification is
+   * removed instead, and the replacement must be queued like a new one, subject to the overflow
+   * policy.
+   *
+   * @param notification The new notification.
+   *
+   * @return The notification left to queue: the new one if none is queued for its branch, or its
+   *     replacement if too large to replace in place. Null if replaced in place.
+   */
+  private Notification replace(Notification notification) {
+    String key = notification.supersessionKey();
+    Notification previous = queue.get(key);
+    if (previous == null) {
+      return notification;
+    }
+
+    Notification replacement = notification.supersede(previous, supersededNote);
+    increment("superseded");
+    LOG.debug("Teams notification for [{}] superseded {} undelivered one(s)",
+        notification.projectKey, replacement.superseded);
+    long delta = replacement.bytes - previous.bytes;
+    if (delta > 0 && queue.size() > 1 && bytes + delta > maxBytes) {
+      queue.remove(key);
+      bytes -= previous.bytes;
+      return replacement;
+    }
+
+    queue.put(key, replacement);
+    bytes += delta;
+    return null;
+  }
+
+  /**
+   * Gets the key a notification is queued under.
+   *
+   * @param notification The notification.
+   *
+   * @return Its supersession key with supersession. Otherwise, a key of its own.
+   */
+  private Object key(Notification notification) {
+    return supersede ? notification.supersessionKey() : new Object();
+  }
+
+  /**
+   * Removes the oldest queued notification.
+   *
+   * @return The notification.
+   */
+  private Notification removeFirst() {
+    Iterator<Notification> iterator = queue.values().iterator();
+    Notification notification = iterator.next();
+    iterator.remove();
+    return notification;
+  }
+
+  /**
+   * Removes the oldest queued notification accepted by a predicate.
+   *
+   * @param accepted The predicate.
+   *
+   * @return The notification. Null if none is accepted.
+   */
+  private Notification removeFirst(Predicate<Notification> accepted) {
+    Iterator<Notification> iterator = queue.values().iterator();
+    while (iterator.hasNext()) {
+      Notification notification = iterator.next();
+      if (accepted.test(notification)) {
+        iterator.remove();
+        return notification;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Checks if a notification fits in the queue.
+   *
+   * @param notification The notification.
+   *
+   * @return True if it fits.
+   */
+  private boolean hasRoomFor(Notification notification) {
+    return queue.size() < capacity
+        && (queue.isEmpty() || bytes + notification.bytes <= maxBytes);
+  }
+
+  /**
+   * Makes room for a notification according to the overflow policy.
+   *
+   * @param notification The new notification.
+   *
+   * @return True if the notification can now be queued. False if it was shed.
+   *
+   * @throws InterruptedException If interrupted while waiting for room.
+   */
+  private boolean makeRoomFor(Notification notification) throws InterruptedException {
+    switch (policy) {
+      case DROP_OLDEST:
+        while (!hasRoomFor(notification)) {
+          dropOldest();
+        }
+
+        return true;
+      case DROP_PASSING:
+        while (!hasRoomFor(notification)) {
+          if (!dropOldestPassing()) {
+            if (notification.passing) {
+              shed("dropped_new_passing", notification);
+              return false;
+            }
+
+            dropOldest();
+          }
+        }
+
+        return true;
+      case BLOCK:
+      default:
+        long nanos = TimeUnit.MILLISECONDS.toNanos(blockTimeout);
+        while (!hasRoomFor(notification)) {
+          if (nanos <= 0) {
+            shed("rejected", notification);
+            return false;
+          }
+
+          nanos = notFull.awaitNanos(nanos);
+        }
+
+        return true;
+    }
+  }
+
+  /**
+   * Drops the oldest queued notification of a passing quality gate.
+   *
+   * @return True if one was dropped. False if there is none.
+   */
+  private boolean dropOldestPassing() {
+    Iterator<Notification> iterator = queue.values().iterator();
+    while (iterator.hasNext()) {
+      Notification queued = iterator.next();
+      if (queued.passing) {
+        iterator.remove();
+        dropped(queued, "dropped_passing");
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Drops the oldest queued notification.
+   */
+  private void dropOldest() {
+    dropped(removeFirst(), "dropped_oldest");
+  }
+
+  /**
+   * Accounts for a queued notification that was dropped.
+   *
+   * @param notification The dropped notification.
+   * @param counter      The counter to increment.
+   */
+  private void dropped(Notification notification, String counter) {
+    bytes -= notification.bytes;
+    increment(counter);
+    LOG.warn("Teams notification queue full. Shed a queued notification ({}). Counters: {}",
+        counter, counters());
+  }
+
+  /**
+   * Sheds a new notification.
+   *
+   * @param counter      The counter to increment.
+   * @param notification The notification.
+   */
+  private void shed(String counter, Notification notification) {
+    increment(counter);
+    LOG.warn("Teams notification queue full. Shed notification for [{}] ({}). Counters: {}",
+        notification.projectKey, counter, counters());
+  }
+
+  /**
+   * Writes a notification to the spill directory.
+   *
+   * @param notification The notification.
+   *
+   * @return True if it was spilled.
+   */
+  private boolean spill(Notification notification) {
+    String name = String.format(
+        "%015d-%012d-%s",
+        System.currentTimeMillis(),
+        ++spillSequence,
+        UUID.randomUUID()
+    );
+    try {
+      Files.createDirectories(spillDir);
+      Path temp = spillDir.resolve(name + ".tmp");
+      Files.write(temp, gson.toJson(new Spilled(notification)).getBytes(UTF_8));
+      Files.move(temp, spillDir.resolve(name + SPILL_EXTENSION), StandardCopyOption.ATOMIC_MOVE);
+      spilled++;
+      increment("spilled");
+      return true;
+    } catch (IOException e) {
+      shed("spill_failed", notification);
+      LOG.error("Unable to spill Teams notification to [{}]", spillDir, e);
+      return false;
+    }
+  }
+
+  /**
+   * Reloads spilled notifications into the queue, oldest first, up to its capacity.
+   */
+  private void unspill() {
+    List<Path> files = spillFiles();
+    spilled = files.size();
+    for (Path file : files) {
+      if (queue.size() >= capacity) {
+        break;
+      }
+
+      try {
+        String json = new String(Files.readAllBytes(file), UTF_8);
+        Spilled entry = gson.fromJson(json, Spilled.class);
+        if (entry == null || entry.hookId == null) {
+          throw new JsonParseException("Missing hook ID");
+        }
+
+        String hook = knownHooks.get(entry.hookId);
+        if (hook == null) {
+          orphan(file, entry.hookId);
+          spilled--;
+          continue;
+        }
+
+        Notification notification = entry.toNotification(hook);
+        Notification queued = supersede ? replace(notification) : notification;
+        if (queued != null) {
+          queue.put(key(queued), queued);
+          bytes += queued.bytes;
+        }
+
+        increment("unspilled");
+      } catch (IOException | JsonParseException e) {
+        LOG.error("Discarding unreadable spilled notification [{}]", file, e);
+      }
+
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException e) {
+        LOG.error("Unable to delete spilled notification [{}]", file, e);
+      }
+
+      spilled--;
+    }
+  }
+
+  /**
+   * Lists the spilled notification files, oldest first.
+   *
+   * @return The files.
+   */
+  private List<Path> spillFiles() {
+    List<Path> files = new ArrayList<>();
+    if (spillDir == null || !Files.isDirectory(spillDir)) {
+      return files;
+    }
+
+    String glob = "*" + SPILL_EXTENSION;
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(spillDir, glob)) {
+      stream.forEach(files::add);
+    } catch (IOException e) {
+      LOG.error("Unable to list spilled notifications in [{}]", spillDir, e);
+    }
+
+    Collections.sort(files);
+    return files;
+  }
+
+  /**
+   * Increments a counter.
+   *
+   * @param counter The counter name.
+   */
+  private void increment(String counter) {
+    counters.get(counter).incrementAndGet();
+  }
+
+  /**
+   * POJO for spilled notifications.
+   */
+  private static class Spilled {
+
+    /**
+     * The ID of the hook. Its URL holds a secret token, so it is never written to disk.
+     */
+    String hookId;
+
+    /**
+     * The name of the payload's format. Null for entries written before formats existed.
+     */
+    String format;
+
+    /**
+     * The message, in the payload's format.
+     */
+    @SerializedName(value = "content", alternate = "markdown")
+    String content;
+
+    /**
+     * The analysis the notification was rendered from, in binary form encoded in Base64.
+     */
+    String snapshot;
+
+    /**
+     * Constructor.
+     *
+     * @param notification The notification to spill.
+     */
+    Spilled(Notification notification) {
+      this.hookId = ClusterCoordinator.hookId(notification.hook);
+      this.format = notification.payload.format.name();
+      this.content = notification.payload.content;
+      this.snapshot = notification.encodedSnapshot();
+    }
+
+    /**
+     * Converts back to a notification.
+     *
+     * @param hook The URL of the hook, resolved from its ID.
+     *
+     * @return The notification.
+     *
+     * @throws JsonParseException If the entry is invalid.
+     */
+    Notification toNotification(String hook) {
+      return Notification.restore(hook, format, content, snapshot);
+    }
+  }
+}
@@ -0,0 +1,684 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import org.sonar.api.ce.posttask.QualityGate;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.server.ws.LocalConnector;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Re-sends the latest quality gate status of a selection of projects, without new analyses, e.g.
+ * after a WebEx Teams outage or to fill a new space.
+ *
+ * <p>Projects are looked up one at a time through the server's web API, on the calling thread,
+ * since the local connector acts on behalf of the current user. Their notifications are delivered
+ * by a bounded number of threads. The caller blocks while every thread is busy, so no more than
+ * one project per thread is held in memory, however many projects are selected.
+ *
+ * <p>If the listener fails, e.g. because the client disconnected, no more projects are looked up.
+ * Deliveries already started still finish before {@link #run} returns, so the transport can be
+ * closed then.
+ */
+class NotificationReplay {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Loggers.get(NotificationReplay.class);
+
+  /**
+   * Maximum number of concurrent deliveries.
+   */
+  static final int MAX_CONCURRENCY = 10;
+
+  /**
+   * Number of projects per page when listing projects matching a pattern.
+   */
+  private static final int PAGE_SIZE = 100;
+
+  /**
+   * Minimum time between progress reports, in milliseconds.
+   */
+  private static final long PROGRESS_INTERVAL = 2000;
+
+  /**
+   * Format of dates in the web API.
+   */
+  private static final String API_DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ssZ";
+
+  /**
+   * Connector to the server's web API.
+   */
+  private final LocalConnector localConnector;
+
+  /**
+   * SonarQube settings.
+   */
+  private final Configuration settings;
+
+  /**
+   * The metadata of the metrics.
+   */
+  private final MetricCatalog metrics;
+
+  /**
+   * The transport notifications are delivered through.
+   */
+  private final Transport transport;
+
+  /**
+   * Number of projects looked up.
+   */
+  private final AtomicInteger projects = new AtomicInteger();
+
+  /**
+   * Number of projects not notified: unknown, never analyzed, without quality gate, or not
+   * matching the filter.
+   */
+  private final AtomicInteger skipped = new AtomicInteger();
+
+  /**
+   * Number of notifications delivered.
+   */
+  private final AtomicInteger sent = new AtomicInteger();
+
+  /**
+   * Number of notifications that failed.
+   */
+  private final AtomicInteger failed = new AtomicInteger();
+
+  /**
+   * Start of the replay, in milliseconds since the epoch.
+   */
+  private long start;
+
+  /**
+   * Time of the last progress report, in milliseconds since the epoch.
+   */
+  private long lastReport;
+
+  /**
+   * Whether the listener still receives progress reports. False once it failed.
+   */
+  private boolean listening = true;
+
+  /**
+   * Constructor.
+   *
+   * @param localConnector Connector to the server's web API.
+   * @param settings       The SonarQube Configuration settings.
+   * @param metrics        The metadata of the metrics.
+   * @param transport      The transport notifications are delivered through.
+   */
+  NotificationReplay(
+      LocalConnector localConnector,
+      Configuration settings,
+      MetricCatalog metrics,
+      Transport transport
+  ) {
+    this.localConnector = localConnector;
+    this.settings = settings;
+    this.metrics = metrics;
+    this.transport = transport;
+  }
+
+  /**
+   * Replays the latest quality gate status of the selected projects.
+   *
+   * @param selection   Project keys, or patterns where {@code *} matches any characters and
+   *                    {@code ?} a single one.
+   * @param filter      Filter the latest status must match, for hooks without their own. Null
+   *                    for none.
+   * @param failOnly    Whether to skip projects whose quality gate passes.
+   * @param targets     The hooks to notify.
+   * @param concurrency Maximum number of concurrent deliveries.
+   * @param listener    Receives progress reports, on the calling thread. Once it fails, the
+   *                    replay stops looking up projects.
+   *
+   * @return The final progress, once every delivery started has finished.
+   *
+   * @throws InterruptedException If interrupted while waiting for a delivery thread.
+   */
+  Progress run(
+      List<String> selection,
+      SubscriptionFilter filter,
+      boolean failOnly,
+      List<HookTarget> targets,
+      int concurrency,
+      Consumer<Progress> listener
+  ) throws InterruptedException {
+    start = System.currentTimeMillis();
+    lastReport = start;
+    Set<String> keys = new LinkedHashSet<>();
+    List<Pattern> patterns = new ArrayList<>();
+    for (String entry : selection) {
+      if (entry.contains("*") || entry.contains("?")) {
+        patterns.add(SubscriptionFilter.globToPattern(entry));
+      } else {
+        keys.add(entry);
+      }
+    }
+
+    int threads = Math.max(1, Math.min(MAX_CONCURRENCY, concurrency));
+    ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "teams-notifier-replay");
+      thread.setDaemon(true);
+      return thread;
+    });
+    Semaphore slots = new Semaphore(threads);
+    Delivery delivery = new Delivery(filter, failOnly, targets, executor, slots);
+    try {
+      for (String key : keys) {
+        if (!listening) {
+          break;
+        }
+
+        replay(key, null, delivery);
+        report(listener);
+      }
+
+      if (listening && !patterns.isEmpty()) {
+        replayMatching(patterns, keys, delivery, listener);
+      }
+    } finally {
+      executor.shutdown();
+      while (!executor.awaitTermination(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS)) {
+        report(listener);
+      }
+    }
+
+    Progress progress = progress(true);
+    LOG.info("Teams notification replay finished: {} project(s), {} skipped, {} sent, {} failed"
+        + " in {} ms", progress.projects, progress.skipped, progress.sent, progress.failed,
+        progress.elapsedMs);
+    if (listening) {
+      publish(listener, progress);
+    }
+
+    return progress;
+  }
+
+  /**
+   * Replays the projects matching patterns, one page of projects at a time.
+   *
+   * @param patterns The patterns.
+   * @param exclude  Keys already replayed.
+   * @param delivery The delivery of the notifications.
+   * @param listener Receives progress reports.
+   *
+   * @throws InterruptedException If interrupted while waiting for a delivery thread.
+   */
+  private void replayMatching(
+      List<Pattern> patterns,
+      Set<String> exclude,
+      Delivery delivery,
+      Consumer<Progress> listener
+  ) throws InterruptedException {
+    int page = 1;
+    int total = Integer.MAX_VALUE;
+    while (listening && (page - 1) * PAGE_SIZE < total) {
+      Optional<JsonObject> response = new LocalApiRequest("api/projects/search")
+          .param("qualifiers", "TRK")
+          .param("p", page)
+          .param("ps", PAGE_SIZE)
+          .call(localConnector);
+      if (!response.isPresent()) {
+        LOG.warn("Unable to list projects for the Teams notification replay");
+        return;
+      }
+
+      total = response.get().getAsJsonObject("paging").get("total").getAsInt();
+      JsonArray components = response.get().getAsJsonArray("components");
+      if (components.size() == 0) {
+        return;
+      }
+
+      for (JsonElement element : components) {
+        JsonObject component = element.getAsJsonObject();
+        String key = component.get("key").getAsString();
+        if (!listening) {
+          return;
+        }
+
+        if (!exclude.contains(key)
+            && patterns.stream().anyMatch(pattern -> pattern.matcher(key).matches())) {
+          replay(key, component.get("name").getAsString(), delivery);
+          report(listener);
+        }
+      }
+
+      page++;
+    }
+  }
+
+  /**
+   * Looks up the latest quality gate status of a project, and delivers it.
+   *
+   * @param projectKey  The project key.
+   * @param projectName The project name. Null to look it up.
+   * @param delivery    The delivery of the notifications.
+   *
+   * @throws InterruptedException If interrupted while waiting for a delivery thread.
+   */
+  private void replay(String projectKey, String projectName, Delivery delivery)
+      throws InterruptedException {
+    projects.incrementAndGet();
+    Optional<AnalysisSnapshot> snapshot = latest(projectKey, projectName);
+    List<HookTarget> targets = snapshot.isPresent()
+        && !(delivery.failOnly && snapshot.get().isPassing())
+        ? delivery.targets(snapshot.get())
+        : Collections.emptyList();
+    if (targets.isEmpty()) {
+      skipped.incrementAndGet();
+      return;
+    }
+
+    Message message = PayloadBuilder.of(
+            snapshot.get(),
+            TeamsPostProjectAnalysisTask.projectUrl(settings, projectKey),
+            delivery.failOnly,
+            snapshot.get().isPassing())
+        .metrics(metrics)
+        .message();
+    Map<MessageFormat, Payload> payloads = new EnumMap<>(MessageFormat.class);
+    for (HookTarget target : targets) {
+      Payload payload = payloads.computeIfAbsent(target.format, format -> format.payload(message));
+      delivery.slots.acquire();
+      delivery.executor.execute(() -> {
+        try {
+          if (transport.send(target.url, payload)) {
+            sent.incrementAndGet();
+          } else {
+            failed.incrementAndGet();
+          }
+        } finally {
+          delivery.slots.release();
+        }
+      });
+    }
+  }
+
+  /**
+   * Looks up the latest quality gate status of a project's main branch.
+   *
+   * @param projectKey  The project key.
+   * @param projectName The project name. Null to look it up.
+   *
+   * @return The snapshot of the latest status. Empty if the project is unknown, was never
+   *         analyzed or has no quality gate.
+   */
+  private Optional<AnalysisSnapshot> latest(String projectKey, String projectName) {
+    String name = projectName;
+    if (name == null) {
+      Optional<JsonObject> component = new LocalApiRequest("api/components/show")
+          .param("component", projectKey)
+          .call(localConnector);
+      if (!component.isPresent()) {
+        LOG.info("Project [{}] not found. Skipping it.", projectKey);
+        return Optional.empty();
+      }
+
+      name = component.get().getAsJsonObject("component").get("name").getAsString();
+    }
+
+    Optional<JsonObject> analyses = new LocalApiRequest("api/project_analyses/search")
+        .param("project", projectKey)
+        .param("ps", 1)
+        .call(localConnector);
+    if (!analyses.isPresent() || analyses.get().getAsJsonArray("analyses").size() == 0) {
+      LOG.info("Project [{}] was never analyzed. Skipping it.", projectKey);
+      return Optional.empty();
+    }
+
+    Optional<JsonObject> status = new LocalApiRequest("api/qualitygates/project_status")
+        .param("projectKey", projectKey)
+        .call(localConnector);
+    Optional<QualityGate.Status> gateStatus = status
+        .map(body -> body.getAsJsonObject("projectStatus"))
+        .flatMap(body -> gateStatus(body.get("status").getAsString()));
+    if (!gateStatus.isPresent()) {
+      LOG.info("Project [{}] has no quality gate status. Skipping it.", projectKey);
+      return Optional.empty();
+    }
+
+    JsonObject analysis = analyses.get().getAsJsonArray("analyses").get(0).getAsJsonObject();
+    List<QualityGate.Condition> conditions = new ArrayList<>();
+    JsonArray statusConditions = status.get().getAsJsonObject("projectStatus")
+        .getAsJsonArray("conditions");
+    if (statusConditions != null) {
+      for (JsonElement condition : statusConditions) {
+        conditions.add(new LatestCondition(condition.getAsJsonObject()));
+      }
+    }
+
+    return Optional.of(AnalysisSnapshot.ofLatest(
+        projectKey,
+        name,
+        string(analysis, "revision").orElse(""),
+        date(string(analysis, "date").orElse("")),
+        gateName(projectKey),
+        gateStatus.get(),
+        conditions
+    ));
+  }
+
+  /**
+   * Looks up the name of a project's quality gate.
+   *
+   * @param projectKey The project key.
+   *
+   * @return The quality gate name.
+   */
+  private String gateName(String projectKey) {
+    return new LocalApiRequest("api/qualitygates/get_by_project")
+        .param("project", projectKey)
+        .call(localConnector)
+        .map(body -> body.getAsJsonObject("qualityGate"))
+        .flatMap(gate -> string(gate, "name"))
+        .orElse("Quality Gate");
+  }
+
+  /**
+   * Reports progress, at most every {@link #PROGRESS_INTERVAL} milliseconds.
+   *
+   * @param listener Receives the progress report.
+   */
+  private void report(Consumer<Progress> listener) {
+    long now = System.currentTimeMillis();
+    if (listening && now - lastReport >= PROGRESS_INTERVAL) {
+      lastReport = now;
+      publish(listener, progress(false));
+    }
+  }
+
+  /**
+   * Sends a progress report to the listener, and stops reporting if it fails.
+   *
+   * @param listener Receives the progress report.
+   * @param progress The progress report.
+   */
+  private void publish(Consumer<Progress> listener, Progress progress) {
+    try {
+      listener.accept(progress);
+    } catch (RuntimeException e) {
+      listening = false;
+      LOG.warn("Unable to report the progress of the Teams notification replay, stopping it: {}",
+          e.getMessage());
+    }
+  }
+
+  /**
+   * Gets the current progress.
+   *
+   * @param done Whether the replay is done.
+   *
+   * @return The progress.
+   */
+  private Progress progress(boolean done) {
+    Progress progress = new Progress();
+    progress.projects = projects.get();
+    progress.skipped = skipped.get();
+    progress.sent = sent.get();
+    progress.failed = failed.get();
+    progress.elapsedMs = System.currentTimeMillis() - start;
+    progress.done = done;
+    return progress;
+  }
+
+  /**
+   * Parses a quality gate status of the web API.
+   *
+   * @param value The status, e.g. {@code ERROR}.
+   *
+   * @return The status. Empty for {@code NONE}, when the project has no quality gate.
+   */
+  private static Optional<QualityGate.Status> gateStatus(String value) {
+    try {
+      return Optional.of(QualityGate.Status.valueOf(value));
+    } catch (IllegalArgumentException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Parses a date of the web API.
+   *
+   * @param value The date, e.g. {@code 2019-07-29T14:30:00+0200}.
+   *
+   * @return The date. The current date if the value is invalid.
+   */
+  private static Date date(String value) {
+    try {
+      return new SimpleDateFormat(API_DATE_FORMAT).parse(value);
+    } catch (ParseException e) {
+      return new Date();
+    }
+  }
+
+  /**
+   * Gets a string member of a JSON object.
+   *
+   * @param object The object.
+   * @param name   The member name.
+   *
+   * @return The value, if the member is present and not null.
+   */
+  private static Optional<String> string(JsonObject object, String name) {
+    JsonElement value = object.get(name);
+    return value == null || value.isJsonNull()
+        ? Optional.empty()
+        : Optional.of(value.getAsString());
+  }
+
+  /**
+   * The delivery of the notifications of a replay.
+   */
+  private static final class Delivery {
+
+    /**
+     * Filter the latest status must match, for hooks without their own. Null for none.
+     */
+    final SubscriptionFilter filter;
+
+    /**
+     * Whether to skip projects whose quality gate passes.
+     */
+    final boolean failOnly;
+
+    /**
+     * The hooks to notify.
+     */
+    final List<HookTarget> targets;
+
+    /**
+     * The delivery threads.
+     */
+    final ExecutorService executor;
+
+    /**
+     * Permits for deliveries in flight.
+     */
+    final Semaphore slots;
+
+    /**
+     * Constructor.
+     *
+     * @param filter   Filter the latest status must match, for hooks without their own. Null
+     *                 for none.
+     * @param failOnly Whether to skip projects whose quality gate passes.
+     * @param targets  The hooks to notify.
+     * @param executor The delivery threads.
+     * @param slots    Permits for deliveries in flight.
+     */
+    Delivery(
+        SubscriptionFilter filter,
+        boolean failOnly,
+        List<HookTarget> targets,
+        ExecutorService executor,
+        Semaphore slots
+    ) {
+      this.filter = filter;
+      this.failOnly = failOnly;
+      this.targets = targets;
+      this.executor = executor;
+      this.slots = slots;
+    }
+
+    /**
+     * Gets the hooks whose filter a latest status matches.
+     *
+     * @param snapshot The snapshot of the latest status.
+     *
+     * @return The hooks to notify of it.
+     *
+     * @throws IllegalArgumentException If the filter of a hook is invalid.
+     */
+    List<HookTarget> targets(AnalysisSnapshot snapshot) {
+      List<HookTarget> matching = new ArrayList<>();
+      for (HookTarget target : targets) {
+        SubscriptionFilter targetFilter = target.filter == null
+            ? filter
+            : SubscriptionFilter.of(target.filter);
+        if (targetFilter == null || targetFilter.test(snapshot)) {
+          matching.add(target);
+        }
+      }
+
+      return matching;
+    }
+  }
+
+  /**
+   * Progress of a replay.
+   */
+  static final class Progress {
+
+    /**
+     * Number of projects looked up.
+     */
+    int projects;
+
+    /**
+     * Number of projects not notified.
+     */
+    int skipped;
+
+    /**
+     * Number of notifications delivered.
+     */
+    int sent;
+
+    /**
+     * Number of notifications that failed.
+     */
+    int failed;
+
+    /**
+     * Time since the start of the replay, in milliseconds.
+     */
+    long elapsedMs;
+
+    /**
+     * Whether the replay is done.
+     */
+    boolean done;
+  }
+
+  /**
+   * A quality gate condition as reported by the web API.
+   */
+  private static final class LatestCondition implements QualityGate.Condition {
+
+    /**
+     * The condition, e.g. {@code {"status":"ERROR","metricKey":"new_coverage",
+     * "comparator":"LT","errorThreshold":"80","actualValue":"42.5"}}.
+     */
+    private final JsonObject json;
+
+    /**
+     * Constructor.
+     *
+     * @param json The condition.
+     */
+    LatestCondition(JsonObject json) {
+      this.json = json;
+    }
+
+    @Override
+    public QualityGate.EvaluationStatus getStatus() {
+      String status = string(json, "status").orElse("");
+      try {
+        return QualityGate.EvaluationStatus.valueOf(status);
+      } catch (IllegalArgumentException e) {
+        return QualityGate.EvaluationStatus.NO_VALUE;
+      }
+    }
+
+    @Override
+    public String getMetricKey() {
+      return string(json, "metricKey").orElse("");
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public QualityGate.Operator getOperator() {
+      switch (string(json, "comparator").orElse("")) {
+        case "GT":
+          return QualityGate.Operator.GREATER_THAN;
+        case "LT":
+          return QualityGate.Operator.LESS_THAN;
+        case "EQ":
+          return QualityGate.Operator.EQUALS;
+        case "NE":
+          return QualityGate.Operator.NOT_EQUALS;
+        default:
+          return null;
+      }
+    }
+
+    @Override
+    public String getErrorThreshold() {
+      return string(json, "errorThreshold").orElse(null);
+    }
+
+    @Override
+    @Deprecated
+    public String getWarningThreshold() {
+      return string(json, "warningThreshold").orElse(null);
+    }
+
+    @Override
+    @Deprecated
+    public boolean isOnLeakPeriod() {
+      return getMetricKey().startsWith("new_");
+    }
+
+    @Override
+    public String getValue() {
+      return string(json, "actualValue").orElse("");
+    }
+  }
+}
@@ -0,0 +1,250 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import com.andrewensley.sonarteamsnotifier.domain.Constants;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.sonar.api.Startable;
+import org.sonar.api.ce.ComputeEngineSide;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Sends payloads through the transport selected in the global plugin settings.
+ */
+@ComputeEngineSide
+public class NotificationSender implements Startable {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Loggers.get(NotificationSender.class);
+
+  /**
+   * Transport posting to WebEx Teams webhooks.
+   */
+  static final String TRANSPORT_HTTP = "http";
+
+  /**
+   * Transport appending to a local NDJSON file.
+   */
+  static final String TRANSPORT_FILE = "file";
+
+  /**
+   * Transport capturing payloads in memory.
+   */
+  static final String TRANSPORT_MEMORY = "memory";
+
+  /**
+   * Number of payloads written between flushes of the file transport.
+   */
+  private static final int FILE_BATCH_SIZE = 100;
+
+  /**
+   * Number of payloads kept by the in-memory transport.
+   */
+  private static final int MEMORY_CAPACITY = 10000;
+
+  /**
+   * Default time DNS answers are cached for, in seconds.
+   */
+  private static final int DEFAULT_DNS_TTL = 300;
+
+  /**
+   * Default time DNS failures are cached for, in seconds.
+   */
+  private static final int DEFAULT_DNS_NEGATIVE_TTL = 10;
+
+  /**
+   * SonarQube settings.
+   */
+  private final Configuration settings;
+
+  /**
+   * The resolver of hook and proxy hosts.
+   */
+  private DnsResolver dnsResolver;
+
+  /**
+   * The selected transport.
+   */
+  private Transport transport;
+
+  /**
+   * The hosts notifications were recently sent to.
+   */
+  private RecentHosts recentHosts;
+
+  /**
+   * Constructor.
+   *
+   * @param settings The SonarQube Configuration settings.
+   */
+  public NotificationSender(Configuration settings) {
+    this.settings = settings;
+  }
+
+  /**
+   * Selects the transport.
+   */
+  @Override
+  public void start() {
+    dnsResolver = createDnsResolver(settings);
+    transport = createTransport(settings, dnsResolver);
+    recentHosts = RecentHosts.of(settings);
+    if (settings.getBoolean(Constants.WARMUP).orElse(false)
+        && transport instanceof WebexHttpTransport) {
+      Thread warmUp = new Thread(this::warmUp, "teams-notifier-warm-up");
+      warmUp.setDaemon(true);
+      warmUp.start();
+    }
+  }
+
+  /**
+   * Creates the resolver of hook and proxy hosts configured in the global plugin settings.
+   *
+   * @param settings The SonarQube Configuration settings.
+   *
+   * @return The resolver. A {@link CachingDnsResolver} must be closed by the caller.
+   */
+  static DnsResolver createDnsResolver(Configuration settings) {
+    int dnsTtl = settings.getInt(Constants.DNS_TTL).orElse(DEFAULT_DNS_TTL);
+    return dnsTtl > 0
+        ? new CachingDnsResolver(
+            dnsTtl,
+            settings.getInt(Constants.DNS_NEGATIVE_TTL).orElse(DEFAULT_DNS_NEGATIVE_TTL))
+        : SystemDefaultDnsResolver.INSTANCE;
+  }
+
+  /**
+   * Creates the transport selected in the global plugin settings.
+   *
+   * @param settings    The SonarQube Configuration settings.
+   * @param dnsResolver The resolver of hook and proxy hosts.
+   *
+   * @return The transport. It must be closed by the caller.
+   */
+  static Transport createTransport(Configuration settings, DnsResolver dnsResolver) {
+    String selected = settings.get(Constants.TRANSPORT)
+        .map(value -> value.trim().toLowerCase(Locale.ENGLISH))
+        .orElse(TRANSPORT_HTTP);
+    switch (selected) {
+      case TRANSPORT_FILE:
+        // Never fall back to the network from a dry run.
+        return fileTransport(settings).orElseGet(() -> new InMemoryTransport(MEMORY_CAPACITY));
+      case TRANSPORT_MEMORY:
+        LOG.info("Teams notifications are captured in memory instead of being sent");
+        return new InMemoryTransport(MEMORY_CAPACITY);
+      default:
+        if (!TRANSPORT_HTTP.equals(selected) && !selected.isEmpty()) {
+          LOG.warn("Unknown Teams transport [{}]. Using [{}].", selected, TRANSPORT_HTTP);
+        }
+
+        return new WebexHttpTransport(settings, dnsResolver);
+    }
+  }
+
+  /**
+   * Warms up connections to the configured and recently used hook hosts.
+   */
+  private void warmUp() {
+    Set<String> hosts = new LinkedHashSet<>();
+    for (String host : settings.getStringArray(Constants.WARMUP_HOSTS)) {
+      String baseUrl = RecentHosts.baseUrl(host);
+      if (!baseUrl.isEmpty()) {
+        hosts.add(baseUrl);
+      }
+    }
+
+    hosts.addAll(recentHosts.hosts());
+    long start = System.currentTimeMillis();
+    ((WebexHttpTransport) transport).warmUp(hosts);
+    long elapsed = System.currentTimeMillis() - start;
+    LOG.info("Warmed up {} Teams host(s) in {} ms", hosts.size(), elapsed);
+  }
+
+  /**
+   * Closes the transport.
+   */
+  @Override
+  public void stop() {
+    if (transport != null) {
+      transport.close();
+    }
+
+    if (dnsResolver instanceof CachingDnsResolver) {
+      ((CachingDnsResolver) dnsResolver).close();
+    }
+  }
+
+  /**
+   * Sends a payload to a webhook.
+   *
+   * @param hook    The hook URL.
+   * @param payload The payload to send.
+   *
+   * @return True on success. False on failure.
+   */
+  boolean send(String hook, Payload payload) {
+    recentHosts.add(hook);
+    if (transport.send(hook, payload)) {
+      LOG.info("Teams message posted");
+      return true;
+    }
+
+    LOG.error("Teams message failed");
+    return false;
+  }
+
+  /**
+   * Gets the status code of the last payload sent by the calling thread.
+   *
+   * @return The status code. 0 if the transport has none or no response was received.
+   */
+  int lastStatusCode() {
+    return transport.statusCode();
+  }
+
+  /**
+   * Gets the selected transport.
+   *
+   * @return The transport.
+   */
+  Transport transport() {
+    return transport;
+  }
+
+  /**
+   * Creates the file transport.
+   *
+   * @param settings The SonarQube Configuration settings.
+   *
+   * @return The file transport, if the sink file could be opened.
+   */
+  private static Optional<Transport> fileTransport(Configuration settings) {
+    Path file = settings.get(Constants.TRANSPORT_FILE)
+        .map(String::trim)
+        .filter(value -> !value.isEmpty())
+        .map(Paths::get)
+        .orElseGet(() -> Paths.get(
+            settings.get("sonar.path.data").orElse("."),
+            "teams-notifier",
+            "notifications.ndjson"
+        ));
+    try {
+      return Optional.of(new FileSinkTransport(file, FILE_BATCH_SIZE));
+    } catch (IOException e) {
+      LOG.error("Unable to open Teams file sink [{}]. Using [{}].", file, TRANSPORT_MEMORY, e);
+      return Optional.empty();
+    }
+  }
+}
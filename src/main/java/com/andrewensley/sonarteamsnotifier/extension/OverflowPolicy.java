@@ -0,0 +1,46 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * What the notification queue does with a new notification when it is full.
+ */
+enum OverflowPolicy {
+
+  /**
+   * Wait for room, up to a timeout, then reject the new notification.
+   */
+  BLOCK,
+
+  /**
+   * Drop the oldest queued notification.
+   */
+  DROP_OLDEST,
+
+  /**
+   * Drop the oldest queued notification of a passing quality gate, or else the new notification if
+   * it is passing, or else the oldest queued notification.
+   */
+  DROP_PASSING,
+
+  /**
+   * Write the new notification to disk until there is room again.
+   */
+  SPILL;
+
+  /**
+   * Parses a policy setting.
+   *
+   * @param value The setting value, e.g. {@code drop_oldest}.
+   *
+   * @return The policy, if the value is valid.
+   */
+  static Optional<OverflowPolicy> parse(String value) {
+    try {
+      return Optional.of(valueOf(value.trim().toUpperCase(Locale.ENGLISH)));
+    } catch (IllegalArgumentException e) {
+      return Optional.empty();
+    }
+  }
+}
@@ -1,23 +1,57 @@
 package com.andrewensley.sonarteamsnotifier.extension;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 /**
- * POJO for WebEx Teams Messages.
+ * A message rendered in the format of the hooks it is posted to.
  */
 class Payload {
 
   /**
-   * The message to send with markdown formatting.
+   * The format of the content.
    */
-  String markdown = "";
+  final MessageFormat format;
 
   /**
-   * Constructor.
+   * The message: markdown, card JSON or plain text, depending on the format.
+   */
+  final String content;
+
+  /**
+   * Constructor of a WebEx Teams message.
    *
    * @param markdown The message to send with markdown formatting.
    */
   Payload(String markdown) {
-    if (markdown != null) {
-      this.markdown = markdown;
-    }
+    this(MessageFormat.WEBEX, markdown);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param format  The format of the content.
+   * @param content The message, in that format.
+   */
+  Payload(MessageFormat format, String content) {
+    this.format = format;
+    this.content = content == null ? "" : content;
+  }
+
+  /**
+   * Serializes the payload.
+   *
+   * @return The payload as a JSON-encoded string.
+   */
+  String toJson() {
+    return format.toJson(content);
+  }
+
+  /**
+   * Serializes the payload to the bytes posted to the hook.
+   *
+   * @return The payload as UTF-8 encoded JSON.
+   */
+  byte[] toBytes() {
+    return toJson().getBytes(UTF_8);
   }
 }
@@ -1,24 +1,17 @@
 package com.andrewensley.sonarteamsnotifier.extension;
 
-import static java.lang.String.format;
-
-import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Objects;
 
-import org.sonar.api.ce.posttask.Branch;
-import org.sonar.api.ce.posttask.PostProjectAnalysisTask;
 import org.sonar.api.ce.posttask.QualityGate;
 import org.sonar.api.ce.posttask.QualityGate.Condition;
-import org.sonar.api.measures.CoreMetrics;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 
 /**
- * Builds a payload for a WebEx Teams message.
+ * Builds the message of an analysis, and its payload for a WebEx Teams message.
  */
 class PayloadBuilder {
 
@@ -28,9 +21,14 @@ class PayloadBuilder {
   private static final Logger LOG = Loggers.get(PayloadBuilder.class);
 
   /**
-   * Project Analysis.
+   * Number of fields of each condition in the content of the condition section.
+   */
+  private static final int CONDITION_FIELDS = 8;
+
+  /**
+   * Snapshot of the project analysis.
    */
-  private PostProjectAnalysisTask.ProjectAnalysis analysis;
+  private AnalysisSnapshot analysis;
 
   /**
    * Project URL.
@@ -58,20 +56,30 @@ class PayloadBuilder {
   private String commitUrl = "";
 
   /**
-   * Decimal format for percentages.
+   * The encoded branch name for the project URL. Empty to encode the analysis' branch name.
+   */
+  private String branchParam = "";
+
+  /**
+   * The previous condition values of the project branch.
+   */
+  private Trend trend = Trend.NONE;
+
+  /**
+   * Metadata of the metrics, used to format condition values.
    */
-  private DecimalFormat percentageFormat;
+  private MetricCatalog metrics = MetricCatalog.core();
 
   /**
    * Constructor.
    *
-   * @param analysis      The Project's analysis.
+   * @param analysis      The snapshot of the Project's analysis.
    * @param projectUrl    The URL for the project.
    * @param failOnly      Whether to alert only on failures or not.
    * @param qualityGateOk Whether the overall quality gate status is OK or not.
    */
   private PayloadBuilder(
-      PostProjectAnalysisTask.ProjectAnalysis analysis,
+      AnalysisSnapshot analysis,
       String projectUrl,
       boolean failOnly,
       boolean qualityGateOk
@@ -80,15 +88,12 @@ class PayloadBuilder {
     this.projectUrl = projectUrl;
     this.failOnly = failOnly;
     this.qualityGateOk = qualityGateOk;
-    // Round percentages to 2 decimal points.
-    this.percentageFormat = new DecimalFormat();
-    this.percentageFormat.setMaximumFractionDigits(2);
   }
 
   /**
    * Static pattern PayloadBuilder constructor.
    *
-   * @param analysis      The Project's analysis.
+   * @param analysis      The snapshot of the Project's analysis.
    * @param projectUrl    The URL for the project.
    * @param failOnly      Whether to alert only on failures or not.
    * @param qualityGateOk Whether the overall quality gate status is OK or not.
@@ -96,7 +101,7 @@ class PayloadBuilder {
    * @return The PayloadBuilder
    */
   static PayloadBuilder of(
-      PostProjectAnalysisTask.ProjectAnalysis analysis,
+      AnalysisSnapshot analysis,
       String projectUrl,
       boolean failOnly,
       boolean qualityGateOk
@@ -113,13 +118,34 @@ class PayloadBuilder {
    * @return The PayloadBuilder
    */
   PayloadBuilder changeAuthor(String email, String name) {
-    if (email != null && !email.isEmpty()) {
-      this.changeAuthor = "<@personEmail:" + email;
-      if (name != null && !name.isEmpty()) {
-        this.changeAuthor += "|" + name;
-      }
+    return changeAuthorMention(Fragments.authorMention(email, name));
+  }
 
-      this.changeAuthor += ">";
+  /**
+   * Set a precomputed changeAuthor mention in chained static builder.
+   *
+   * @param mention The change author's mention.
+   *
+   * @return The PayloadBuilder
+   */
+  PayloadBuilder changeAuthorMention(String mention) {
+    if (mention != null && !mention.isEmpty()) {
+      this.changeAuthor = mention;
+    }
+
+    return this;
+  }
+
+  /**
+   * Set a precomputed branch parameter in chained static builder.
+   *
+   * @param branchParam The encoded branch name.
+   *
+   * @return The PayloadBuilder
+   */
+  PayloadBuilder branchParam(String branchParam) {
+    if (branchParam != null && !branchParam.isEmpty()) {
+      this.branchParam = branchParam;
     }
 
     return this;
@@ -128,7 +154,7 @@ class PayloadBuilder {
   /**
    * Set commitUrl in chained static builder.
    *
-   * @param commitUrl The URL for the commit.
+   * @param commitUrl The URL for the commit, already escaped with {@link Fragments#linkUrl}.
    *
    * @return The PayloadBuilder
    */
@@ -141,144 +167,124 @@ class PayloadBuilder {
   }
 
   /**
-   * Builds the payload.
+   * Set metrics in chained static builder.
+   *
+   * @param metrics The metadata of the metrics.
    *
-   * @return The payload as a JSON-encoded string.
+   * @return The PayloadBuilder
    */
-  Payload build() {
-    assertNotNull(projectUrl, "projectUrl");
-    assertNotNull(failOnly, "failOnly");
-    assertNotNull(qualityGateOk, "qualityGateOk");
-    assertNotNull(analysis, "analysis");
-
-    QualityGate qualityGate = analysis.getQualityGate();
-    StringBuilder message = new StringBuilder();
-    if (qualityGate != null) {
-      Optional<Branch> branch = analysis.getBranch();
-      appendHeader(message, qualityGate, branch);
-      appendCommit(message);
-      appendBranch(message, branch);
-      appendDate(message);
-      appendConditions(message, qualityGate);
+  PayloadBuilder metrics(MetricCatalog metrics) {
+    if (metrics != null) {
+      this.metrics = metrics;
     }
 
-    Payload payload = new Payload(message.toString());
-    LOG.info("WebEx Teams message: " + payload.markdown);
-    return payload;
+    return this;
   }
 
   /**
-   * Appends the header to the message.
+   * Set trend in chained static builder.
    *
-   * @param message     The StringBuilder being used to build the message.
-   * @param qualityGate The QualityGate object.
-   * @param branch      The Branch object.
+   * @param trend The previous condition values of the project branch.
+   *
+   * @return The PayloadBuilder
    */
-  private void appendHeader(
-      StringBuilder message,
-      QualityGate qualityGate,
-      Optional<Branch> branch
-  ) {
-    message.append(format(
-        "### %s **%S** [[%s](%s)]\n\n",
-        qualityGate.getName(),
-        qualityGate.getStatus(),
-        analysis.getProject().getName(),
-        getProjectBranchUrl(branch)
-    ));
+  PayloadBuilder trend(Trend trend) {
+    if (trend != null) {
+      this.trend = trend;
+    }
+
+    return this;
   }
 
   /**
-   * Appends commit information to the message.
+   * Builds the format-neutral message, walking the analysis once.
    *
-   * @param message The StringBuilder being used to build the message.
+   * @return The message.
    */
-  @SuppressWarnings("deprecation")
-  private void appendCommit(StringBuilder message) {
-    String commit = analysis.getScmRevisionId();
-    message.append("**Commit**: ");
-    if (commitUrl.isEmpty()) {
-      message.append(commit);
-    } else {
-      message.append(format("[%s](%s)", commit, commitUrl));
-    }
+  Message message() {
+    assertNotNull(projectUrl, "projectUrl");
+    assertNotNull(failOnly, "failOnly");
+    assertNotNull(qualityGateOk, "qualityGateOk");
+    assertNotNull(analysis, "analysis");
 
-    if (!changeAuthor.isEmpty() && !qualityGateOk) {
-      message.append(format(" by %s", changeAuthor));
+    if (!analysis.hasQualityGate()) {
+      return Message.empty();
     }
 
-    message.append("  \n");
+    ConditionSection section = ConditionCache.shared().get(metrics, new Conditions());
+    String branchName = analysis.branchName();
+    return new Message(
+        analysis.gateName(),
+        String.valueOf(analysis.gateStatus()),
+        qualityGateOk,
+        analysis.projectName(),
+        getProjectBranchUrl(),
+        analysis.revision(),
+        commitUrl,
+        qualityGateOk ? "" : changeAuthor,
+        analysis.isMainBranch() ? null : (branchName.isEmpty() ? "default" : branchName),
+        new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(analysis.date()),
+        section
+    );
   }
 
   /**
-   * Appends the analysis date to the message.
+   * Translates the conditions of the analysis.
    *
-   * @param message The StringBuilder being used to build the message.
+   * @return The conditions to list, and the number of newly failing and fixed ones.
    */
-  @SuppressWarnings("deprecation")
-  private void appendDate(StringBuilder message) {
-    Date date = analysis.getDate();
-    SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-    message.append(format("**Date**: %s  \n", simpleDateFormat.format(date)));
-  }
+  private ConditionSection translateConditions() {
+    int newlyFailing = 0;
+    int fixed = 0;
+    List<Message.Line> lines = new ArrayList<>();
+    for (Condition condition : analysis.conditions()) {
+      Message.Change change = getChange(condition);
+      if (change == Message.Change.NEWLY_FAILING) {
+        newlyFailing++;
+      } else if (change == Message.Change.FIXED) {
+        fixed++;
+      }
 
-  /**
-   * Appends the branch name to the message.
-   *
-   * @param message The StringBuilder being used to build the message.
-   * @param branch  The Branch object.
-   */
-  private void appendBranch(StringBuilder message, Optional<Branch> branch) {
-    if (branchIsNonMain(branch)) {
-      //noinspection OptionalGetWithoutIsPresent
-      message.append(format("**Branch**: %s  \n", branch.get().getName().orElse("default")));
+      if (!failOnly || notOkOrNoValueCondition(condition)) {
+        lines.add(translateCondition(condition, change));
+      }
     }
+
+    return new ConditionSection(lines, newlyFailing, fixed);
   }
 
   /**
    * Gets the URL for the project including the branch, if supplied.
    *
-   * @param branch The branch that was analyzed.
-   *
    * @return The Project URL with optional branch.
    */
-  private String getProjectBranchUrl(Optional<Branch> branch) {
+  private String getProjectBranchUrl() {
     String projectBranchUrl = projectUrl;
-    if (branchIsNonMain(branch)) {
-      //noinspection OptionalGetWithoutIsPresent
-      projectBranchUrl += format("&branch=%s", branch.get().getName().orElse(""));
+    if (!analysis.isMainBranch()) {
+      projectBranchUrl += "&branch=" + (branchParam.isEmpty()
+          ? Fragments.branchParam(analysis.branchName())
+          : branchParam);
     }
 
     return projectBranchUrl;
   }
 
   /**
-   * Checks if the given branch is set and is not the main/master/default branch.
-   *
-   * @param branch The branch to check.
+   * Gets the change of a condition's status since the previous analysis.
    *
-   * @return True if the branch is set and is not the main/master/default branch. Otherwise false.
-   */
-  private boolean branchIsNonMain(Optional<Branch> branch) {
-    return branch.isPresent() && !branch.get().isMain();
-  }
-
-  /**
-   * Appends Condition statuses to the message.
+   * @param condition The condition.
    *
-   * @param message     The StringBuilder being used to build the message.
-   * @param qualityGate The Quality Gate.
+   * @return Whether the condition is newly failing, fixed, or neither.
    */
-  private void appendConditions(StringBuilder message, QualityGate qualityGate) {
-    List<String> conditions = qualityGate.getConditions()
-        .stream()
-        .filter(condition -> !failOnly || notOkOrNoValueCondition(condition))
-        .map(this::translateCondition)
-        .collect(Collectors.toList());
-
-    for (String condition : conditions) {
-      message.append(condition);
+  private Message.Change getChange(Condition condition) {
+    if (Trend.isFailing(condition.getStatus()) && trend.wasPassing(condition.getMetricKey())) {
+      return Message.Change.NEWLY_FAILING;
+    } else if (QualityGate.EvaluationStatus.OK.equals(condition.getStatus())
+        && trend.wasFailing(condition.getMetricKey())) {
+      return Message.Change.FIXED;
     }
+
+    return Message.Change.NONE;
   }
 
   /**
@@ -294,147 +300,115 @@ class PayloadBuilder {
   }
 
   /**
-   * Translates individual conditions to formatted strings.
+   * Translates individual conditions to format-neutral lines.
    *
    * @param condition The condition to translate.
+   * @param change    The change of the condition's status since the previous analysis.
    *
    * @return The translated condition.
    */
-  private String translateCondition(Condition condition) {
+  @SuppressWarnings("deprecation")
+  private Message.Line translateCondition(Condition condition, Message.Change change) {
+    MetricCatalog.Info metric = metrics.get(condition.getMetricKey());
+    String status = condition.getStatus().name();
     if (QualityGate.EvaluationStatus.NO_VALUE.equals(condition.getStatus())) {
       // No value for given metric
-      return format("  * **%s**: %s\n", condition.getMetricKey(), condition.getStatus().name());
-    } else {
-      return format(
-          "  * **%s**: %s | %s\n",
-          condition.getMetricKey(),
-          condition.getStatus().name(),
-          getConditionString(condition)
-      );
+      return new Message.Line(metric.name, status, null, "", null, null, change);
     }
+
+    String value = condition.getValue();
+    return new Message.Line(
+        metric.name,
+        status,
+        value.equals("") ? "-" : metric.format(value),
+        getConditionDelta(condition, metric),
+        getThreshold(condition, metric, condition.getWarningThreshold()),
+        getThreshold(condition, metric, condition.getErrorThreshold()),
+        change
+    );
   }
 
   /**
-   * Gets the condition string when there's more detailed information
-   * about the quality gate condition.
+   * Gets the change of a condition's value since the previous analysis, if known.
    *
-   * @param condition The Quality Gate Condition.
+   * @param condition The condition.
+   * @param metric    The metadata of the condition's metric.
    *
-   * @return The condition string.
+   * @return The change, e.g. {@code +2%, worse}. Empty if unknown.
    */
-  @SuppressWarnings("deprecation")
-  private String getConditionString(Condition condition) {
-    StringBuilder sb = new StringBuilder();
-    appendConditionValue(condition, sb);
-    if (condition.getWarningThreshold() != null) {
-      sb.append(", warning if ");
-      appendConditionComparisonOperator(condition, sb);
-      sb.append(condition.getWarningThreshold());
+  private String getConditionDelta(Condition condition, MetricCatalog.Info metric) {
+    double previous = trend.previousValue(condition.getMetricKey());
+    if (Double.isNaN(previous)) {
+      return "";
     }
 
-    if (condition.getErrorThreshold() != null) {
-      sb.append(", error if ");
-      appendConditionComparisonOperator(condition, sb);
-      sb.append(condition.getErrorThreshold());
-    }
+    try {
+      double delta = Double.parseDouble(condition.getValue()) - previous;
+      if (delta == 0) {
+        return "";
+      }
 
-    return sb.toString();
-  }
+      StringBuilder sb = new StringBuilder(delta > 0 ? "+" : "-").append(metric.formatDelta(delta));
+      int judgement = metric.judge(delta);
+      if (judgement != 0) {
+        sb.append(judgement > 0 ? ", better" : ", worse");
+      }
 
-  /**
-   * Appends a condition's value to a StringBuilder.
-   *
-   * @param condition The condition.
-   * @param sb        The StringBuilder.
-   */
-  private void appendConditionValue(Condition condition, StringBuilder sb) {
-    String value = condition.getValue();
-    if (value.equals("")) {
-      sb.append("**-**");
-    } else {
-      appendNonEmptyValue(condition, sb, value);
+      return sb.toString();
+    } catch (NumberFormatException e) {
+      LOG.debug("No delta for non-numeric value [{}]", condition.getValue());
+      return "";
     }
   }
 
   /**
-   * Appends a non-empty value to the condition string.
+   * Gets a condition threshold with the condition's comparison operator.
    *
    * @param condition The condition.
-   * @param sb        The StringBuilder.
-   * @param value     The value.
-   */
-  private void appendNonEmptyValue(Condition condition, StringBuilder sb, String value) {
-    sb.append("**");
-    if (conditionValueIsPercentage(condition)) {
-      appendPercentageValue(sb, value);
-    } else {
-      sb.append(value);
-    }
-
-    sb.append("**");
-  }
-
-  /**
-   * Appends a percentage value to the condition string.
+   * @param metric    The metadata of the condition's metric.
+   * @param threshold The threshold. Null if there is none.
    *
-   * @param sb    The StringBuilder.
-   * @param value The percentage value.
+   * @return The threshold, e.g. {@code <80%}. Null if there is none.
    */
-  private void appendPercentageValue(StringBuilder sb, String value) {
-    try {
-      Double percent = Double.parseDouble(value);
-      sb.append(percentageFormat.format(percent));
-      sb.append("%");
-    } catch (NumberFormatException e) {
-      LOG.error("Failed to parse [{}] into a Double due to [{}]", value, e.getMessage());
-      sb.append(value);
+  private String getThreshold(
+      Condition condition,
+      MetricCatalog.Info metric,
+      String threshold
+  ) {
+    if (threshold == null) {
+      return null;
     }
+
+    return getComparisonOperator(condition) + metric.format(threshold);
   }
 
   /**
-   * Appends a condition's comparison operator to a StringBuilder.
+   * Gets a condition's comparison operator.
    *
    * @param condition The condition.
-   * @param sb        The StringBuilder.
+   *
+   * @return The operator. Empty if unknown.
    */
   @SuppressWarnings("deprecation")
-  private void appendConditionComparisonOperator(Condition condition, StringBuilder sb) {
+  private String getComparisonOperator(Condition condition) {
+    if (condition.getOperator() == null) {
+      return "";
+    }
+
     switch (condition.getOperator()) {
       case EQUALS:
-        sb.append("==");
-        break;
+        return "==";
       case NOT_EQUALS:
-        sb.append("!=");
-        break;
+        return "!=";
       case GREATER_THAN:
-        sb.append(">");
-        break;
+        return ">";
       case LESS_THAN:
-        sb.append("<");
-        break;
+        return "<";
       default:
-        break;
+        return "";
     }
   }
 
-  /**
-   * Checks if a condition's value is a percentage by checking the metric key.
-   *
-   * @param condition The condition to check.
-   *
-   * @return True if the condition's value is a percentage. False if not.
-   */
-  private boolean conditionValueIsPercentage(Condition condition) {
-    switch (condition.getMetricKey()) {
-      case CoreMetrics.NEW_COVERAGE_KEY:
-      case CoreMetrics.NEW_SQALE_DEBT_RATIO_KEY:
-        return true;
-      default:
-        break;
-    }
-    return false;
-  }
-
   /**
    * Asserts that an object is not null. Throws an exception if it is.
    *
@@ -448,4 +422,123 @@ class PayloadBuilder {
       );
     }
   }
+
+  /**
+   * The conditions of the analysis, as the source of its cached condition section.
+   */
+  private final class Conditions implements ConditionCache.Source {
+
+    /**
+     * Gets a hash of the fail_only flag and, for each condition, its metric, status, value and
+     * error threshold.
+     *
+     * @return The hash.
+     */
+    @Override
+    public int hash() {
+      int hash = Boolean.hashCode(failOnly);
+      for (Condition condition : analysis.conditions()) {
+        hash = 31 * hash + Objects.hashCode(condition.getMetricKey());
+        hash = 31 * hash + Objects.hashCode(condition.getStatus());
+        hash = 31 * hash + Objects.hashCode(value(condition));
+        hash = 31 * hash + Objects.hashCode(condition.getErrorThreshold());
+      }
+
+      return hash;
+    }
+
+    /**
+     * Gets the fail_only flag and, for each condition, its metric, status, operator, thresholds,
+     * change, previous value and value.
+     *
+     * @return The content.
+     */
+    @Override
+    public Object[] content() {
+      List<Condition> conditions = analysis.conditions();
+      Object[] content = new Object[1 + CONDITION_FIELDS * conditions.size()];
+      content[0] = failOnly;
+      int i = 1;
+      for (Condition condition : conditions) {
+        System.arraycopy(fields(condition), 0, content, i, CONDITION_FIELDS);
+        i += CONDITION_FIELDS;
+      }
+
+      return content;
+    }
+
+    /**
+     * Compares the content of a cached section to the conditions, one condition at a time.
+     *
+     * @param content The content of a cached section.
+     *
+     * @return True if it is the same.
+     */
+    @Override
+    public boolean matches(Object[] content) {
+      List<Condition> conditions = analysis.conditions();
+      if (content.length != 1 + CONDITION_FIELDS * conditions.size()
+          || !content[0].equals(failOnly)) {
+        return false;
+      }
+
+      int i = 1;
+      for (Condition condition : conditions) {
+        Object[] fields = fields(condition);
+        for (Object field : fields) {
+          if (!Objects.equals(field, content[i++])) {
+            return false;
+          }
+        }
+      }
+
+      return true;
+    }
+
+    /**
+     * Translates the conditions of the analysis.
+     *
+     * @return The conditions to list, and the number of newly failing and fixed ones.
+     */
+    @Override
+    public ConditionSection translate() {
+      return translateConditions();
+    }
+
+    /**
+     * Gets everything a condition's line is translated from.
+     *
+     * @param condition The condition.
+     *
+     * @return Its metric, status, operator, thresholds, change, previous value and value.
+     */
+    @SuppressWarnings("deprecation")
+    private Object[] fields(Condition condition) {
+      String metricKey = condition.getMetricKey();
+      return new Object[] {
+          metricKey,
+          condition.getStatus(),
+          condition.getOperator(),
+          condition.getWarningThreshold(),
+          condition.getErrorThreshold(),
+          getChange(condition),
+          trend.previousValue(metricKey),
+          value(condition)
+      };
+    }
+
+    /**
+     * Gets the value of a condition.
+     *
+     * @param condition The condition.
+     *
+     * @return The value. Null if it has none.
+     */
+    private String value(Condition condition) {
+      // Conditions without value throw when asked for it.
+      return QualityGate.EvaluationStatus.NO_VALUE.equals(condition.getStatus())
+          ? null
+          : condition.getValue();
+    }
+  }
 }
@@ -0,0 +1,237 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+/**
+ * Java Flight Recorder events of the notification pipeline stages, so a recording of the Compute
+ * Engine shows the notifier's overhead and stalls next to GC and I/O events.
+ *
+ * <p>The events are registered only if the JVM has a flight recorder. They are compiled for Java 11
+ * from {@code src/main/java-jfr} when building on Java 11 or later, and loaded by name, so the
+ * plugin builds and runs on Java 8 without them. Without them, every span is a shared no-op. With
+ * them, a span costs a short-lived object and a check of whether the event is enabled until a
+ * recording is started.
+ */
+final class PipelineEvents {
+
+  /**
+   * Name of the class of the flight recorder events.
+   */
+  private static final String RECORDER_CLASS =
+      PipelineEvents.class.getPackage().getName() + ".JfrPipelineEvents";
+
+  /**
+   * The recorder of the events. Null if the JVM has no flight recorder or the events were not
+   * compiled.
+   */
+  private static final Recorder RECORDER = register();
+
+  /**
+   * The notification delivered by the current thread, filling in the spans it opens.
+   */
+  private static final ThreadLocal<Notification> CURRENT = new ThreadLocal<>();
+
+  /**
+   * Constructor.
+   */
+  private PipelineEvents() {
+  }
+
+  /**
+   * Loads and registers the events, if the JVM has a flight recorder.
+   *
+   * @return The recorder of the events. Null if they cannot be registered.
+   */
+  private static Recorder register() {
+    try {
+      Class.forName("jdk.jfr.FlightRecorder");
+      Recorder recorder = (Recorder) Class.forName(RECORDER_CLASS)
+          .getDeclaredConstructor()
+          .newInstance();
+      return recorder.register() ? recorder : null;
+    } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Opens a span of a pipeline stage, attributed to the notification delivered by the current
+   * thread, if any.
+   *
+   * @param stage The stage.
+   *
+   * @return The span, to be finished when the stage is.
+   */
+  static Span begin(Stage stage) {
+    if (RECORDER == null) {
+      return Span.NONE;
+    }
+
+    Span span = RECORDER.begin(stage);
+    Notification notification = CURRENT.get();
+    return notification == null ? span : span.notification(notification);
+  }
+
+  /**
+   * Attributes the spans the current thread opens to a notification, until the scope is closed.
+   *
+   * @param notification The notification the current thread delivers.
+   *
+   * @return The scope.
+   */
+  static Scope deliver(Notification notification) {
+    if (RECORDER == null) {
+      return Scope.NONE;
+    }
+
+    CURRENT.set(notification);
+    return CURRENT::remove;
+  }
+
+  /**
+   * Records the events of the stages.
+   */
+  interface Recorder {
+
+    /**
+     * Registers the events with the flight recorder.
+     *
+     * @return True if the events are registered.
+     */
+    boolean register();
+
+    /**
+     * Opens a span of a stage.
+     *
+     * @param stage The stage.
+     *
+     * @return The span. A no-op if the stage's event is not enabled in any recording.
+     */
+    Span begin(Stage stage);
+  }
+
+  /**
+   * A stage of the notification pipeline.
+   */
+  enum Stage {
+
+    /**
+     * Queueing a notification for delivery, including the wait for room in the queue.
+     */
+    ENQUEUE,
+
+    /**
+     * Rendering the message of an analysis, or its payload in one format.
+     */
+    RENDER,
+
+    /**
+     * Serializing a payload to the bytes posted.
+     */
+    SERIALIZE,
+
+    /**
+     * Leasing a pooled connection to a host.
+     */
+    CONNECTION_LEASE,
+
+    /**
+     * Posting to a hook and reading its response.
+     */
+    HTTP_EXCHANGE,
+
+    /**
+     * Delivering a notification, from leaving the queue to the recorded outcome.
+     */
+    COMPLETION
+  }
+
+  /**
+   * An open span of a pipeline stage.
+   */
+  interface Span {
+
+    /**
+     * The span of a stage that is not recorded.
+     */
+    Span NONE = new Span() {
+    };
+
+    /**
+     * Attributes the span to a notification: its project, hook host and payload size.
+     *
+     * @param notification The notification.
+     *
+     * @return This span.
+     */
+    default Span notification(Notification notification) {
+      return this;
+    }
+
+    /**
+     * Sets the key of the analyzed project.
+     *
+     * @param projectKey The project key.
+     *
+     * @return This span.
+     */
+    default Span project(String projectKey) {
+      return this;
+    }
+
+    /**
+     * Sets the host posted to.
+     *
+     * @param host The host.
+     *
+     * @return This span.
+     */
+    default Span host(String host) {
+      return this;
+    }
+
+    /**
+     * Sets the payload size.
+     *
+     * @param bytes The size, in bytes.
+     *
+     * @return This span.
+     */
+    default Span bytes(long bytes) {
+      return this;
+    }
+
+    /**
+     * Sets the HTTP status code.
+     *
+     * @param statusCode The status code. 0 if no response was received.
+     *
+     * @return This span.
+     */
+    default Span statusCode(int statusCode) {
+      return this;
+    }
+
+    /**
+     * Ends the span, committing its event if it is recorded.
+     */
+    default void finish() {
+    }
+  }
+
+  /**
+   * A scope attributing spans to a notification.
+   */
+  interface Scope extends AutoCloseable {
+
+    /**
+     * The scope of a JVM without flight recorder.
+     */
+    Scope NONE = () -> {
+    };
+
+    /**
+     * Ends the scope.
+     */
+    @Override
+    void close();
+  }
+}
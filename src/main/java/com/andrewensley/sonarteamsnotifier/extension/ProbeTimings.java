@@ -0,0 +1,212 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Records the time a probe spends in each connection phase, by wrapping the DNS resolver and
+ * socket factories of its {@link HttpClientPool}.
+ *
+ * <p>When a proxy is used, DNS and connect are those of the proxy, and TLS is negotiated through
+ * the tunnel to the hook's host.
+ */
+class ProbeTimings {
+
+  /**
+   * Time spent resolving hosts, in nanoseconds.
+   */
+  private long dnsNanos;
+
+  /**
+   * Time spent opening TCP connections, in nanoseconds.
+   */
+  private long connectNanos;
+
+  /**
+   * Time spent negotiating TLS, in nanoseconds.
+   */
+  private long tlsNanos;
+
+  /**
+   * Gets the time spent resolving hosts.
+   *
+   * @return The time, in milliseconds.
+   */
+  synchronized long dnsMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(dnsNanos);
+  }
+
+  /**
+   * Gets the time spent opening TCP connections.
+   *
+   * @return The time, in milliseconds.
+   */
+  synchronized long connectMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(connectNanos);
+  }
+
+  /**
+   * Gets the time spent negotiating TLS.
+   *
+   * @return The time, in milliseconds.
+   */
+  synchronized long tlsMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(tlsNanos);
+  }
+
+  /**
+   * Gets the time spent in every recorded phase.
+   *
+   * @return The time, in nanoseconds.
+   */
+  synchronized long totalNanos() {
+    return dnsNanos + connectNanos + tlsNanos;
+  }
+
+  /**
+   * Wraps a resolver so its lookups are timed.
+   *
+   * @param delegate The resolver.
+   *
+   * @return The timed resolver.
+   */
+  DnsResolver resolver(DnsResolver delegate) {
+    return host -> {
+      long start = System.nanoTime();
+      try {
+        return delegate.resolve(host);
+      } finally {
+        addDns(System.nanoTime() - start);
+      }
+    };
+  }
+
+  /**
+   * Wraps a plain socket factory so its connections are timed.
+   *
+   * @param delegate The socket factory.
+   *
+   * @return The timed socket factory.
+   */
+  ConnectionSocketFactory plain(ConnectionSocketFactory delegate) {
+    return new ConnectionSocketFactory() {
+      @Override
+      public Socket createSocket(HttpContext context) throws IOException {
+        return delegate.createSocket(context);
+      }
+
+      @Override
+      public Socket connectSocket(
+          int connectTimeout,
+          Socket socket,
+          HttpHost host,
+          InetSocketAddress remoteAddress,
+          InetSocketAddress localAddress,
+          HttpContext context
+      ) throws IOException {
+        long start = System.nanoTime();
+        try {
+          return delegate.connectSocket(
+              connectTimeout, socket, host, remoteAddress, localAddress, context);
+        } finally {
+          addConnect(System.nanoTime() - start);
+        }
+      }
+    };
+  }
+
+  /**
+   * Wraps a TLS socket factory so the TCP connection and the handshake are timed separately.
+   *
+   * @param delegate The socket factory.
+   *
+   * @return The timed socket factory.
+   */
+  LayeredConnectionSocketFactory tls(LayeredConnectionSocketFactory delegate) {
+    return new LayeredConnectionSocketFactory() {
+      @Override
+      public Socket createSocket(HttpContext context) throws IOException {
+        return delegate.createSocket(context);
+      }
+
+      @Override
+      public Socket connectSocket(
+          int connectTimeout,
+          Socket socket,
+          HttpHost host,
+          InetSocketAddress remoteAddress,
+          InetSocketAddress localAddress,
+          HttpContext context
+      ) throws IOException {
+        Socket plain = socket == null ? delegate.createSocket(context) : socket;
+        try {
+          if (localAddress != null) {
+            plain.bind(localAddress);
+          }
+
+          long start = System.nanoTime();
+          try {
+            plain.connect(remoteAddress, connectTimeout);
+          } finally {
+            addConnect(System.nanoTime() - start);
+          }
+
+          return createLayeredSocket(plain, host.getHostName(), remoteAddress.getPort(), context);
+        } catch (IOException e) {
+          plain.close();
+          throw e;
+        }
+      }
+
+      @Override
+      public Socket createLayeredSocket(
+          Socket socket,
+          String target,
+          int port,
+          HttpContext context
+      ) throws IOException {
+        long start = System.nanoTime();
+        try {
+          return delegate.createLayeredSocket(socket, target, port, context);
+        } finally {
+          addTls(System.nanoTime() - start);
+        }
+      }
+    };
+  }
+
+  /**
+   * Adds time spent resolving a host.
+   *
+   * @param nanos The time, in nanoseconds.
+   */
+  private synchronized void addDns(long nanos) {
+    dnsNanos += nanos;
+  }
+
+  /**
+   * Adds time spent opening a TCP connection.
+   *
+   * @param nanos The time, in nanoseconds.
+   */
+  private synchronized void addConnect(long nanos) {
+    connectNanos += nanos;
+  }
+
+  /**
+   * Adds time spent negotiating TLS.
+   *
+   * @param nanos The time, in nanoseconds.
+   */
+  private synchronized void addTls(long nanos) {
+    tlsNanos += nanos;
+  }
+}
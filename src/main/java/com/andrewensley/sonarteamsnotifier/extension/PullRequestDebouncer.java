@@ -0,0 +1,206 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import com.andrewensley.sonarteamsnotifier.domain.Constants;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sonar.api.Startable;
+import org.sonar.api.ce.ComputeEngineSide;
+import org.sonar.api.ce.posttask.Branch;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Holds the notifications of pull request analyses until their pull request settles, so only
+ * its last result is rendered and posted.
+ *
+ * <p>Each analysis of a pull request restarts its debounce window, replacing the notification
+ * held for it. A pull request analyzed without pause is still notified after
+ * {@link #MAX_WINDOWS} windows. Windows are timed by a {@link TimingWheel}, so holding thousands
+ * of pull requests costs O(1) per analysis. Settled pull requests are rendered and sent on a
+ * small pool of threads, so a slow one does not delay the others.
+ */
+@ComputeEngineSide
+public class PullRequestDebouncer implements Startable {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Loggers.get(PullRequestDebouncer.class);
+
+  /**
+   * Duration of a tick of the wheel, in milliseconds.
+   */
+  private static final long TICK = 100;
+
+  /**
+   * Number of buckets of the wheel, covering windows of up to 51.2 seconds in a single turn.
+   */
+  private static final int WHEEL_SIZE = 512;
+
+  /**
+   * Maximum number of windows a pull request is held for.
+   */
+  private static final int MAX_WINDOWS = 5;
+
+  /**
+   * Number of threads rendering and submitting the notifications of settled pull requests.
+   */
+  private static final int SEND_THREADS = 2;
+
+  /**
+   * Time given to held notifications to be sent on shutdown, in seconds.
+   */
+  private static final long SHUTDOWN_GRACE = 10;
+
+  /**
+   * SonarQube settings.
+   */
+  private final Configuration settings;
+
+  /**
+   * Number of held notifications replaced by a later analysis of their pull request.
+   */
+  private final AtomicLong superseded = new AtomicLong();
+
+  /**
+   * The debounce window, in milliseconds. 0 when disabled.
+   */
+  private long window;
+
+  /**
+   * The wheel timing the windows. Null unless started.
+   */
+  private TimingWheel<String> wheel;
+
+  /**
+   * Executor sending the notifications of settled pull requests. Null unless started.
+   */
+  private ExecutorService sender;
+
+  /**
+   * Constructor.
+   *
+   * @param settings   The SonarQube Configuration settings.
+   * @param dispatcher The dispatcher held notifications are submitted to. Depending on it makes
+   *                   the container stop this debouncer first, so the notifications it sends on
+   *                   shutdown are still delivered.
+   */
+  public PullRequestDebouncer(Configuration settings, NotificationDispatcher dispatcher) {
+    this.settings = settings;
+  }
+
+  /**
+   * Starts timing windows, if enabled.
+   */
+  @Override
+  public void start() {
+    window = TimeUnit.SECONDS.toMillis(
+        Math.max(0, settings.getInt(Constants.PR_DEBOUNCE).orElse(0)));
+    if (window == 0) {
+      return;
+    }
+
+    AtomicInteger threads = new AtomicInteger();
+    sender = Executors.newFixedThreadPool(SEND_THREADS, runnable -> {
+      Thread thread = new Thread(runnable, "teams-notifier-pr-send-" + threads.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    });
+    wheel = new TimingWheel<>("teams-notifier-pr-debounce", TICK, WHEEL_SIZE, sender);
+    wheel.start();
+    LOG.info("Pull request notifications debounced for {} s", window / 1000);
+  }
+
+  /**
+   * Stops timing windows, sending the held notifications right away, within a grace period.
+   */
+  @Override
+  public void stop() {
+    if (wheel == null) {
+      return;
+    }
+
+    List<Runnable> held = wheel.stop();
+    LOG.info("Pull request debounce stopped: {} held notification(s) sent now, {} superseded",
+        held.size(), superseded.get());
+    for (Runnable send : held) {
+      sender.execute(() -> {
+        try {
+          send.run();
+        } catch (RuntimeException e) {
+          LOG.error("Failed to send held pull request notification", e);
+        }
+      });
+    }
+
+    sender.shutdown();
+    try {
+      if (!sender.awaitTermination(SHUTDOWN_GRACE, TimeUnit.SECONDS)) {
+        LOG.warn("{} held pull request notification(s) were not sent before shutdown",
+            sender.shutdownNow().size());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Checks if the notification of an analysis is held until its pull request settles.
+   *
+   * @param snapshot The snapshot of the project analysis.
+   *
+   * @return True if debouncing is enabled and the analysis is of a pull request.
+   */
+  boolean holds(AnalysisSnapshot snapshot) {
+    return wheel != null
+        && snapshot.branchType().filter(Branch.Type.PULL_REQUEST::equals).isPresent();
+  }
+
+  /**
+   * Holds the notification of a pull request analysis until the pull request settles.
+   *
+   * @param hook     The hooks notified.
+   * @param snapshot The snapshot of the project analysis.
+   * @param send     Renders and sends the notification.
+   */
+  void hold(String hook, AnalysisSnapshot snapshot, Runnable send) {
+    if (wheel.schedule(key(hook, snapshot), send, window, MAX_WINDOWS * window)) {
+      superseded.incrementAndGet();
+      LOG.debug("Superseded the held notification of [{}] pull request [{}]",
+          snapshot.projectKey(), snapshot.branchName());
+    }
+  }
+
+  /**
+   * Drops the held notification of a pull request, whose last analysis is not notified.
+   *
+   * @param hook     The hooks notified.
+   * @param snapshot The snapshot of the project analysis.
+   */
+  void drop(String hook, AnalysisSnapshot snapshot) {
+    if (wheel.cancel(key(hook, snapshot))) {
+      superseded.incrementAndGet();
+      LOG.debug("Dropped the held notification of [{}] pull request [{}]",
+          snapshot.projectKey(), snapshot.branchName());
+    }
+  }
+
+  /**
+   * Gets the key notifications of a pull request are held under.
+   *
+   * @param hook     The hooks notified.
+   * @param snapshot The snapshot of the project analysis.
+   *
+   * @return The key.
+   */
+  private static String key(String hook, AnalysisSnapshot snapshot) {
+    return hook + "\n" + snapshot.projectKey() + "\n" + snapshot.branchName();
+  }
+}
@@ -0,0 +1,146 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * The hosts notifications were recently sent to, persisted so they can be warmed up after a
+ * restart. Only the scheme, host and port of each hook are kept, never its secret path.
+ */
+class RecentHosts {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Loggers.get(RecentHosts.class);
+
+  /**
+   * Maximum number of hosts kept.
+   */
+  private static final int MAX_HOSTS = 50;
+
+  /**
+   * The file the hosts are persisted to. Null to keep them in memory only.
+   */
+  private final Path file;
+
+  /**
+   * The hosts, as base URLs, least recently added first.
+   */
+  private final Set<String> hosts = new LinkedHashSet<>();
+
+  /**
+   * Constructor. Loads the hosts persisted by a previous run, if any.
+   *
+   * @param file The file the hosts are persisted to. Null to keep them in memory only.
+   */
+  RecentHosts(Path file) {
+    this.file = file;
+    if (file != null && Files.exists(file)) {
+      try {
+        for (String line : Files.readAllLines(file, UTF_8)) {
+          if (!line.trim().isEmpty()) {
+            hosts.add(line.trim());
+          }
+        }
+      } catch (IOException e) {
+        LOG.warn("Unable to read recent Teams hosts [{}]: {}", file, e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Static pattern constructor, persisting the hosts in the SonarQube data directory.
+   *
+   * @param settings The SonarQube Configuration settings.
+   *
+   * @return The RecentHosts
+   */
+  static RecentHosts of(Configuration settings) {
+    return new RecentHosts(settings.get("sonar.path.data")
+        .map(data -> Paths.get(data, "teams-notifier", "recent-hosts.txt"))
+        .orElse(null));
+  }
+
+  /**
+   * Records the host of a hook. The file is only written when a new host is seen.
+   *
+   * @param hook The hook URL.
+   */
+  synchronized void add(String hook) {
+    String host = baseUrl(hook);
+    if (host.isEmpty() || hosts.contains(host)) {
+      return;
+    }
+
+    hosts.add(host);
+    if (hosts.size() > MAX_HOSTS) {
+      hosts.remove(hosts.iterator().next());
+    }
+
+    save();
+  }
+
+  /**
+   * Gets the recent hosts.
+   *
+   * @return The hosts, as base URLs.
+   */
+  synchronized List<String> hosts() {
+    return new ArrayList<>(hosts);
+  }
+
+  /**
+   * Gets the base URL of a hook.
+   *
+   * @param hook The hook URL, or a host name.
+   *
+   * @return The base URL. Empty if the URL is malformed.
+   */
+  static String baseUrl(String hook) {
+    String url = hook.trim();
+    if (!url.contains("://")) {
+      url = "https://" + url;
+    }
+
+    try {
+      URL parsed = new URL(url);
+      return new URL(parsed.getProtocol(), parsed.getHost(), parsed.getPort(), "/").toString();
+    } catch (MalformedURLException e) {
+      return "";
+    }
+  }
+
+  /**
+   * Writes the hosts to the file.
+   */
+  private void save() {
+    if (file == null) {
+      return;
+    }
+
+    try {
+      Files.createDirectories(file.getParent());
+      Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+      Files.write(temp, hosts, UTF_8);
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      LOG.warn("Unable to write recent Teams hosts [{}]: {}", file, e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,382 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import org.sonar.api.ce.posttask.QualityGate;
+
+/**
+ * A compiled notification filter expression.
+ *
+ * <p>Expressions combine the following terms with {@code and}, {@code or}, {@code not} and
+ * parentheses:
+ * <ul>
+ *   <li>{@code status=ERROR,OK}: the quality gate status is one of the given ones.</li>
+ *   <li>{@code branch=release/*,main}: the branch name matches one of the given patterns, where
+ *   {@code *} matches any characters and {@code ?} a single one.</li>
+ *   <li>{@code failing=new_coverage,new_security_rating}: one of the given metrics has a failing
+ *   quality gate condition.</li>
+ *   <li>{@code main}: the analysis is of the main branch.</li>
+ * </ul>
+ *
+ * <p>An expression is parsed once into a predicate tree. The metric keys it references are mapped
+ * to bits of its own, so a {@code failing} term is a single bitset intersection against the
+ * analysis' failing metrics.
+ */
+final class SubscriptionFilter {
+
+  /**
+   * Maximum number of cached compiled expressions. The cache is cleared when exceeded.
+   */
+  private static final int MAX_CACHED = 256;
+
+  /**
+   * Compiled expressions by source.
+   */
+  private static final Map<String, SubscriptionFilter> CACHE = new ConcurrentHashMap<>();
+
+  /**
+   * The root of the predicate tree.
+   */
+  private final Predicate<Subject> predicate;
+
+  /**
+   * Bit index of every metric key referenced by the expression.
+   */
+  private final Map<String, Integer> metricBits;
+
+  /**
+   * Constructor.
+   *
+   * @param predicate  The root of the predicate tree.
+   * @param metricBits Bit index of every metric key referenced by the expression.
+   */
+  private SubscriptionFilter(Predicate<Subject> predicate, Map<String, Integer> metricBits) {
+    this.predicate = predicate;
+    this.metricBits = metricBits;
+  }
+
+  /**
+   * Gets the compiled form of an expression, compiling it on first use.
+   *
+   * @param expression The filter expression.
+   *
+   * @return The compiled filter.
+   *
+   * @throws IllegalArgumentException If the expression is invalid.
+   */
+  static SubscriptionFilter of(String expression) {
+    SubscriptionFilter filter = CACHE.get(expression);
+    if (filter == null) {
+      filter = new Parser(expression).parse();
+      if (CACHE.size() >= MAX_CACHED) {
+        CACHE.clear();
+      }
+
+      CACHE.put(expression, filter);
+    }
+
+    return filter;
+  }
+
+  /**
+   * Checks if an analysis matches this filter.
+   *
+   * @param analysis The snapshot of the project analysis.
+   *
+   * @return True if it matches.
+   */
+  boolean test(AnalysisSnapshot analysis) {
+    return predicate.test(new Subject(analysis, metricBits));
+  }
+
+  /**
+   * Converts a branch or project key pattern to a regular expression.
+   *
+   * @param glob The pattern.
+   *
+   * @return The regular expression.
+   */
+  static Pattern globToPattern(String glob) {
+    StringBuilder regex = new StringBuilder();
+    for (String literal : glob.split("(?=[*?])|(?<=[*?])")) {
+      if ("*".equals(literal)) {
+        regex.append(".*");
+      } else if ("?".equals(literal)) {
+        regex.append('.');
+      } else if (!literal.isEmpty()) {
+        regex.append(Pattern.quote(literal));
+      }
+    }
+
+    return Pattern.compile(regex.toString());
+  }
+
+  /**
+   * The facts about an analysis that filter terms are evaluated against.
+   */
+  private static class Subject {
+
+    /**
+     * The quality gate status. Null if there is no quality gate.
+     */
+    final QualityGate.Status status;
+
+    /**
+     * The branch name. Empty if unknown.
+     */
+    final String branchName;
+
+    /**
+     * Whether the analysis is of the main branch.
+     */
+    final boolean main;
+
+    /**
+     * The analysis, to compute the failing metrics from.
+     */
+    private final AnalysisSnapshot analysis;
+
+    /**
+     * Bit index of every metric key referenced by the filter.
+     */
+    private final Map<String, Integer> metricBits;
+
+    /**
+     * The bits of the failing metrics referenced by a filter. Computed on first use.
+     */
+    private BitSet failing;
+
+    /**
+     * Constructor.
+     *
+     * @param analysis   The snapshot of the project analysis.
+     * @param metricBits Bit index of every metric key referenced by the filter.
+     */
+    Subject(AnalysisSnapshot analysis, Map<String, Integer> metricBits) {
+      this.status = analysis.gateStatus();
+      this.branchName = analysis.branchName();
+      this.main = analysis.isMainBranch();
+      this.analysis = analysis;
+      this.metricBits = metricBits;
+    }
+
+    /**
+     * Gets the bits of the failing metrics referenced by a filter.
+     *
+     * @return The bits.
+     */
+    BitSet failing() {
+      if (failing == null) {
+        failing = new BitSet();
+        for (QualityGate.Condition condition : analysis.conditions()) {
+          Integer bit = metricBits.get(condition.getMetricKey());
+          if (bit != null && Trend.isFailing(condition.getStatus())) {
+            failing.set(bit);
+          }
+        }
+      }
+
+      return failing;
+    }
+  }
+
+  /**
+   * Recursive descent parser of filter expressions.
+   */
+  private static class Parser {
+
+    /**
+     * The expression.
+     */
+    private final String expression;
+
+    /**
+     * The expression's tokens.
+     */
+    private final List<String> tokens = new ArrayList<>();
+
+    /**
+     * Bit index of every metric key referenced by the expression.
+     */
+    private final Map<String, Integer> metricBits = new HashMap<>();
+
+    /**
+     * Index of the next token.
+     */
+    private int position;
+
+    /**
+     * Constructor.
+     *
+     * @param expression The expression.
+     */
+    Parser(String expression) {
+      this.expression = expression;
+      for (String word : expression.trim().split("\\s+|(?=[()])|(?<=[()])")) {
+        if (!word.isEmpty()) {
+          tokens.add(word);
+        }
+      }
+    }
+
+    /**
+     * Parses the expression.
+     *
+     * @return The compiled filter.
+     */
+    SubscriptionFilter parse() {
+      if (tokens.isEmpty()) {
+        return new SubscriptionFilter(subject -> true, metricBits);
+      }
+
+      Predicate<Subject> predicate = parseOr();
+      if (position < tokens.size()) {
+        throw error("Unexpected [" + tokens.get(position) + "]");
+      }
+
+      return new SubscriptionFilter(predicate, metricBits);
+    }
+
+    /**
+     * Parses terms separated by {@code or}.
+     *
+     * @return The predicate.
+     */
+    private Predicate<Subject> parseOr() {
+      Predicate<Subject> predicate = parseAnd();
+      while (accept("or")) {
+        predicate = predicate.or(parseAnd());
+      }
+
+      return predicate;
+    }
+
+    /**
+     * Parses terms separated by {@code and}.
+     *
+     * @return The predicate.
+     */
+    private Predicate<Subject> parseAnd() {
+      Predicate<Subject> predicate = parseUnary();
+      while (accept("and")) {
+        predicate = predicate.and(parseUnary());
+      }
+
+      return predicate;
+    }
+
+    /**
+     * Parses a negated term, a parenthesized expression or a single term.
+     *
+     * @return The predicate.
+     */
+    private Predicate<Subject> parseUnary() {
+      if (accept("not")) {
+        return parseUnary().negate();
+      }
+
+      if (accept("(")) {
+        Predicate<Subject> predicate = parseOr();
+        if (!accept(")")) {
+          throw error("Missing [)]");
+        }
+
+        return predicate;
+      }
+
+      if (position >= tokens.size()) {
+        throw error("Unexpected end of expression");
+      }
+
+      return parseTerm(tokens.get(position++));
+    }
+
+    /**
+     * Parses a single term.
+     *
+     * @param term The term.
+     *
+     * @return The predicate.
+     */
+    private Predicate<Subject> parseTerm(String term) {
+      if ("main".equalsIgnoreCase(term)) {
+        return subject -> subject.main;
+      }
+
+      int separator = term.indexOf('=');
+      if (separator <= 0 || separator == term.length() - 1) {
+        throw error("Invalid term [" + term + "]");
+      }
+
+      String[] values = term.substring(separator + 1).split(",");
+      switch (term.substring(0, separator).toLowerCase(Locale.ENGLISH)) {
+        case "status":
+          EnumSet<QualityGate.Status> statuses = EnumSet.noneOf(QualityGate.Status.class);
+          for (String value : values) {
+            try {
+              statuses.add(QualityGate.Status.valueOf(value.trim().toUpperCase(Locale.ENGLISH)));
+            } catch (IllegalArgumentException e) {
+              throw error("Unknown quality gate status [" + value + "]");
+            }
+          }
+
+          return subject -> subject.status != null && statuses.contains(subject.status);
+        case "branch":
+          List<Pattern> patterns = new ArrayList<>();
+          for (String value : values) {
+            patterns.add(globToPattern(value.trim()));
+          }
+
+          return subject -> patterns.stream()
+              .anyMatch(pattern -> pattern.matcher(subject.branchName).matches());
+        case "failing":
+          BitSet metrics = new BitSet();
+          for (String value : values) {
+            metrics.set(metricBits.computeIfAbsent(value.trim(), key -> metricBits.size()));
+          }
+
+          return subject -> subject.failing().intersects(metrics);
+        default:
+          throw error("Unknown term [" + term + "]");
+      }
+    }
+
+    /**
+     * Consumes the next token if it is the given keyword.
+     *
+     * @param keyword The keyword.
+     *
+     * @return True if it was consumed.
+     */
+    private boolean accept(String keyword) {
+      if (position < tokens.size() && keyword.equalsIgnoreCase(tokens.get(position))) {
+        position++;
+        return true;
+      }
+
+      return false;
+    }
+
+    /**
+     * Builds a parse error.
+     *
+     * @param message The error message.
+     *
+     * @return The exception.
+     */
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(
+          String.format("%s in Teams notification filter [%s]", message, expression)
+      );
+    }
+  }
+}
@@ -0,0 +1,341 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import com.andrewensley.sonarteamsnotifier.domain.Constants;
+
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.sonar.api.Startable;
+import org.sonar.api.ce.ComputeEngineSide;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Posts a periodic summary message to every hook notified since the previous summary.
+ *
+ * <p>Each analysis updates small per-hook aggregates: pass and fail counters, an approximate
+ * top-K of the projects failing most often and the projects whose gate newly failed. Rendering a
+ * summary only reads these aggregates, then resets them. Nothing is read from SonarQube.
+ */
+@ComputeEngineSide
+public class SummaryReports implements Startable {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Loggers.get(SummaryReports.class);
+
+  /**
+   * Default number of worst projects listed in a summary.
+   */
+  private static final int DEFAULT_TOP = 5;
+
+  /**
+   * Number of project counters kept per listed worst project.
+   */
+  private static final int TOP_K_SLACK = 4;
+
+  /**
+   * Maximum number of newly failing projects listed in a summary.
+   */
+  private static final int MAX_NEWLY_FAILING = 20;
+
+  /**
+   * SonarQube settings.
+   */
+  private final Configuration settings;
+
+  /**
+   * Sender delivering the summaries.
+   */
+  private final NotificationSender sender;
+
+  /**
+   * Aggregates by hook.
+   */
+  private final Map<String, HookSummary> summaries = new ConcurrentHashMap<>();
+
+  /**
+   * Number of worst projects listed in a summary.
+   */
+  private int top = DEFAULT_TOP;
+
+  /**
+   * Time of day summaries are posted at. Null when summaries are disabled.
+   */
+  private LocalTime time;
+
+  /**
+   * Day of week summaries are posted on. Null to post them every day.
+   */
+  private DayOfWeek day;
+
+  /**
+   * Scheduler posting the summaries.
+   */
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * Constructor.
+   *
+   * @param settings The SonarQube Configuration settings.
+   * @param sender   The notification sender.
+   */
+  public SummaryReports(Configuration settings, NotificationSender sender) {
+    this.settings = settings;
+    this.sender = sender;
+  }
+
+  /**
+   * Schedules the first summary, if enabled.
+   */
+  @Override
+  public void start() {
+    Optional<String> configuredTime = settings.get(Constants.SUMMARY_TIME).map(String::trim);
+    if (!configuredTime.filter(value -> !value.isEmpty()).isPresent()) {
+      return;
+    }
+
+    try {
+      time = LocalTime.parse(configuredTime.get());
+      day = settings.get(Constants.SUMMARY_DAY)
+          .map(String::trim)
+          .filter(value -> !value.isEmpty())
+          .map(value -> DayOfWeek.valueOf(value.toUpperCase(Locale.ENGLISH)))
+          .orElse(null);
+    } catch (DateTimeParseException | IllegalArgumentException e) {
+      LOG.error("Invalid Teams summary schedule. Summaries disabled.", e);
+      time = null;
+      return;
+    }
+
+    top = Math.max(1, settings.getInt(Constants.SUMMARY_TOP).orElse(DEFAULT_TOP));
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "teams-notifier-summary");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduleNext();
+    LOG.info("Teams summaries scheduled {} at {}", day == null ? "daily" : "on " + day, time);
+  }
+
+  /**
+   * Stops posting summaries.
+   */
+  @Override
+  public void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  /**
+   * Checks if summaries are enabled.
+   *
+   * @return True if enabled. False if not.
+   */
+  boolean isEnabled() {
+    return time != null;
+  }
+
+  /**
+   * Counts an analysis in the summary of its hook.
+   *
+   * @param hook         The hook URL.
+   * @param format       The format the hook is notified in.
+   * @param project      The project display name.
+   * @param passing      Whether the quality gate passed.
+   * @param newlyFailing Whether the quality gate failed while it passed on the previous analysis.
+   */
+  void record(
+      String hook,
+      MessageFormat format,
+      String project,
+      boolean passing,
+      boolean newlyFailing
+  ) {
+    if (!isEnabled()) {
+      return;
+    }
+
+    // compute() keeps the update atomic with the removal of the hook's summary when it is posted.
+    summaries.compute(hook, (key, summary) -> {
+      HookSummary current = summary == null ? new HookSummary(format, top * TOP_K_SLACK) : summary;
+      current.record(project, passing, newlyFailing);
+      return current;
+    });
+  }
+
+  /**
+   * Posts the summary of every hook with analyses since the previous summary, then schedules the
+   * next one.
+   */
+  void postSummaries() {
+    try {
+      for (String hook : new ArrayList<>(summaries.keySet())) {
+        HookSummary summary = summaries.remove(hook);
+        if (summary != null) {
+          String markdown = summary.render(top, day == null ? "Daily" : "Weekly");
+          sender.send(hook, summary.format.payload(markdown));
+        }
+      }
+    } catch (RuntimeException e) {
+      LOG.error("Failed to post Teams summaries", e);
+    } finally {
+      scheduleNext();
+    }
+  }
+
+  /**
+   * Schedules the next summary.
+   */
+  private void scheduleNext() {
+    ZonedDateTime now = ZonedDateTime.now();
+    ZonedDateTime next = now.with(time).withSecond(0).withNano(0);
+    if (day != null) {
+      next = next.with(TemporalAdjusters.nextOrSame(day));
+    }
+
+    if (!next.isAfter(now)) {
+      next = day == null ? next.plusDays(1) : next.plusWeeks(1);
+    }
+
+    try {
+      scheduler.schedule(
+          this::postSummaries,
+          Duration.between(now, next).toMillis(),
+          TimeUnit.MILLISECONDS
+      );
+    } catch (RuntimeException e) {
+      LOG.debug("Teams summary not scheduled: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Aggregates of the analyses notified to one hook.
+   */
+  private static class HookSummary {
+
+    /**
+     * The format the hook is notified in.
+     */
+    final MessageFormat format;
+
+    /**
+     * Number of analyses with a passing quality gate.
+     */
+    private int passed;
+
+    /**
+     * Number of analyses with a failing quality gate.
+     */
+    private int failed;
+
+    /**
+     * Failing analyses by project.
+     */
+    private final TopK worst;
+
+    /**
+     * Projects whose quality gate newly failed, in order.
+     */
+    private final Set<String> newlyFailing = new LinkedHashSet<>();
+
+    /**
+     * Number of newly failing projects not listed.
+     */
+    private int moreNewlyFailing;
+
+    /**
+     * Constructor.
+     *
+     * @param format   The format the hook is notified in.
+     * @param capacity Number of project counters kept.
+     */
+    HookSummary(MessageFormat format, int capacity) {
+      this.format = format;
+      worst = new TopK(capacity);
+    }
+
+    /**
+     * Counts an analysis.
+     *
+     * @param project      The project display name.
+     * @param passing      Whether the quality gate passed.
+     * @param newlyFailing Whether the quality gate newly failed.
+     */
+    synchronized void record(String project, boolean passing, boolean newlyFailing) {
+      if (passing) {
+        passed++;
+        return;
+      }
+
+      failed++;
+      worst.add(project);
+      if (newlyFailing && !this.newlyFailing.contains(project)) {
+        if (this.newlyFailing.size() < MAX_NEWLY_FAILING) {
+          this.newlyFailing.add(project);
+        } else {
+          moreNewlyFailing++;
+        }
+      }
+    }
+
+    /**
+     * Renders the summary.
+     *
+     * @param top    Number of worst projects listed.
+     * @param period The name of the summary period.
+     *
+     * @return The summary with markdown formatting.
+     */
+    synchronized String render(int top, String period) {
+      StringBuilder message = new StringBuilder();
+      message.append(String.format(
+          "**%s Quality Gate Summary**: %d passed, %d failed  \n",
+          period,
+          passed,
+          failed
+      ));
+      List<Map.Entry<String, Long>> worstProjects = worst.top(top);
+      if (!worstProjects.isEmpty()) {
+        message.append("**Most failing projects**:  \n");
+        for (Map.Entry<String, Long> project : worstProjects) {
+          message.append(String.format(
+              "- %s: %d failure%s  \n",
+              project.getKey(),
+              project.getValue(),
+              project.getValue() == 1 ? "" : "s"
+          ));
+        }
+      }
+
+      if (!newlyFailing.isEmpty()) {
+        message.append("**Newly failing**: ").append(String.join(", ", newlyFailing));
+        if (moreNewlyFailing > 0) {
+          message.append(String.format(" and %d more", moreNewlyFailing));
+        }
+
+        message.append("  \n");
+      }
+
+      return message.toString();
+    }
+  }
+}
@@ -1,31 +1,20 @@
 package com.andrewensley.sonarteamsnotifier.extension;
 
 import com.andrewensley.sonarteamsnotifier.domain.InvalidHttpResponseException;
-import com.google.gson.Gson;
 
-import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.security.KeyManagementException;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
 import java.util.Optional;
 
 import org.apache.http.HttpHost;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
-import org.apache.http.conn.ssl.TrustAllStrategy;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.ssl.SSLContextBuilder;
+import org.apache.http.util.EntityUtils;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
 
@@ -66,6 +55,16 @@ class TeamsHttpClient {
    */
   private CloseableHttpClient httpClient;
 
+  /**
+   * The shared connection pool. Null to use a pool of its own for this request only.
+   */
+  private HttpClientPool pool;
+
+  /**
+   * Whether the pool was created for this request only, and must be closed after it.
+   */
+  private boolean ownsPool = false;
+
   /**
    * Whether or not to bypass HTTPS validation.
    */
@@ -101,6 +100,11 @@ class TeamsHttpClient {
    */
   private Optional<String> proxyPass;
 
+  /**
+   * The HTTP status code of the last post. 0 if no response was received.
+   */
+  private int statusCode;
+
   /**
    * Constructor.
    *
@@ -169,13 +173,23 @@ class TeamsHttpClient {
   }
 
   /**
-   * Builds the TeamsHttpClient, preparing it to make the request.
+   * Sets the shared connection pool the request is sent through.
+   *
+   * @param pool The connection pool, configured with the same settings as this TeamsHttpClient.
    *
    * @return The TeamsHttpClient
+   */
+  TeamsHttpClient pool(HttpClientPool pool) {
+    this.pool = pool;
+    return this;
+  }
+
+  /**
+   * Builds the TeamsHttpClient, preparing it to make the request.
    *
-   * @throws UnsupportedEncodingException If the payload is malformed.
+   * @return The TeamsHttpClient
    */
-  TeamsHttpClient build() throws UnsupportedEncodingException {
+  TeamsHttpClient build() {
     port = getPort();
     path = getPath();
     httpClient = getHttpClient();
@@ -199,6 +213,15 @@ class TeamsHttpClient {
     return this;
   }
 
+  /**
+   * Gets the HTTP status code of the last post.
+   *
+   * @return The status code. 0 if no response was received.
+   */
+  int statusCode() {
+    return statusCode;
+  }
+
   /**
    * Posts the message to the webhook.
    *
@@ -206,9 +229,16 @@ class TeamsHttpClient {
    */
   boolean post() {
     boolean success = false;
-    try {
-      CloseableHttpResponse response = httpClient.execute(target, httpPost);
+    HttpClientContext context = pool.context();
+    PipelineEvents.Span span = PipelineEvents.begin(PipelineEvents.Stage.HTTP_EXCHANGE)
+        .host(target.toHostString())
+        .bytes(httpPost.getEntity().getContentLength());
+    try (CloseableHttpResponse response = httpClient.execute(target, httpPost, context)) {
+      // Consume the body so the connection goes back to the pool.
+      EntityUtils.consume(response.getEntity());
       int responseCode = response.getStatusLine().getStatusCode();
+      statusCode = responseCode;
+      span.statusCode(responseCode);
       if (responseCode < 200 || responseCode > 299) {
         throw new InvalidHttpResponseException("Invalid HTTP Response Code: " + responseCode);
       }
@@ -218,10 +248,10 @@ class TeamsHttpClient {
     } catch (Exception e) {
       LOG.error("Failed to send teams message", e);
     } finally {
-      try {
-        httpClient.close();
-      } catch (Exception e) {
-        LOG.error("Unable to close HTTP Client", e);
+      span.finish();
+      pool.remember(context);
+      if (ownsPool) {
+        pool.close();
       }
     }
 
@@ -232,13 +262,14 @@ class TeamsHttpClient {
    * Gets the HttpPost request object.
    *
    * @return The HttpPost.
-   *
-   * @throws UnsupportedEncodingException If the payload is malformed.
    */
-  private HttpPost getHttpPost() throws UnsupportedEncodingException {
-    Gson gson = new Gson();
+  private HttpPost getHttpPost() {
     HttpPost tempHttpPost = new HttpPost(path);
-    tempHttpPost.setEntity(new StringEntity(gson.toJson(payload)));
+    PipelineEvents.Span span = PipelineEvents.begin(PipelineEvents.Stage.SERIALIZE)
+        .host(target.toHostString());
+    byte[] body = payload.toBytes();
+    span.bytes(body.length).finish();
+    tempHttpPost.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
     tempHttpPost.setHeader("Accept", "application/json");
     tempHttpPost.setHeader("Content-type", "application/json");
 
@@ -278,64 +309,16 @@ class TeamsHttpClient {
    * @return The HTTP Client.
    */
   private CloseableHttpClient getHttpClient() {
-    CloseableHttpClient tempHttpClient = HttpClients.createDefault();
-    if (proxyAuthEnabled() || bypassHttpsValidation) {
-      tempHttpClient = getCustomHttpClient();
-    }
-
-    return tempHttpClient;
-  }
-
-  /**
-   * Gets a custom HTTP client for proxy auth and/or HTTPS validation bypass.
-   *
-   * @return The custom HTTP client.
-   */
-  private CloseableHttpClient getCustomHttpClient() {
-    HttpClientBuilder httpClientBuilder = HttpClients.custom();
-    if (bypassHttpsValidation) {
-      httpClientBypassHttpsValidation(httpClientBuilder);
+    if (pool == null) {
+      pool = new HttpClientPool(bypassHttpsValidation, proxyIp, proxyPort, proxyUser, proxyPass);
+      ownsPool = true;
     }
 
     if (proxyAuthEnabled()) {
-      httpClientProxyAuth(httpClientBuilder);
-    }
-
-    return httpClientBuilder.build();
-  }
-
-  /**
-   * Sets necessary properties on the HTTP Client to bypass HTTPS validation.
-   *
-   * @param builder The HttpClientBuilder being used to build the client.
-   */
-  private void httpClientBypassHttpsValidation(HttpClientBuilder builder) {
-    try {
-      builder
-        .setSSLContext(
-            new SSLContextBuilder().loadTrustMaterial(null, TrustAllStrategy.INSTANCE).build()
-        )
-        .setSSLHostnameVerifier(NoopHostnameVerifier.INSTANCE);
-    } catch (NoSuchAlgorithmException | KeyStoreException | KeyManagementException e) {
-      LOG.error("Error bypassing HTTPS Validation", e);
+      pool.addTargetCredentials(hook.getHost(), port);
     }
-  }
 
-  /**
-   * Sets necessary properties on the HTTP Client to add proxy authentication.
-   *
-   * @param builder The HttpClientBuilder being used to build the client.
-   */
-  private void httpClientProxyAuth(HttpClientBuilder builder) {
-    CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-    //noinspection OptionalGetWithoutIsPresent
-    credentialsProvider.setCredentials(
-        new AuthScope(proxyIp.get(), proxyPort.get()),
-        new UsernamePasswordCredentials(proxyUser.get(), proxyPass.get()));
-    credentialsProvider.setCredentials(
-        new AuthScope(hook.getHost(), port),
-        new UsernamePasswordCredentials(proxyUser.get(), proxyPass.get()));
-    builder.setDefaultCredentialsProvider(credentialsProvider);
+    return pool.client();
   }
 
   /**
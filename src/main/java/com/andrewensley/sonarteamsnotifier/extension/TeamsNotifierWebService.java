@@ -0,0 +1,382 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.server.ws.LocalConnector;
+import org.sonar.api.server.ws.Request;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.server.ws.WebService;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Administrator-only web services: probing hooks, to tell whether DNS, the proxy, TLS or WebEx
+ * Teams is to blame for slow notifications, and replaying the latest quality gate status of
+ * projects.
+ */
+@ServerSide
+public class TeamsNotifierWebService implements WebService {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Loggers.get(TeamsNotifierWebService.class);
+
+  /**
+   * Path of the web service controller.
+   */
+  static final String CONTROLLER = "api/teams_notifier";
+
+  /**
+   * Name of the hook parameter.
+   */
+  static final String PARAM_HOOK = "hook";
+
+  /**
+   * Name of the projects parameter.
+   */
+  static final String PARAM_PROJECTS = "projects";
+
+  /**
+   * Name of the filter parameter.
+   */
+  static final String PARAM_FILTER = "filter";
+
+  /**
+   * Name of the fail only parameter.
+   */
+  static final String PARAM_FAIL_ONLY = "fail_only";
+
+  /**
+   * Name of the concurrency parameter.
+   */
+  static final String PARAM_CONCURRENCY = "concurrency";
+
+  /**
+   * Default number of concurrent replay deliveries.
+   */
+  private static final int DEFAULT_CONCURRENCY = 4;
+
+  /**
+   * Maximum number of recently used hosts probed when no hook is given.
+   */
+  private static final int MAX_RECENT = 10;
+
+  /**
+   * Serializer.
+   */
+  private final Gson gson = new Gson();
+
+  /**
+   * SonarQube settings.
+   */
+  private final Configuration settings;
+
+  /**
+   * The metadata of the metrics.
+   */
+  private final MetricCatalog metricCatalog;
+
+  /**
+   * Constructor.
+   *
+   * @param settings      The SonarQube Configuration settings.
+   * @param metricCatalog The metadata of the metrics.
+   */
+  public TeamsNotifierWebService(Configuration settings, MetricCatalog metricCatalog) {
+    this.settings = settings;
+    this.metricCatalog = metricCatalog;
+  }
+
+  /**
+   * Defines the probe and replay actions.
+   *
+   * @param context The web service context.
+   */
+  @Override
+  public void define(Context context) {
+    NewController controller = context.createController(CONTROLLER)
+        .setDescription("Teams Notifier diagnostics.");
+    NewAction probe = controller.createAction("probe")
+        .setDescription("Probes a hook, or the hosts notifications were recently sent to, through "
+            + "the configured proxy and TLS settings. Reports the time spent in DNS, connect, TLS "
+            + "and until the first response byte, and the Compute Engine's delivery state. "
+            + "Nothing is posted to the hooks. Requires the 'Administer System' permission.")
+        .setSince("1.4")
+        .setPost(false)
+        .setResponseExample(getClass().getResource("probe-example.json"))
+        .setHandler(this::handle);
+    probe.createParam(PARAM_HOOK)
+        .setDescription("Hook URL to probe. Defaults to the recently used hosts.")
+        .setExampleValue("https://api.ciscospark.com/v1/webhooks/incoming/...");
+    NewAction replay = controller.createAction("replay")
+        .setDescription("Re-sends the latest quality gate status of the main branch of projects,"
+            + " without new analyses, e.g. after a WebEx Teams outage or to fill a new space."
+            + " Progress is streamed as one JSON object per line, the last one with 'done' set."
+            + " Requires the 'Administer System' permission.")
+        .setSince("1.4")
+        .setPost(true)
+        .setHandler(this::handleReplay);
+    replay.createParam(PARAM_HOOK)
+        .setRequired(true)
+        .setDescription("Hooks to notify, separated by commas, optionally prefixed with their"
+            + " format like the sonar.teams.hook analysis property.")
+        .setExampleValue("https://api.ciscospark.com/v1/webhooks/incoming/...");
+    replay.createParam(PARAM_PROJECTS)
+        .setRequired(true)
+        .setDescription("Project keys, separated by commas. '*' matches any characters and '?'"
+            + " a single one.")
+        .setExampleValue("my_project,team-a:*");
+    replay.createParam(PARAM_FILTER)
+        .setDescription("Only notify projects whose latest status matches this filter, like the"
+            + " sonar.teams.filter analysis property.")
+        .setExampleValue("status=ERROR");
+    replay.createParam(PARAM_FAIL_ONLY)
+        .setBooleanPossibleValues()
+        .setDefaultValue("false")
+        .setDescription("Only notify projects whose quality gate fails.");
+    replay.createParam(PARAM_CONCURRENCY)
+        .setDefaultValue(String.valueOf(DEFAULT_CONCURRENCY))
+        .setDescription("Maximum number of concurrent posts, up to "
+            + NotificationReplay.MAX_CONCURRENCY + ".");
+    controller.done();
+  }
+
+  /**
+   * Handles a probe request.
+   *
+   * @param request  The request.
+   * @param response The response.
+   *
+   * @throws IOException If the response cannot be written.
+   */
+  void handle(Request request, Response response) throws IOException {
+    if (!isAdministrator(request.localConnector())) {
+      error(response, 403, "Insufficient privileges");
+      return;
+    }
+
+    List<URL> hooks = new ArrayList<>();
+    List<WebhookProbe.Result> results = new ArrayList<>();
+    String hook = request.param(PARAM_HOOK);
+    if (hook != null && !hook.trim().isEmpty()) {
+      try {
+        hooks.add(new URL(HookTarget.parse(hook).url));
+      } catch (MalformedURLException e) {
+        error(response, 400, "Invalid hook URL");
+        return;
+      }
+    } else {
+      List<String> recent = RecentHosts.of(settings).hosts();
+      Collections.reverse(recent);
+      for (String host : recent.subList(0, Math.min(MAX_RECENT, recent.size()))) {
+        try {
+          hooks.add(new URL(host));
+        } catch (MalformedURLException e) {
+          // Reported with the probes, so the other hosts are still probed.
+          WebhookProbe.Result invalid = new WebhookProbe.Result();
+          invalid.target = host;
+          invalid.error = "Invalid host URL: " + e.getMessage();
+          results.add(invalid);
+        }
+      }
+    }
+
+    WebhookProbe probe = new WebhookProbe(settings);
+    for (URL url : hooks) {
+      WebhookProbe.Result result = probe.probe(url);
+      LOG.info("Probed Teams host [{}] in {} ms: {}", result.target, result.totalMs,
+          result.error == null ? "HTTP " + result.status : result.error);
+      results.add(result);
+    }
+
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("probes", results);
+    Optional<DeliveryState> state = DeliveryState.read(DeliveryState.file(settings));
+    if (state.isPresent()) {
+      Map<String, Object> computeEngine = new LinkedHashMap<>();
+      computeEngine.put("ageMs", System.currentTimeMillis() - state.get().updatedAt);
+      computeEngine.put("state", state.get());
+      body.put("computeEngine", computeEngine);
+    }
+
+    write(response, 200, body);
+  }
+
+  /**
+   * Handles a replay request.
+   *
+   * @param request  The request.
+   * @param response The response.
+   *
+   * @throws IOException If the response cannot be written.
+   */
+  void handleReplay(Request request, Response response) throws IOException {
+    if (!isAdministrator(request.localConnector())) {
+      error(response, 403, "Insufficient privileges");
+      return;
+    }
+
+    List<HookTarget> targets;
+    try {
+      targets = HookTarget.parseAll(request.mandatoryParam(PARAM_HOOK));
+    } catch (MalformedURLException e) {
+      error(response, 400, "Invalid hook URL: " + e.getMessage());
+      return;
+    }
+
+    SubscriptionFilter filter = null;
+    String expression = request.param(PARAM_FILTER);
+    try {
+      if (expression != null && !expression.trim().isEmpty()) {
+        filter = SubscriptionFilter.of(expression);
+      }
+
+      for (HookTarget target : targets) {
+        if (target.filter != null) {
+          SubscriptionFilter.of(target.filter);
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      error(response, 400, e.getMessage());
+      return;
+    }
+
+    List<String> projects = new ArrayList<>();
+    for (String project : request.mandatoryParam(PARAM_PROJECTS).split(",")) {
+      if (!project.trim().isEmpty()) {
+        projects.add(project.trim());
+      }
+    }
+
+    int concurrency;
+    try {
+      concurrency = Integer.parseInt(request.mandatoryParam(PARAM_CONCURRENCY).trim());
+    } catch (NumberFormatException e) {
+      error(response, 400, "Invalid concurrency");
+      return;
+    }
+
+    Response.Stream stream = response.stream()
+        .setStatus(200)
+        .setMediaType("application/x-ndjson");
+    Transport transport = NotificationSender.createTransport(
+        settings,
+        SystemDefaultDnsResolver.INSTANCE
+    );
+    try (OutputStream output = stream.output()) {
+      LOG.info("Replaying Teams notifications of [{}] to {} hook(s)", projects, targets.size());
+      new NotificationReplay(request.localConnector(), settings, metricCatalog, transport).run(
+          projects,
+          filter,
+          request.mandatoryParamAsBoolean(PARAM_FAIL_ONLY),
+          targets,
+          concurrency,
+          progress -> writeLine(output, progress)
+      );
+    } catch (InterruptedException e) {
+      LOG.warn("Teams notification replay interrupted");
+      Thread.currentThread().interrupt();
+    } finally {
+      transport.close();
+    }
+  }
+
+  /**
+   * Checks if the current user has the 'Administer System' permission, by asking the server's
+   * own web API on their behalf.
+   *
+   * @param localConnector The connector to the server's web API.
+   *
+   * @return True if they do. False if not, or if it cannot be checked.
+   */
+  private boolean isAdministrator(LocalConnector localConnector) {
+    Optional<JsonObject> user = new LocalApiRequest("api/users/current").call(localConnector);
+    if (!user.isPresent()) {
+      return false;
+    }
+
+    try {
+      JsonObject permissions = user.get().getAsJsonObject("permissions");
+      if (permissions == null || !permissions.has("global")) {
+        return false;
+      }
+
+      for (JsonElement permission : permissions.getAsJsonArray("global")) {
+        if ("admin".equals(permission.getAsString())) {
+          return true;
+        }
+      }
+    } catch (IllegalStateException | ClassCastException e) {
+      LOG.warn("Unable to read the current user's permissions: {}", e.getMessage());
+    }
+
+    return false;
+  }
+
+  /**
+   * Writes an error in the format of the SonarQube web API.
+   *
+   * @param response The response.
+   * @param status   The HTTP status code.
+   * @param message  The error message.
+   *
+   * @throws IOException If the response cannot be written.
+   */
+  private void error(Response response, int status, String message) throws IOException {
+    Map<String, String> error = Collections.singletonMap("msg", message);
+    write(response, status, Collections.singletonMap("errors", Collections.singletonList(error)));
+  }
+
+  /**
+   * Writes a JSON response.
+   *
+   * @param response The response.
+   * @param status   The HTTP status code.
+   * @param body     The object to serialize.
+   *
+   * @throws IOException If the response cannot be written.
+   */
+  private void write(Response response, int status, Object body) throws IOException {
+    Response.Stream stream = response.stream()
+        .setStatus(status)
+        .setMediaType("application/json");
+    try (OutputStream output = stream.output()) {
+      output.write(gson.toJson(body).getBytes(UTF_8));
+    }
+  }
+
+  /**
+   * Writes one line of a streamed JSON response, and flushes it to the client.
+   *
+   * @param output The response output.
+   * @param body   The object to serialize.
+   */
+  private void writeLine(OutputStream output, Object body) {
+    try {
+      output.write((gson.toJson(body) + "\n").getBytes(UTF_8));
+      output.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
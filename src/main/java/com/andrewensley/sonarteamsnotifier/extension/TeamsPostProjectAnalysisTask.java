@@ -2,11 +2,14 @@ package com.andrewensley.sonarteamsnotifier.extension;
 
 import com.andrewensley.sonarteamsnotifier.domain.Constants;
 
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
 import org.sonar.api.ce.posttask.PostProjectAnalysisTask;
-import org.sonar.api.ce.posttask.QualityGate;
 import org.sonar.api.config.Configuration;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
@@ -26,13 +29,71 @@ public class TeamsPostProjectAnalysisTask implements PostProjectAnalysisTask {
    */
   private final Configuration settings;
 
+  /**
+   * Dispatcher delivering notifications to the webhook.
+   */
+  private final NotificationDispatcher dispatcher;
+
+  /**
+   * Coordinator handing notifications to the node owning their hook in cluster mode.
+   */
+  private final ClusterCoordinator clusterCoordinator;
+
+  /**
+   * Local history of condition values, used to render trends.
+   */
+  private final MeasureHistory measureHistory;
+
+  /**
+   * Aggregates of the periodic summary reports.
+   */
+  private final SummaryReports summaryReports;
+
+  /**
+   * Metadata of the metrics, used to format condition values.
+   */
+  private final MetricCatalog metricCatalog;
+
+  /**
+   * Lists the top new issues of failing quality gates.
+   */
+  private final IssueEnricher issueEnricher;
+
+  /**
+   * Holds pull request notifications until their pull request settles.
+   */
+  private final PullRequestDebouncer pullRequestDebouncer;
+
   /**
    * Constructor.
    *
-   * @param settings The SonarQube Configuration settings.
+   * @param settings             The SonarQube Configuration settings.
+   * @param dispatcher           The notification dispatcher.
+   * @param clusterCoordinator   The cluster coordinator.
+   * @param measureHistory       The local history of condition values.
+   * @param summaryReports       The periodic summary reports.
+   * @param metricCatalog        The metadata of the metrics.
+   * @param issueEnricher        The lister of new issues.
+   * @param pullRequestDebouncer The debouncer of pull request notifications.
    */
-  public TeamsPostProjectAnalysisTask(Configuration settings) {
+  public TeamsPostProjectAnalysisTask(
+      Configuration settings,
+      NotificationDispatcher dispatcher,
+      ClusterCoordinator clusterCoordinator,
+      MeasureHistory measureHistory,
+      SummaryReports summaryReports,
+      MetricCatalog metricCatalog,
+      IssueEnricher issueEnricher,
+      PullRequestDebouncer pullRequestDebouncer
+  ) {
     this.settings = settings;
+    this.dispatcher = dispatcher;
+    this.clusterCoordinator = clusterCoordinator;
+    this.measureHistory = measureHistory;
+    this.summaryReports = summaryReports;
+    this.metricCatalog = metricCatalog;
+    this.issueEnricher = issueEnricher;
+    this.pullRequestDebouncer = pullRequestDebouncer;
   }
 
   /**
@@ -48,105 +109,236 @@ public class TeamsPostProjectAnalysisTask implements PostProjectAnalysisTask {
     }
 
     Map<String, String> properties = analysis.getScannerContext().getProperties();
-    if (!properties.containsKey(Constants.HOOK)) {
+    String resolvedHook = properties.get(Constants.RESOLVED_HOOK);
+    if (resolvedHook == null && !properties.containsKey(Constants.HOOK)) {
       LOG.info("No hook URL found for Teams Notifier Plugin.");
       return;
     }
 
     LOG.debug("Analysis ScannerContext: [{}]", properties);
-    String hook = properties.getOrDefault(Constants.HOOK, "").trim();
-    boolean failOnly = !properties.getOrDefault(Constants.FAIL_ONLY, "").trim().isEmpty();
-    if (failOnly && qualityGateOk(analysis)) {
+    String hook = resolvedHook != null ? resolvedHook : properties.get(Constants.HOOK).trim();
+    final List<HookTarget> targets;
+    try {
+      // Hooks resolved by the scanner were already validated there.
+      targets = resolvedHook != null
+          ? HookTarget.parseResolved(resolvedHook)
+          : HookTarget.parseAll(hook);
+    } catch (MalformedURLException e) {
+      LOG.error("Invalid hook URL for Teams Notifier Plugin: " + e.getMessage());
+      return;
+    }
+
+    boolean failOnly = properties.containsKey(Constants.RESOLVED_FAIL_ONLY)
+        ? Boolean.parseBoolean(properties.get(Constants.RESOLVED_FAIL_ONLY))
+        : !properties.getOrDefault(Constants.FAIL_ONLY, "").trim().isEmpty();
+    final AnalysisSnapshot snapshot = AnalysisSnapshot.of(analysis);
+    LOG.debug("Captured analysis snapshot: {} condition(s), ~{} bytes retained",
+        snapshot.conditions().size(), snapshot.footprint());
+    final Trend trend = recordTrend(snapshot);
+    for (HookTarget target : targets) {
+      recordSummary(target, snapshot, trend);
+    }
+
+    final boolean debounced = pullRequestDebouncer.holds(snapshot);
+    if (failOnly && snapshot.isPassing()) {
       LOG.info("QualityGate passed and fail_only is enabled. Skipping notification.");
+      if (debounced) {
+        pullRequestDebouncer.drop(hook, snapshot);
+      }
+
+      return;
+    }
+
+    final List<HookTarget> matching = new ArrayList<>();
+    for (HookTarget target : targets) {
+      if (matchesFilter(target.filter(properties.get(Constants.FILTER)), snapshot)) {
+        matching.add(target);
+      }
+    }
+
+    if (matching.isEmpty()) {
+      LOG.info("Analysis does not match the Teams notification filter. Skipping notification.");
+      if (debounced) {
+        pullRequestDebouncer.drop(hook, snapshot);
+      }
+
       return;
     }
 
-    LOG.debug("Teams notification URL: " + hook);
+    LOG.debug("Teams notification URL: " + HookTarget.join(matching));
     LOG.debug("Teams notification analysis: " + analysis.toString());
-    sendNotification(hook, failOnly, analysis);
+    if (debounced) {
+      LOG.debug("Holding the notification until the pull request settles.");
+      pullRequestDebouncer.hold(hook, snapshot,
+          () -> sendNotification(matching, failOnly, properties, snapshot, trend));
+    } else {
+      sendNotification(matching, failOnly, properties, snapshot, trend);
+    }
+  }
+
+  /**
+   * Records the condition values of the analysis in the local history.
+   *
+   * @param snapshot The snapshot of the project analysis.
+   *
+   * @return The trend as of the previous analysis of the project branch.
+   */
+  private Trend recordTrend(AnalysisSnapshot snapshot) {
+    if (!snapshot.hasQualityGate()) {
+      return Trend.NONE;
+    }
+
+    return measureHistory.record(
+        snapshot.projectKey(),
+        snapshot.nonMainBranchName(),
+        snapshot.conditions()
+    );
   }
 
   /**
-   * Checks if the quality gate status is set and is OK.
+   * Checks if an analysis matches the notification filter. Analyses are notified when there is
+   * no filter or it is invalid.
+   *
+   * @param filter   The filter expression. Null if there is none.
+   * @param snapshot The snapshot of the project analysis.
    *
-   * @param analysis Project Analysis object.
+   * @return True if the analysis should be notified.
+   */
+  private boolean matchesFilter(String filter, AnalysisSnapshot snapshot) {
+    if (filter == null || filter.trim().isEmpty()) {
+      return true;
+    }
+
+    try {
+      return SubscriptionFilter.of(filter).test(snapshot);
+    } catch (IllegalArgumentException e) {
+      LOG.error(e.getMessage() + ". Notifying anyway.");
+      return true;
+    }
+  }
+
+  /**
+   * Counts the analysis in the periodic summary of a hook.
    *
-   * @return True if quality gate is set and is OK. False if not.
+   * @param target   The hook.
+   * @param snapshot The snapshot of the project analysis.
+   * @param trend    The previous condition values.
    */
-  private boolean qualityGateOk(ProjectAnalysis analysis) {
-    QualityGate qualityGate = analysis.getQualityGate();
-    return (qualityGate != null && QualityGate.Status.OK.equals(qualityGate.getStatus()));
+  private void recordSummary(HookTarget target, AnalysisSnapshot snapshot, Trend trend) {
+    String branch = snapshot.nonMainBranchName();
+    String project = snapshot.projectName() + (branch.isEmpty() ? "" : " @ " + branch);
+    boolean passing = snapshot.isPassing();
+    boolean newlyFailing = !passing && snapshot.conditions().stream().anyMatch(condition ->
+        Trend.isFailing(condition.getStatus()) && trend.wasPassing(condition.getMetricKey()));
+    summaryReports.record(target.url, target.format, project, passing, newlyFailing);
   }
 
   /**
-   * Sends the WebEx teams notification.
+   * Sends the WebEx teams notification. The message is built once, and serialized once per
+   * format its hooks are notified in.
    *
-   * @param hook     The hook URL.
-   * @param failOnly The setting of the fail_only flag.
-   * @param analysis The Project Analysis.
+   * @param targets    The hooks.
+   * @param failOnly   The setting of the fail_only flag.
+   * @param properties The scanner context properties.
+   * @param snapshot   The snapshot of the project analysis.
+   * @param trend      The trend as of the previous analysis of the project branch.
    */
-  private void sendNotification(String hook, boolean failOnly, ProjectAnalysis analysis) {
+  private void sendNotification(
+      List<HookTarget> targets,
+      boolean failOnly,
+      Map<String, String> properties,
+      AnalysisSnapshot snapshot,
+      Trend trend
+  ) {
     try {
-      Map<String, String> properties = analysis.getScannerContext().getProperties();
-      TeamsHttpClient httpClient = TeamsHttpClient
-          .of(hook, PayloadBuilder.of(analysis,
-                  projectUrl(analysis.getProject().getKey()),
-                  failOnly, qualityGateOk(analysis))
-              .commitUrl(properties.getOrDefault(Constants.COMMIT_URL, ""))
-              .changeAuthor(
-                  properties.getOrDefault(Constants.CHANGE_AUTHOR_EMAIL, ""),
-                  properties.getOrDefault(Constants.CHANGE_AUTHOR_NAME, "")
-              )
-              .build())
-          .bypassHttpsValidation(isBypassEnabled())
-          .proxy(settings.get(Constants.PROXY_IP), settings.getInt(Constants.PROXY_PORT))
-          .proxyAuth(settings.get(Constants.PROXY_USER), settings.get(Constants.PROXY_PASS))
-          .build();
-      if (httpClient.post()) {
-        LOG.info("Teams message posted");
+      PayloadBuilder payloadBuilder = PayloadBuilder.of(snapshot,
+              projectUrl(settings, snapshot.projectKey()),
+              failOnly, snapshot.isPassing())
+          .branchParam(properties.get(Constants.BRANCH_PARAM))
+          .metrics(metricCatalog)
+          .trend(trend);
+      if (properties.containsKey(Constants.AUTHOR_MENTION)) {
+        payloadBuilder
+            .commitUrl(properties.get(Constants.COMMIT_LINK))
+            .changeAuthorMention(properties.get(Constants.AUTHOR_MENTION));
       } else {
-        LOG.error("Teams message failed");
+        // Analysis from a scanner that did not precompute fragments.
+        payloadBuilder
+            .commitUrl(Fragments.linkUrl(properties.get(Constants.COMMIT_URL)))
+            .changeAuthor(properties.getOrDefault(Constants.CHANGE_AUTHOR_EMAIL, ""),
+                properties.getOrDefault(Constants.CHANGE_AUTHOR_NAME, ""));
       }
+
+      PipelineEvents.Span span = PipelineEvents.begin(PipelineEvents.Stage.RENDER)
+          .project(snapshot.projectKey());
+      final Message built = payloadBuilder.message();
+      span.finish();
+      issueEnricher.enrich(built, snapshot, message -> submit(targets, snapshot, message));
     } catch (Exception e) {
       LOG.error("Failed to send teams message", e);
     }
   }
 
-
   /**
-   * Checks if the plugin is enabled globally.
+   * Serializes a message once per format its hooks are notified in, and submits the
+   * notifications for delivery.
    *
-   * @return True if enabled. False if not.
+   * @param targets  The hooks.
+   * @param snapshot The snapshot of the project analysis.
+   * @param message  The message.
    */
-  private boolean isPluginEnabled() {
-    return settings.getBoolean(Constants.ENABLED).orElse(false);
+  private void submit(List<HookTarget> targets, AnalysisSnapshot snapshot, Message message) {
+    try {
+      Map<MessageFormat, Payload> payloads = new EnumMap<>(MessageFormat.class);
+      for (HookTarget target : targets) {
+        Payload payload = payloads.computeIfAbsent(target.format, format -> {
+          PipelineEvents.Span formatSpan = PipelineEvents.begin(PipelineEvents.Stage.RENDER)
+              .project(snapshot.projectKey());
+          Payload rendered = format.payload(message);
+          formatSpan.bytes(Notification.utf8Length(rendered.content)).finish();
+          LOG.info("Teams {} message: {}", format.prefix(), rendered.content);
+          return rendered;
+        });
+        Notification notification = new Notification(target.url, payload, snapshot);
+        if (clusterCoordinator.isEnabled()) {
+          clusterCoordinator.submit(notification);
+        } else {
+          dispatcher.submit(notification);
+        }
+      }
+    } catch (Exception e) {
+      LOG.error("Failed to send teams message", e);
+    }
   }
 
+
   /**
-   * Checks if the HTTPS Validation Bypass is enabled.
+   * Checks if the plugin is enabled globally.
    *
    * @return True if enabled. False if not.
    */
-  private boolean isBypassEnabled() {
-    return settings.getBoolean(Constants.BYPASS_HTTPS_VALIDATION).orElse(false);
+  private boolean isPluginEnabled() {
+    return settings.getBoolean(Constants.ENABLED).orElse(false);
   }
 
   /**
    * Gets the project URL.
    *
+   * @param settings   The SonarQube Configuration settings.
    * @param projectKey The ID of this project.
    * @return The project URL.
    */
-  private String projectUrl(String projectKey) {
-    return getSonarServerUrl() + "dashboard?id=" + projectKey;
+  static String projectUrl(Configuration settings, String projectKey) {
+    return getSonarServerUrl(settings) + "dashboard?id=" + projectKey;
   }
 
   /**
    * Returns the sonar server url, with a trailing /.
    *
+   * @param settings The SonarQube Configuration settings.
    * @return the sonar server URL
    */
-  private String getSonarServerUrl() {
+  static String getSonarServerUrl(Configuration settings) {
     Optional<String> urlOptional = settings.get("sonar.core.serverBaseURL");
     if (!urlOptional.isPresent()) {
       return "http://pleaseDefineSonarQubeUrl/";
@@ -2,6 +2,8 @@ package com.andrewensley.sonarteamsnotifier.extension;
 
 import com.andrewensley.sonarteamsnotifier.domain.Constants;
 
+import java.net.MalformedURLException;
+import java.util.List;
 import java.util.Optional;
 
 import org.sonar.api.batch.sensor.Sensor;
@@ -43,11 +45,75 @@ public class TeamsSensor implements Sensor {
   @Override
   public void execute(SensorContext context) {
     this.sensorContext = context;
-    checkAndAddParam(Constants.HOOK);
-    checkAndAddParam(Constants.FAIL_ONLY);
-    checkAndAddParam(Constants.COMMIT_URL);
-    checkAndAddParam(Constants.CHANGE_AUTHOR_EMAIL);
-    checkAndAddParam(Constants.CHANGE_AUTHOR_NAME);
+    // Only passed to the Compute Engine through the fragments precomputed from them.
+    findParam(Constants.HOOK);
+    findParam(Constants.FAIL_ONLY);
+    findParam(Constants.COMMIT_URL);
+    findParam(Constants.CHANGE_AUTHOR_EMAIL);
+    findParam(Constants.CHANGE_AUTHOR_NAME);
+    checkAndAddParam(Constants.FILTER);
+    sensorContext.config().get(Constants.FILTER).ifPresent(TeamsSensor::validateFilter);
+    addPrecomputedFragments();
+  }
+
+  /**
+   * Reports an invalid notification filter at scan time rather than when notifying.
+   *
+   * @param filter The filter expression.
+   */
+  private static void validateFilter(String filter) {
+    try {
+      SubscriptionFilter.of(filter);
+    } catch (IllegalArgumentException e) {
+      LOG.error(e.getMessage() + ". Notifications will not be filtered.");
+    }
+  }
+
+  /**
+   * Adds the message fragments that only depend on scanner properties to the context, so the
+   * Compute Engine does not have to compute them.
+   */
+  private void addPrecomputedFragments() {
+    Optional<String> hook = sensorContext.config().get(Constants.HOOK);
+    if (!hook.isPresent()) {
+      return;
+    }
+
+    final List<HookTarget> targets;
+    try {
+      targets = HookTarget.parseAll(hook.get());
+    } catch (MalformedURLException e) {
+      LOG.error("Sonar Teams Notifier hook is not a valid URL: {}", e.getMessage());
+      return;
+    }
+
+    for (HookTarget target : targets) {
+      if (target.filter != null) {
+        validateFilter(target.filter);
+      }
+    }
+
+    sensorContext.addContextProperty(Constants.RESOLVED_HOOK, HookTarget.join(targets));
+
+    String failOnly = sensorContext.config().get(Constants.FAIL_ONLY).orElse("").trim();
+    sensorContext.addContextProperty(
+        Constants.RESOLVED_FAIL_ONLY,
+        String.valueOf(!failOnly.isEmpty())
+    );
+    sensorContext.addContextProperty(
+        Constants.COMMIT_LINK,
+        Fragments.linkUrl(sensorContext.config().get(Constants.COMMIT_URL).orElse(""))
+    );
+    sensorContext.addContextProperty(
+        Constants.AUTHOR_MENTION,
+        Fragments.authorMention(
+            sensorContext.config().get(Constants.CHANGE_AUTHOR_EMAIL).orElse(""),
+            sensorContext.config().get(Constants.CHANGE_AUTHOR_NAME).orElse("")
+        )
+    );
+    sensorContext.config().get(Constants.SONAR_BRANCH_NAME).ifPresent(branch ->
+        sensorContext.addContextProperty(Constants.BRANCH_PARAM, Fragments.branchParam(branch))
+    );
   }
 
   /**
@@ -56,13 +122,25 @@ public class TeamsSensor implements Sensor {
    * @param paramName The name of the parameter to check.
    */
   private void checkAndAddParam(String paramName) {
+    findParam(paramName).ifPresent(param -> sensorContext.addContextProperty(paramName, param));
+  }
+
+  /**
+   * Gets a scanner parameter, logging that it was found.
+   *
+   * @param paramName The name of the parameter.
+   *
+   * @return The parameter, if set.
+   */
+  private Optional<String> findParam(String paramName) {
     Optional<String> param = sensorContext.config().get(paramName);
     if (param.isPresent()) {
       LOG.info(String.format(
           "Sonar Teams Notifier %s found.",
           paramName.substring(paramName.lastIndexOf('.') + 1)
       ));
-      sensorContext.addContextProperty(paramName, param.get());
     }
+
+    return param;
   }
 }
@@ -0,0 +1,347 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Hashed timing wheel running keyed actions after a delay, on its own thread.
+ *
+ * <p>Actions are linked into the bucket of the tick they are due at, counting the full turns of
+ * the wheel left before that. Scheduling, rescheduling and cancelling a key are O(1), whatever
+ * the number of pending actions, and each tick only visits its own bucket. Expired actions are
+ * handed to an executor at most one tick late, so a slow action never holds up the wheel.
+ *
+ * @param <K> The type of the keys.
+ */
+final class TimingWheel<K> {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Loggers.get(TimingWheel.class);
+
+  /**
+   * Name of the wheel's thread.
+   */
+  private final String threadName;
+
+  /**
+   * Duration of a tick, in nanoseconds.
+   */
+  private final long tickNanos;
+
+  /**
+   * Executor running the expired actions.
+   */
+  private final Executor executor;
+
+  /**
+   * Heads of the buckets' lists of entries. A power of two in length.
+   */
+  private final Entry<K>[] buckets;
+
+  /**
+   * The pending entries, by key.
+   */
+  private final Map<K, Entry<K>> pending = new HashMap<>();
+
+  /**
+   * Time the wheel started at, in nanoseconds.
+   */
+  private long startNanos;
+
+  /**
+   * The next tick to expire, counted from the start.
+   */
+  private long tick;
+
+  /**
+   * The thread turning the wheel. Null unless started.
+   */
+  private Thread worker;
+
+  /**
+   * Constructor.
+   *
+   * @param threadName Name of the wheel's thread.
+   * @param tickMillis Duration of a tick, in milliseconds.
+   * @param size       Minimum number of buckets, rounded up to a power of two.
+   * @param executor   Executor running the expired actions.
+   */
+  @SuppressWarnings("unchecked")
+  TimingWheel(String threadName, long tickMillis, int size, Executor executor) {
+    this.threadName = threadName;
+    this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+    this.executor = executor;
+    this.buckets = (Entry<K>[]) new Entry<?>[Integer.highestOneBit(Math.max(1, size - 1)) << 1];
+  }
+
+  /**
+   * Starts turning the wheel.
+   */
+  synchronized void start() {
+    if (worker != null) {
+      return;
+    }
+
+    startNanos = System.nanoTime();
+    worker = new Thread(this::run, threadName);
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /**
+   * Schedules the action of a key, replacing the pending one of the key, if any.
+   *
+   * @param key      The key.
+   * @param action   The action.
+   * @param delay    Time to run the action after, in milliseconds.
+   * @param maxDelay Maximum time a key is pending for, counted from when it was first scheduled,
+   *                 in milliseconds.
+   *
+   * @return True if a pending action was replaced.
+   */
+  synchronized boolean schedule(K key, Runnable action, long delay, long maxDelay) {
+    long now = System.nanoTime();
+    Entry<K> entry = pending.get(key);
+    boolean replaced = entry != null;
+    if (replaced) {
+      unlink(entry);
+    } else {
+      entry = new Entry<>(key, now);
+      pending.put(key, entry);
+    }
+
+    entry.action = action;
+    long deadline = Math.min(
+        now + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay)),
+        entry.scheduled + TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelay))
+    );
+    // The first tick ending at or after the deadline, and not one already expired.
+    long due = Math.max(tick, (deadline - startNanos + tickNanos - 1) / tickNanos - 1);
+    entry.rounds = (due - tick) / buckets.length;
+    link(entry, (int) (due & (buckets.length - 1)));
+    return replaced;
+  }
+
+  /**
+   * Cancels the pending action of a key.
+   *
+   * @param key The key.
+   *
+   * @return True if an action was pending.
+   */
+  synchronized boolean cancel(K key) {
+    Entry<K> entry = pending.remove(key);
+    if (entry == null) {
+      return false;
+    }
+
+    unlink(entry);
+    return true;
+  }
+
+  /**
+   * Gets the number of pending actions.
+   *
+   * @return The number of pending keys.
+   */
+  synchronized int size() {
+    return pending.size();
+  }
+
+  /**
+   * Stops turning the wheel.
+   *
+   * @return The pending actions, which were not run, in no particular order.
+   */
+  List<Runnable> stop() {
+    Thread stopped;
+    List<Runnable> actions = new ArrayList<>();
+    synchronized (this) {
+      stopped = worker;
+      worker = null;
+      for (Entry<K> entry : pending.values()) {
+        actions.add(entry.action);
+      }
+
+      pending.clear();
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = null;
+      }
+    }
+
+    if (stopped != null) {
+      stopped.interrupt();
+    }
+
+    return actions;
+  }
+
+  /**
+   * Turns the wheel, handing the actions of each tick to the executor once it ends, until
+   * stopped.
+   */
+  private void run() {
+    while (true) {
+      List<Runnable> actions;
+      synchronized (this) {
+        if (worker != Thread.currentThread()) {
+          return;
+        }
+
+        long sleep = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+        if (sleep > 0) {
+          try {
+            TimeUnit.NANOSECONDS.timedWait(this, sleep);
+          } catch (InterruptedException e) {
+            return;
+          }
+
+          continue;
+        }
+
+        actions = expire();
+        tick++;
+      }
+
+      for (Runnable action : actions) {
+        try {
+          executor.execute(() -> {
+            try {
+              action.run();
+            } catch (RuntimeException e) {
+              LOG.error("Scheduled action failed", e);
+            }
+          });
+        } catch (RejectedExecutionException e) {
+          LOG.error("Scheduled action rejected", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes the entries due at the current tick from its bucket, and counts down the turns of
+   * the others.
+   *
+   * @return The actions of the removed entries.
+   */
+  private List<Runnable> expire() {
+    List<Runnable> actions = new ArrayList<>();
+    Entry<K> entry = buckets[(int) (tick & (buckets.length - 1))];
+    while (entry != null) {
+      Entry<K> next = entry.next;
+      if (entry.rounds <= 0) {
+        unlink(entry);
+        pending.remove(entry.key);
+        actions.add(entry.action);
+      } else {
+        entry.rounds--;
+      }
+
+      entry = next;
+    }
+
+    return actions;
+  }
+
+  /**
+   * Links an entry at the head of a bucket.
+   *
+   * @param entry  The entry.
+   * @param bucket The bucket index.
+   */
+  private void link(Entry<K> entry, int bucket) {
+    entry.bucket = bucket;
+    entry.prev = null;
+    entry.next = buckets[bucket];
+    if (entry.next != null) {
+      entry.next.prev = entry;
+    }
+
+    buckets[bucket] = entry;
+  }
+
+  /**
+   * Unlinks an entry from its bucket.
+   *
+   * @param entry The entry.
+   */
+  private void unlink(Entry<K> entry) {
+    if (entry.prev == null) {
+      buckets[entry.bucket] = entry.next;
+    } else {
+      entry.prev.next = entry.next;
+    }
+
+    if (entry.next != null) {
+      entry.next.prev = entry.prev;
+    }
+
+    entry.prev = null;
+    entry.next = null;
+  }
+
+  /**
+   * Pending action of a key, linked into the bucket of the tick it is due at.
+   *
+   * @param <K> The type of the key.
+   */
+  private static final class Entry<K> {
+
+    /**
+     * The key.
+     */
+    final K key;
+
+    /**
+     * Time the key was first scheduled at, in nanoseconds.
+     */
+    final long scheduled;
+
+    /**
+     * The action.
+     */
+    Runnable action;
+
+    /**
+     * Number of full turns of the wheel left before the entry is due.
+     */
+    long rounds;
+
+    /**
+     * Index of the bucket the entry is linked into.
+     */
+    int bucket;
+
+    /**
+     * The previous entry of the bucket. Null at its head.
+     */
+    Entry<K> prev;
+
+    /**
+     * The next entry of the bucket. Null at its tail.
+     */
+    Entry<K> next;
+
+    /**
+     * Constructor.
+     *
+     * @param key       The key.
+     * @param scheduled Time the key was first scheduled at, in nanoseconds.
+     */
+    Entry(K key, long scheduled) {
+      this.key = key;
+      this.scheduled = scheduled;
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Approximate top-K counter using the Space-Saving algorithm.
+ *
+ * <p>At most {@code capacity} keys are tracked. When a new key arrives and every slot is taken, it
+ * replaces the key with the lowest count and inherits that count, so memory stays bounded no
+ * matter how many distinct keys are seen. Keys counted more than {@code total / capacity} times
+ * are guaranteed to be tracked. Not thread safe.
+ */
+class TopK {
+
+  /**
+   * Maximum number of tracked keys.
+   */
+  private final int capacity;
+
+  /**
+   * Counts by key.
+   */
+  private final Map<String, Long> counts = new HashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param capacity Maximum number of tracked keys.
+   */
+  TopK(int capacity) {
+    this.capacity = Math.max(1, capacity);
+  }
+
+  /**
+   * Counts one occurrence of a key.
+   *
+   * @param key The key.
+   */
+  void add(String key) {
+    Long count = counts.get(key);
+    if (count != null) {
+      counts.put(key, count + 1);
+      return;
+    }
+
+    if (counts.size() < capacity) {
+      counts.put(key, 1L);
+      return;
+    }
+
+    String minKey = null;
+    long min = Long.MAX_VALUE;
+    for (Map.Entry<String, Long> entry : counts.entrySet()) {
+      if (entry.getValue() < min) {
+        min = entry.getValue();
+        minKey = entry.getKey();
+      }
+    }
+
+    counts.remove(minKey);
+    counts.put(key, min + 1);
+  }
+
+  /**
+   * Gets the most counted keys.
+   *
+   * @param k The number of keys.
+   *
+   * @return The keys and their counts, most counted first.
+   */
+  List<Map.Entry<String, Long>> top(int k) {
+    List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.entrySet());
+    entries.sort(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder())
+        .thenComparing(Map.Entry.comparingByKey()));
+    return entries.subList(0, Math.min(k, entries.size()));
+  }
+}
@@ -0,0 +1,32 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+/**
+ * Delivers payloads to their destination.
+ */
+interface Transport {
+
+  /**
+   * Sends a payload.
+   *
+   * @param hook    The hook URL.
+   * @param payload The payload to send.
+   *
+   * @return True on success. False on failure.
+   */
+  boolean send(String hook, Payload payload);
+
+  /**
+   * Gets the status code of the last payload sent by the calling thread.
+   *
+   * @return The status code. 0 if the transport has none or no response was received.
+   */
+  default int statusCode() {
+    return 0;
+  }
+
+  /**
+   * Releases the resources held by the transport.
+   */
+  default void close() {
+  }
+}
@@ -0,0 +1,85 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.sonar.api.ce.posttask.QualityGate.EvaluationStatus;
+
+/**
+ * The previous quality gate condition values of a project branch, used to render deltas.
+ */
+class Trend {
+
+  /**
+   * A trend without any history.
+   */
+  static final Trend NONE = new Trend();
+
+  /**
+   * Previous values by metric key.
+   */
+  private final Map<String, Double> values = new HashMap<>();
+
+  /**
+   * Previous statuses by metric key.
+   */
+  private final Map<String, EvaluationStatus> statuses = new HashMap<>();
+
+  /**
+   * Adds the previous state of a metric.
+   *
+   * @param metricKey The metric key.
+   * @param value     The previous value. NaN if it had no numeric value.
+   * @param status    The previous status.
+   */
+  void put(String metricKey, double value, EvaluationStatus status) {
+    values.put(metricKey, value);
+    statuses.put(metricKey, status);
+  }
+
+  /**
+   * Gets the previous value of a metric.
+   *
+   * @param metricKey The metric key.
+   *
+   * @return The previous value. NaN if unknown.
+   */
+  double previousValue(String metricKey) {
+    return values.getOrDefault(metricKey, Double.NaN);
+  }
+
+  /**
+   * Checks if a metric was failing (WARN or ERROR) in the previous analysis.
+   *
+   * @param metricKey The metric key.
+   *
+   * @return True if it was failing. False if it passed or is unknown.
+   */
+  boolean wasFailing(String metricKey) {
+    return isFailing(statuses.get(metricKey));
+  }
+
+  /**
+   * Checks if a metric passed (OK) in the previous analysis.
+   *
+   * @param metricKey The metric key.
+   *
+   * @return True if it passed. False if it failed or is unknown.
+   */
+  boolean wasPassing(String metricKey) {
+    return EvaluationStatus.OK.equals(statuses.get(metricKey));
+  }
+
+  /**
+   * Checks if a condition status is a failure.
+   *
+   * @param status The status.
+   *
+   * @return True if the status is WARN or ERROR.
+   */
+  // WARN is deprecated, but quality gates from before SonarQube 7.6 may still report it.
+  @SuppressWarnings("deprecation")
+  static boolean isFailing(EvaluationStatus status) {
+    return EvaluationStatus.ERROR.equals(status) || EvaluationStatus.WARN.equals(status);
+  }
+}
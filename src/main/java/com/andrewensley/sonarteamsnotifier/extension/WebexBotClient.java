@@ -0,0 +1,329 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.andrewensley.sonarteamsnotifier.domain.Constants;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
+import org.sonar.api.config.Configuration;
+
+/**
+ * Posts payloads through the Webex Messages API as a bot, instead of through an incoming webhook.
+ *
+ * <p>A hook is posted through the API if it is the API's messages URL, with the destination in
+ * its query: {@code roomId}, {@code room} for a room title, or {@code toPersonEmail} for a direct
+ * message. {@code parentId} posts the message as a reply in a thread. Room titles are resolved
+ * by a {@link WebexRoomCache}, so each post is a single call.
+ */
+class WebexBotClient {
+
+  /**
+   * Default base URL of the Webex API.
+   */
+  static final String DEFAULT_API_URL = "https://webexapis.com/v1";
+
+  /**
+   * Default time room IDs are cached for, in seconds.
+   */
+  private static final int DEFAULT_ROOM_TTL = 3600;
+
+  /**
+   * Maximum number of rooms listed per page.
+   */
+  private static final int ROOM_PAGE_SIZE = 1000;
+
+  /**
+   * Link header value of the next page of a listing.
+   */
+  private static final Pattern NEXT_LINK = Pattern.compile("<([^>]+)>;\\s*rel=\"next\"");
+
+  /**
+   * SonarQube settings.
+   */
+  private final Configuration settings;
+
+  /**
+   * Gets the current connection pool of the transport.
+   */
+  private final Supplier<HttpClientPool> pool;
+
+  /**
+   * The base URL of the Webex API, without trailing slash.
+   */
+  private final String apiUrl;
+
+  /**
+   * The IDs of the rooms the bot is in, by title.
+   */
+  private final WebexRoomCache rooms;
+
+  /**
+   * The authorization header and the token it was built from, rebuilt only when the token setting
+   * changes.
+   */
+  private volatile Authorization authorization = new Authorization("");
+
+  /**
+   * Constructor.
+   *
+   * @param settings The SonarQube Configuration settings.
+   * @param pool     Gets the current connection pool of the transport.
+   */
+  private WebexBotClient(Configuration settings, Supplier<HttpClientPool> pool) {
+    this.settings = settings;
+    this.pool = pool;
+    this.apiUrl = settings.get(Constants.BOT_API_URL)
+        .map(String::trim)
+        .filter(url -> !url.isEmpty())
+        .orElse(DEFAULT_API_URL)
+        .replaceAll("/+$", "");
+    this.rooms = new WebexRoomCache(
+        TimeUnit.SECONDS.toMillis(settings.getInt(Constants.BOT_ROOM_TTL).orElse(DEFAULT_ROOM_TTL)),
+        this::listRooms
+    );
+  }
+
+  /**
+   * Creates the client and starts caching room IDs, if a bot token is set.
+   *
+   * @param settings The SonarQube Configuration settings.
+   * @param pool     Gets the current connection pool of the transport.
+   *
+   * @return The client. Empty if no bot token is set.
+   */
+  static Optional<WebexBotClient> of(Configuration settings, Supplier<HttpClientPool> pool) {
+    if (!settings.get(Constants.BOT_TOKEN).filter(value -> !value.trim().isEmpty()).isPresent()) {
+      return Optional.empty();
+    }
+
+    WebexBotClient client = new WebexBotClient(settings, pool);
+    client.rooms.start();
+    return Optional.of(client);
+  }
+
+  /**
+   * Checks if a hook is posted through the Webex Messages API.
+   *
+   * @param hook The hook URL.
+   *
+   * @return True if it is the API's messages URL.
+   */
+  boolean handles(String hook) {
+    return hook.startsWith(messagesUrl() + "?");
+  }
+
+  /**
+   * Posts a payload.
+   *
+   * @param hook    The API's messages URL, with the destination in its query.
+   * @param payload The payload to send.
+   *
+   * @return The HTTP status code.
+   *
+   * @throws IOException If the destination is invalid or the request fails.
+   */
+  int post(String hook, Payload payload) throws IOException {
+    Map<String, String> query = query(hook);
+    JsonObject body = new JsonObject();
+    if (query.containsKey("roomId")) {
+      body.addProperty("roomId", query.get("roomId"));
+    } else if (query.containsKey("room")) {
+      String title = query.get("room");
+      body.addProperty("roomId", rooms.id(title)
+          .orElseThrow(() -> new IOException("Bot is in no Webex room titled [" + title + "]")));
+    } else if (query.containsKey("toPersonEmail")) {
+      body.addProperty("toPersonEmail", query.get("toPersonEmail"));
+    } else {
+      throw new IOException("No roomId, room or toPersonEmail in Webex API hook");
+    }
+
+    if (query.containsKey("parentId")) {
+      body.addProperty("parentId", query.get("parentId"));
+    }
+
+    switch (payload.format) {
+      case WEBEX:
+        body.addProperty("markdown", payload.content);
+        break;
+      case TEXT:
+        body.addProperty("text", payload.content);
+        break;
+      default:
+        throw new IOException("Webex API cannot post " + payload.format.prefix() + " messages");
+    }
+
+    URL url = new URL(messagesUrl());
+    HttpPost post = new HttpPost(url.getFile());
+    post.setHeader(authorization());
+    post.setEntity(new StringEntity(body.toString(), ContentType.APPLICATION_JSON));
+    return pool.get().execute(url, post, response -> {
+      // Consume the body so the connection goes back to the pool.
+      EntityUtils.consume(response.getEntity());
+      return response.getStatusLine().getStatusCode();
+    });
+  }
+
+  /**
+   * Stops caching room IDs.
+   */
+  void close() {
+    rooms.close();
+  }
+
+  /**
+   * Lists the rooms the bot is in, following the pages of the listing.
+   *
+   * @return The room IDs, by title. The first room of each title.
+   *
+   * @throws IOException If a page cannot be listed, or is linked on another host.
+   */
+  private Map<String, String> listRooms() throws IOException {
+    Map<String, String> ids = new LinkedHashMap<>();
+    URL api = new URL(apiUrl);
+    String next = apiUrl + "/rooms?max=" + ROOM_PAGE_SIZE;
+    while (next != null) {
+      URL url = new URL(next);
+      // The bot token is sent with each page, so it must not follow a link off the API's host.
+      if (!url.getProtocol().equals(api.getProtocol())
+          || !url.getAuthority().equalsIgnoreCase(api.getAuthority())) {
+        throw new IOException("Webex API linked the next page of rooms on another host ["
+            + url.getHost() + "]");
+      }
+
+      HttpGet get = new HttpGet(url.getFile());
+      get.setHeader(authorization());
+      get.setHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.getMimeType());
+      next = pool.get().execute(url, get, response -> {
+        String json = EntityUtils.toString(response.getEntity(), UTF_8);
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode != 200) {
+          throw new IOException("Webex API answered HTTP " + statusCode + " listing rooms");
+        }
+
+        try {
+          for (JsonElement item : new JsonParser().parse(json).getAsJsonObject()
+              .getAsJsonArray("items")) {
+            JsonObject room = item.getAsJsonObject();
+            ids.putIfAbsent(room.get("title").getAsString(), room.get("id").getAsString());
+          }
+        } catch (JsonParseException | IllegalStateException | NullPointerException e) {
+          throw new IOException("Invalid Webex room listing", e);
+        }
+
+        Header link = response.getFirstHeader("Link");
+        Matcher matcher = link == null ? null : NEXT_LINK.matcher(link.getValue());
+        return matcher != null && matcher.find() ? matcher.group(1) : null;
+      });
+    }
+
+    return ids;
+  }
+
+  /**
+   * Gets the authorization header of the bot token.
+   *
+   * @return The header, built once per token.
+   */
+  private Header authorization() {
+    String token = settings.get(Constants.BOT_TOKEN).map(String::trim).orElse("");
+    Authorization current = authorization;
+    if (!token.equals(current.token)) {
+      current = new Authorization(token);
+      authorization = current;
+    }
+
+    return current.header;
+  }
+
+  /**
+   * Gets the URL of the Messages API.
+   *
+   * @return The URL.
+   */
+  private String messagesUrl() {
+    return apiUrl + "/messages";
+  }
+
+  /**
+   * Parses the query of a hook.
+   *
+   * @param hook The hook URL.
+   *
+   * @return The decoded parameters.
+   *
+   * @throws MalformedURLException If the hook is not a valid URL.
+   */
+  private static Map<String, String> query(String hook) throws MalformedURLException {
+    Map<String, String> params = new LinkedHashMap<>();
+    String query = new URL(hook).getQuery();
+    if (query == null) {
+      return params;
+    }
+
+    try {
+      for (String param : query.split("&")) {
+        int equals = param.indexOf('=');
+        if (equals > 0) {
+          params.put(
+              URLDecoder.decode(param.substring(0, equals), UTF_8.name()),
+              URLDecoder.decode(param.substring(equals + 1), UTF_8.name())
+          );
+        }
+      }
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+
+    return params;
+  }
+
+  /**
+   * An authorization header and the token it was built from, read and replaced together.
+   */
+  private static final class Authorization {
+
+    /**
+     * The bot token.
+     */
+    private final String token;
+
+    /**
+     * The authorization header of the token.
+     */
+    private final Header header;
+
+    /**
+     * Constructor.
+     *
+     * @param token The bot token.
+     */
+    private Authorization(String token) {
+      this.token = token;
+      this.header = new BasicHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token);
+    }
+  }
+}
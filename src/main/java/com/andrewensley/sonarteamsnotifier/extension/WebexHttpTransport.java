@@ -0,0 +1,267 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import com.andrewensley.sonarteamsnotifier.domain.Constants;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.pool.PoolStats;
+import org.sonar.api.config.Configuration;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Transport posting payloads to WebEx Teams incoming webhooks, or through the Webex Messages API
+ * as a bot if a bot token is set.
+ */
+class WebexHttpTransport implements Transport {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Loggers.get(WebexHttpTransport.class);
+
+  /**
+   * Time between checks of the HTTP settings for changes, in nanoseconds.
+   */
+  private static final long SETTINGS_CHECK_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+  /**
+   * Time a replaced pool is kept open for posts that already got it, in nanoseconds. It is closed
+   * after this once its connections are all released, or after twice this regardless.
+   */
+  private static final long RETIRE_GRACE = TimeUnit.SECONDS.toNanos(30);
+
+  /**
+   * SonarQube settings.
+   */
+  private final Configuration settings;
+
+  /**
+   * The resolver of hook and proxy hosts, kept across pool rebuilds.
+   */
+  private final DnsResolver dnsResolver;
+
+  /**
+   * The connection pool shared by all posts. Rebuilt when the HTTP settings change.
+   */
+  private volatile HttpClientPool pool;
+
+  /**
+   * When the HTTP settings were last checked for changes, from {@link System#nanoTime()}.
+   */
+  private volatile long settingsCheckedAt;
+
+  /**
+   * Pools replaced after a settings change and not closed yet, with when they were replaced.
+   * Guarded by this transport's lock.
+   */
+  private final Map<HttpClientPool, Long> retired = new LinkedHashMap<>();
+
+  /**
+   * HTTP status code of the last post of each thread.
+   */
+  private final ThreadLocal<Integer> statusCode = ThreadLocal.withInitial(() -> 0);
+
+  /**
+   * The client of the Webex Messages API. Empty if no bot token is set.
+   */
+  private final Optional<WebexBotClient> bot;
+
+  /**
+   * Constructor.
+   *
+   * @param settings    The SonarQube Configuration settings.
+   * @param dnsResolver The resolver of hook and proxy hosts.
+   */
+  WebexHttpTransport(Configuration settings, DnsResolver dnsResolver) {
+    this.settings = settings;
+    this.dnsResolver = dnsResolver;
+    this.bot = WebexBotClient.of(settings, this::pool);
+  }
+
+  /**
+   * Posts a payload to the webhook.
+   *
+   * @param hook    The hook URL.
+   * @param payload The payload to send.
+   *
+   * @return True on success. False on failure.
+   */
+  @Override
+  public boolean send(String hook, Payload payload) {
+    statusCode.set(0);
+    if (bot.isPresent() && bot.get().handles(hook)) {
+      return sendAsBot(bot.get(), hook, payload);
+    }
+
+    try {
+      TeamsHttpClient httpClient = TeamsHttpClient
+          .of(hook, payload)
+          .bypassHttpsValidation(isBypassEnabled())
+          .proxy(settings.get(Constants.PROXY_IP), settings.getInt(Constants.PROXY_PORT))
+          .proxyAuth(settings.get(Constants.PROXY_USER), settings.get(Constants.PROXY_PASS))
+          .pool(pool())
+          .build();
+      boolean success = httpClient.post();
+      statusCode.set(httpClient.statusCode());
+      return success;
+    } catch (Exception e) {
+      LOG.error("Failed to send teams message", e);
+    }
+
+    return false;
+  }
+
+  /**
+   * Posts a payload through the Webex Messages API.
+   *
+   * @param client  The client of the Webex Messages API.
+   * @param hook    The API's messages URL, with the destination in its query.
+   * @param payload The payload to send.
+   *
+   * @return True on success. False on failure.
+   */
+  private boolean sendAsBot(WebexBotClient client, String hook, Payload payload) {
+    try {
+      int responseCode = client.post(hook, payload);
+      statusCode.set(responseCode);
+      if (responseCode < 200 || responseCode > 299) {
+        LOG.error("Failed to send teams message through the Webex API: HTTP {}", responseCode);
+        return false;
+      }
+
+      LOG.info("POST Successful!");
+      return true;
+    } catch (IOException e) {
+      LOG.error("Failed to send teams message through the Webex API", e);
+    }
+
+    return false;
+  }
+
+  /**
+   * Gets the HTTP status code of the last post of the calling thread.
+   *
+   * @return The status code. 0 if no response was received.
+   */
+  @Override
+  public int statusCode() {
+    return statusCode.get();
+  }
+
+  /**
+   * Opens pooled connections to the given hooks' hosts and initializes the payload serializer, so
+   * the first notifications do not pay for it.
+   *
+   * @param hooks URLs on the hosts to warm up.
+   */
+  void warmUp(Collection<String> hooks) {
+    new Payload("").toJson();
+    HttpClientPool currentPool = pool();
+    for (String hook : hooks) {
+      try {
+        currentPool.warmUp(new URL(hook));
+      } catch (MalformedURLException e) {
+        LOG.warn("Unable to warm up connection to [{}]: {}", hook, e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Closes the connection pool.
+   */
+  @Override
+  public synchronized void close() {
+    bot.ifPresent(WebexBotClient::close);
+    retired.keySet().forEach(HttpClientPool::close);
+    retired.clear();
+    if (pool != null) {
+      pool.close();
+      pool = null;
+    }
+  }
+
+  /**
+   * Gets the state of the connection pool, without opening one.
+   *
+   * @return The pool state, if a pool is open.
+   */
+  synchronized Optional<PoolStats> poolStats() {
+    return pool == null ? Optional.empty() : Optional.of(pool.stats());
+  }
+
+  /**
+   * Gets the connection pool, rebuilding it if the HTTP settings changed since it was built.
+   *
+   * <p>The settings are checked at most once per {@link #SETTINGS_CHECK_INTERVAL}, and only then
+   * is the lock taken, so posts do not contend on it.
+   *
+   * @return The connection pool.
+   */
+  HttpClientPool pool() {
+    HttpClientPool current = pool;
+    if (current != null && System.nanoTime() - settingsCheckedAt < SETTINGS_CHECK_INTERVAL) {
+      return current;
+    }
+
+    return checkedPool();
+  }
+
+  /**
+   * Gets the connection pool after checking the HTTP settings, rebuilding it if they changed.
+   *
+   * @return The connection pool.
+   */
+  private synchronized HttpClientPool checkedPool() {
+    long now = System.nanoTime();
+    if (pool == null || !pool.matches(settings)) {
+      if (pool != null) {
+        LOG.info("Teams HTTP settings changed. Rebuilding connection pool.");
+        // Posts may still be using the old pool: close it once they are done.
+        retired.put(pool, now);
+      }
+
+      pool = HttpClientPool.of(settings, dnsResolver);
+    }
+
+    settingsCheckedAt = now;
+    closeRetired(now);
+    return pool;
+  }
+
+  /**
+   * Closes the replaced pools whose posts are done, or that were replaced long enough ago.
+   *
+   * @param now The current time, from {@link System#nanoTime()}.
+   */
+  private void closeRetired(long now) {
+    Iterator<Map.Entry<HttpClientPool, Long>> iterator = retired.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<HttpClientPool, Long> entry = iterator.next();
+      long age = now - entry.getValue();
+      if (age >= 2 * RETIRE_GRACE
+          || (age >= RETIRE_GRACE && entry.getKey().stats().getLeased() == 0)) {
+        entry.getKey().close();
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Checks if the HTTPS Validation Bypass is enabled.
+   *
+   * @return True if enabled. False if not.
+   */
+  private boolean isBypassEnabled() {
+    return settings.getBoolean(Constants.BYPASS_HTTPS_VALIDATION).orElse(false);
+  }
+}
@@ -0,0 +1,164 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Room IDs of the Webex rooms a bot is in, by room title.
+ *
+ * <p>Every room is listed at once, in the background, and listed again after half the TTL, so
+ * posts find the room they need without an extra call. Rooms are forgotten if they could not be
+ * listed again within the TTL. A room missing from the cache, such as one the bot just joined,
+ * causes a synchronous listing, at most once per {@link #MIN_MISS_INTERVAL}.
+ */
+class WebexRoomCache {
+
+  /**
+   * Logger.
+   */
+  private static final Logger LOG = Loggers.get(WebexRoomCache.class);
+
+  /**
+   * Minimum time between listings caused by rooms missing from the cache, in milliseconds.
+   */
+  private static final long MIN_MISS_INTERVAL = 60000;
+
+  /**
+   * Time room IDs are kept for without being listed again, in milliseconds.
+   */
+  private final long ttl;
+
+  /**
+   * Lists the rooms: their IDs by title.
+   */
+  private final Callable<Map<String, String>> loader;
+
+  /**
+   * The room IDs, by title.
+   */
+  private volatile Map<String, String> rooms = Collections.emptyMap();
+
+  /**
+   * Time the rooms were last listed at, in milliseconds. 0 if they never were.
+   */
+  private volatile long loadedAt;
+
+  /**
+   * Lock held while listing the rooms.
+   */
+  private final Object listing = new Object();
+
+  /**
+   * Time of the last listing caused by a missing room, in milliseconds.
+   */
+  private long lastMiss;
+
+  /**
+   * Lists the rooms again in the background. Null until started.
+   */
+  private ScheduledExecutorService refresher;
+
+  /**
+   * Constructor.
+   *
+   * @param ttl    Time room IDs are kept for without being listed again, in milliseconds.
+   * @param loader Lists the rooms: their IDs by title.
+   */
+  WebexRoomCache(long ttl, Callable<Map<String, String>> loader) {
+    this.ttl = Math.max(1000, ttl);
+    this.loader = loader;
+  }
+
+  /**
+   * Starts listing the rooms in the background, now and after every half TTL.
+   */
+  synchronized void start() {
+    if (refresher != null) {
+      return;
+    }
+
+    refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "teams-notifier-webex-rooms");
+      thread.setDaemon(true);
+      return thread;
+    });
+    refresher.scheduleWithFixedDelay(this::refresh, 0, ttl / 2, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Gets the ID of a room.
+   *
+   * @param title The room title.
+   *
+   * @return The room ID, if the bot is in a room with that title.
+   */
+  Optional<String> id(String title) {
+    Optional<String> id = cached(title);
+    if (id.isPresent()) {
+      return id;
+    }
+
+    synchronized (listing) {
+      // Another thread may have listed the rooms in the meantime.
+      id = cached(title);
+      long now = System.currentTimeMillis();
+      if (!id.isPresent() && now - lastMiss >= MIN_MISS_INTERVAL) {
+        lastMiss = now;
+        LOG.debug("Webex room [{}] not cached. Listing rooms.", title);
+        refresh();
+        id = cached(title);
+      }
+    }
+
+    return id;
+  }
+
+  /**
+   * Stops listing the rooms in the background.
+   */
+  synchronized void close() {
+    if (refresher != null) {
+      refresher.shutdownNow();
+      refresher = null;
+    }
+  }
+
+  /**
+   * Gets the cached ID of a room, unless the rooms were listed more than the TTL ago.
+   *
+   * @param title The room title.
+   *
+   * @return The room ID, if cached.
+   */
+  private Optional<String> cached(String title) {
+    if (System.currentTimeMillis() - loadedAt >= ttl) {
+      return Optional.empty();
+    }
+
+    return Optional.ofNullable(rooms.get(title));
+  }
+
+  /**
+   * Lists the rooms, keeping the previous ones if they cannot be listed. Posts missing a room wait
+   * for the listing in progress instead of starting another one.
+   */
+  private void refresh() {
+    synchronized (listing) {
+      try {
+        rooms = loader.call();
+        loadedAt = System.currentTimeMillis();
+        LOG.debug("Cached the IDs of {} Webex room(s)", rooms.size());
+      } catch (Exception e) {
+        LOG.warn("Unable to list Webex rooms: {}", e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,194 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.sonar.api.config.Configuration;
+
+/**
+ * Probes a hook through a connection pool configured like the one notifications are posted
+ * through, timing each phase of the request.
+ *
+ * <p>The probe sends a HEAD request, so nothing is posted to the hook. Its connection is never
+ * reused, so DNS, connect and TLS are always measured. Hosts are resolved by a resolver
+ * configured like the notifications' one, with an empty cache, then resolved again to measure
+ * a cached lookup.
+ */
+class WebhookProbe {
+
+  /**
+   * Connect and read timeout of probes, in milliseconds.
+   */
+  private static final int TIMEOUT = 5000;
+
+  /**
+   * SonarQube settings.
+   */
+  private final Configuration settings;
+
+  /**
+   * Constructor.
+   *
+   * @param settings The SonarQube Configuration settings.
+   */
+  WebhookProbe(Configuration settings) {
+    this.settings = settings;
+  }
+
+  /**
+   * Probes a hook.
+   *
+   * @param hook The hook URL.
+   *
+   * @return The probe result. Failures are reported in it, never thrown.
+   */
+  Result probe(URL hook) {
+    Result result = new Result();
+    result.target = RecentHosts.baseUrl(hook.toString());
+    ProbeTimings timings = new ProbeTimings();
+    long start = 0;
+    DnsResolver dnsResolver = NotificationSender.createDnsResolver(settings);
+    try (HttpClientPool pool = HttpClientPool.probe(settings, dnsResolver, timings)) {
+      int port = hook.getPort() == -1 ? hook.getDefaultPort() : hook.getPort();
+      HttpHost target = new HttpHost(hook.getHost(), port, hook.getProtocol());
+      pool.addTargetCredentials(hook.getHost(), port);
+      HttpHead head = new HttpHead(hook.getFile().isEmpty() ? "/" : hook.getFile());
+      RequestConfig.Builder config = RequestConfig.custom()
+          .setConnectTimeout(TIMEOUT)
+          .setSocketTimeout(TIMEOUT);
+      pool.proxy().ifPresent(config::setProxy);
+      result.proxied = pool.proxy().isPresent();
+      head.setConfig(config.build());
+      // The pool is built by now, so its setup is not counted in any phase.
+      start = System.nanoTime();
+      try (CloseableHttpResponse response = pool.client().execute(target, head)) {
+        result.firstByteMs = TimeUnit.NANOSECONDS.toMillis(
+            System.nanoTime() - start - timings.totalNanos());
+        result.status = response.getStatusLine().getStatusCode();
+        EntityUtils.consume(response.getEntity());
+      } catch (IOException e) {
+        result.error = e.getClass().getSimpleName() + ": " + e.getMessage();
+      }
+
+      result.pool = pool(pool.stats());
+      result.cachedDnsMs = cachedDnsMillis(
+          dnsResolver, pool.proxy().map(HttpHost::getHostName).orElse(hook.getHost()));
+    } finally {
+      if (dnsResolver instanceof CachingDnsResolver) {
+        ((CachingDnsResolver) dnsResolver).close();
+      }
+    }
+
+    result.totalMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    result.dnsMs = timings.dnsMillis();
+    result.connectMs = timings.connectMillis();
+    result.tlsMs = timings.tlsMillis();
+    return result;
+  }
+
+  /**
+   * Times a lookup of a host already resolved by the probe.
+   *
+   * @param dnsResolver The resolver of the probe.
+   * @param host        The host.
+   *
+   * @return The time, in milliseconds. -1 if the host cannot be resolved.
+   */
+  private static long cachedDnsMillis(DnsResolver dnsResolver, String host) {
+    long start = System.nanoTime();
+    try {
+      dnsResolver.resolve(host);
+      return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    } catch (UnknownHostException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Converts the state of a connection pool.
+   *
+   * @param stats The pool state.
+   *
+   * @return The reported pool state.
+   */
+  static DeliveryState.Pool pool(PoolStats stats) {
+    DeliveryState.Pool pool = new DeliveryState.Pool();
+    pool.leased = stats.getLeased();
+    pool.available = stats.getAvailable();
+    pool.pending = stats.getPending();
+    pool.max = stats.getMax();
+    return pool;
+  }
+
+  /**
+   * The result of a probe.
+   */
+  static final class Result {
+
+    /**
+     * The base URL of the probed hook. Its path is never reported, as it is a secret.
+     */
+    String target;
+
+    /**
+     * Whether the probe went through the proxy.
+     */
+    boolean proxied;
+
+    /**
+     * The HTTP status code. 0 if no response was received.
+     */
+    int status;
+
+    /**
+     * The error, if the request failed.
+     */
+    String error;
+
+    /**
+     * Time spent resolving the hook's host, or the proxy's, in milliseconds.
+     */
+    long dnsMs;
+
+    /**
+     * Time spent resolving the same host again, in milliseconds, as notifications do while the
+     * DNS cache holds its answer. -1 if it cannot be resolved.
+     */
+    long cachedDnsMs;
+
+    /**
+     * Time spent opening the TCP connection, in milliseconds.
+     */
+    long connectMs;
+
+    /**
+     * Time spent negotiating TLS, in milliseconds.
+     */
+    long tlsMs;
+
+    /**
+     * Time from the connection being ready to the response headers, in milliseconds. It includes
+     * the proxy tunnel setup, if any.
+     */
+    long firstByteMs;
+
+    /**
+     * Total time of the probe, in milliseconds.
+     */
+    long totalMs;
+
+    /**
+     * State of the probe's connection pool after the request.
+     */
+    DeliveryState.Pool pool;
+  }
+}
@@ -0,0 +1,118 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class AdaptiveLimitTest {
+
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private static final long SLOW = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  void staysFixedWithoutRoomAboveTheInitialLimit() {
+    AdaptiveLimit limit = new AdaptiveLimit(4, 4);
+
+    assertThat(limit.isAdaptive()).isFalse();
+    assertThat(limit.record(System.nanoTime(), FAST, false, 503, true)).isFalse();
+    assertThat(limit.get()).isEqualTo(4);
+  }
+
+  @Test
+  void increasesAdditivelyWhileLimitedUpToTheMaximum() {
+    AdaptiveLimit limit = new AdaptiveLimit(1, 4);
+
+    limit.record(System.nanoTime(), FAST, true, 200, true);
+    assertThat(limit.get()).isEqualTo(2);
+    limit.record(System.nanoTime(), FAST, true, 200, true);
+    assertThat(limit.get()).isEqualTo(2);
+    limit.record(System.nanoTime(), FAST, true, 200, true);
+    assertThat(limit.get()).isEqualTo(2);
+    limit.record(System.nanoTime(), FAST, true, 200, true);
+    assertThat(limit.get()).isEqualTo(3);
+
+    for (int i = 0; i < 100; i++) {
+      limit.record(System.nanoTime(), FAST, true, 200, true);
+    }
+
+    assertThat(limit.get()).isEqualTo(4);
+  }
+
+  @Test
+  void doesNotIncreaseWhenTheLimitWasNotReached() {
+    AdaptiveLimit limit = new AdaptiveLimit(2, 8);
+    for (int i = 0; i < 100; i++) {
+      limit.record(System.nanoTime(), FAST, true, 200, false);
+    }
+
+    assertThat(limit.get()).isEqualTo(2);
+  }
+
+  @Test
+  void halvesOnCongestionDownToOne() {
+    AdaptiveLimit limit = new AdaptiveLimit(8, 16);
+
+    assertThat(limit.record(System.nanoTime(), FAST, false, 429, true)).isTrue();
+    assertThat(limit.get()).isEqualTo(4);
+    assertThat(limit.record(System.nanoTime(), FAST, false, 503, true)).isTrue();
+    assertThat(limit.get()).isEqualTo(2);
+    assertThat(limit.record(System.nanoTime(), SLOW, false, 0, true)).isTrue();
+    assertThat(limit.get()).isEqualTo(1);
+    assertThat(limit.record(System.nanoTime(), FAST, false, 504, true)).isTrue();
+    assertThat(limit.get()).isEqualTo(1);
+  }
+
+  @Test
+  void decreasesOnceForPostsStartedBeforeTheLastDecrease() {
+    AdaptiveLimit limit = new AdaptiveLimit(8, 16);
+    long start = System.nanoTime();
+
+    assertThat(limit.record(start, FAST, false, 503, true)).isTrue();
+    assertThat(limit.record(start, FAST, false, 503, true)).isFalse();
+    assertThat(limit.get()).isEqualTo(4);
+  }
+
+  @Test
+  void ignoresFailuresOfTheHookItself() {
+    AdaptiveLimit limit = new AdaptiveLimit(4, 8);
+
+    assertThat(limit.record(System.nanoTime(), FAST, false, 400, true)).isFalse();
+    assertThat(limit.record(System.nanoTime(), FAST, false, 404, true)).isFalse();
+    assertThat(limit.get()).isEqualTo(4);
+  }
+
+  @Test
+  void decreasesWhenLatencyRisesWellAboveItsBaseline() {
+    AdaptiveLimit limit = new AdaptiveLimit(8, 16);
+    for (int i = 0; i < 20; i++) {
+      assertThat(limit.record(System.nanoTime(), FAST, true, 200, false)).isFalse();
+    }
+
+    int slowPosts = 0;
+    boolean decreased = false;
+    while (!decreased && slowPosts < 10) {
+      decreased = limit.record(System.nanoTime(), SLOW, true, 200, false);
+      slowPosts++;
+    }
+
+    assertThat(decreased).isTrue();
+    assertThat(slowPosts).isLessThanOrEqualTo(3);
+    assertThat(limit.get()).isEqualTo(4);
+  }
+
+  @Test
+  void toleratesSmallLatencyIncreases() {
+    AdaptiveLimit limit = new AdaptiveLimit(8, 16);
+    long fastest = TimeUnit.MILLISECONDS.toNanos(10);
+    long slower = TimeUnit.MILLISECONDS.toNanos(200);
+    limit.record(System.nanoTime(), fastest, true, 200, false);
+    for (int i = 0; i < 20; i++) {
+      assertThat(limit.record(System.nanoTime(), slower, true, 200, false)).isFalse();
+    }
+
+    assertThat(limit.get()).isEqualTo(8);
+  }
+}
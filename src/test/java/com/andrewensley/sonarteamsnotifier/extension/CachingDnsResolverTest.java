@@ -0,0 +1,137 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class CachingDnsResolverTest {
+
+  private static final String HOST = "hooks.example.com";
+
+  private final AtomicInteger lookups = new AtomicInteger();
+
+  private volatile InetAddress answer;
+
+  private CachingDnsResolver resolver;
+
+  @AfterEach
+  void close() {
+    resolver.close();
+  }
+
+  @Test
+  void servesCachedAnswers() throws Exception {
+    answer = address(1);
+    resolver = resolver();
+
+    assertThat(resolver.resolve(HOST)).containsExactly(address(1));
+    assertThat(resolver.resolve(HOST)).containsExactly(address(1));
+    assertThat(lookups.get()).isEqualTo(1);
+  }
+
+  @Test
+  void cachesUnknownHostsForTheNegativeTtl() throws Exception {
+    resolver = resolver();
+
+    assertThatThrownBy(() -> resolver.resolve(HOST)).isInstanceOf(UnknownHostException.class);
+    answer = address(1);
+    assertThatThrownBy(() -> resolver.resolve(HOST)).isInstanceOf(UnknownHostException.class)
+        .hasMessageContaining("cached");
+    assertThat(lookups.get()).isEqualTo(1);
+
+    TimeUnit.MILLISECONDS.sleep(1100);
+    assertThat(resolver.resolve(HOST)).containsExactly(address(1));
+    assertThat(lookups.get()).isEqualTo(2);
+  }
+
+  @Test
+  void refreshesAnswersInTheBackgroundPast80PercentOfTheirTtl() throws Exception {
+    answer = address(1);
+    resolver = resolver();
+    resolver.resolve(HOST);
+
+    TimeUnit.MILLISECONDS.sleep(850);
+    answer = address(2);
+    assertThat(resolver.resolve(HOST)).containsExactly(address(1));
+
+    assertThat(awaitAnswer(address(2))).isTrue();
+    assertThat(lookups.get()).isEqualTo(2);
+  }
+
+  @Test
+  void servesTheStaleAnswerWhenTheRefreshFails() throws Exception {
+    answer = address(1);
+    resolver = resolver();
+    resolver.resolve(HOST);
+
+    TimeUnit.MILLISECONDS.sleep(850);
+    answer = null;
+    assertThat(resolver.resolve(HOST)).containsExactly(address(1));
+    awaitLookups(2);
+
+    // Past the TTL of the first answer, but not yet time to retry the refresh.
+    TimeUnit.MILLISECONDS.sleep(300);
+    assertThat(resolver.resolve(HOST)).containsExactly(address(1));
+    assertThat(lookups.get()).isEqualTo(2);
+  }
+
+  @Test
+  void servesTheStaleAnswerWhenResolvingAnExpiredAnswerFails() throws Exception {
+    answer = address(1);
+    resolver = resolver();
+    resolver.resolve(HOST);
+
+    TimeUnit.MILLISECONDS.sleep(1100);
+    answer = null;
+
+    assertThat(resolver.resolve(HOST)).containsExactly(address(1));
+    assertThat(resolver.resolve(HOST)).containsExactly(address(1));
+    assertThat(lookups.get()).isEqualTo(2);
+  }
+
+  private CachingDnsResolver resolver() {
+    return new CachingDnsResolver(host -> {
+      lookups.incrementAndGet();
+      InetAddress current = answer;
+      if (current == null) {
+        throw new UnknownHostException(host);
+      }
+
+      return new InetAddress[] {current};
+    }, 1, 1);
+  }
+
+  private boolean awaitAnswer(InetAddress expected) throws Exception {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (System.nanoTime() < deadline) {
+      if (resolver.resolve(HOST)[0].equals(expected)) {
+        return true;
+      }
+
+      TimeUnit.MILLISECONDS.sleep(5);
+    }
+
+    return false;
+  }
+
+  private void awaitLookups(int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (lookups.get() < count && System.nanoTime() < deadline) {
+      TimeUnit.MILLISECONDS.sleep(5);
+    }
+
+    // The failed refresh replaces the entry right after the lookup.
+    TimeUnit.MILLISECONDS.sleep(50);
+  }
+
+  private static InetAddress address(int last) throws UnknownHostException {
+    return InetAddress.getByAddress(HOST, new byte[] {10, 0, 0, (byte) last});
+  }
+}
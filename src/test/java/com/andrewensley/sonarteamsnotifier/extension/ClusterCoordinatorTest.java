@@ -0,0 +1,164 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.andrewensley.sonarteamsnotifier.domain.Constants;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sonar.api.ce.posttask.QualityGate;
+import org.sonar.api.config.internal.MapSettings;
+
+class ClusterCoordinatorTest {
+
+  private static final String HOOK = "https://hooks.example.com/webhook/s3cr3t-t0k3n";
+
+  @TempDir
+  Path sharedDir;
+
+  private final List<ClusterCoordinator> nodes = new ArrayList<>();
+
+  @AfterEach
+  void stopNodes() {
+    nodes.forEach(ClusterCoordinator::stop);
+  }
+
+  @Test
+  void handsSpooledNotificationsOverToANodeKnowingTheHook() throws Exception {
+    RecordingDispatcher first = new RecordingDispatcher();
+    RecordingDispatcher second = new RecordingDispatcher();
+    RecordingDispatcher stranger = new RecordingDispatcher();
+    // The first node only polls when it spools, so what it leaves behind stays on disk.
+    ClusterCoordinator owner = start(first, 60_000);
+    ClusterCoordinator peer = start(second, 50);
+    start(stranger, 50);
+
+    owner.submit(notification("first"));
+    await(() -> first.contents().contains("first"));
+
+    peer.submit(notification("second"));
+    TimeUnit.MILLISECONDS.sleep(300);
+    assertThat(second.contents()).isEmpty();
+    List<String> spooled = spooledFiles();
+    assertThat(spooled).hasSize(1);
+    assertThat(spooled.get(0))
+        .contains(ClusterCoordinator.hookId(HOOK))
+        .doesNotContain("s3cr3t-t0k3n")
+        .doesNotContain("hooks.example.com");
+
+    owner.stop();
+    nodes.remove(owner);
+    await(() -> second.contents().contains("second"));
+
+    assertThat(second.notifications).allMatch(notification -> HOOK.equals(notification.hook));
+    assertThat(first.contents()).containsExactly("first");
+    assertThat(stranger.notifications).isEmpty();
+    assertThat(spooledFiles()).isEmpty();
+  }
+
+  @Test
+  void leavesHooksItDoesNotKnowSpooled() throws Exception {
+    RecordingDispatcher spooler = new RecordingDispatcher();
+    RecordingDispatcher stranger = new RecordingDispatcher();
+    ClusterCoordinator node = start(spooler, 60_000);
+    start(stranger, 50);
+    node.submit(notification("first"));
+    await(() -> spooler.contents().contains("first"));
+    node.stop();
+    nodes.remove(node);
+
+    Files.write(sharedDir.resolve(ClusterCoordinator.hookId(HOOK)).resolve("spool")
+        .resolve("000000000000001-orphan.json"), spoolEntry("orphan").getBytes(UTF_8));
+    TimeUnit.MILLISECONDS.sleep(300);
+
+    assertThat(stranger.notifications).isEmpty();
+    assertThat(spooledFiles()).hasSize(1);
+  }
+
+  @Test
+  void leavesNotificationsSubmittedWhileStoppingSpooled() throws Exception {
+    RecordingDispatcher dispatcher = new RecordingDispatcher();
+    ClusterCoordinator node = start(dispatcher, 60_000);
+    node.stop();
+    nodes.remove(node);
+
+    node.submit(notification("late"));
+
+    assertThat(dispatcher.notifications).isEmpty();
+    assertThat(spooledFiles()).hasSize(1);
+  }
+
+  private ClusterCoordinator start(RecordingDispatcher dispatcher, int pollInterval) {
+    ClusterCoordinator node = new ClusterCoordinator(new MapSettings()
+        .setProperty(Constants.CLUSTER_DIR, sharedDir.toString())
+        .setProperty(Constants.CLUSTER_POLL_INTERVAL, pollInterval)
+        .asConfig(), dispatcher);
+    node.start();
+    nodes.add(node);
+    return node;
+  }
+
+  private static Notification notification(String content) {
+    return new Notification(HOOK, new Payload(MessageFormat.TEXT, content),
+        TestAnalyses.main(QualityGate.Status.ERROR));
+  }
+
+  private static String spoolEntry(String content) {
+    return "{\"hookId\":\"" + ClusterCoordinator.hookId(HOOK) + "\",\"format\":\"TEXT\","
+        + "\"content\":\"" + content + "\",\"snapshot\":\""
+        + notification(content).encodedSnapshot() + "\"}";
+  }
+
+  private List<String> spooledFiles() throws IOException {
+    Path spool = sharedDir.resolve(ClusterCoordinator.hookId(HOOK)).resolve("spool");
+    try (Stream<Path> files = Files.list(spool)) {
+      List<String> contents = new ArrayList<>();
+      for (Path file : files.collect(Collectors.toList())) {
+        contents.add(new String(Files.readAllBytes(file), UTF_8));
+      }
+
+      return contents;
+    }
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.getAsBoolean()) {
+      assertThat(System.nanoTime()).as("Timed out").isLessThan(deadline);
+      TimeUnit.MILLISECONDS.sleep(20);
+    }
+  }
+
+  private static class RecordingDispatcher extends NotificationDispatcher {
+
+    final List<Notification> notifications = new CopyOnWriteArrayList<>();
+
+    RecordingDispatcher() {
+      super(new MapSettings().asConfig(), null, null);
+    }
+
+    @Override
+    void submit(Notification notification) {
+      notifications.add(notification);
+    }
+
+    List<String> contents() {
+      return notifications.stream()
+          .map(notification -> notification.payload.content)
+          .collect(Collectors.toList());
+    }
+  }
+}
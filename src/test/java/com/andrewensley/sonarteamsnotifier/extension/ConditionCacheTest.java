@@ -0,0 +1,122 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static com.andrewensley.sonarteamsnotifier.extension.TestAnalyses.condition;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.sonar.api.ce.posttask.Branch;
+import org.sonar.api.ce.posttask.QualityGate;
+import org.sonar.api.ce.posttask.QualityGate.EvaluationStatus;
+
+class ConditionCacheTest {
+
+  /**
+   * A catalog of its own, so sections cached by other tests are never hit.
+   */
+  private final MetricCatalog metrics = new MetricCatalog();
+
+  private long hits;
+
+  private long misses;
+
+  @BeforeEach
+  void readCounters() {
+    hits = ConditionCache.shared().counters().get("hits");
+    misses = ConditionCache.shared().counters().get("misses");
+  }
+
+  @Test
+  void reusesTheSectionOfIdenticalGates() {
+    ConditionSection first = section(failingGate("main"), false, Trend.NONE);
+    ConditionSection second = section(failingGate("main"), false, Trend.NONE);
+
+    assertThat(second).isSameAs(first);
+    assertCounted(1, 1);
+  }
+
+  @Test
+  void reusesTheSectionAcrossBranchesAndProjects() {
+    ConditionSection first = section(failingGate("main"), false, Trend.NONE);
+    ConditionSection second = section(TestAnalyses.snapshot("other", "feature/x", false,
+        Branch.Type.SHORT, QualityGate.Status.ERROR,
+        condition("new_coverage", EvaluationStatus.ERROR, "42.0"),
+        condition("new_bugs", EvaluationStatus.OK, "0")), false, Trend.NONE);
+
+    assertThat(second).isSameAs(first);
+    assertCounted(1, 1);
+  }
+
+  @Test
+  void translatesAgainWhenAValueDiffers() {
+    ConditionSection first = section(failingGate("main"), false, Trend.NONE);
+    ConditionSection second = section(TestAnalyses.main(QualityGate.Status.ERROR,
+        condition("new_coverage", EvaluationStatus.ERROR, "41.0"),
+        condition("new_bugs", EvaluationStatus.OK, "0")), false, Trend.NONE);
+
+    assertThat(second).isNotSameAs(first);
+    assertCounted(0, 2);
+  }
+
+  @Test
+  void translatesAgainWhenTheTrendDiffers() {
+    Trend improving = new Trend();
+    improving.put("new_coverage", 40.0, EvaluationStatus.ERROR);
+    Trend regressing = new Trend();
+    regressing.put("new_coverage", 85.0, EvaluationStatus.OK);
+
+    ConditionSection none = section(failingGate("main"), false, Trend.NONE);
+    ConditionSection first = section(failingGate("main"), false, improving);
+    ConditionSection second = section(failingGate("main"), false, regressing);
+    ConditionSection again = section(failingGate("main"), false, regressing);
+
+    assertThat(first).isNotSameAs(none);
+    assertThat(second).isNotSameAs(first);
+    assertThat(again).isSameAs(second);
+    assertThat(second.newlyFailing).isEqualTo(1);
+    assertThat(first.newlyFailing).isZero();
+    assertCounted(1, 3);
+  }
+
+  @Test
+  void translatesAgainWhenFailOnlyDiffers() {
+    ConditionSection all = section(failingGate("main"), false, Trend.NONE);
+    ConditionSection failing = section(failingGate("main"), true, Trend.NONE);
+
+    assertThat(failing).isNotSameAs(all);
+    assertThat(all.lines).hasSize(2);
+    assertThat(failing.lines).hasSize(1);
+    assertCounted(0, 2);
+  }
+
+  @Test
+  void keepsCatalogsApart() {
+    ConditionSection first = section(failingGate("main"), false, Trend.NONE);
+    ConditionSection other = PayloadBuilder.of(failingGate("main"), "https://sonar/", false,
+        false).metrics(new MetricCatalog()).message().section;
+
+    assertThat(other).isNotSameAs(first);
+    assertCounted(0, 2);
+  }
+
+  private ConditionSection section(AnalysisSnapshot snapshot, boolean failOnly, Trend trend) {
+    return PayloadBuilder.of(snapshot, "https://sonar/", failOnly, snapshot.isPassing())
+        .metrics(metrics)
+        .trend(trend)
+        .message()
+        .section;
+  }
+
+  private static AnalysisSnapshot failingGate(String branch) {
+    return TestAnalyses.snapshot("proj", branch, true, Branch.Type.LONG,
+        QualityGate.Status.ERROR,
+        condition("new_coverage", EvaluationStatus.ERROR, "42.0"),
+        condition("new_bugs", EvaluationStatus.OK, "0"));
+  }
+
+  private void assertCounted(long expectedHits, long expectedMisses) {
+    assertThat(ConditionCache.shared().counters().get("hits") - hits).isEqualTo(expectedHits);
+    assertThat(ConditionCache.shared().counters().get("misses") - misses)
+        .isEqualTo(expectedMisses);
+  }
+}
@@ -0,0 +1,102 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.andrewensley.sonarteamsnotifier.domain.Constants;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sonar.api.ce.posttask.Branch;
+import org.sonar.api.ce.posttask.QualityGate;
+import org.sonar.api.config.internal.MapSettings;
+
+class DeliveryAuditTest {
+
+  private static final String HOOK = "https://hooks.example.com/webhook/s3cr3t-t0k3n";
+
+  @TempDir
+  Path auditDir;
+
+  @Test
+  void rollsOverCompressesAndDeletesOldFiles() throws Exception {
+    for (String project : new String[] {"p1", "p2", "p3"}) {
+      DeliveryAudit audit = audit(auditDir, 1);
+      audit.record(notification(project), true, 200, 0, 0);
+      audit.stop();
+      // Rolled files are named after the millisecond they were rolled in.
+      TimeUnit.MILLISECONDS.sleep(5);
+    }
+
+    List<Path> rolled = files(auditDir);
+    assertThat(rolled).hasSize(2);
+    assertThat(rolled).allMatch(file -> file.getFileName().toString().endsWith(".ndjson.gz"));
+    assertThat(gunzip(rolled.get(0))).contains("\"project\":\"p2\"");
+    String last = gunzip(rolled.get(1));
+    assertThat(last).contains("\"project\":\"p3\"").contains("\"host\":\"hooks.example.com\"")
+        .doesNotContain("s3cr3t-t0k3n");
+  }
+
+  @Test
+  void countsTheFileSizeInUtf8Bytes() throws Exception {
+    String project = new String(new char[100]).replace('\0', 'ü');
+    Path measured = Files.createDirectories(auditDir.resolve("measured"));
+    DeliveryAudit large = audit(measured, Long.MAX_VALUE);
+    large.record(notification(project), true, 200, 0, 0);
+    large.stop();
+    String line = new String(Files.readAllBytes(measured.resolve("audit.ndjson")), UTF_8);
+
+    // Over the line's length in chars, but under its length in bytes.
+    Path rolled = Files.createDirectories(auditDir.resolve("rolled"));
+    DeliveryAudit small = audit(rolled, line.length() + 10);
+    small.record(notification(project), true, 200, 0, 0);
+    small.stop();
+
+    assertThat(files(rolled)).hasSize(1);
+    assertThat(files(rolled).get(0).getFileName().toString()).endsWith(".ndjson.gz");
+  }
+
+  private static DeliveryAudit audit(Path dir, long maxSize) {
+    DeliveryAudit audit = new DeliveryAudit(new MapSettings()
+        .setProperty(Constants.AUDIT_DIR, dir.toString())
+        .setProperty(Constants.AUDIT_MAX_SIZE, maxSize)
+        .setProperty(Constants.AUDIT_MAX_FILES, 2)
+        .asConfig());
+    audit.start();
+    return audit;
+  }
+
+  private static Notification notification(String project) {
+    return new Notification(HOOK, new Payload(MessageFormat.TEXT, "Failed " + project),
+        TestAnalyses.snapshot(project, "main", true, Branch.Type.LONG, QualityGate.Status.ERROR));
+  }
+
+  private static List<Path> files(Path dir) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.sorted().collect(Collectors.toList());
+    }
+  }
+
+  private static String gunzip(Path file) throws IOException {
+    try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] chunk = new byte[4096];
+      for (int read = in.read(chunk); read != -1; read = in.read(chunk)) {
+        out.write(chunk, 0, read);
+      }
+
+      return new String(out.toByteArray(), UTF_8);
+    }
+  }
+}
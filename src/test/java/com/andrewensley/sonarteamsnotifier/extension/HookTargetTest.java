@@ -0,0 +1,76 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.net.MalformedURLException;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class HookTargetTest {
+
+  @Test
+  void parsesFormatsAndFilters() throws MalformedURLException {
+    List<HookTarget> targets = HookTarget.parseAll(
+        "https://a.example.com/hook, [status=ERROR,OK and main]teams+https://b.example.com/hook,"
+        + "[ ]text+https://c.example.com/hook");
+
+    assertThat(targets).hasSize(3);
+    assertThat(targets.get(0).format).isEqualTo(MessageFormat.WEBEX);
+    assertThat(targets.get(0).filter).isNull();
+    assertThat(targets.get(1).url).isEqualTo("https://b.example.com/hook");
+    assertThat(targets.get(1).format).isEqualTo(MessageFormat.TEAMS);
+    assertThat(targets.get(1).filter).isEqualTo("status=ERROR,OK and main");
+    assertThat(targets.get(2).format).isEqualTo(MessageFormat.TEXT);
+    assertThat(targets.get(2).filter).isNull();
+  }
+
+  @Test
+  void joinsToTheSameHooks() throws MalformedURLException {
+    String joined = HookTarget.join(HookTarget.parseAll(
+        "[failing=new_bugs,new_coverage]text+https://a.example.com/hook,https://b.example.com/x"));
+
+    assertThat(joined).isEqualTo(
+        "[failing=new_bugs,new_coverage]text+https://a.example.com/hook,https://b.example.com/x");
+    assertThat(HookTarget.join(HookTarget.parseAll(joined))).isEqualTo(joined);
+    assertThat(HookTarget.join(HookTarget.parseResolved(joined))).isEqualTo(joined);
+  }
+
+  @Test
+  void keepsTheSameHookWithDifferentFilters() throws MalformedURLException {
+    assertThat(HookTarget.parseAll("https://a.example.com/hook,https://a.example.com/hook,"
+        + "[main]https://a.example.com/hook")).hasSize(2);
+  }
+
+  @Test
+  void fallsBackToTheDefaultFilter() throws MalformedURLException {
+    List<HookTarget> targets =
+        HookTarget.parseAll("https://a.example.com/hook,[main]https://b.example.com/hook");
+
+    assertThat(targets.get(0).filter("status=ERROR")).isEqualTo("status=ERROR");
+    assertThat(targets.get(0).filter(null)).isNull();
+    assertThat(targets.get(1).filter("status=ERROR")).isEqualTo("main");
+  }
+
+  @Test
+  void parsesIpv6Hosts() throws MalformedURLException {
+    List<HookTarget> targets =
+        HookTarget.parseAll("http://[::1]:8080/hook,[main]http://[::1]:8081/hook");
+
+    assertThat(targets).hasSize(2);
+    assertThat(targets.get(0).url).isEqualTo("http://[::1]:8080/hook");
+    assertThat(targets.get(1).filter).isEqualTo("main");
+  }
+
+  @Test
+  void rejectsInvalidHooks() {
+    assertThatThrownBy(() -> HookTarget.parseAll("[main https://a.example.com/hook"))
+        .isInstanceOf(MalformedURLException.class)
+        .hasMessageContaining("Unclosed hook filter");
+    assertThatThrownBy(() -> HookTarget.parseAll("pdf+https://a.example.com/hook"))
+        .hasMessageContaining("Unknown message format");
+    assertThatThrownBy(() -> HookTarget.parseAll(" , "))
+        .hasMessageContaining("No hook URL");
+  }
+}
@@ -0,0 +1,120 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.sonar.api.ce.posttask.Branch;
+import org.sonar.api.ce.posttask.QualityGate;
+
+class HostBulkheadsTest {
+
+  private static final String HOOK_A = "https://a.example.com/hook/1";
+
+  private static final String HOOK_A2 = "https://a.example.com/hook/2";
+
+  private static final String HOOK_B = "https://b.example.com:8443/hook";
+
+  private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(100);
+
+  @Test
+  void limitsConcurrentPostsPerHost() {
+    HostBulkheads bulkheads = new HostBulkheads(2, 2);
+
+    assertThat(bulkheads.tryAcquire(notification(HOOK_A))).isTrue();
+    assertThat(bulkheads.tryAcquire(notification(HOOK_A2))).isTrue();
+    assertThat(bulkheads.tryAcquire(notification(HOOK_A))).isFalse();
+    assertThat(bulkheads.tryAcquire(notification(HOOK_B))).isTrue();
+
+    release(bulkheads, HOOK_A, 200);
+    assertThat(bulkheads.tryAcquire(notification(HOOK_A))).isTrue();
+  }
+
+  @Test
+  void reportsSaturatedHostsUntilTheyRecover() throws InterruptedException {
+    HostBulkheads bulkheads = new HostBulkheads(1, 1);
+    assertThat(bulkheads.tryAcquire(notification(HOOK_A))).isTrue();
+    assertThat(bulkheads.tryAcquire(notification(HOOK_A))).isFalse();
+    TimeUnit.MILLISECONDS.sleep(20);
+
+    release(bulkheads, HOOK_A, 200);
+    List<DeliveryState.Host> states =
+        bulkheads.states(Collections.singletonMap("a.example.com", 1));
+
+    assertThat(states).hasSize(1);
+    assertThat(states.get(0).host).isEqualTo("a.example.com");
+    assertThat(states.get(0).inFlight).isZero();
+    assertThat(states.get(0).limit).isEqualTo(1);
+    assertThat(states.get(0).waiting).isEqualTo(1);
+    assertThat(states.get(0).saturatedMillis).isGreaterThanOrEqualTo(20);
+
+    assertThat(bulkheads.tryAcquire(notification(HOOK_A))).isTrue();
+    release(bulkheads, HOOK_A, 200);
+    assertThat(bulkheads.states(Collections.emptyMap())).isEmpty();
+  }
+
+  @Test
+  void reportsHostsWithPostsInFlight() {
+    HostBulkheads bulkheads = new HostBulkheads(4, 4);
+    bulkheads.tryAcquire(notification(HOOK_B));
+
+    List<DeliveryState.Host> states = bulkheads.states(Collections.emptyMap());
+
+    assertThat(states).hasSize(1);
+    assertThat(states.get(0).host).isEqualTo("b.example.com:8443");
+    assertThat(states.get(0).inFlight).isEqualTo(1);
+    assertThat(states.get(0).saturatedMillis).isZero();
+  }
+
+  @Test
+  void forgetsSaturatedHostsLeftWithNothingWaiting() {
+    HostBulkheads bulkheads = new HostBulkheads(1, 1);
+    bulkheads.tryAcquire(notification(HOOK_A));
+    bulkheads.tryAcquire(notification(HOOK_A));
+    release(bulkheads, HOOK_A, 200);
+
+    assertThat(bulkheads.states(Collections.emptyMap())).isEmpty();
+    assertThat(bulkheads.states(Collections.singletonMap("a.example.com", 1))).isEmpty();
+  }
+
+  @Test
+  void remembersLoweredLimitsOfForgottenHosts() {
+    HostBulkheads bulkheads = new HostBulkheads(4, 8);
+    assertThat(bulkheads.tryAcquire(notification(HOOK_A))).isTrue();
+    release(bulkheads, HOOK_A, 503);
+    assertThat(bulkheads.states(Collections.emptyMap())).isEmpty();
+
+    assertThat(bulkheads.tryAcquire(notification(HOOK_A))).isTrue();
+    assertThat(bulkheads.tryAcquire(notification(HOOK_A))).isTrue();
+    assertThat(bulkheads.tryAcquire(notification(HOOK_A))).isFalse();
+  }
+
+  @Test
+  void ignoresReleasesOfUnknownHosts() {
+    HostBulkheads bulkheads = new HostBulkheads(1, 1);
+
+    release(bulkheads, HOOK_A, 200);
+
+    assertThat(bulkheads.tryAcquire(notification(HOOK_A))).isTrue();
+    assertThat(bulkheads.tryAcquire(notification(HOOK_A))).isFalse();
+  }
+
+  @Test
+  void namesHostsByAuthority() {
+    assertThat(HostBulkheads.host(HOOK_A)).isEqualTo("a.example.com");
+    assertThat(HostBulkheads.host(HOOK_B)).isEqualTo("b.example.com:8443");
+    assertThat(HostBulkheads.host("not a url")).isEqualTo("not a url");
+  }
+
+  private static void release(HostBulkheads bulkheads, String hook, int statusCode) {
+    bulkheads.release(hook, System.nanoTime(), LATENCY, statusCode == 200, statusCode);
+  }
+
+  private static Notification notification(String hook) {
+    return new Notification(hook, new Payload(MessageFormat.TEXT, "message"),
+        TestAnalyses.snapshot("proj", "main", true, Branch.Type.LONG, QualityGate.Status.ERROR));
+  }
+}
@@ -0,0 +1,45 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+class InMemoryTransportTest {
+
+  private static final String HOOK = "https://hooks.example.com/webhook/s3cr3t";
+
+  @Test
+  void keepsTheLastPayloadsAndCountsAllOfThem() {
+    InMemoryTransport transport = new InMemoryTransport(3);
+    for (int i = 1; i <= 5; i++) {
+      assertThat(transport.send(HOOK, new Payload(MessageFormat.TEXT, "message " + i))).isTrue();
+    }
+
+    assertThat(transport.sent()).isEqualTo(5);
+    assertThat(transport.captured().stream()
+        .map(captured -> captured.payload.content)
+        .collect(Collectors.toList()))
+        .containsExactly("message 3", "message 4", "message 5");
+    assertThat(transport.captured()).allMatch(captured -> HOOK.equals(captured.hook));
+  }
+
+  @Test
+  void publishesTheLastPayloadsWithoutHookUrls() {
+    InMemoryTransport transport = new InMemoryTransport(10);
+    for (int i = 1; i <= 4; i++) {
+      transport.send(HOOK, new Payload(MessageFormat.TEAMS, "message " + i));
+    }
+
+    DeliveryState.Captured state = transport.state(2);
+
+    assertThat(state.sent).isEqualTo(4);
+    assertThat(state.kept).isEqualTo(4);
+    assertThat(state.last).hasSize(2);
+    assertThat(state.last.get(0).content).isEqualTo("message 3");
+    assertThat(state.last.get(1).content).isEqualTo("message 4");
+    assertThat(state.last.get(1).format).isEqualTo("TEAMS");
+    assertThat(state.last.get(1).hookId).isEqualTo(ClusterCoordinator.hookId(HOOK));
+  }
+}
@@ -0,0 +1,215 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.andrewensley.sonarteamsnotifier.domain.Constants;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.sonar.api.ce.posttask.QualityGate;
+import org.sonar.api.config.internal.MapSettings;
+
+class IssueEnricherTest {
+
+  private static final String TOKEN = "squ_test";
+
+  private final List<String> queries = new CopyOnWriteArrayList<>();
+
+  private final List<String> authorizations = new CopyOnWriteArrayList<>();
+
+  private HttpServer server;
+
+  private volatile Responder responder;
+
+  private IssueEnricher enricher;
+
+  @BeforeEach
+  void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/api/issues/search", exchange -> {
+      queries.add(exchange.getRequestURI().getRawQuery());
+      authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+      try {
+        responder.respond(exchange, page(exchange.getRequestURI().getRawQuery()));
+      } catch (IOException e) {
+        // The client abandoned the request.
+      } finally {
+        exchange.close();
+      }
+    });
+    server.setExecutor(null);
+    server.start();
+  }
+
+  @AfterEach
+  void stop() {
+    if (enricher != null) {
+      enricher.stop();
+    }
+
+    server.stop(0);
+  }
+
+  @Test
+  void listsTopIssuesFromTheFirstPage() throws Exception {
+    responder = (exchange, page) -> json(exchange, 200, issues(page, "BLOCKER", 100));
+    enricher = start("3", TOKEN);
+
+    Message message = enrich(failingMessage());
+
+    assertThat(message.issues).hasSize(3);
+    assertThat(message.issues.get(0).severity).isEqualTo("BLOCKER");
+    assertThat(message.issues.get(0).rule).isEqualTo("java:S1");
+    assertThat(message.issues.get(0).file).isEqualTo("src/File1.java");
+    assertThat(message.issues.get(0).line).isEqualTo(1);
+    assertThat(message.issues.get(0).url).contains("project/issues?id=proj&open=issue-1-1");
+    assertThat(queries).hasSize(1);
+    assertThat(queries.get(0)).contains("componentKeys=proj", "sinceLeakPeriod=true", "p=1");
+    assertThat(authorizations).containsExactly(
+        "Basic " + Base64.getEncoder().encodeToString((TOKEN + ":").getBytes(UTF_8)));
+  }
+
+  @Test
+  void readsNextPagesUntilEnoughIssuesAreFound() throws Exception {
+    responder = (exchange, page) -> json(exchange, 200,
+        page == 1 ? issues(page, "MAJOR", 100) : issues(page, "CRITICAL", 2));
+    enricher = start("5", TOKEN);
+
+    Message message = enrich(failingMessage());
+
+    assertThat(message.issues).hasSize(2);
+    assertThat(message.issues).allMatch(issue -> "CRITICAL".equals(issue.severity));
+    assertThat(queries).hasSize(2);
+  }
+
+  @Test
+  void notifiesWithoutIssuesPastTheBudgetWithoutBlockingTheCaller() throws Exception {
+    responder = (exchange, page) -> {
+      try {
+        TimeUnit.SECONDS.sleep(3);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+
+      json(exchange, 200, issues(page, "BLOCKER", 1));
+    };
+    enricher = start("3", TOKEN);
+    Message failing = failingMessage();
+    CompletableFuture<Message> sent = new CompletableFuture<>();
+
+    long start = System.nanoTime();
+    enricher.enrich(failing, snapshot(), sent::complete);
+    long submitted = System.nanoTime();
+    Message message = sent.get(2, TimeUnit.SECONDS);
+
+    assertThat(TimeUnit.NANOSECONDS.toMillis(submitted - start)).isLessThan(200);
+    assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1500);
+    assertThat(message).isSameAs(failing);
+  }
+
+  @Test
+  void notifiesWithoutIssuesWhenTheTokenIsRejected() throws Exception {
+    responder = (exchange, page) -> json(exchange, 403, "{\"errors\":[]}");
+    enricher = start("3", TOKEN);
+    Message failing = failingMessage();
+
+    assertThat(enrich(failing)).isSameAs(failing);
+  }
+
+  @Test
+  void listsNothingWithoutToken() throws Exception {
+    responder = (exchange, page) -> json(exchange, 200, issues(page, "BLOCKER", 100));
+    enricher = start("3", null);
+    Message failing = failingMessage();
+
+    assertThat(enrich(failing)).isSameAs(failing);
+    assertThat(queries).isEmpty();
+  }
+
+  private IssueEnricher start(String top, String token) {
+    MapSettings settings = new MapSettings()
+        .setProperty(Constants.ISSUES_TOP, top)
+        .setProperty(Constants.ISSUES_BUDGET, "500")
+        .setProperty(Constants.ISSUES_API_URL,
+            "http://127.0.0.1:" + server.getAddress().getPort() + "/")
+        .setProperty("sonar.core.serverBaseURL", "https://sonar.example.com");
+    if (token != null) {
+      settings.setProperty(Constants.ISSUES_TOKEN, token);
+    }
+
+    IssueEnricher started = new IssueEnricher(settings.asConfig());
+    started.start();
+    return started;
+  }
+
+  private Message enrich(Message message) throws Exception {
+    CompletableFuture<Message> sent = new CompletableFuture<>();
+    enricher.enrich(message, snapshot(), sent::complete);
+    return sent.get(5, TimeUnit.SECONDS);
+  }
+
+  private static AnalysisSnapshot snapshot() {
+    return AnalysisSnapshot.ofLatest("proj", "Project", "", new Date(0), "Sonar way",
+        QualityGate.Status.ERROR, Collections.emptyList());
+  }
+
+  private static Message failingMessage() {
+    return PayloadBuilder.of(snapshot(), "https://sonar.example.com/dashboard?id=proj", false,
+        false).message();
+  }
+
+  private static int page(String query) {
+    for (String parameter : query.split("&")) {
+      if (parameter.startsWith("p=")) {
+        return Integer.parseInt(parameter.substring(2));
+      }
+    }
+
+    return 1;
+  }
+
+  private static String issues(int page, String severity, int count) {
+    StringBuilder json = new StringBuilder("{\"total\":1000,\"issues\":[");
+    for (int i = 1; i <= count; i++) {
+      json.append(i == 1 ? "" : ",")
+          .append("{\"key\":\"issue-").append(page).append('-').append(i)
+          .append("\",\"rule\":\"java:S").append(i)
+          .append("\",\"severity\":\"").append(severity)
+          .append("\",\"component\":\"proj:src/File").append(i)
+          .append(".java\",\"line\":").append(i)
+          .append(",\"message\":\"Fix issue ").append(i).append("\"}");
+    }
+
+    return json.append("]}").toString();
+  }
+
+  private static void json(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream output = exchange.getResponseBody()) {
+      output.write(bytes);
+    }
+  }
+
+  private interface Responder {
+
+    void respond(HttpExchange exchange, int page) throws IOException;
+  }
+}
@@ -0,0 +1,118 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static com.andrewensley.sonarteamsnotifier.extension.TestAnalyses.condition;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.andrewensley.sonarteamsnotifier.domain.Constants;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sonar.api.ce.posttask.QualityGate;
+import org.sonar.api.ce.posttask.QualityGate.EvaluationStatus;
+import org.sonar.api.config.internal.MapSettings;
+
+class MeasureHistoryTest {
+
+  @TempDir
+  Path historyDir;
+
+  @Test
+  void returnsThePreviousAnalysisOfTheBranch() {
+    MeasureHistory history = history(5, 10);
+
+    Trend first = history.record("proj", "", Arrays.asList(
+        condition("new_coverage", EvaluationStatus.ERROR, "42.0")));
+    Trend second = history.record("proj", "", Arrays.asList(
+        condition("new_coverage", EvaluationStatus.OK, "85.0")));
+    Trend other = history.record("proj", "feature", Arrays.asList(
+        condition("new_coverage", EvaluationStatus.OK, "90.0")));
+
+    assertThat(first.previousValue("new_coverage")).isNaN();
+    assertThat(second.previousValue("new_coverage")).isEqualTo(42.0);
+    assertThat(second.wasFailing("new_coverage")).isTrue();
+    assertThat(second.wasPassing("new_coverage")).isFalse();
+    assertThat(other.previousValue("new_coverage")).isNaN();
+  }
+
+  @Test
+  void forgetsConditionsRemovedFromTheGate() {
+    MeasureHistory history = history(5, 10);
+    history.record("proj", "", Arrays.asList(
+        condition("new_coverage", EvaluationStatus.OK, "85.0"),
+        condition("new_bugs", EvaluationStatus.OK, "0")));
+    history.record("proj", "", Arrays.asList(
+        condition("new_coverage", EvaluationStatus.OK, "85.0")));
+
+    Trend trend = history.record("proj", "", Arrays.asList(
+        condition("new_bugs", EvaluationStatus.ERROR, "2")));
+
+    assertThat(trend.previousValue("new_bugs")).isNaN();
+    assertThat(trend.wasPassing("new_bugs")).isFalse();
+  }
+
+  @Test
+  void readsEvictedBranchesBackFromDisk() {
+    MeasureHistory history = history(5, 1);
+    history.record("p1", "", Arrays.asList(
+        condition("new_coverage", EvaluationStatus.ERROR, "42.0")));
+    history.record("p2", "", Arrays.asList(
+        condition("new_coverage", EvaluationStatus.OK, "85.0")));
+
+    Trend trend = history.record("p1", "", Arrays.asList(
+        condition("new_coverage", EvaluationStatus.OK, "85.0")));
+
+    assertThat(trend.previousValue("new_coverage")).isEqualTo(42.0);
+    assertThat(trend.wasFailing("new_coverage")).isTrue();
+  }
+
+  @Test
+  void keepsNothingWhenDisabled() {
+    MeasureHistory history = history(0, 10);
+    history.record("proj", "", Arrays.asList(
+        condition("new_coverage", EvaluationStatus.ERROR, "42.0")));
+
+    assertThat(history.record("proj", "", Arrays.asList(
+        condition("new_coverage", EvaluationStatus.OK, "85.0")))).isSameAs(Trend.NONE);
+  }
+
+  @Test
+  void rendersTheDeltaAndItsDirection() {
+    MeasureHistory history = history(5, 10);
+    history.record("proj", "", Arrays.asList(
+        condition("new_coverage", EvaluationStatus.ERROR, "42.0"),
+        condition("new_bugs", EvaluationStatus.OK, "0"),
+        condition("new_duplicated_lines_density", EvaluationStatus.OK, "1.5")));
+    QualityGate.Condition[] conditions = {
+        condition("new_coverage", EvaluationStatus.OK, "85.0"),
+        condition("new_bugs", EvaluationStatus.ERROR, "2"),
+        condition("new_duplicated_lines_density", EvaluationStatus.OK, "1.5")};
+    Trend trend = history.record("proj", "", Arrays.asList(conditions));
+
+    List<Message.Line> lines = PayloadBuilder.of(
+        TestAnalyses.main(QualityGate.Status.ERROR, conditions), "https://sonar/", false, false)
+        .metrics(new MetricCatalog())
+        .trend(trend)
+        .message()
+        .section
+        .lines;
+
+    assertThat(lines).extracting(line -> line.delta)
+        .containsExactly("+43%, better", "+2, worse", "");
+    assertThat(lines).extracting(line -> line.change).containsExactly(
+        Message.Change.FIXED, Message.Change.NEWLY_FAILING, Message.Change.NONE);
+  }
+
+  private MeasureHistory history(int size, int maxProjects) {
+    MeasureHistory history = new MeasureHistory(new MapSettings()
+        .setProperty(Constants.HISTORY_SIZE, size)
+        .setProperty(Constants.HISTORY_MAX_PROJECTS, maxProjects)
+        .setProperty(Constants.HISTORY_DIR, historyDir.toString())
+        .asConfig());
+    history.start();
+    return history;
+  }
+}
@@ -0,0 +1,352 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sonar.api.ce.posttask.Branch;
+import org.sonar.api.ce.posttask.QualityGate;
+
+class NotificationQueueTest {
+
+  private static final String HOOK = "https://a.example.com/hook";
+
+  @TempDir
+  Path spillDir;
+
+  @Test
+  void rejectsNewNotificationsAfterTheBlockTimeout() throws Exception {
+    NotificationQueue queue = queue(2, OverflowPolicy.BLOCK);
+    queue.offer(failing("p1"));
+    queue.offer(failing("p2"));
+
+    long start = System.nanoTime();
+    assertThat(queue.offer(failing("p3"))).isFalse();
+
+    assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+        .isGreaterThanOrEqualTo(90);
+    assertThat(projects(queue)).containsExactly("p1", "p2");
+    assertThat(queue.counters()).containsEntry("rejected", 1L).containsEntry("enqueued", 2L);
+  }
+
+  @Test
+  void queuesBlockedNotificationsOnceThereIsRoom() throws Exception {
+    NotificationQueue queue = new NotificationQueue(1, Long.MAX_VALUE, OverflowPolicy.BLOCK,
+        5000, spillDir);
+    queue.offer(failing("p1"));
+    CompletableFuture<Boolean> offered = CompletableFuture.supplyAsync(() -> {
+      try {
+        return queue.offer(failing("p2"));
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+
+    TimeUnit.MILLISECONDS.sleep(100);
+    assertThat(offered).isNotDone();
+    assertThat(queue.take(0).projectKey).isEqualTo("p1");
+
+    assertThat(offered.get(2, TimeUnit.SECONDS)).isTrue();
+    assertThat(projects(queue)).containsExactly("p2");
+  }
+
+  @Test
+  void boundsTheQueueByBytes() throws Exception {
+    NotificationQueue queue = new NotificationQueue(10, 10, OverflowPolicy.DROP_OLDEST, 0,
+        spillDir);
+    queue.offer(notification("p1", QualityGate.Status.ERROR, "", "123456"));
+    queue.offer(notification("p2", QualityGate.Status.ERROR, "", "1234"));
+    queue.offer(notification("p3", QualityGate.Status.ERROR, "", "12345"));
+
+    assertThat(projects(queue)).containsExactly("p2", "p3");
+    assertThat(queue.counters()).containsEntry("dropped_oldest", 1L);
+  }
+
+  @Test
+  void acceptsANotificationLargerThanTheBytesLimitWhenEmpty() throws Exception {
+    NotificationQueue queue = new NotificationQueue(10, 4, OverflowPolicy.BLOCK, 0, spillDir);
+
+    assertThat(queue.offer(notification("p1", QualityGate.Status.ERROR, "", "123456"))).isTrue();
+    assertThat(queue.offer(failing("p2"))).isFalse();
+  }
+
+  @Test
+  void dropsTheOldestNotifications() throws Exception {
+    NotificationQueue queue = queue(2, OverflowPolicy.DROP_OLDEST);
+    for (String project : new String[] {"p1", "p2", "p3", "p4"}) {
+      assertThat(queue.offer(failing(project))).isTrue();
+    }
+
+    assertThat(projects(queue)).containsExactly("p3", "p4");
+    assertThat(queue.counters()).containsEntry("dropped_oldest", 2L);
+  }
+
+  @Test
+  void dropsPassingNotificationsFirst() throws Exception {
+    NotificationQueue queue = queue(3, OverflowPolicy.DROP_PASSING);
+    queue.offer(failing("f1"));
+    queue.offer(passing("ok1"));
+    queue.offer(failing("f2"));
+
+    assertThat(queue.offer(failing("f3"))).isTrue();
+    assertThat(queue.offer(passing("ok2"))).isFalse();
+    assertThat(queue.offer(failing("f4"))).isTrue();
+
+    assertThat(projects(queue)).containsExactly("f2", "f3", "f4");
+    assertThat(queue.counters())
+        .containsEntry("dropped_passing", 1L)
+        .containsEntry("dropped_new_passing", 1L)
+        .containsEntry("dropped_oldest", 1L);
+  }
+
+  @Test
+  void spillsToDiskInOrder() throws Exception {
+    NotificationQueue queue = queue(2, OverflowPolicy.SPILL);
+    for (String project : new String[] {"p1", "p2", "p3", "p4", "p5"}) {
+      assertThat(queue.offer(failing(project))).isTrue();
+    }
+
+    assertThat(queue.size()).isEqualTo(2);
+    assertThat(queue.take(0).projectKey).isEqualTo("p1");
+    // Room was made, but later notifications still queue behind the spilled ones.
+    queue.offer(failing("p6"));
+
+    assertThat(projects(queue)).containsExactly("p2", "p3", "p4", "p5", "p6");
+    assertThat(queue.counters()).containsEntry("spilled", 4L).containsEntry("unspilled", 4L);
+  }
+
+  @Test
+  void spillsOnShutdownForTheNextRun() throws Exception {
+    NotificationQueue queue = queue(2, OverflowPolicy.SPILL);
+    for (String project : new String[] {"p1", "p2", "p3"}) {
+      queue.offer(failing(project));
+    }
+
+    assertThat(queue.drainOnShutdown()).isZero();
+    assertThat(queue.size()).isZero();
+
+    // Spilled notifications wait for their hook to be notified again, as only its ID is kept.
+    NotificationQueue restarted = queue(2, OverflowPolicy.SPILL);
+    assertThat(restarted.take(0)).isNull();
+    assertThat(restarted.counters()).containsEntry("orphaned", 3L);
+    restarted.offer(failing("p4"));
+
+    // p3 overflowed first, so it was spilled before the queued ones.
+    assertThat(projects(restarted)).containsExactly("p3", "p1", "p2", "p4");
+  }
+
+  @Test
+  void keepsHookUrlsOutOfSpilledNotifications() throws Exception {
+    String token = "0123456789abcdef";
+    String hook = "https://a.example.com/webhookb2/" + token;
+    NotificationQueue queue = queue(1, OverflowPolicy.SPILL);
+    queue.offer(failing("p1", hook));
+    queue.offer(failing("p2", hook));
+    queue.drainOnShutdown();
+
+    List<Path> files = new ArrayList<>();
+    try (Stream<Path> walk = Files.walk(spillDir)) {
+      walk.filter(Files::isRegularFile).forEach(files::add);
+    }
+
+    assertThat(files).hasSize(2);
+    for (Path file : files) {
+      String json = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+      assertThat(json).doesNotContain(token).doesNotContain("a.example.com")
+          .contains(ClusterCoordinator.hookId(hook));
+    }
+  }
+
+  @Test
+  void losesQueuedNotificationsOnShutdownWithoutSpilling() throws Exception {
+    NotificationQueue queue = queue(2, OverflowPolicy.DROP_OLDEST);
+    queue.offer(failing("p1"));
+    queue.offer(failing("p2"));
+
+    assertThat(queue.drainOnShutdown()).isEqualTo(2);
+    assertThat(queue.take(0)).isNull();
+  }
+
+  @Test
+  void takesTheOldestEligibleNotification() throws Exception {
+    NotificationQueue queue = queue(10, OverflowPolicy.BLOCK);
+    queue.offer(failing("a1", "https://a.example.com/hook"));
+    queue.offer(failing("b1", "https://b.example.com/hook"));
+    queue.offer(failing("b2", "https://b.example.com/hook"));
+
+    Notification taken = queue.take(0, notification -> notification.hook.contains("b."));
+
+    assertThat(taken.projectKey).isEqualTo("b1");
+    assertThat(queue.take(0, notification -> false)).isNull();
+    assertThat(projects(queue)).containsExactly("a1", "b2");
+  }
+
+  @Test
+  void wakesWorkersWhenANotificationBecomesEligible() throws Exception {
+    NotificationQueue queue = queue(10, OverflowPolicy.BLOCK);
+    queue.offer(failing("p1"));
+    AtomicBoolean eligible = new AtomicBoolean();
+    CompletableFuture<Notification> taken = CompletableFuture.supplyAsync(() -> {
+      try {
+        return queue.take(5000, notification -> eligible.get());
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+
+    TimeUnit.MILLISECONDS.sleep(100);
+    assertThat(taken).isNotDone();
+    eligible.set(true);
+    queue.signalEligible();
+
+    assertThat(taken.get(2, TimeUnit.SECONDS).projectKey).isEqualTo("p1");
+  }
+
+  @Test
+  void supersedesTheQueuedNotificationOfTheSameBranchInPlace() throws Exception {
+    NotificationQueue queue = superseding(10, OverflowPolicy.BLOCK, true);
+    queue.offer(notification("p1", QualityGate.Status.ERROR, "", "p1 first"));
+    queue.offer(notification("p2", QualityGate.Status.ERROR, "", "p2"));
+    queue.offer(notification("p1", QualityGate.Status.OK, "", "p1 second"));
+    queue.offer(notification("p1", QualityGate.Status.ERROR, "", "p1 third"));
+
+    Notification first = queue.take(0);
+    assertThat(first.projectKey).isEqualTo("p1");
+    assertThat(first.superseded).isEqualTo(2);
+    assertThat(first.passing).isFalse();
+    assertThat(first.payload.content).startsWith("p1 third")
+        .contains("Superseded 2 earlier results");
+    assertThat(queue.take(0).payload.content).isEqualTo("p2");
+    assertThat(queue.take(0)).isNull();
+    assertThat(queue.counters()).containsEntry("enqueued", 2L).containsEntry("superseded", 2L);
+  }
+
+  @Test
+  void keepsTheNotificationsOfOtherBranchesAndHooks() throws Exception {
+    NotificationQueue queue = superseding(10, OverflowPolicy.BLOCK, true);
+    queue.offer(notification("p1", QualityGate.Status.ERROR, "", "main"));
+    queue.offer(notification("p1", QualityGate.Status.ERROR, "feature", "feature"));
+    queue.offer(failing("p1", "https://b.example.com/hook"));
+
+    assertThat(projects(queue)).containsExactly("p1", "p1", "p1");
+    assertThat(queue.counters()).containsEntry("superseded", 0L);
+  }
+
+  @Test
+  void supersedesWithoutNoteWhenDisabled() throws Exception {
+    NotificationQueue queue = superseding(10, OverflowPolicy.BLOCK, false);
+    queue.offer(notification("p1", QualityGate.Status.ERROR, "", "first"));
+    queue.offer(notification("p1", QualityGate.Status.ERROR, "", "second"));
+
+    Notification taken = queue.take(0);
+    assertThat(taken.payload.content).isEqualTo("second");
+    assertThat(taken.superseded).isEqualTo(1);
+  }
+
+  @Test
+  void supersedesInsteadOfShedding() throws Exception {
+    NotificationQueue queue = superseding(1, OverflowPolicy.BLOCK, false);
+    for (int i = 1; i <= 5; i++) {
+      assertThat(queue.offer(notification("p1", QualityGate.Status.ERROR, "", "v" + i)))
+          .isTrue();
+    }
+
+    assertThat(queue.take(0).payload.content).isEqualTo("v5");
+    assertThat(queue.counters()).containsEntry("rejected", 0L);
+  }
+
+  @Test
+  void supersedesQueuedNotificationsWhileSpilling() throws Exception {
+    NotificationQueue queue = superseding(1, OverflowPolicy.SPILL, false);
+    queue.offer(notification("p1", QualityGate.Status.ERROR, "", "p1 first"));
+    queue.offer(notification("p2", QualityGate.Status.ERROR, "", "p2"));
+    queue.offer(notification("p1", QualityGate.Status.ERROR, "", "p1 second"));
+
+    assertThat(queue.take(0).payload.content).isEqualTo("p1 second");
+    assertThat(queue.take(0).payload.content).isEqualTo("p2");
+    assertThat(queue.counters()).containsEntry("spilled", 1L).containsEntry("superseded", 1L);
+  }
+
+  @Test
+  void queuesALargerSupersedingNotificationUnderTheOverflowPolicy() throws Exception {
+    NotificationQueue queue = new NotificationQueue(10, 10, OverflowPolicy.DROP_OLDEST, 0,
+        spillDir, true, false);
+    queue.offer(notification("p1", QualityGate.Status.ERROR, "", "123"));
+    queue.offer(notification("p2", QualityGate.Status.ERROR, "", "1234"));
+
+    assertThat(queue.offer(notification("p1", QualityGate.Status.ERROR, "", "1234567")))
+        .isTrue();
+
+    Notification taken = queue.take(0);
+    assertThat(taken.payload.content).isEqualTo("1234567");
+    assertThat(taken.superseded).isEqualTo(1);
+    assertThat(queue.take(0)).isNull();
+    assertThat(queue.counters()).containsEntry("superseded", 1L)
+        .containsEntry("dropped_oldest", 1L).containsEntry("enqueued", 2L);
+  }
+
+  @Test
+  void shedsALargerSupersedingNotificationThatDoesNotFit() throws Exception {
+    NotificationQueue queue = new NotificationQueue(10, 10, OverflowPolicy.BLOCK, 0, spillDir,
+        true, false);
+    queue.offer(notification("p1", QualityGate.Status.ERROR, "", "123"));
+    queue.offer(notification("p2", QualityGate.Status.ERROR, "", "1234"));
+    queue.offer(notification("p1", QualityGate.Status.ERROR, "", "123456"));
+
+    assertThat(queue.offer(notification("p1", QualityGate.Status.ERROR, "", "1234567")))
+        .isFalse();
+
+    assertThat(queue.take(0).payload.content).isEqualTo("1234");
+    assertThat(queue.take(0)).isNull();
+    assertThat(queue.counters()).containsEntry("superseded", 2L).containsEntry("rejected", 1L);
+  }
+
+  private NotificationQueue queue(int capacity, OverflowPolicy policy) {
+    return new NotificationQueue(capacity, Long.MAX_VALUE, policy, 100, spillDir);
+  }
+
+  private NotificationQueue superseding(int capacity, OverflowPolicy policy, boolean note) {
+    return new NotificationQueue(capacity, Long.MAX_VALUE, policy, 100, spillDir, true, note);
+  }
+
+  private static Notification failing(String project) {
+    return failing(project, HOOK);
+  }
+
+  private static Notification failing(String project, String hook) {
+    return new Notification(hook, new Payload(MessageFormat.TEXT, "Failed " + project),
+        TestAnalyses.snapshot(project, "main", true, Branch.Type.LONG, QualityGate.Status.ERROR));
+  }
+
+  private static Notification passing(String project) {
+    return notification(project, QualityGate.Status.OK, "", "Passed " + project);
+  }
+
+  private static Notification notification(
+      String project, QualityGate.Status status, String branch, String content) {
+    AnalysisSnapshot snapshot = branch.isEmpty()
+        ? TestAnalyses.snapshot(project, "main", true, Branch.Type.LONG, status)
+        : TestAnalyses.snapshot(project, branch, false, Branch.Type.SHORT, status);
+    return new Notification(HOOK, new Payload(MessageFormat.TEXT, content), snapshot);
+  }
+
+  private static List<String> projects(NotificationQueue queue) throws InterruptedException {
+    List<String> projects = new ArrayList<>();
+    Notification notification;
+    while ((notification = queue.take(0)) != null) {
+      projects.add(notification.projectKey);
+    }
+
+    return projects;
+  }
+}
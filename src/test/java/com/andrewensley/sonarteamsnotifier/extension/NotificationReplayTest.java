@@ -0,0 +1,150 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.server.ws.LocalConnector;
+
+class NotificationReplayTest {
+
+  private static final String HOOK = "https://hooks.example.com/webhook/1";
+
+  private final List<String> pages = new CopyOnWriteArrayList<>();
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  private final AtomicInteger maxInFlight = new AtomicInteger();
+
+  private final AtomicInteger sent = new AtomicInteger();
+
+  @Test
+  void replaysEveryPageOfMatchingProjects() throws Exception {
+    List<NotificationReplay.Progress> reports = new CopyOnWriteArrayList<>();
+
+    NotificationReplay.Progress progress = replay(150, 0).run(
+        Arrays.asList("proj-1", "proj-1?"), null, false, targets(), 4, reports::add);
+
+    assertThat(pages).containsExactly("1", "2");
+    assertThat(progress.projects).isEqualTo(11);
+    assertThat(progress.sent).isEqualTo(11);
+    assertThat(progress.skipped).isZero();
+    assertThat(progress.done).isTrue();
+    assertThat(reports).last().isSameAs(progress);
+  }
+
+  @Test
+  void deliversNoMoreThanTheConcurrencyAtOnce() throws Exception {
+    NotificationReplay.Progress progress = replay(12, 20).run(
+        Collections.singletonList("proj-*"), null, false, targets(), 3, report -> { });
+
+    assertThat(progress.sent).isEqualTo(12);
+    assertThat(maxInFlight.get()).isEqualTo(3);
+  }
+
+  @Test
+  void finishesDeliveriesWhenTheListenerFails() throws Exception {
+    NotificationReplay.Progress progress = replay(1, 2500).run(
+        Collections.singletonList("proj-1"), null, false, targets(), 1, report -> {
+          throw new UncheckedIOException(new IOException("Broken pipe"));
+        });
+
+    assertThat(sent.get()).isEqualTo(1);
+    assertThat(inFlight.get()).isZero();
+    assertThat(progress.sent).isEqualTo(1);
+  }
+
+  private NotificationReplay replay(int projects, long sendMillis) {
+    Transport transport = (hook, payload) -> {
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      try {
+        TimeUnit.MILLISECONDS.sleep(sendMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        inFlight.decrementAndGet();
+      }
+
+      sent.incrementAndGet();
+      return true;
+    };
+    return new NotificationReplay(request -> api(request, projects),
+        new MapSettings().setProperty("sonar.core.serverBaseURL", "https://sonar/").asConfig(),
+        new MetricCatalog(), transport);
+  }
+
+  private LocalConnector.LocalResponse api(LocalConnector.LocalRequest request, int projects) {
+    switch (request.getPath()) {
+      case "api/projects/search":
+        int page = Integer.parseInt(request.getParam("p"));
+        int size = Integer.parseInt(request.getParam("ps"));
+        pages.add(request.getParam("p"));
+        StringBuilder components = new StringBuilder();
+        for (int i = (page - 1) * size + 1; i <= Math.min(projects, page * size); i++) {
+          components.append(components.length() == 0 ? "" : ",")
+              .append("{\"key\":\"proj-").append(i).append("\",\"name\":\"Project ").append(i)
+              .append("\"}");
+        }
+
+        return json("{\"paging\":{\"total\":" + projects + "},\"components\":[" + components
+            + "]}");
+      case "api/components/show":
+        return json("{\"component\":{\"name\":\"Project\"}}");
+      case "api/project_analyses/search":
+        return json("{\"analyses\":[{\"date\":\"2019-07-29T14:30:00+0200\",\"revision\":\"a1\"}]}");
+      case "api/qualitygates/project_status":
+        return json("{\"projectStatus\":{\"status\":\"ERROR\",\"conditions\":[{\"status\":"
+            + "\"ERROR\",\"metricKey\":\"new_coverage\",\"comparator\":\"LT\","
+            + "\"errorThreshold\":\"80\",\"actualValue\":\"42.5\"}]}}");
+      case "api/qualitygates/get_by_project":
+        return json("{\"qualityGate\":{\"name\":\"Sonar way\"}}");
+      default:
+        throw new IllegalArgumentException(request.getPath());
+    }
+  }
+
+  private static List<HookTarget> targets() throws Exception {
+    return HookTarget.parseAll(HOOK);
+  }
+
+  private static LocalConnector.LocalResponse json(String body) {
+    byte[] bytes = body.getBytes(UTF_8);
+    return new LocalConnector.LocalResponse() {
+      @Override
+      public int getStatus() {
+        return 200;
+      }
+
+      @Override
+      public String getMediaType() {
+        return "application/json";
+      }
+
+      @Override
+      public byte[] getBytes() {
+        return bytes;
+      }
+
+      @Override
+      public Collection<String> getHeaderNames() {
+        return Collections.emptyList();
+      }
+
+      @Override
+      public String getHeader(String name) {
+        return null;
+      }
+    };
+  }
+}
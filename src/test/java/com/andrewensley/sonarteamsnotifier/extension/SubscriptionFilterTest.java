@@ -0,0 +1,108 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static com.andrewensley.sonarteamsnotifier.extension.TestAnalyses.condition;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.jupiter.api.Test;
+import org.sonar.api.ce.posttask.Branch;
+import org.sonar.api.ce.posttask.QualityGate;
+import org.sonar.api.ce.posttask.QualityGate.EvaluationStatus;
+
+class SubscriptionFilterTest {
+
+  private static final AnalysisSnapshot MAIN_FAILING = TestAnalyses.main(
+      QualityGate.Status.ERROR,
+      condition("new_coverage", EvaluationStatus.ERROR, "42.0"),
+      condition("new_bugs", EvaluationStatus.OK, "0"));
+
+  private static final AnalysisSnapshot RELEASE_PASSING = TestAnalyses.snapshot(
+      "proj", "release/1.2", false, Branch.Type.LONG, QualityGate.Status.OK,
+      condition("new_coverage", EvaluationStatus.OK, "90.0"));
+
+  @Test
+  void emptyExpressionMatchesEverything() {
+    assertThat(SubscriptionFilter.of(" ").test(MAIN_FAILING)).isTrue();
+    assertThat(SubscriptionFilter.of("").test(RELEASE_PASSING)).isTrue();
+  }
+
+  @Test
+  void matchesStatuses() {
+    assertThat(SubscriptionFilter.of("status=ERROR").test(MAIN_FAILING)).isTrue();
+    assertThat(SubscriptionFilter.of("status=error").test(RELEASE_PASSING)).isFalse();
+    assertThat(SubscriptionFilter.of("status=ERROR,OK").test(RELEASE_PASSING)).isTrue();
+  }
+
+  @Test
+  void matchesBranchPatterns() {
+    assertThat(SubscriptionFilter.of("branch=release/*").test(RELEASE_PASSING)).isTrue();
+    assertThat(SubscriptionFilter.of("branch=release/?.2").test(RELEASE_PASSING)).isTrue();
+    assertThat(SubscriptionFilter.of("branch=develop,rel*").test(RELEASE_PASSING)).isTrue();
+    assertThat(SubscriptionFilter.of("branch=release/*").test(MAIN_FAILING)).isFalse();
+    assertThat(SubscriptionFilter.of("branch=release.1.2").test(RELEASE_PASSING)).isFalse();
+  }
+
+  @Test
+  void matchesMainBranch() {
+    assertThat(SubscriptionFilter.of("main").test(MAIN_FAILING)).isTrue();
+    assertThat(SubscriptionFilter.of("MAIN").test(RELEASE_PASSING)).isFalse();
+  }
+
+  @Test
+  void matchesFailingMetrics() {
+    assertThat(SubscriptionFilter.of("failing=new_coverage").test(MAIN_FAILING)).isTrue();
+    assertThat(SubscriptionFilter.of("failing=new_bugs").test(MAIN_FAILING)).isFalse();
+    assertThat(SubscriptionFilter.of("failing=new_bugs,new_coverage").test(MAIN_FAILING))
+        .isTrue();
+    assertThat(SubscriptionFilter.of("failing=new_coverage").test(RELEASE_PASSING)).isFalse();
+  }
+
+  @Test
+  void metricBitsAreOwnedByEachFilter() {
+    SubscriptionFilter bugs = SubscriptionFilter.of("failing=new_bugs");
+    SubscriptionFilter coverage = SubscriptionFilter.of("failing=new_coverage");
+    AnalysisSnapshot failingBugs = TestAnalyses.main(QualityGate.Status.ERROR,
+        condition("new_bugs", EvaluationStatus.ERROR, "3"));
+
+    assertThat(bugs.test(failingBugs)).isTrue();
+    assertThat(coverage.test(failingBugs)).isFalse();
+    assertThat(coverage.test(MAIN_FAILING)).isTrue();
+    assertThat(bugs.test(MAIN_FAILING)).isFalse();
+  }
+
+  @Test
+  void combinesTermsWithPrecedence() {
+    assertThat(SubscriptionFilter.of("main and status=OK or branch=release/*")
+        .test(RELEASE_PASSING)).isTrue();
+    assertThat(SubscriptionFilter.of("main and (status=OK or branch=release/*)")
+        .test(RELEASE_PASSING)).isFalse();
+    assertThat(SubscriptionFilter.of("not main").test(RELEASE_PASSING)).isTrue();
+    assertThat(SubscriptionFilter.of("not (main or status=OK)").test(RELEASE_PASSING))
+        .isFalse();
+    assertThat(SubscriptionFilter.of("(main and status=ERROR) or (branch=release/* and"
+        + " failing=new_security_rating)").test(MAIN_FAILING)).isTrue();
+  }
+
+  @Test
+  void compiledFiltersAreCached() {
+    assertThat(SubscriptionFilter.of("status=ERROR and main"))
+        .isSameAs(SubscriptionFilter.of("status=ERROR and main"));
+  }
+
+  @Test
+  void rejectsInvalidExpressions() {
+    assertThatThrownBy(() -> SubscriptionFilter.of("status=BROKEN"))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("Unknown quality gate status [BROKEN]");
+    assertThatThrownBy(() -> SubscriptionFilter.of("colour=red"))
+        .hasMessageContaining("Unknown term [colour=red]");
+    assertThatThrownBy(() -> SubscriptionFilter.of("status="))
+        .hasMessageContaining("Invalid term");
+    assertThatThrownBy(() -> SubscriptionFilter.of("(main"))
+        .hasMessageContaining("Missing [)]");
+    assertThatThrownBy(() -> SubscriptionFilter.of("main and"))
+        .hasMessageContaining("Unexpected end of expression");
+    assertThatThrownBy(() -> SubscriptionFilter.of("main main"))
+        .hasMessageContaining("Unexpected [main]");
+  }
+}
@@ -0,0 +1,246 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.server.ws.LocalConnector;
+import org.sonar.api.server.ws.Response;
+import org.sonar.api.server.ws.internal.SimpleGetRequest;
+import org.sonar.api.utils.text.JsonWriter;
+import org.sonar.api.utils.text.XmlWriter;
+
+class TeamsNotifierWebServiceTest {
+
+  private static final String ADMIN = "{\"permissions\":{\"global\":[\"admin\"]}}";
+
+  private static final String USER = "{\"permissions\":{\"global\":[\"scan\"]}}";
+
+  @TempDir
+  Path dataDir;
+
+  private HttpServer server;
+
+  private final List<String> requests = new CopyOnWriteArrayList<>();
+
+  @BeforeEach
+  void startServer() throws Exception {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/", exchange -> {
+      requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI().getPath());
+      exchange.sendResponseHeaders(204, -1);
+      exchange.close();
+    });
+    server.setExecutor(null);
+    server.start();
+  }
+
+  @AfterEach
+  void stopServer() {
+    server.stop(0);
+  }
+
+  @Test
+  void probesTheGivenHookWithoutPostingToIt() throws Exception {
+    CapturedResponse response = probe(ADMIN, base() + "hook/s3cr3t-t0k3n");
+
+    assertThat(response.status).isEqualTo(200);
+    assertThat(response.body()).doesNotContain("s3cr3t-t0k3n");
+    JsonArray probes = response.json().getAsJsonArray("probes");
+    assertThat(probes).hasSize(1);
+    JsonObject probe = probes.get(0).getAsJsonObject();
+    assertThat(probe.get("target").getAsString()).isEqualTo(base());
+    assertThat(probe.get("status").getAsInt()).isEqualTo(204);
+    assertThat(probe.has("error")).isFalse();
+    assertThat(probe.get("dnsMs").getAsLong()).isNotNegative();
+    assertThat(probe.get("connectMs").getAsLong()).isNotNegative();
+    assertThat(probe.get("tlsMs").getAsLong()).isZero();
+    assertThat(probe.get("firstByteMs").getAsLong()).isNotNegative();
+    assertThat(probe.get("totalMs").getAsLong())
+        .isGreaterThanOrEqualTo(probe.get("firstByteMs").getAsLong());
+    assertThat(requests).containsExactly("HEAD /hook/s3cr3t-t0k3n");
+  }
+
+  @Test
+  void rejectsUsersWhoAreNotAdministrators() throws Exception {
+    CapturedResponse response = probe(USER, base() + "hook");
+
+    assertThat(response.status).isEqualTo(403);
+    assertThat(response.body()).contains("Insufficient privileges");
+    assertThat(requests).isEmpty();
+  }
+
+  @Test
+  void rejectsInvalidHooks() throws Exception {
+    CapturedResponse response = probe(ADMIN, "not a url");
+
+    assertThat(response.status).isEqualTo(400);
+    assertThat(requests).isEmpty();
+  }
+
+  @Test
+  void reportsInvalidRecentHostsWithTheOtherProbes() throws Exception {
+    Path recent = Files.createDirectories(dataDir.resolve("teams-notifier"))
+        .resolve("recent-hosts.txt");
+    Files.write(recent, Arrays.asList(base(), "bogus://hooks.example.com/"), UTF_8);
+
+    CapturedResponse response = probe(ADMIN, null);
+
+    assertThat(response.status).isEqualTo(200);
+    JsonArray probes = response.json().getAsJsonArray("probes");
+    assertThat(probes).hasSize(2);
+    JsonObject invalid = probes.get(0).getAsJsonObject();
+    assertThat(invalid.get("target").getAsString()).isEqualTo("bogus://hooks.example.com/");
+    assertThat(invalid.get("error").getAsString()).startsWith("Invalid host URL");
+    JsonObject probed = probes.get(1).getAsJsonObject();
+    assertThat(probed.get("target").getAsString()).isEqualTo(base());
+    assertThat(probed.get("status").getAsInt()).isEqualTo(204);
+    assertThat(requests).containsExactly("HEAD /");
+  }
+
+  private CapturedResponse probe(String user, String hook) throws Exception {
+    TeamsNotifierWebService webService = new TeamsNotifierWebService(new MapSettings()
+        .setProperty("sonar.path.data", dataDir.toString())
+        .asConfig(), new MetricCatalog());
+    SimpleGetRequest request = new SimpleGetRequest() {
+      @Override
+      public LocalConnector localConnector() {
+        return localRequest -> new JsonResponse(localRequest.getPath().endsWith("users/current")
+            ? user : "{}");
+      }
+    };
+    if (hook != null) {
+      request.setParam(TeamsNotifierWebService.PARAM_HOOK, hook);
+    }
+
+    CapturedResponse response = new CapturedResponse();
+    webService.handle(request, response);
+    return response;
+  }
+
+  private String base() {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+  }
+
+  private static final class JsonResponse implements LocalConnector.LocalResponse {
+
+    private final byte[] bytes;
+
+    JsonResponse(String body) {
+      this.bytes = body.getBytes(UTF_8);
+    }
+
+    @Override
+    public int getStatus() {
+      return 200;
+    }
+
+    @Override
+    public String getMediaType() {
+      return "application/json";
+    }
+
+    @Override
+    public byte[] getBytes() {
+      return bytes;
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public String getHeader(String name) {
+      return null;
+    }
+  }
+
+  private static final class CapturedResponse implements Response, Response.Stream {
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    private int status;
+
+    String body() {
+      return new String(output.toByteArray(), UTF_8);
+    }
+
+    JsonObject json() {
+      return new JsonParser().parse(body()).getAsJsonObject();
+    }
+
+    @Override
+    public JsonWriter newJsonWriter() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public XmlWriter newXmlWriter() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Response noContent() {
+      status = 204;
+      return this;
+    }
+
+    @Override
+    public Response setHeader(String name, String value) {
+      return this;
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public String getHeader(String name) {
+      return null;
+    }
+
+    @Override
+    public Stream stream() {
+      return this;
+    }
+
+    @Override
+    public Stream setMediaType(String mediaType) {
+      return this;
+    }
+
+    @Override
+    public Stream setStatus(int status) {
+      this.status = status;
+      return this;
+    }
+
+    @Override
+    public OutputStream output() {
+      return output;
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.sonar.api.ce.posttask.Branch;
+import org.sonar.api.ce.posttask.PostProjectAnalysisTask.ProjectAnalysis;
+import org.sonar.api.ce.posttask.Project;
+import org.sonar.api.ce.posttask.QualityGate;
+
+/**
+ * Builds project analyses for tests, without a running Compute Engine.
+ */
+final class TestAnalyses {
+
+  private TestAnalyses() {
+  }
+
+  /**
+   * Builds the snapshot of an analysis of the main branch.
+   */
+  static AnalysisSnapshot main(QualityGate.Status status, QualityGate.Condition... conditions) {
+    return snapshot("proj", "main", true, Branch.Type.LONG, status, conditions);
+  }
+
+  /**
+   * Builds the snapshot of an analysis.
+   */
+  static AnalysisSnapshot snapshot(
+      String projectKey,
+      String branchName,
+      boolean main,
+      Branch.Type branchType,
+      QualityGate.Status status,
+      QualityGate.Condition... conditions
+  ) {
+    Map<String, Object> project = new HashMap<>();
+    project.put("getKey", projectKey);
+    project.put("getName", "Project " + projectKey);
+    Map<String, Object> branch = new HashMap<>();
+    branch.put("getName", Optional.of(branchName));
+    branch.put("isMain", main);
+    branch.put("getType", branchType);
+    Map<String, Object> gate = new HashMap<>();
+    gate.put("getName", "Sonar way");
+    gate.put("getStatus", status);
+    gate.put("getConditions", Arrays.asList(conditions));
+    Map<String, Object> analysis = new HashMap<>();
+    analysis.put("getProject", proxy(Project.class, project));
+    analysis.put("getBranch", Optional.of(proxy(Branch.class, branch)));
+    analysis.put("getQualityGate", proxy(QualityGate.class, gate));
+    analysis.put("getDate", new Date(0));
+    analysis.put("getScmRevisionId", "abc123");
+    return AnalysisSnapshot.of(proxy(ProjectAnalysis.class, analysis));
+  }
+
+  /**
+   * Builds a quality gate condition.
+   */
+  static QualityGate.Condition condition(
+      String metricKey, QualityGate.EvaluationStatus status, String value) {
+    Map<String, Object> condition = new HashMap<>();
+    condition.put("getMetricKey", metricKey);
+    condition.put("getStatus", status);
+    condition.put("getOperator", QualityGate.Operator.LESS_THAN);
+    condition.put("getErrorThreshold", "80");
+    condition.put("getValue", value);
+    return proxy(QualityGate.Condition.class, condition);
+  }
+
+  private static <T> T proxy(Class<T> type, Map<String, Object> values) {
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+        (proxy, method, args) -> {
+          if (values.containsKey(method.getName())) {
+            return values.get(method.getName());
+          }
+
+          if (method.getReturnType() == Optional.class) {
+            return Optional.empty();
+          }
+
+          return method.getReturnType() == boolean.class ? false : null;
+        }));
+  }
+}
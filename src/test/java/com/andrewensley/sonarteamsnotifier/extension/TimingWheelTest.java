@@ -0,0 +1,175 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TimingWheelTest {
+
+  private static final long TICK = 10;
+
+  /**
+   * Runs each action on a thread of its own.
+   */
+  private static final Executor THREADS = action -> new Thread(action).start();
+
+  private final List<String> ran = new CopyOnWriteArrayList<>();
+
+  private TimingWheel<String> wheel;
+
+  @AfterEach
+  void stopWheel() {
+    if (wheel != null) {
+      wheel.stop();
+    }
+  }
+
+  @Test
+  void runsActionsAfterTheirDelayAcrossTurns() throws InterruptedException {
+    // 8 buckets of 10 ms: a 250 ms delay takes 3 turns of the wheel.
+    wheel = start(THREADS);
+    CountDownLatch done = new CountDownLatch(1);
+    AtomicLong elapsed = new AtomicLong();
+    long start = System.nanoTime();
+
+    wheel.schedule("a", () -> {
+      elapsed.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      done.countDown();
+    }, 250, 1000);
+
+    assertThat(done.await(2, TimeUnit.SECONDS)).isTrue();
+    assertThat(elapsed.get()).isBetween(250L, 250 + TICK + 100);
+    assertThat(wheel.size()).isZero();
+  }
+
+  @Test
+  void replacesThePendingActionOfAKey() throws InterruptedException {
+    wheel = start(THREADS);
+    CountDownLatch done = new CountDownLatch(1);
+
+    assertThat(wheel.schedule("a", record("first"), 50, 1000)).isFalse();
+    assertThat(wheel.schedule("a", () -> {
+      ran.add("second");
+      done.countDown();
+    }, 50, 1000)).isTrue();
+    assertThat(wheel.size()).isEqualTo(1);
+
+    assertThat(done.await(2, TimeUnit.SECONDS)).isTrue();
+    TimeUnit.MILLISECONDS.sleep(100);
+    assertThat(ran).containsExactly("second");
+  }
+
+  @Test
+  void runsAKeyRescheduledOverAndOverByItsMaximumDelay() throws InterruptedException {
+    wheel = start(THREADS);
+    CountDownLatch done = new CountDownLatch(1);
+    AtomicLong elapsed = new AtomicLong();
+    long start = System.nanoTime();
+    Runnable action = () -> {
+      elapsed.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      done.countDown();
+    };
+
+    while (done.getCount() > 0 && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2)) {
+      wheel.schedule("a", action, 100, 200);
+      TimeUnit.MILLISECONDS.sleep(20);
+    }
+
+    assertThat(done.getCount()).isZero();
+    assertThat(elapsed.get()).isBetween(200L, 200 + TICK + 100);
+  }
+
+  @Test
+  void cancelsPendingActions() throws InterruptedException {
+    wheel = start(THREADS);
+    wheel.schedule("a", record("a"), 50, 1000);
+
+    assertThat(wheel.cancel("a")).isTrue();
+    assertThat(wheel.cancel("a")).isFalse();
+    assertThat(wheel.size()).isZero();
+    TimeUnit.MILLISECONDS.sleep(150);
+    assertThat(ran).isEmpty();
+  }
+
+  @Test
+  void returnsThePendingActionsWhenStopped() throws InterruptedException {
+    wheel = start(THREADS);
+    Runnable first = record("first");
+    Runnable second = record("second");
+    wheel.schedule("a", first, 60_000, 60_000);
+    wheel.schedule("b", second, 60_000, 60_000);
+
+    assertThat(wheel.stop()).containsExactlyInAnyOrder(first, second);
+    assertThat(wheel.size()).isZero();
+    TimeUnit.MILLISECONDS.sleep(50);
+    assertThat(ran).isEmpty();
+  }
+
+  @Test
+  void keepsTurningWhileAnActionIsSlow() throws InterruptedException {
+    wheel = start(THREADS);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(1);
+    AtomicLong elapsed = new AtomicLong();
+    long start = System.nanoTime();
+
+    wheel.schedule("slow", () -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, 20, 1000);
+    wheel.schedule("fast", () -> {
+      elapsed.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      done.countDown();
+    }, 60, 1000);
+
+    assertThat(done.await(2, TimeUnit.SECONDS)).isTrue();
+    release.countDown();
+    assertThat(elapsed.get()).isBetween(60L, 60 + TICK + 100);
+  }
+
+  @Test
+  void keepsTurningWhenTheExecutorRejectsAnAction() throws InterruptedException {
+    AtomicBoolean rejected = new AtomicBoolean();
+    wheel = start(action -> {
+      if (rejected.compareAndSet(false, true)) {
+        throw new RejectedExecutionException("full");
+      }
+
+      THREADS.execute(action);
+    });
+    CountDownLatch done = new CountDownLatch(1);
+
+    wheel.schedule("rejected", record("rejected"), 20, 1000);
+    wheel.schedule("accepted", () -> {
+      ran.add("accepted");
+      done.countDown();
+    }, 80, 1000);
+
+    assertThat(done.await(2, TimeUnit.SECONDS)).isTrue();
+    assertThat(rejected.get()).isTrue();
+    assertThat(ran).containsExactly("accepted");
+  }
+
+  private TimingWheel<String> start(Executor executor) {
+    TimingWheel<String> started = new TimingWheel<>("test-wheel", TICK, 8, executor);
+    started.start();
+    return started;
+  }
+
+  private Runnable record(String name) {
+    return () -> ran.add(name);
+  }
+}
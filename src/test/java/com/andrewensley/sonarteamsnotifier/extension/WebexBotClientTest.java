@@ -0,0 +1,138 @@
+package com.andrewensley.sonarteamsnotifier.extension;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.andrewensley.sonarteamsnotifier.domain.Constants;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.sonar.api.config.internal.MapSettings;
+
+class WebexBotClientTest {
+
+  private static final String TOKEN = "b0t-t0k3n";
+
+  private HttpServer server;
+
+  private HttpClientPool pool;
+
+  private WebexBotClient client;
+
+  private final List<String> requests = new CopyOnWriteArrayList<>();
+
+  private volatile String nextPage;
+
+  @BeforeEach
+  void startServer() throws Exception {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/v1/rooms", exchange -> {
+      requests.add("GET " + exchange.getRequestURI() + " "
+          + exchange.getRequestHeaders().getFirst("Authorization"));
+      if (exchange.getRequestURI().getQuery().contains("page=2")) {
+        json(exchange, "{\"items\":[{\"id\":\"room-2\",\"title\":\"Releases\"}]}");
+      } else {
+        exchange.getResponseHeaders().set("Link", "<" + nextPage + ">; rel=\"next\"");
+        json(exchange, "{\"items\":[{\"id\":\"room-1\",\"title\":\"Builds\"}]}");
+      }
+    });
+    server.createContext("/v1/messages", exchange -> {
+      requests.add("POST " + exchange.getRequestURI().getPath());
+      json(exchange, "{\"id\":\"message\"}");
+    });
+    server.setExecutor(null);
+    server.start();
+    nextPage = api() + "/rooms?max=1000&page=2";
+    pool = HttpClientPool.of(new MapSettings().asConfig(), SystemDefaultDnsResolver.INSTANCE);
+  }
+
+  @AfterEach
+  void stop() {
+    if (client != null) {
+      client.close();
+    }
+
+    pool.close();
+    server.stop(0);
+  }
+
+  @Test
+  void followsThePagesOfTheRoomListing() throws Exception {
+    client = client();
+    awaitRequests(2);
+
+    assertThat(requests).containsExactly(
+        "GET /v1/rooms?max=1000 Bearer " + TOKEN,
+        "GET /v1/rooms?max=1000&page=2 Bearer " + TOKEN);
+  }
+
+  @Test
+  void postsToCachedRoomsInASingleCall() throws Exception {
+    client = client();
+    awaitRequests(2);
+    requests.clear();
+
+    assertThat(client.post(api() + "/messages?room=Builds", payload())).isEqualTo(200);
+    assertThat(client.post(api() + "/messages?room=Releases", payload())).isEqualTo(200);
+
+    assertThat(requests).containsExactly("POST /v1/messages", "POST /v1/messages");
+  }
+
+  @Test
+  void doesNotFollowLinksToOtherHosts() throws Exception {
+    // The same server, under another name.
+    nextPage = "http://localhost:" + server.getAddress().getPort()
+        + "/v1/rooms?max=1000&page=2";
+    client = client();
+    awaitRequests(1);
+    TimeUnit.MILLISECONDS.sleep(200);
+
+    assertThat(requests).containsExactly("GET /v1/rooms?max=1000 Bearer " + TOKEN);
+    assertThatThrownBy(() -> client.post(api() + "/messages?room=Builds", payload()))
+        .isInstanceOf(IOException.class);
+  }
+
+  private WebexBotClient client() {
+    return WebexBotClient.of(new MapSettings()
+        .setProperty(Constants.BOT_TOKEN, TOKEN)
+        .setProperty(Constants.BOT_API_URL, api())
+        .asConfig(), () -> pool).get();
+  }
+
+  private String api() {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1";
+  }
+
+  private void awaitRequests(int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (requests.size() < count && System.nanoTime() < deadline) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+  }
+
+  private static Payload payload() {
+    return new Payload(MessageFormat.WEBEX, "Quality gate failed");
+  }
+
+  private static void json(HttpExchange exchange, String body) throws IOException {
+    byte[] bytes = body.getBytes(UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(200, bytes.length);
+    try (OutputStream output = exchange.getResponseBody()) {
+      output.write(bytes);
+    }
+  }
+}